@@ -16,6 +16,7 @@
 package de.bmarwell.jdyninwx.app;
 
 import de.bmarwell.jdyninwx.app.InwxUpdater.GlobalDefaultValueProvider;
+import de.bmarwell.jdyninwx.app.commands.Daemon;
 import de.bmarwell.jdyninwx.app.commands.Ip;
 import de.bmarwell.jdyninwx.app.commands.List;
 import de.bmarwell.jdyninwx.app.commands.Status;
@@ -42,7 +43,7 @@ import picocli.CommandLine.Spec;
  */
 @Command(
         name = "jdynsinwx",
-        subcommands = {Ip.class, List.class, Update.class, Status.class, CommandLine.HelpCommand.class},
+        subcommands = {Ip.class, List.class, Update.class, Daemon.class, Status.class, CommandLine.HelpCommand.class},
         description = "Updates inwx resource records or displays their current state.",
         defaultValueProvider = GlobalDefaultValueProvider.class,
         usageHelpAutoWidth = true)
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.app.commands;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntSupplier;
+
+/**
+ * Runs the IPv4 and the IPv6 pipeline (detect, then update or show) of a command at the same time.
+ *
+ * <p>Both families use their own connection pools and resolvers, so a slow or broken path of one family does not
+ * delay the other one.</p>
+ */
+final class AddressFamilyPipelines {
+
+    private AddressFamilyPipelines() {
+        // utility class
+    }
+
+    /**
+     * Runs both pipelines concurrently and waits for both of them.
+     *
+     * <p>If a pipeline throws, the other one still runs to completion before the exception is rethrown.</p>
+     *
+     * @param ipv4Pipeline the IPv4 pipeline, run on the calling thread.
+     * @param ipv6Pipeline the IPv6 pipeline, run on a separate thread.
+     * @return the exit codes of both pipelines, combined with a bitwise or.
+     */
+    static int runConcurrently(IntSupplier ipv4Pipeline, IntSupplier ipv6Pipeline) {
+        final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jdyninwx-ipv6");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            final Future<Integer> ipv6 = executor.submit(ipv6Pipeline::getAsInt);
+
+            final int rcIpv4;
+            try {
+                rcIpv4 = ipv4Pipeline.getAsInt();
+            } catch (RuntimeException ipv4Exception) {
+                try {
+                    await(ipv6);
+                } catch (RuntimeException ipv6Exception) {
+                    ipv4Exception.addSuppressed(ipv6Exception);
+                }
+                throw ipv4Exception;
+            }
+
+            return rcIpv4 | await(ipv6);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static int await(Future<Integer> pipeline) {
+        try {
+            return pipeline.get();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            pipeline.cancel(true);
+            throw new IllegalStateException("Interrupted while waiting for the IPv6 pipeline.", interruptedException);
+        } catch (ExecutionException executionException) {
+            if (executionException.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (executionException.getCause() instanceof Error error) {
+                throw error;
+            }
+
+            throw new IllegalStateException(executionException.getCause());
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.app.commands;
+
+import de.bmarwell.jdyninwx.app.InwxUpdater;
+import de.bmarwell.jdyninwx.app.settings.InwxSettings;
+import de.bmarwell.jdyninwx.app.update.AdaptivePollInterval;
+import de.bmarwell.jdyninwx.app.update.PublishedRecordState;
+import de.bmarwell.jdyninwx.lib.metrics.MetricsRegistry;
+import de.bmarwell.jdyninwx.lib.metrics.PrometheusHttpServer;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
+import picocli.CommandLine.ParentCommand;
+import picocli.CommandLine.Spec;
+
+/**
+ * Keeps running and updates the records periodically, instead of being started by cron for every update.
+ *
+ * <p>Settings, HTTP connections and the API session are kept between cycles. The records last published are kept
+ * in memory, or in the state file if one is configured, so a cycle without a changed address only costs the address
+ * detection. The interval between cycles adapts, see {@link AdaptivePollInterval}.</p>
+ *
+ * <p>On SIGTERM (or any other JVM shutdown), no further cycle is started, a running cycle is allowed to finish, and
+ * all connections are closed.</p>
+ */
+@Command(
+        name = "daemon",
+        description = "Keeps running and updates the inwx resource records whenever the public address changes.")
+public class Daemon implements Callable<Integer> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Daemon.class);
+
+    /**
+     * How long a shutdown waits for a running cycle.
+     */
+    private static final Duration SHUTDOWN_GRACE_PERIOD = Duration.ofSeconds(30L);
+
+    @Option(
+            names = "--min-interval",
+            description = "seconds between two cycles after a change or failure",
+            defaultValue = "60")
+    long minIntervalSeconds;
+
+    @Option(
+            names = "--max-interval",
+            description = "maximum seconds between two cycles while the address is stable",
+            defaultValue = "900")
+    long maxIntervalSeconds;
+
+    @ParentCommand
+    private InwxUpdater parent;
+
+    @Spec
+    CommandSpec spec;
+
+    @Override
+    public Integer call() throws InterruptedException {
+        validateIntervals();
+        final InwxSettings settings = parent.getSettings();
+        final AdaptivePollInterval pollInterval = new AdaptivePollInterval(
+                Duration.ofSeconds(minIntervalSeconds), Duration.ofSeconds(maxIntervalSeconds));
+        final PublishedRecordState publishedRecordState = settings.inwxUpdateStateFile()
+                .map(stateFile -> PublishedRecordState.load(stateFile, settings.inwxUpdateStateMaxAge()))
+                .orElseGet(() -> PublishedRecordState.inMemory(settings.inwxUpdateStateMaxAge()));
+
+        LOG.info("called with: " + settings);
+
+        final PrometheusHttpServer metricsServer;
+        try {
+            metricsServer = startMetricsServer(settings);
+        } catch (IOException ioException) {
+            LOG.error("Unable to start the metrics endpoint on [{}].", settings.metricsHttpAddress(), ioException);
+            return 2;
+        }
+
+        final ScheduledThreadPoolExecutor scheduler = newScheduler();
+        final CountDownLatch closed = new CountDownLatch(1);
+        final Thread shutdownHook = new Thread(
+                () -> {
+                    LOG.info("Shutting down.");
+                    scheduler.shutdown();
+                    try {
+                        closed.await(SHUTDOWN_GRACE_PERIOD.toMillis(), TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException interruptedException) {
+                        Thread.currentThread().interrupt();
+                    }
+                },
+                "jdyninwx-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        try (metricsServer;
+                UpdateCycle updateCycle = new UpdateCycle(settings, publishedRecordState)) {
+            return runCycles(scheduler, pollInterval, () -> runCycle(updateCycle));
+        } finally {
+            scheduler.shutdownNow();
+            closed.countDown();
+            removeShutdownHook(shutdownHook);
+        }
+    }
+
+    private void validateIntervals() {
+        if (minIntervalSeconds < 1L) {
+            throw new ParameterException(
+                    spec.commandLine(), "--min-interval must be at least 1 second, but was: " + minIntervalSeconds);
+        }
+        if (maxIntervalSeconds < minIntervalSeconds) {
+            throw new ParameterException(
+                    spec.commandLine(),
+                    "--max-interval must not be less than --min-interval [%d], but was: %d"
+                            .formatted(minIntervalSeconds, maxIntervalSeconds));
+        }
+    }
+
+    static ScheduledThreadPoolExecutor newScheduler() {
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "jdyninwx-daemon");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // a pending cycle must not delay the shutdown.
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+        return scheduler;
+    }
+
+    /**
+     * Runs cycles until the scheduler is shut down.
+     *
+     * <p>A cycle throwing an exception counts as failed, so the next one follows after the minimum interval. An
+     * {@link Error} shuts the scheduler down instead, so that the process exits rather than living on without
+     * updating the records.</p>
+     *
+     * @param scheduler the scheduler to run the cycles on.
+     * @param pollInterval the interval between two cycles.
+     * @param cycle runs a single cycle, returning {@code true} if it changed a record or failed.
+     * @return {@code 0} after a shutdown, {@code 1} after an error.
+     * @throws InterruptedException if interrupted while waiting for the shutdown.
+     */
+    static int runCycles(
+            ScheduledThreadPoolExecutor scheduler, AdaptivePollInterval pollInterval, BooleanSupplier cycle)
+            throws InterruptedException {
+        final AtomicReference<Error> fatalError = new AtomicReference<>();
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                Duration next;
+                try {
+                    next = pollInterval.next(cycle.getAsBoolean());
+                } catch (Exception exception) {
+                    LOG.error("Update cycle failed.", exception);
+                    next = pollInterval.minimum();
+                } catch (Error error) {
+                    LOG.error("Update cycle failed fatally, shutting down.", error);
+                    fatalError.set(error);
+                    scheduler.shutdown();
+                    return;
+                }
+
+                try {
+                    scheduler.schedule(this, next.toMillis(), TimeUnit.MILLISECONDS);
+                    LOG.info("Next update in [{}].", next);
+                } catch (RejectedExecutionException shuttingDown) {
+                    // no further cycles.
+                }
+            }
+        });
+
+        while (!scheduler.awaitTermination(1L, TimeUnit.DAYS)) {
+            // keep waiting until the shutdown hook stops the scheduler.
+        }
+
+        return fatalError.get() == null ? 0 : 1;
+    }
+
+    /**
+     * Serves the metrics of all cycles for Prometheus, if an address is configured.
+     *
+     * @return the running server, or {@code null} if none is configured.
+     */
+    private static PrometheusHttpServer startMetricsServer(InwxSettings settings) throws IOException {
+        if (settings.metricsHttpAddress().isEmpty()) {
+            return null;
+        }
+
+        final PrometheusHttpServer metricsServer =
+                PrometheusHttpServer.start(settings.metricsHttpAddress().orElseThrow(), MetricsRegistry.shared());
+        LOG.info("Serving metrics on [{}{}].", metricsServer.getAddress(), PrometheusHttpServer.PATH);
+
+        return metricsServer;
+    }
+
+    /**
+     * Runs a single cycle.
+     *
+     * @return {@code true} if the cycle changed a record or failed.
+     */
+    private static boolean runCycle(UpdateCycle updateCycle) {
+        final int returnCode = updateCycle.run();
+        if (returnCode != 0) {
+            LOG.warn("Update cycle finished with return code [{}].", returnCode);
+        }
+
+        return returnCode != 0 || updateCycle.hasChangedRecords();
+    }
+
+    private static void removeShutdownHook(Thread shutdownHook) {
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException shutdownInProgress) {
+            // the hook is already running.
+        }
+    }
+}
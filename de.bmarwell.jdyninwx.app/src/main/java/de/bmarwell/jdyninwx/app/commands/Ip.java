@@ -17,6 +17,7 @@ package de.bmarwell.jdyninwx.app.commands;
 
 import de.bmarwell.jdyninwx.app.InwxUpdater;
 import de.bmarwell.jdyninwx.lib.services.ApacheHttpClientIpAddressService;
+import de.bmarwell.jdyninwx.lib.services.CircuitBreakerRegistry;
 import de.bmarwell.jdyninwx.lib.services.InwxQueryService;
 import de.bmarwell.jdyninwx.lib.services.Result;
 import java.net.Inet4Address;
@@ -64,18 +65,37 @@ public class Ip implements Callable<Integer> {
     @Override
     public Integer call() {
         inwxQueryService = new ApacheHttpClientIpAddressService()
+                .withIdentStatisticsFile(
+                        parent.getSettings().identStatisticsFile().orElse(null))
+                .withIdentRequestBudget(parent.getSettings().identRequestBudgetPerHour())
                 .withConnectTimeout(parent.getSettings().identConnectTimeout())
-                .withRequestTimeout(parent.getSettings().identRequestTimeout());
-
-        if (!noIpv4) {
-            showIpv4Results();
-        }
-
-        if (!noIpv6) {
-            showIpv6Results();
+                .withRequestTimeout(parent.getSettings().identRequestTimeout())
+                .withIdentQueryStrategy(parent.getSettings().identQueryStrategy())
+                .withLocalAddressDetection(
+                        parent.getSettings().identLocalAddressRules().orElse(null))
+                // circuits live in memory, so they only fail fast within this run; only the daemon keeps them.
+                .withCircuitBreakerRegistry(
+                        new CircuitBreakerRegistry(parent.getSettings().circuitBreakerSettings()))
+                .withRetrySettings(parent.getSettings().retrySettings());
+
+        try (InwxQueryService queryService = inwxQueryService) {
+            return AddressFamilyPipelines.runConcurrently(
+                    () -> {
+                        if (!noIpv4) {
+                            showIpv4Results();
+                        }
+                        return 0;
+                    },
+                    () -> {
+                        if (!noIpv6) {
+                            showIpv6Results();
+                        }
+                        return 0;
+                    });
+        } finally {
+            // the resolver latencies of cron runs are only visible through the textfile.
+            UpdateCycle.writeMetricsTextFile(parent.getSettings());
         }
-
-        return 0;
     }
 
     private void showIpv4Results() {
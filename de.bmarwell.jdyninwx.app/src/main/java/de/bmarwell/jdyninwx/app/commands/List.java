@@ -18,11 +18,17 @@ package de.bmarwell.jdyninwx.app.commands;
 import de.bmarwell.jdyninwx.app.InwxUpdater;
 import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
 import de.bmarwell.jdyninwx.lib.services.ApacheHttpClientIpAddressService;
+import de.bmarwell.jdyninwx.lib.services.CircuitBreakerRegistry;
 import de.bmarwell.jdyninwx.lib.services.InwxQueryService;
+import de.bmarwell.jdyninwx.lib.services.InwxResponse;
 import de.bmarwell.jdyninwx.lib.services.InwxUpdateService;
+import de.bmarwell.jdyninwx.lib.services.RateLimiterRegistry;
 import de.bmarwell.jdyninwx.lib.services.Result;
-import java.net.URI;
+import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
@@ -38,6 +44,12 @@ public class List implements Callable<Integer> {
     @CommandLine.Parameters(index = "0", description = "domain name", defaultValue = "*")
     String domainName;
 
+    @CommandLine.Option(
+            names = "--page-size",
+            description = "number of records fetched per request, or 0 to fetch all records in one request",
+            defaultValue = "500")
+    int pageSize;
+
     @CommandLine.ParentCommand
     private InwxUpdater parent;
 
@@ -47,29 +59,92 @@ public class List implements Callable<Integer> {
     public Integer call() throws Exception {
         final InwxUpdateService.InwxCredentials inwxCredentials =
                 parent.getSettings().getCredentials();
-        URI defaultApiEndpoint = parent.getSettings()
-                .inwxApiEndpoint()
-                .orElseGet(() -> new ApacheHttpClientIpAddressService().getApiEndpoint());
-
+        // services use the registry shared by the JVM, so all of them take their tokens from the same bucket.
+        parent.getSettings().inwxRateLimit().ifPresent(rateLimit -> RateLimiterRegistry.shared()
+                .configure(
+                        parent.getSettings().inwxApiEndpointOrDefault(),
+                        parent.getSettings().inwxUserName(),
+                        rateLimit));
         inwxQueryService = new ApacheHttpClientIpAddressService()
                 .withConnectTimeout(parent.getSettings().identConnectTimeout())
                 .withRequestTimeout(parent.getSettings().identRequestTimeout())
                 .withCredentials(inwxCredentials)
-                .withApiEndpoint(parent.getSettings().inwxApiEndpoint().orElse(defaultApiEndpoint));
-
-        Result<java.util.List<InwxNameServerRecord>> records = inwxQueryService.listAllNameServerRecords(domainName);
-
-        for (InwxNameServerRecord record : records.success()) {
-            LOG.info(
-                    "{} :: {} :: {} :: {} :: {} :: {}",
-                    record.recordId().value(),
-                    record.recordType(),
-                    record.name(),
-                    record.content(),
-                    record.ttl(),
-                    record.prio());
+                .withApiProtocol(parent.getSettings().inwxApiProtocol())
+                .withApiEndpoint(parent.getSettings().inwxApiEndpointOrDefault())
+                .withSessionLogin(parent.getSettings().inwxSessionLogin())
+                .withSessionFile(parent.getSettings().inwxSessionFile().orElse(null))
+                // circuits live in memory, so they only fail fast within this run; only the daemon keeps them.
+                .withCircuitBreakerRegistry(
+                        new CircuitBreakerRegistry(parent.getSettings().circuitBreakerSettings()))
+                .withRetrySettings(parent.getSettings().retrySettings());
+
+        if (pageSize < 0) {
+            LOG.error("The page size must not be negative, but was [{}].", pageSize);
+            return 2;
+        }
+
+        final Optional<Throwable> error;
+        try (InwxQueryService queryService = inwxQueryService) {
+            if (pageSize == 0) {
+                // records are logged while the response is being read, so large zones are never held in memory.
+                final Result<InwxResponse> response =
+                        queryService.listAllNameServerRecords(domainName, List::logRecord);
+                error = Optional.ofNullable(response.error());
+            } else {
+                error = logAllPages(queryService.publishNameServerRecords(domainName, pageSize));
+            }
+        }
+
+        if (error.isPresent()) {
+            LOG.error("Unable to list records of [{}].", domainName, error.orElseThrow());
+            return 1;
         }
 
         return 0;
     }
+
+    private static Optional<Throwable> logAllPages(Flow.Publisher<InwxNameServerRecord> publisher) {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        // logging keeps up with any page size, so all records are requested at once; the publisher still only
+        // fetches one page ahead.
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(InwxNameServerRecord record) {
+                logRecord(record);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+
+        try {
+            done.join();
+            return Optional.empty();
+        } catch (CompletionException completionException) {
+            return Optional.of(completionException.getCause());
+        }
+    }
+
+    private static void logRecord(InwxNameServerRecord record) {
+        LOG.info(
+                "{} :: {} :: {} :: {} :: {} :: {}",
+                record.recordId().value(),
+                record.recordType(),
+                record.name(),
+                record.content(),
+                record.ttl(),
+                record.prio());
+    }
 }
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.app.commands;
+
+import de.bmarwell.jdyninwx.app.settings.InwxSettings;
+import de.bmarwell.jdyninwx.app.settings.InwxSettings.RecordConfiguration;
+import de.bmarwell.jdyninwx.app.update.PublishedRecordState;
+import de.bmarwell.jdyninwx.app.update.RecordUpdateEngine;
+import de.bmarwell.jdyninwx.app.update.RecordUpdateOutcome;
+import de.bmarwell.jdyninwx.lib.metrics.Counter;
+import de.bmarwell.jdyninwx.lib.metrics.MetricsRegistry;
+import de.bmarwell.jdyninwx.lib.metrics.PrometheusTextFile;
+import de.bmarwell.jdyninwx.lib.services.ApacheHttpClientIpAddressService;
+import de.bmarwell.jdyninwx.lib.services.ApacheHttpClientStaticInwxUpdateService;
+import de.bmarwell.jdyninwx.lib.services.CircuitBreakerRegistry;
+import de.bmarwell.jdyninwx.lib.services.HttpClientRegistry;
+import de.bmarwell.jdyninwx.lib.services.InwxQueryService;
+import de.bmarwell.jdyninwx.lib.services.InwxUpdateService;
+import de.bmarwell.jdyninwx.lib.services.RateLimiterRegistry;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single detect-and-update cycle of all configured records.
+ *
+ * <p>The HTTP clients, services and the published record state live as long as this instance, so repeated cycles
+ * reuse warm connections and an existing API session.</p>
+ */
+final class UpdateCycle implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UpdateCycle.class);
+    static final int RC_NO_IPV4_ADDRESS = 1;
+    static final int RC_NO_IPV6_ADDRESS = 2;
+    static final int RC_UPDATE_IPV4_FAILED = 4;
+    static final int RC_UPDATE_IPV6_FAILED = 8;
+
+    static final String RECORD_UPDATES = "jdyninwx_record_updates_total";
+    static final String CYCLE_DURATION = "jdyninwx_update_cycle_duration_seconds";
+    static final String LAST_SUCCESS = "jdyninwx_update_cycle_last_success_timestamp_seconds";
+
+    private final InwxSettings settings;
+    private final HttpClientRegistry httpClientRegistry;
+    private final InwxQueryService inwxQueryService;
+    private final InwxUpdateService inwxUpdateService;
+    private final RecordUpdateEngine recordUpdateEngine;
+    private final PublishedRecordState publishedRecordState;
+
+    private volatile boolean changedRecords = false;
+
+    /**
+     * Creates the services for the given settings.
+     *
+     * @param settings the settings to use.
+     * @param publishedRecordState the state to skip records with, or {@code null} to always update all records.
+     */
+    UpdateCycle(InwxSettings settings, PublishedRecordState publishedRecordState) {
+        this.settings = settings;
+        this.publishedRecordState = publishedRecordState;
+
+        // one registry for both services, so all record updates share a single keep-alive connection to the API,
+        // and both services share a single session.
+        this.httpClientRegistry = new HttpClientRegistry(
+                settings.identConnectTimeout(), settings.identRequestTimeout(), Duration.ofSeconds(30L));
+        final CircuitBreakerRegistry circuitBreakerRegistry =
+                new CircuitBreakerRegistry(settings.circuitBreakerSettings());
+        // services use the registry shared by the JVM, so all of them take their tokens from the same bucket.
+        settings.inwxRateLimit().ifPresent(rateLimit -> RateLimiterRegistry.shared()
+                .configure(settings.inwxApiEndpointOrDefault(), settings.inwxUserName(), rateLimit));
+        final InwxUpdateService.InwxCredentials inwxCredentials = settings.getCredentials();
+        // also reads the current records, so that records which are already up to date are not written again.
+        this.inwxQueryService = new ApacheHttpClientIpAddressService()
+                .withIdentStatisticsFile(settings.identStatisticsFile().orElse(null))
+                .withIdentRequestBudget(settings.identRequestBudgetPerHour())
+                .withIdentQueryStrategy(settings.identQueryStrategy())
+                .withLocalAddressDetection(settings.identLocalAddressRules().orElse(null))
+                .withCredentials(inwxCredentials)
+                .withApiProtocol(settings.inwxApiProtocol())
+                .withApiEndpoint(settings.inwxApiEndpointOrDefault())
+                .withSessionLogin(settings.inwxSessionLogin())
+                .withSessionFile(settings.inwxSessionFile().orElse(null))
+                .withHttpClientRegistry(httpClientRegistry)
+                .withCircuitBreakerRegistry(circuitBreakerRegistry)
+                .withRetrySettings(settings.retrySettings());
+        this.inwxUpdateService = new ApacheHttpClientStaticInwxUpdateService()
+                .withMulticallBatchSize(settings.inwxUpdateBatchSize())
+                .withCredentials(inwxCredentials)
+                .withApiProtocol(settings.inwxApiProtocol())
+                .withApiEndpoint(settings.inwxApiEndpointOrDefault())
+                .withSessionLogin(settings.inwxSessionLogin())
+                .withSessionFile(settings.inwxSessionFile().orElse(null))
+                .withHttpClientRegistry(httpClientRegistry)
+                .withCircuitBreakerRegistry(circuitBreakerRegistry)
+                .withRetrySettings(settings.retrySettings());
+        this.recordUpdateEngine = new RecordUpdateEngine(
+                inwxUpdateService,
+                inwxQueryService,
+                settings.inwxUpdateConcurrency(),
+                settings.inwxUpdateBatchSize() > 1);
+        // TODO: default TTL
+    }
+
+    /**
+     * Detects the public addresses and updates the records of both address families, then saves the published
+     * record state.
+     *
+     * @return the combined exit codes of both address families, {@code 0} on success.
+     */
+    int run() {
+        this.changedRecords = false;
+        recordUpdateEngine.startCycle();
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final int returnCode =
+                    AddressFamilyPipelines.runConcurrently(this::updateIpv4Records, this::updateIpv6Records);
+            success = returnCode == 0;
+            return returnCode;
+        } finally {
+            savePublishedRecordState();
+            recordCycle(success, start);
+        }
+    }
+
+    /**
+     * Whether the last {@link #run()} wrote at least one record.
+     *
+     * @return {@code true} if a record was changed.
+     */
+    boolean hasChangedRecords() {
+        return this.changedRecords;
+    }
+
+    @Override
+    public void close() {
+        try {
+            inwxQueryService.close();
+            inwxUpdateService.close();
+        } finally {
+            // shared by both services, so it is closed last.
+            httpClientRegistry.close();
+        }
+    }
+
+    /**
+     * Updates all records which were not already published with the given address, see {@link PublishedRecordState}.
+     * If all records were, the API is not called at all.
+     */
+    private List<RecordUpdateOutcome> publish(List<RecordConfiguration> records, InetAddress address) {
+        if (publishedRecordState == null) {
+            return recordUpdateEngine.updateAll(records, address);
+        }
+
+        final List<RecordConfiguration> pending = records.stream()
+                .filter(record -> !publishedRecordState.isPublished(record, address))
+                .toList();
+        if (pending.isEmpty()) {
+            return records.stream().map(RecordUpdateOutcome::unchanged).toList();
+        }
+
+        final List<RecordUpdateOutcome> updated = recordUpdateEngine.updateAll(pending, address);
+        publishedRecordState.recordPublished(updated, address);
+        final Iterator<RecordUpdateOutcome> updatedIterator = updated.iterator();
+
+        return records.stream()
+                .map(record ->
+                        pending.contains(record) ? updatedIterator.next() : RecordUpdateOutcome.unchanged(record))
+                .toList();
+    }
+
+    private void savePublishedRecordState() {
+        if (publishedRecordState == null) {
+            return;
+        }
+
+        try {
+            publishedRecordState.save();
+        } catch (IOException | RuntimeException exception) {
+            // the state file is only an optimization; the next invocation will just call the API again.
+            LOG.warn("Unable to save the published record state.", exception);
+        }
+    }
+
+    /**
+     * Records the cycle and, if configured, writes all metrics for the node_exporter, so that cron runs are visible
+     * as well.
+     */
+    private void recordCycle(boolean success, long startNanos) {
+        final MetricsRegistry metrics = MetricsRegistry.shared();
+        metrics.histogram(CYCLE_DURATION, "Duration of the update cycles.", "outcome")
+                .labels(MetricsRegistry.outcome(success))
+                .recordSince(startNanos);
+        if (success) {
+            metrics.gauge(LAST_SUCCESS, "Time of the last update cycle without failures.")
+                    .labels()
+                    .setToCurrentTime(Clock.systemUTC());
+        }
+
+        writeMetricsTextFile(settings);
+    }
+
+    /**
+     * Writes all metrics of the JVM to the textfile of the node_exporter, if one is configured.
+     *
+     * @param settings the settings containing the textfile.
+     */
+    static void writeMetricsTextFile(InwxSettings settings) {
+        settings.metricsTextFile().ifPresent(textFile -> {
+            try {
+                PrometheusTextFile.write(textFile, MetricsRegistry.shared());
+            } catch (IOException | RuntimeException exception) {
+                LOG.warn("Unable to write the metrics to [{}].", textFile, exception);
+            }
+        });
+    }
+
+    private int updateIpv4Records() {
+        if (settings.ipv4UpdateRecords().isEmpty()) {
+            LOG.info("Skipping IPv4 records update, no IPv4 records defined.");
+            return 0;
+        }
+
+        return doUpdateIpv4Records();
+    }
+
+    private int updateIpv6Records() {
+        if (settings.ipv6UpdateRecords().isEmpty()) {
+            LOG.info("Skipping IPv6 records update, no IPv6 records defined.");
+            return 0;
+        }
+
+        return doUpdateIpv6Records();
+    }
+
+    private int doUpdateIpv4Records() {
+        List<URI> ipv4resolvers = settings.identPoolIpv4();
+        if (ipv4resolvers.isEmpty()) {
+            throw new IllegalStateException("Cannot update ipv4 records, no IPv4 resolvers defined!");
+        }
+        Optional<Inet4Address> inet4Address = inwxQueryService.getFirstResolvedInet4Address(ipv4resolvers);
+        if (inet4Address.isEmpty()) {
+            return RC_NO_IPV4_ADDRESS;
+        }
+
+        Inet4Address publicInet4Address = inet4Address.orElseThrow();
+        LOG.info("Public IPv4 address: [" + publicInet4Address.getHostAddress() + "].");
+
+        final List<RecordUpdateOutcome> outcomes = publish(settings.ipv4UpdateRecords(), publicInet4Address);
+
+        if (logOutcomes("IPv4", outcomes)) {
+            return 0;
+        } else {
+            return RC_UPDATE_IPV4_FAILED;
+        }
+    }
+
+    private int doUpdateIpv6Records() {
+        List<URI> ipv6resolvers = settings.identPoolIpv6();
+        if (ipv6resolvers.isEmpty()) {
+            throw new IllegalStateException("Cannot update IPv6 records, no IPv6 resolvers defined!");
+        }
+        Optional<Inet6Address> inet6Address = inwxQueryService.getFirstResolvedInet6Address(ipv6resolvers);
+        if (inet6Address.isEmpty()) {
+            return RC_NO_IPV6_ADDRESS;
+        }
+
+        Inet6Address publicInet6Address = inet6Address.orElseThrow();
+        LOG.info("Public IPv6 address: [" + publicInet6Address.getHostAddress() + "].");
+
+        final List<RecordUpdateOutcome> outcomes = publish(settings.ipv6UpdateRecords(), publicInet6Address);
+
+        if (logOutcomes("IPv6", outcomes)) {
+            return 0;
+        } else {
+            return RC_UPDATE_IPV6_FAILED;
+        }
+    }
+
+    /**
+     * Logs the outcome of each record.
+     *
+     * @return {@code true} if all records were updated successfully.
+     */
+    private boolean logOutcomes(String ipFamily, List<RecordUpdateOutcome> outcomes) {
+        boolean allSuccessful = true;
+        final MetricsRegistry.Family<Counter> recordUpdates = MetricsRegistry.shared()
+                .counter(RECORD_UPDATES, "Record updates per address family and outcome.", "family", "outcome");
+
+        for (RecordUpdateOutcome outcome : outcomes) {
+            recordUpdates.labels(ipFamily, outcomeOf(outcome)).increment();
+            if (outcome.unchanged()) {
+                LOG.info("%s record %s is already up to date."
+                        .formatted(ipFamily, outcome.record().recordId()));
+            } else if (outcome.isSuccess()) {
+                this.changedRecords = true;
+                LOG.info("Updated %s record %s successfully. Response: %s."
+                        .formatted(ipFamily, outcome.record().recordId(), outcome.response()));
+            } else {
+                allSuccessful = false;
+                LOG.error(
+                        "Update %s record %s not successful: %s."
+                                .formatted(
+                                        ipFamily,
+                                        outcome.record().recordId(),
+                                        outcome.error().getMessage()),
+                        outcome.error());
+            }
+        }
+
+        return allSuccessful;
+    }
+
+    private static String outcomeOf(RecordUpdateOutcome outcome) {
+        if (outcome.unchanged()) {
+            return "unchanged";
+        }
+
+        if (outcome.isSuccess()) {
+            return "updated";
+        } else {
+            return "failed";
+        }
+    }
+}
@@ -16,8 +16,16 @@
 package de.bmarwell.jdyninwx.app.settings;
 
 import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import de.bmarwell.jdyninwx.lib.services.CircuitBreakerSettings;
+import de.bmarwell.jdyninwx.lib.services.IdentQueryStrategy;
+import de.bmarwell.jdyninwx.lib.services.InwxApiProtocol;
 import de.bmarwell.jdyninwx.lib.services.InwxUpdateService;
+import de.bmarwell.jdyninwx.lib.services.LocalAddressRules;
+import de.bmarwell.jdyninwx.lib.services.RateLimiterSettings;
+import de.bmarwell.jdyninwx.lib.services.RetrySettings;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
@@ -27,12 +35,37 @@ public record InwxSettings(
         String inwxUserName,
         char[] inwxPassword,
         Optional<URI> inwxApiEndpoint,
+        InwxApiProtocol inwxApiProtocol,
         List<RecordConfiguration> ipv4UpdateRecords,
         List<RecordConfiguration> ipv6UpdateRecords,
         List<URI> identPoolIpv4,
         List<URI> identPoolIpv6,
         Duration identConnectTimeout,
-        Duration identRequestTimeout) {
+        Duration identRequestTimeout,
+        IdentQueryStrategy identQueryStrategy,
+        int inwxUpdateConcurrency,
+        int inwxUpdateBatchSize,
+        boolean inwxSessionLogin,
+        Optional<Path> inwxSessionFile,
+        CircuitBreakerSettings circuitBreakerSettings,
+        Optional<Path> identStatisticsFile,
+        int identRequestBudgetPerHour,
+        Optional<Path> inwxUpdateStateFile,
+        Duration inwxUpdateStateMaxAge,
+        Optional<LocalAddressRules> identLocalAddressRules,
+        Optional<RateLimiterSettings> inwxRateLimit,
+        RetrySettings retrySettings,
+        Optional<Path> metricsTextFile,
+        Optional<InetSocketAddress> metricsHttpAddress) {
+
+    /**
+     * Returns the configured endpoint, or the default endpoint of the configured protocol.
+     *
+     * @return the endpoint to send the API calls to.
+     */
+    public URI inwxApiEndpointOrDefault() {
+        return inwxApiEndpoint().orElseGet(inwxApiProtocol()::defaultApiEndpoint);
+    }
 
     public InwxUpdateService.InwxCredentials getCredentials() {
         if (inwxUserName() == null || inwxUserName().isBlank()) {
@@ -50,14 +83,43 @@ public record InwxSettings(
                 .add("inwxUserName='" + inwxUserName + "'")
                 .add("inwxPassword=" + "*".repeat(inwxPassword != null ? inwxPassword.length : 0))
                 .add("inwxApiEndpoint=" + inwxApiEndpoint)
+                .add("inwxApiProtocol=" + inwxApiProtocol)
                 .add("ipv4UpdateRecords=" + ipv4UpdateRecords)
                 .add("ipv6UpdateRecords=" + ipv6UpdateRecords)
                 .add("identPoolIpv4=" + identPoolIpv4)
                 .add("identPoolIpv6=" + identPoolIpv6)
                 .add("identConnectTimeout=" + identConnectTimeout)
                 .add("identRequestTimeout=" + identRequestTimeout)
+                .add("identQueryStrategy=" + identQueryStrategy)
+                .add("inwxUpdateConcurrency=" + inwxUpdateConcurrency)
+                .add("inwxUpdateBatchSize=" + inwxUpdateBatchSize)
+                .add("inwxSessionLogin=" + inwxSessionLogin)
+                .add("inwxSessionFile=" + inwxSessionFile)
+                .add("circuitBreakerSettings=" + circuitBreakerSettings)
+                .add("identStatisticsFile=" + identStatisticsFile)
+                .add("identRequestBudgetPerHour=" + identRequestBudgetPerHour)
+                .add("inwxUpdateStateFile=" + inwxUpdateStateFile)
+                .add("inwxUpdateStateMaxAge=" + inwxUpdateStateMaxAge)
+                .add("identLocalAddressRules=" + identLocalAddressRules)
+                .add("inwxRateLimit=" + inwxRateLimit)
+                .add("retrySettings=" + retrySettings)
+                .add("metricsTextFile=" + metricsTextFile)
+                .add("metricsHttpAddress=" + metricsHttpAddress)
                 .toString();
     }
 
-    public record RecordConfiguration(InwxRecordId recordId, Duration ttl) {}
+    /**
+     * A record to keep up to date.
+     *
+     * @param recordId the id of the record at INWX.
+     * @param ttl the TTL to set.
+     * @param domain the domain the record belongs to. If set, the record is only written if its current content or
+     *     TTL differs.
+     */
+    public record RecordConfiguration(InwxRecordId recordId, Duration ttl, Optional<String> domain) {
+
+        public RecordConfiguration(InwxRecordId recordId, Duration ttl) {
+            this(recordId, ttl, Optional.empty());
+        }
+    }
 }
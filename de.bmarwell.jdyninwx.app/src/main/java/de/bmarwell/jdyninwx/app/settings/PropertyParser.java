@@ -19,16 +19,26 @@ import static java.util.Collections.unmodifiableMap;
 
 import de.bmarwell.jdyninwx.app.settings.InwxSettings.RecordConfiguration;
 import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import de.bmarwell.jdyninwx.lib.services.CircuitBreakerSettings;
+import de.bmarwell.jdyninwx.lib.services.IdentQueryStrategy;
+import de.bmarwell.jdyninwx.lib.services.IdentResolverStatistics;
+import de.bmarwell.jdyninwx.lib.services.InwxApiProtocol;
+import de.bmarwell.jdyninwx.lib.services.LocalAddressRules;
+import de.bmarwell.jdyninwx.lib.services.RateLimiterSettings;
+import de.bmarwell.jdyninwx.lib.services.RetrySettings;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
@@ -172,12 +182,28 @@ public class PropertyParser {
                 constants.getInwxUserName(),
                 constants.getInwxPassword(),
                 constants.getInwxApiEndpoint(),
+                constants.getInwxApiProtocol(),
                 constants.getInwxIpv4RecordConfigurations(),
                 constants.getInwxIpv6RecordConfigurations(),
                 constants.getIdentPoolIpv4(),
                 constants.getIdentPoolIpv6(),
                 PropertyFileConstants.DEFAULT_IDENT_CONNECT_TIMEOUT,
-                constants.getIdentConnectTimeout());
+                constants.getIdentConnectTimeout(),
+                constants.getIdentQueryStrategy(),
+                constants.getInwxUpdateConcurrency(),
+                constants.getInwxUpdateBatchSize(),
+                constants.getInwxSessionLogin(),
+                constants.getInwxSessionFile(),
+                constants.getCircuitBreakerSettings(),
+                constants.getIdentStatisticsFile(),
+                constants.getIdentRequestBudgetPerHour(),
+                constants.getInwxUpdateStateFile(),
+                constants.getInwxUpdateStateMaxAge(),
+                constants.getIdentLocalAddressRules(),
+                constants.getInwxRateLimit(),
+                constants.getRetrySettings(),
+                constants.getMetricsTextFile(),
+                constants.getMetricsHttpAddress());
     }
 
     protected Map<String, Object> getParsedProperties() {
@@ -188,17 +214,55 @@ public class PropertyParser {
 
         static final Duration DEFAULT_IDENT_CONNECT_TIMEOUT = Duration.ofMillis(500L);
         static final Duration DEFAULT_IDENT_REQUEST_TIMEOUT = Duration.ofMillis(1500L);
+        static final int DEFAULT_IDENT_QUERY_PARALLELISM = 3;
+        static final Duration DEFAULT_IDENT_QUERY_HEDGE_DELAY = Duration.ofMillis(250L);
+        static final int DEFAULT_INWX_UPDATE_CONCURRENCY = 4;
+        static final int DEFAULT_INWX_UPDATE_BATCH_SIZE = 1;
+        static final Duration DEFAULT_INWX_UPDATE_STATE_MAX_AGE = Duration.ofDays(1L);
+        static final Duration DEFAULT_INWX_RATE_LIMIT_PERIOD = Duration.ofMinutes(1L);
+        static final String DEFAULT_METRICS_HTTP_ADDRESS = "127.0.0.1";
 
         static final String INWX_USER_NAME = "jdynsinwx.inwx.username";
         static final String INWX_PASSWORD = "jdynsinwx.inwx.password";
 
         static final String INWX_API_ENDPOINT = "jdynsinwx.inwx.api.endpoint";
+        static final String INWX_API_PROTOCOL = "jdynsinwx.inwx.api.protocol";
+        static final String INWX_SESSION_ENABLED = "jdynsinwx.inwx.session.enabled";
+        static final String INWX_SESSION_FILE = "jdynsinwx.inwx.session.file";
 
         static final String INWX_RECORDS_IPV4 = "jdynsinwx.inwx.record.ipv4";
         static final String INWX_RECORDS_IPV6 = "jdynsinwx.inwx.record.ipv6";
+        static final String INWX_UPDATE_CONCURRENCY = "jdynsinwx.inwx.update.concurrency";
+        static final String INWX_UPDATE_BATCH_SIZE = "jdynsinwx.inwx.update.batch.size";
+        static final String INWX_UPDATE_STATE_FILE = "jdynsinwx.inwx.update.state.file";
+        static final String INWX_UPDATE_STATE_MAX_AGE = "jdynsinwx.inwx.update.state.max.age";
+        static final String INWX_RATE_LIMIT_PERMITS = "jdynsinwx.inwx.rate.limit.permits";
+        static final String INWX_RATE_LIMIT_PERIOD = "jdynsinwx.inwx.rate.limit.period";
+        static final String INWX_RATE_LIMIT_BURST = "jdynsinwx.inwx.rate.limit.burst";
+        static final String INWX_RATE_LIMIT_MAX_WAIT = "jdynsinwx.inwx.rate.limit.max.wait";
         static final String IDENT_POOL_IPV4 = "jdynsinwx.ident.pool.ipv4";
         static final String IDENT_POOL_IPV6 = "jdynsinwx.ident.pool.ipv6";
         static final String IDENT_REQUEST_TIMEOUT = "jdynsinwx.ident.connection.request.timeout";
+        static final String IDENT_QUERY_MODE = "jdynsinwx.ident.query.mode";
+        static final String IDENT_QUERY_PARALLELISM = "jdynsinwx.ident.query.parallelism";
+        static final String IDENT_QUERY_HEDGE_DELAY = "jdynsinwx.ident.query.hedge.delay";
+        static final String IDENT_STATISTICS_FILE = "jdynsinwx.ident.statistics.file";
+        static final String IDENT_LOCAL_ENABLED = "jdynsinwx.ident.local.enabled";
+        static final String IDENT_LOCAL_INTERFACES = "jdynsinwx.ident.local.interfaces";
+        static final String IDENT_LOCAL_ALLOW_PRIVATE = "jdynsinwx.ident.local.allow.private";
+        static final String IDENT_LOCAL_ALLOW_TEMPORARY = "jdynsinwx.ident.local.allow.temporary";
+        static final String IDENT_BUDGET_PER_HOUR = "jdynsinwx.ident.budget.per.hour";
+        static final String CIRCUIT_BREAKER_WINDOW_SIZE = "jdynsinwx.circuitbreaker.window.size";
+        static final String CIRCUIT_BREAKER_MINIMUM_CALLS = "jdynsinwx.circuitbreaker.minimum.calls";
+        static final String CIRCUIT_BREAKER_FAILURE_RATE = "jdynsinwx.circuitbreaker.failure.rate";
+        static final String CIRCUIT_BREAKER_COOLDOWN = "jdynsinwx.circuitbreaker.cooldown";
+        static final String RETRY_MAX_ATTEMPTS = "jdynsinwx.retry.max.attempts";
+        static final String RETRY_INITIAL_BACKOFF = "jdynsinwx.retry.initial.backoff";
+        static final String RETRY_MAX_BACKOFF = "jdynsinwx.retry.max.backoff";
+        static final String RETRY_DEADLINE = "jdynsinwx.retry.deadline";
+        static final String METRICS_TEXTFILE = "jdynsinwx.metrics.textfile";
+        static final String METRICS_HTTP_PORT = "jdynsinwx.metrics.http.port";
+        static final String METRICS_HTTP_ADDRESS = "jdynsinwx.metrics.http.address";
 
         private final Map<String, Object> settings;
 
@@ -222,6 +286,86 @@ public class PropertyParser {
             return Optional.ofNullable((String) settings.get(INWX_API_ENDPOINT)).map(URI::create);
         }
 
+        InwxApiProtocol getInwxApiProtocol() {
+            Object protocol = settings.get(INWX_API_PROTOCOL);
+            if (!(protocol instanceof String protocolString)) {
+                return InwxApiProtocol.XML_RPC;
+            }
+
+            try {
+                return InwxApiProtocol.fromString(protocolString);
+            } catch (IllegalArgumentException iae) {
+                String message = "Invalid setting in application.properties for key [" + INWX_API_PROTOCOL + "]: ["
+                        + protocol + "].";
+                LOG.error(message);
+                throw new IllegalArgumentException(message, iae);
+            }
+        }
+
+        boolean getInwxSessionLogin() {
+            return getBoolean(INWX_SESSION_ENABLED, false);
+        }
+
+        Optional<LocalAddressRules> getIdentLocalAddressRules() {
+            if (!getBoolean(IDENT_LOCAL_ENABLED, false)) {
+                return Optional.empty();
+            }
+
+            final List<String> interfaceNames =
+                    Optional.ofNullable((String) settings.get(IDENT_LOCAL_INTERFACES)).stream()
+                            .flatMap(names -> Arrays.stream(names.split(",")))
+                            .map(String::trim)
+                            .filter(name -> !name.isEmpty())
+                            .toList();
+
+            return Optional.of(new LocalAddressRules(
+                    interfaceNames,
+                    getBoolean(IDENT_LOCAL_ALLOW_PRIVATE, false),
+                    getBoolean(IDENT_LOCAL_ALLOW_TEMPORARY, false)));
+        }
+
+        private boolean getBoolean(String key, boolean defaultValue) {
+            Object enabled = settings.get(key);
+            if (!(enabled instanceof String enabledString)) {
+                return defaultValue;
+            }
+
+            return switch (enabledString.trim().toLowerCase(Locale.ROOT)) {
+                case "true", "yes", "1" -> true;
+                case "false", "no", "0" -> false;
+                default -> {
+                    String message =
+                            "Invalid setting in application.properties for key [" + key + "]: [" + enabled + "].";
+                    LOG.error(message);
+                    throw new IllegalArgumentException(message);
+                }
+            };
+        }
+
+        Optional<Path> getInwxSessionFile() {
+            return getPath(INWX_SESSION_FILE);
+        }
+
+        Optional<Path> getInwxUpdateStateFile() {
+            return getPath(INWX_UPDATE_STATE_FILE);
+        }
+
+        Duration getInwxUpdateStateMaxAge() {
+            return Duration.ofSeconds(getPositiveInt(
+                    INWX_UPDATE_STATE_MAX_AGE, Math.toIntExact(DEFAULT_INWX_UPDATE_STATE_MAX_AGE.toSeconds())));
+        }
+
+        Optional<Path> getIdentStatisticsFile() {
+            return getPath(IDENT_STATISTICS_FILE);
+        }
+
+        private Optional<Path> getPath(String key) {
+            return Optional.ofNullable((String) settings.get(key))
+                    .map(String::trim)
+                    .filter(file -> !file.isEmpty())
+                    .map(Path::of);
+        }
+
         List<RecordConfiguration> getInwxIpv4RecordConfigurations() {
             return getInwxRecordConfigurationList(INWX_RECORDS_IPV4);
         }
@@ -258,8 +402,14 @@ public class PropertyParser {
                 duration = Duration.ofSeconds(Integer.parseInt(mapTtlString));
             }
 
+            Optional<String> domain = Optional.ofNullable((String) map.get("domain"))
+                    .map(String::trim)
+                    .filter(domainName -> !domainName.isEmpty());
+
             return new RecordConfiguration(
-                    new InwxRecordId(idNum), Optional.ofNullable(duration).orElseGet(() -> Duration.ofSeconds(300L)));
+                    new InwxRecordId(idNum),
+                    Optional.ofNullable(duration).orElseGet(() -> Duration.ofSeconds(300L)),
+                    domain);
         }
 
         List<RecordConfiguration> getInwxIpv6RecordConfigurations() {
@@ -305,5 +455,156 @@ public class PropertyParser {
                 throw new IllegalArgumentException(message, nfe);
             }
         }
+
+        IdentQueryStrategy getIdentQueryStrategy() {
+            Object mode = settings.get(IDENT_QUERY_MODE);
+            if (!(mode instanceof String modeString)) {
+                return IdentQueryStrategy.sequential();
+            }
+
+            try {
+                return switch (IdentQueryStrategy.Mode.fromString(modeString)) {
+                    case SEQUENTIAL -> IdentQueryStrategy.sequential();
+                    case RACE -> IdentQueryStrategy.race(
+                            getInt(IDENT_QUERY_PARALLELISM, DEFAULT_IDENT_QUERY_PARALLELISM));
+                    case HEDGED -> IdentQueryStrategy.hedged(
+                            Duration.ofMillis(getInt(
+                                    IDENT_QUERY_HEDGE_DELAY,
+                                    Math.toIntExact(DEFAULT_IDENT_QUERY_HEDGE_DELAY.toMillis()))),
+                            getInt(IDENT_QUERY_PARALLELISM, DEFAULT_IDENT_QUERY_PARALLELISM));
+                };
+            } catch (IllegalArgumentException iae) {
+                String message =
+                        "Invalid setting in application.properties for key [" + IDENT_QUERY_MODE + "]: [" + mode + "].";
+                LOG.error(message);
+                throw new IllegalArgumentException(message, iae);
+            }
+        }
+
+        int getInwxUpdateConcurrency() {
+            return getPositiveInt(INWX_UPDATE_CONCURRENCY, DEFAULT_INWX_UPDATE_CONCURRENCY);
+        }
+
+        int getInwxUpdateBatchSize() {
+            return getPositiveInt(INWX_UPDATE_BATCH_SIZE, DEFAULT_INWX_UPDATE_BATCH_SIZE);
+        }
+
+        int getIdentRequestBudgetPerHour() {
+            return getPositiveInt(IDENT_BUDGET_PER_HOUR, IdentResolverStatistics.UNLIMITED_BUDGET);
+        }
+
+        CircuitBreakerSettings getCircuitBreakerSettings() {
+            final int windowSize =
+                    getPositiveInt(CIRCUIT_BREAKER_WINDOW_SIZE, CircuitBreakerSettings.DEFAULT_WINDOW_SIZE);
+            final int minimumCalls = getPositiveInt(
+                    CIRCUIT_BREAKER_MINIMUM_CALLS, Math.min(windowSize, CircuitBreakerSettings.DEFAULT_MINIMUM_CALLS));
+            final int failureRate =
+                    getPositiveInt(CIRCUIT_BREAKER_FAILURE_RATE, CircuitBreakerSettings.DEFAULT_FAILURE_RATE_PERCENT);
+            final int coolDownSeconds = getPositiveInt(
+                    CIRCUIT_BREAKER_COOLDOWN, Math.toIntExact(CircuitBreakerSettings.DEFAULT_COOL_DOWN.toSeconds()));
+
+            try {
+                return new CircuitBreakerSettings(
+                        windowSize, minimumCalls, failureRate, Duration.ofSeconds(coolDownSeconds));
+            } catch (IllegalArgumentException iae) {
+                String message = "Invalid circuit breaker settings in application.properties: " + iae.getMessage();
+                LOG.error(message);
+                throw new IllegalArgumentException(message, iae);
+            }
+        }
+
+        Optional<RateLimiterSettings> getInwxRateLimit() {
+            if (!settings.containsKey(INWX_RATE_LIMIT_PERMITS)) {
+                return Optional.empty();
+            }
+
+            final int permits = getPositiveInt(INWX_RATE_LIMIT_PERMITS, 1);
+            final int periodSeconds =
+                    getPositiveInt(INWX_RATE_LIMIT_PERIOD, Math.toIntExact(DEFAULT_INWX_RATE_LIMIT_PERIOD.toSeconds()));
+            final int burst = getPositiveInt(INWX_RATE_LIMIT_BURST, permits);
+            final int maxWaitSeconds =
+                    getInt(INWX_RATE_LIMIT_MAX_WAIT, Math.toIntExact(RateLimiterSettings.DEFAULT_MAX_WAIT.toSeconds()));
+
+            try {
+                return Optional.of(new RateLimiterSettings(
+                        permits, Duration.ofSeconds(periodSeconds), burst, Duration.ofSeconds(maxWaitSeconds)));
+            } catch (IllegalArgumentException iae) {
+                String message = "Invalid rate limit settings in application.properties: " + iae.getMessage();
+                LOG.error(message);
+                throw new IllegalArgumentException(message, iae);
+            }
+        }
+
+        RetrySettings getRetrySettings() {
+            final int maxAttempts = getPositiveInt(RETRY_MAX_ATTEMPTS, RetrySettings.DEFAULT_MAX_ATTEMPTS);
+            final int initialBackoffMillis =
+                    getInt(RETRY_INITIAL_BACKOFF, Math.toIntExact(RetrySettings.DEFAULT_INITIAL_BACKOFF.toMillis()));
+            final int maxBackoffMillis =
+                    getInt(RETRY_MAX_BACKOFF, Math.toIntExact(RetrySettings.DEFAULT_MAX_BACKOFF.toMillis()));
+            final int deadlineSeconds =
+                    getInt(RETRY_DEADLINE, Math.toIntExact(RetrySettings.DEFAULT_DEADLINE.toSeconds()));
+
+            try {
+                return new RetrySettings(
+                        maxAttempts,
+                        Duration.ofMillis(initialBackoffMillis),
+                        Duration.ofMillis(maxBackoffMillis),
+                        Duration.ofSeconds(deadlineSeconds));
+            } catch (IllegalArgumentException iae) {
+                String message = "Invalid retry settings in application.properties: " + iae.getMessage();
+                LOG.error(message);
+                throw new IllegalArgumentException(message, iae);
+            }
+        }
+
+        Optional<Path> getMetricsTextFile() {
+            return getPath(METRICS_TEXTFILE);
+        }
+
+        Optional<InetSocketAddress> getMetricsHttpAddress() {
+            if (!settings.containsKey(METRICS_HTTP_PORT)) {
+                return Optional.empty();
+            }
+
+            final int port = getPositiveInt(METRICS_HTTP_PORT, 1);
+            if (port > 65_535) {
+                String message = "Invalid setting in application.properties for key [" + METRICS_HTTP_PORT + "]: ["
+                        + port + "].";
+                LOG.error(message);
+                throw new IllegalArgumentException(message);
+            }
+            final String address = Optional.ofNullable((String) settings.get(METRICS_HTTP_ADDRESS))
+                    .map(String::trim)
+                    .filter(host -> !host.isEmpty())
+                    .orElse(DEFAULT_METRICS_HTTP_ADDRESS);
+
+            return Optional.of(new InetSocketAddress(address, port));
+        }
+
+        private int getPositiveInt(String key, int defaultValue) {
+            final int value = getInt(key, defaultValue);
+            if (value < 1) {
+                String message = "Invalid setting in application.properties for key [" + key + "]: [" + value + "].";
+                LOG.error(message);
+                throw new IllegalArgumentException(message);
+            }
+
+            return value;
+        }
+
+        private int getInt(String key, int defaultValue) {
+            Object value = settings.get(key);
+            if (!(value instanceof String stringValue)) {
+                return defaultValue;
+            }
+
+            try {
+                return Integer.parseInt(stringValue.trim(), 10);
+            } catch (NumberFormatException nfe) {
+                String message = "Invalid setting in application.properties for key [" + key + "]: [" + value + "].";
+                LOG.error(message);
+                throw new IllegalArgumentException(message, nfe);
+            }
+        }
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.app.update;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * The time to wait between two update cycles.
+ *
+ * <p>After a cycle which changed a record or failed, the next cycle follows after the minimum interval, so that
+ * further changes (e.g. a reconnect in progress) are picked up quickly. While the address is stable, the interval is
+ * doubled after every cycle, up to the maximum interval.</p>
+ */
+public final class AdaptivePollInterval {
+
+    private final Duration minimum;
+
+    private final Duration maximum;
+
+    private Duration current;
+
+    public AdaptivePollInterval(Duration minimum, Duration maximum) {
+        Objects.requireNonNull(minimum, "minimum");
+        Objects.requireNonNull(maximum, "maximum");
+        if (minimum.isNegative() || minimum.isZero()) {
+            throw new IllegalArgumentException("minimum must be positive, but was: " + minimum);
+        }
+        if (maximum.compareTo(minimum) < 0) {
+            throw new IllegalArgumentException(
+                    "maximum must not be less than minimum [" + minimum + "], but was: " + maximum);
+        }
+
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.current = minimum;
+    }
+
+    public Duration minimum() {
+        return minimum;
+    }
+
+    /**
+     * Returns the time to wait before the next cycle.
+     *
+     * @param changedOrFailed whether the last cycle changed a record or failed.
+     * @return the minimum interval after a change or failure, otherwise twice the previous interval, at most the
+     *     maximum interval.
+     */
+    public synchronized Duration next(boolean changedOrFailed) {
+        if (changedOrFailed) {
+            this.current = minimum;
+        } else {
+            final Duration doubled = current.multipliedBy(2L);
+            this.current = doubled.compareTo(maximum) > 0 ? maximum : doubled;
+        }
+
+        return this.current;
+    }
+}
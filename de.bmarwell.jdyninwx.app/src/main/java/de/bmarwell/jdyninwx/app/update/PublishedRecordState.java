@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.app.update;
+
+import de.bmarwell.jdyninwx.app.settings.InwxSettings.RecordConfiguration;
+import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The address and TTL last published for each record, kept in a file between invocations.
+ *
+ * <p>Records whose address and TTL did not change since they were last published need not be sent to the API
+ * again. Entries older than the maximum age are ignored, so every record is verified against the API from time to
+ * time, e.g. in case it was changed manually.</p>
+ *
+ * <p>The file is replaced atomically, so readers never see a partial file. Concurrent invocations take a lock on a
+ * sibling {@code .lock} file while saving and merge their entries with the ones saved in the meantime, keeping the
+ * latest entry of each record.</p>
+ *
+ * <p>A state created by {@link #inMemory(Duration)} has no file and only lives as long as the process, e.g. of a
+ * daemon.</p>
+ */
+public final class PublishedRecordState {
+
+    private final Path stateFile;
+
+    private final Duration maxAge;
+
+    private final Clock clock;
+
+    private final Map<InwxRecordId, PublishedRecord> records = new ConcurrentHashMap<>();
+
+    PublishedRecordState(Path stateFile, Duration maxAge, Clock clock) {
+        this.stateFile = stateFile;
+        this.maxAge = Objects.requireNonNull(maxAge, "maxAge");
+        this.clock = Objects.requireNonNull(clock, "clock");
+    }
+
+    /**
+     * Loads the state saved by {@link #save()}.
+     *
+     * @param stateFile the file to read and later write; a missing or unreadable file yields an empty state.
+     * @param maxAge entries older than this are not considered published anymore.
+     * @return the loaded state.
+     */
+    public static PublishedRecordState load(Path stateFile, Duration maxAge) {
+        return load(stateFile, maxAge, Clock.systemUTC());
+    }
+
+    static PublishedRecordState load(Path stateFile, Duration maxAge, Clock clock) {
+        final PublishedRecordState loaded =
+                new PublishedRecordState(Objects.requireNonNull(stateFile, "stateFile"), maxAge, clock);
+        loaded.records.putAll(read(stateFile));
+
+        return loaded;
+    }
+
+    /**
+     * Creates a state which is not saved to a file.
+     *
+     * @param maxAge entries older than this are not considered published anymore.
+     * @return an empty state.
+     */
+    public static PublishedRecordState inMemory(Duration maxAge) {
+        return new PublishedRecordState(null, maxAge, Clock.systemUTC());
+    }
+
+    /**
+     * Whether the record was published with the given address and its configured TTL within the maximum age.
+     *
+     * @param record the record to check.
+     * @param address the address the record should point to.
+     * @return {@code true} if the record need not be sent to the API.
+     */
+    public boolean isPublished(RecordConfiguration record, InetAddress address) {
+        final PublishedRecord published = records.get(record.recordId());
+
+        return published != null
+                && published.address().equals(address.getHostAddress())
+                && published.ttlSeconds() == record.ttl().toSeconds()
+                && clock.instant().isBefore(published.publishedAt().plus(maxAge));
+    }
+
+    /**
+     * Remembers the address of all records which were updated successfully or found to be up to date.
+     *
+     * @param outcomes the outcomes of an update run.
+     * @param address the address the records were updated to.
+     */
+    public void recordPublished(Collection<RecordUpdateOutcome> outcomes, InetAddress address) {
+        final Instant now = clock.instant();
+        for (RecordUpdateOutcome outcome : outcomes) {
+            if (outcome.isSuccess()) {
+                records.put(
+                        outcome.record().recordId(),
+                        new PublishedRecord(
+                                address.getHostAddress(), outcome.record().ttl().toSeconds(), now));
+            }
+        }
+    }
+
+    /**
+     * Writes the state to its file, merged with entries saved by other invocations in the meantime.
+     * Does nothing for a state {@link #inMemory(Duration) in memory}, or if the file already contains the merged
+     * state.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void save() throws IOException {
+        if (stateFile == null) {
+            return;
+        }
+
+        final Path directory = stateFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final Path lockFile = stateFile.resolveSibling(stateFile.getFileName() + ".lock");
+
+        try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock ignored = lockChannel.lock()) {
+            final Map<InwxRecordId, PublishedRecord> saved = read(stateFile);
+            saved.forEach(
+                    (recordId, savedRecord) -> records.merge(recordId, savedRecord, PublishedRecordState::latest));
+            if (saved.equals(records)) {
+                return;
+            }
+
+            final Properties properties = new Properties();
+            records.forEach((recordId, published) -> {
+                final String prefix = "record." + recordId.value() + ".";
+                properties.setProperty(prefix + "address", published.address());
+                properties.setProperty(prefix + "ttl", Long.toString(published.ttlSeconds(), 10));
+                properties.setProperty(
+                        prefix + "published", published.publishedAt().toString());
+            });
+
+            final Path tempFile = Files.createTempFile(directory, ".published", ".tmp");
+            try {
+                try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                    properties.store(writer, "jdyninwx published records");
+                }
+                Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    private static Map<InwxRecordId, PublishedRecord> read(Path stateFile) {
+        final Map<InwxRecordId, PublishedRecord> read = new ConcurrentHashMap<>();
+        if (!Files.isRegularFile(stateFile)) {
+            return read;
+        }
+
+        final Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException | IllegalArgumentException e) {
+            // just start over, the records will be published again.
+            return read;
+        }
+
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith("record.") || !key.endsWith(".address")) {
+                continue;
+            }
+
+            final String prefix = key.substring(0, key.length() - "address".length());
+            try {
+                final long recordId = Long.parseLong(prefix.substring("record.".length(), prefix.length() - 1), 10);
+                read.put(
+                        new InwxRecordId(recordId),
+                        new PublishedRecord(
+                                properties.getProperty(key),
+                                Long.parseLong(properties.getProperty(prefix + "ttl"), 10),
+                                Instant.parse(properties.getProperty(prefix + "published"))));
+            } catch (RuntimeException invalidEntry) {
+                // skip it, the record will be published again.
+            }
+        }
+
+        return read;
+    }
+
+    private static PublishedRecord latest(PublishedRecord current, PublishedRecord saved) {
+        if (saved.publishedAt().isAfter(current.publishedAt())) {
+            return saved;
+        } else {
+            return current;
+        }
+    }
+
+    private record PublishedRecord(String address, long ttlSeconds, Instant publishedAt) {}
+}
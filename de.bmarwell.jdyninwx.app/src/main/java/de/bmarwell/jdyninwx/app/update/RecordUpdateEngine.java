@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.app.update;
+
+import de.bmarwell.jdyninwx.app.settings.InwxSettings.RecordConfiguration;
+import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
+import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import de.bmarwell.jdyninwx.lib.services.InwxQueryService;
+import de.bmarwell.jdyninwx.lib.services.InwxResponse;
+import de.bmarwell.jdyninwx.lib.services.InwxUpdateService;
+import de.bmarwell.jdyninwx.lib.services.InwxUpdateService.RecordUpdate;
+import de.bmarwell.jdyninwx.lib.services.Result;
+import java.io.Serial;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Updates many records concurrently.
+ *
+ * <p>All updates are sent using the non-blocking API of the {@link InwxUpdateService}, so no thread is blocked per
+ * record. Records sharing the same TTL are updated by a single call using
+ * {@link InwxUpdateService#updateRecordsAsync(Collection, InetAddress, int)}, and at most {@code concurrency} calls are
+ * in flight at the same time. A failing record does not abort the batch: every record gets its own
+ * {@link RecordUpdateOutcome}, and {@link #updateAll(Collection, InetAddress)} only returns once all of them are
+ * known.</p>
+ *
+ * <p>INWX rejects a call as a whole if one of its records cannot be updated, e.g. because it was deleted. If a call
+ * updating several records is rejected, its records are therefore sent again one call each, so that only the
+ * offending record fails. The {@code concurrency} thus bounds the calls per TTL in the first round, and the calls per
+ * record of the rejected calls in the second.</p>
+ *
+ * <p>With multicall enabled, the records are sent using {@link InwxUpdateService#updateRecords(Collection)} instead,
+ * which bundles them into batches of {@link InwxUpdateService#getMulticallBatchSize()} calls per request. The batches
+ * are sent one after the other, so {@code concurrency} does not apply then.</p>
+ *
+ * <p>If a query service is given, the current state of all records with a {@link RecordConfiguration#domain() domain}
+ * is read first, using one {@code nameserver.info} call per domain. Records which already have the new address and
+ * TTL are not written at all. If the current state of a domain cannot be read, its records are written
+ * unconditionally. The state read for a domain is shared by all updates until {@link #startCycle()} is called, so the
+ * IPv4 and IPv6 records of a domain only need a single call per cycle.</p>
+ */
+public class RecordUpdateEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecordUpdateEngine.class);
+
+    private final InwxUpdateService updateService;
+
+    private final InwxQueryService queryService;
+
+    private final int concurrency;
+
+    private final boolean multicall;
+
+    private final Map<String, CompletableFuture<Result<List<InwxNameServerRecord>>>> currentRecords =
+            new ConcurrentHashMap<>();
+
+    public RecordUpdateEngine(InwxUpdateService updateService, int concurrency) {
+        this(updateService, concurrency, false);
+    }
+
+    public RecordUpdateEngine(InwxUpdateService updateService, int concurrency, boolean multicall) {
+        this(updateService, null, concurrency, multicall);
+    }
+
+    /**
+     * Creates an engine which only writes records that differ from their current state.
+     *
+     * @param updateService the service to write the records with.
+     * @param queryService the service to read the current records with, or {@code null} to write all records.
+     * @param concurrency the maximum number of calls in flight, ignored with multicall. Every call updates all records
+     *     sharing a TTL, or a single record when a rejected call is retried record by record.
+     * @param multicall whether to bundle the updates using {@code system.multicall}.
+     */
+    public RecordUpdateEngine(
+            InwxUpdateService updateService, InwxQueryService queryService, int concurrency, boolean multicall) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1, but was: " + concurrency);
+        }
+
+        this.updateService = updateService;
+        this.queryService = queryService;
+        this.concurrency = concurrency;
+        this.multicall = multicall;
+    }
+
+    /**
+     * Forgets the current records read so far, so that the next update reads them again.
+     */
+    public void startCycle() {
+        this.currentRecords.clear();
+    }
+
+    /**
+     * Updates all records to the given address.
+     *
+     * @param records the records to update.
+     * @param address the new content of all records.
+     * @return one outcome per record, in the order of the given records.
+     */
+    public List<RecordUpdateOutcome> updateAll(Collection<RecordConfiguration> records, InetAddress address) {
+        final Set<InwxRecordId> unchanged = findUnchangedRecords(records, address);
+        if (unchanged.isEmpty()) {
+            return writeAll(records, address);
+        }
+
+        final List<RecordConfiguration> changed = records.stream()
+                .filter(record -> !unchanged.contains(record.recordId()))
+                .toList();
+        final Iterator<RecordUpdateOutcome> written = writeAll(changed, address).iterator();
+
+        return records.stream()
+                .map(record ->
+                        unchanged.contains(record.recordId()) ? RecordUpdateOutcome.unchanged(record) : written.next())
+                .toList();
+    }
+
+    /**
+     * Reads the current records of all configured domains, one call per domain and cycle, and returns the ids of the records
+     * which already have the given address and their configured TTL.
+     */
+    private Set<InwxRecordId> findUnchangedRecords(Collection<RecordConfiguration> records, InetAddress address) {
+        if (this.queryService == null) {
+            return Set.of();
+        }
+
+        final Map<String, List<RecordConfiguration>> recordsByDomain = records.stream()
+                .filter(record -> record.domain().isPresent())
+                .collect(Collectors.groupingBy(
+                        record -> record.domain().orElseThrow().toLowerCase(Locale.ROOT),
+                        LinkedHashMap::new,
+                        Collectors.toList()));
+        // started for all domains first, so that the calls run concurrently.
+        recordsByDomain.keySet().forEach(this::currentRecordsOf);
+
+        final Set<InwxRecordId> unchanged = new HashSet<>();
+        for (Map.Entry<String, List<RecordConfiguration>> domainRecords : recordsByDomain.entrySet()) {
+            final String domain = domainRecords.getKey();
+            final Result<List<InwxNameServerRecord>> current;
+            try {
+                current = currentRecordsOf(domain).join();
+            } catch (CompletionException | CancellationException exception) {
+                LOG.warn("Unable to read the current records of [{}], writing all of them.", domain, exception);
+                continue;
+            }
+
+            if (current.isError()) {
+                LOG.warn("Unable to read the current records of [{}], writing all of them.", domain, current.error());
+                continue;
+            }
+
+            final Map<InwxRecordId, InwxNameServerRecord> currentById = current.success().stream()
+                    .collect(Collectors.toMap(InwxNameServerRecord::recordId, Function.identity(), (a, b) -> a));
+            for (RecordConfiguration record : domainRecords.getValue()) {
+                final InwxNameServerRecord currentRecord = currentById.get(record.recordId());
+                if (currentRecord != null
+                        && currentRecord.ttl().equals(record.ttl())
+                        && hasAddress(currentRecord, address)) {
+                    unchanged.add(record.recordId());
+                }
+            }
+        }
+
+        return unchanged;
+    }
+
+    private CompletableFuture<Result<List<InwxNameServerRecord>>> currentRecordsOf(String domain) {
+        return this.currentRecords.computeIfAbsent(domain, queryService::listAllNameServerRecordsAsync);
+    }
+
+    private static boolean hasAddress(InwxNameServerRecord currentRecord, InetAddress address) {
+        String content;
+        if (currentRecord.content() == null) {
+            content = "";
+        } else {
+            content = currentRecord.content().trim();
+        }
+        if (content.equalsIgnoreCase(address.getHostAddress())) {
+            return true;
+        }
+
+        // IPv6 addresses have several textual forms, e.g. with or without zero compression.
+        if (address instanceof Inet6Address && content.indexOf(':') >= 0) {
+            try {
+                return InetAddress.getByName(content).equals(address);
+            } catch (UnknownHostException unknownHostException) {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    private List<RecordUpdateOutcome> writeAll(Collection<RecordConfiguration> records, InetAddress address) {
+        if (records.isEmpty()) {
+            return List.of();
+        }
+
+        if (this.multicall) {
+            return updateAllBatched(List.copyOf(records), address);
+        }
+
+        // all records get the same address, so records sharing a TTL can be updated by a single call.
+        final Collection<List<RecordConfiguration>> recordsByTtl = records.stream()
+                .collect(Collectors.groupingBy(
+                        record -> Math.toIntExact(record.ttl().toSeconds()), LinkedHashMap::new, Collectors.toList()))
+                .values();
+        final Map<RecordConfiguration, RecordUpdateOutcome> outcomes = sendAll(recordsByTtl, address);
+
+        // a single invalid id makes INWX reject the whole call, so the records of rejected calls are sent one by one.
+        final List<List<RecordConfiguration>> rejected = recordsByTtl.stream()
+                .filter(group -> group.size() > 1)
+                .filter(group -> outcomes.get(group.get(0)).error() instanceof RejectedUpdateException)
+                .flatMap(List::stream)
+                .map(List::of)
+                .toList();
+        if (!rejected.isEmpty()) {
+            outcomes.putAll(sendAll(rejected, address));
+        }
+
+        return records.stream().map(outcomes::get).toList();
+    }
+
+    /**
+     * Sends one call per group, with at most {@code concurrency} calls in flight.
+     *
+     * @param groups records sharing the same TTL.
+     * @return the outcome of every record of the groups.
+     */
+    private Map<RecordConfiguration, RecordUpdateOutcome> sendAll(
+            Collection<List<RecordConfiguration>> groups, InetAddress address) {
+        final Semaphore permits = new Semaphore(concurrency);
+        final List<CompletableFuture<Result<String>>> inFlight = new ArrayList<>(groups.size());
+        final Map<RecordConfiguration, CompletableFuture<RecordUpdateOutcome>> outcomes = new HashMap<>();
+
+        for (List<RecordConfiguration> groupRecords : groups) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                inFlight.forEach(future -> future.cancel(true));
+                groupRecords.forEach(record -> outcomes.put(
+                        record,
+                        CompletableFuture.completedFuture(RecordUpdateOutcome.fail(record, interruptedException))));
+                continue;
+            }
+
+            final List<InwxRecordId> recordIds =
+                    groupRecords.stream().map(RecordConfiguration::recordId).toList();
+            final int ttlSeconds = Math.toIntExact(groupRecords.get(0).ttl().toSeconds());
+            final CompletableFuture<Result<String>> update =
+                    updateService.updateRecordsAsync(recordIds, address, ttlSeconds);
+            update.whenComplete((result, error) -> permits.release());
+            inFlight.add(update);
+            groupRecords.forEach(
+                    record -> outcomes.put(record, update.handle((result, error) -> toOutcome(record, result, error))));
+        }
+
+        final Map<RecordConfiguration, RecordUpdateOutcome> joined = new HashMap<>();
+        outcomes.forEach((record, outcome) -> joined.put(record, outcome.join()));
+
+        return joined;
+    }
+
+    private List<RecordUpdateOutcome> updateAllBatched(List<RecordConfiguration> records, InetAddress address) {
+        final List<RecordUpdate> updates = records.stream()
+                .map(record -> new RecordUpdate(
+                        record.recordId(), address, Math.toIntExact(record.ttl().toSeconds())))
+                .toList();
+        final List<Result<InwxResponse>> results = updateService.updateRecords(updates);
+
+        return IntStream.range(0, records.size())
+                .mapToObj(index -> {
+                    final Result<InwxResponse> result = results.get(index);
+                    if (result.isError()) {
+                        return RecordUpdateOutcome.fail(records.get(index), result.error());
+                    } else {
+                        return toOutcome(records.get(index), result.success());
+                    }
+                })
+                .toList();
+    }
+
+    private RecordUpdateOutcome toOutcome(RecordConfiguration record, Result<String> result, Throwable error) {
+        if (error != null) {
+            return RecordUpdateOutcome.fail(record, unwrap(error));
+        }
+
+        if (result.isError()) {
+            return RecordUpdateOutcome.fail(record, result.error());
+        }
+
+        final Result<InwxResponse> response = updateService.parseUpdateResponse(result.success());
+        if (response.isError()) {
+            return RecordUpdateOutcome.fail(record, response.error());
+        }
+
+        return toOutcome(record, response.success());
+    }
+
+    private static RecordUpdateOutcome toOutcome(RecordConfiguration record, InwxResponse response) {
+        if (!response.isSuccess()) {
+            return RecordUpdateOutcome.fail(record, new RejectedUpdateException(response));
+        }
+
+        return RecordUpdateOutcome.ok(record, response);
+    }
+
+    /**
+     * INWX answered the call, but with an error code.
+     */
+    private static final class RejectedUpdateException extends IllegalStateException {
+
+        @Serial
+        private static final long serialVersionUID = -4127380937161842553L;
+
+        private RejectedUpdateException(InwxResponse response) {
+            super("INWX returned code [%s]: [%s].".formatted(response.code(), response.message()));
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+
+        return error;
+    }
+}
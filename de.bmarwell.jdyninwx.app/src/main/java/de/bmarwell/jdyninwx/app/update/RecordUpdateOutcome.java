@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.app.update;
+
+import de.bmarwell.jdyninwx.app.settings.InwxSettings.RecordConfiguration;
+import de.bmarwell.jdyninwx.lib.services.InwxResponse;
+import java.util.Objects;
+
+/**
+ * The outcome of updating a single record.
+ *
+ * @param record the record which was updated.
+ * @param response the parsed API response, if the update was successful.
+ * @param error the reason of the failure, if the update was not successful.
+ * @param unchanged {@code true} if the record was already up to date and therefore not written.
+ */
+public record RecordUpdateOutcome(
+        RecordConfiguration record, InwxResponse response, Throwable error, boolean unchanged) {
+
+    public RecordUpdateOutcome {
+        Objects.requireNonNull(record, "record");
+        if (unchanged && (response != null || error != null)) {
+            throw new IllegalArgumentException("An unchanged record has neither a response nor an error!");
+        }
+        if (!unchanged && (response == null) == (error == null)) {
+            throw new IllegalArgumentException("Exactly one of response and error must be set!");
+        }
+    }
+
+    public RecordUpdateOutcome(RecordConfiguration record, InwxResponse response, Throwable error) {
+        this(record, response, error, false);
+    }
+
+    static RecordUpdateOutcome ok(RecordConfiguration record, InwxResponse response) {
+        return new RecordUpdateOutcome(record, response, null);
+    }
+
+    static RecordUpdateOutcome fail(RecordConfiguration record, Throwable error) {
+        return new RecordUpdateOutcome(record, null, error);
+    }
+
+    /**
+     * Creates the outcome of a record which was already up to date and therefore not written.
+     *
+     * @param record the record which was not written.
+     * @return the outcome.
+     */
+    public static RecordUpdateOutcome unchanged(RecordConfiguration record) {
+        return new RecordUpdateOutcome(record, null, null, true);
+    }
+
+    public boolean isSuccess() {
+        return this.error == null;
+    }
+}
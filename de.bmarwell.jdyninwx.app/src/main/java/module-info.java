@@ -5,6 +5,9 @@ module jdyninwx.app {
     requires org.slf4j;
     requires de.bmarwell.jdyninwx.common.value;
 
+    // for the metrics endpoint
+    requires jdk.httpserver;
+
     opens de.bmarwell.jdyninwx.app to
             info.picocli;
     opens de.bmarwell.jdyninwx.app.commands to
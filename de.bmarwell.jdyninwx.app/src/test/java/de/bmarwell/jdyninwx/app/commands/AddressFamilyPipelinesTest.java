@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.app.commands;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+
+class AddressFamilyPipelinesTest {
+
+    @Test
+    void runs_both_families_concurrently_and_merges_exit_codes() {
+        // given
+        CountDownLatch bothStarted = new CountDownLatch(2);
+
+        // when
+        int rc = AddressFamilyPipelines.runConcurrently(
+                () -> awaitOther(bothStarted) ? 1 : 16, () -> awaitOther(bothStarted) ? 8 : 32);
+
+        // then
+        assertThat(rc).isEqualTo(1 | 8);
+    }
+
+    @Test
+    void failing_family_does_not_abort_the_other() {
+        // given
+        AtomicBoolean ipv6Finished = new AtomicBoolean(false);
+
+        // expect
+        assertThatThrownBy(() -> AddressFamilyPipelines.runConcurrently(
+                        () -> {
+                            throw new IllegalStateException("no IPv4 resolvers");
+                        },
+                        () -> {
+                            sleep(200L);
+                            ipv6Finished.set(true);
+                            return 0;
+                        }))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("no IPv4 resolvers");
+        assertThat(ipv6Finished).isTrue();
+    }
+
+    private static boolean awaitOther(CountDownLatch bothStarted) {
+        bothStarted.countDown();
+        try {
+            return bothStarted.await(5L, TimeUnit.SECONDS);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.app.commands;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.bmarwell.jdyninwx.app.InwxUpdater;
+import de.bmarwell.jdyninwx.app.update.AdaptivePollInterval;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.Test;
+import picocli.CommandLine;
+
+class DaemonTest {
+
+    private static final AdaptivePollInterval SHORT_INTERVAL =
+            new AdaptivePollInterval(Duration.ofMillis(10L), Duration.ofMillis(40L));
+
+    private final ScheduledThreadPoolExecutor scheduler = Daemon.newScheduler();
+
+    @Test
+    void failing_cycle_is_followed_by_the_next_one() throws Exception {
+        // given
+        AtomicInteger cycles = new AtomicInteger();
+        BooleanSupplier cycle = () -> {
+            final int current = cycles.incrementAndGet();
+            if (current == 1) {
+                throw new IllegalStateException("cycle " + current + " failed");
+            }
+            if (current == 3) {
+                scheduler.shutdown();
+            }
+
+            return false;
+        };
+
+        // when
+        int returnCode = Daemon.runCycles(scheduler, SHORT_INTERVAL, cycle);
+
+        // then
+        assertThat(returnCode).isZero();
+        assertThat(cycles).hasValue(3);
+        assertThat(scheduler.isTerminated()).isTrue();
+    }
+
+    @Test
+    void error_shuts_the_daemon_down() throws Exception {
+        // given
+        AtomicInteger cycles = new AtomicInteger();
+        BooleanSupplier cycle = () -> {
+            cycles.incrementAndGet();
+            throw new Error("out of resources");
+        };
+
+        // when
+        int returnCode = Daemon.runCycles(scheduler, SHORT_INTERVAL, cycle);
+
+        // then
+        assertThat(returnCode).isEqualTo(1);
+        assertThat(cycles).hasValue(1);
+        assertThat(scheduler.isTerminated()).isTrue();
+    }
+
+    @Test
+    void shutdown_drops_the_pending_cycle() throws Exception {
+        // given
+        AdaptivePollInterval longInterval = new AdaptivePollInterval(Duration.ofDays(1L), Duration.ofDays(1L));
+        AtomicInteger cycles = new AtomicInteger();
+        CountDownLatch firstCycle = new CountDownLatch(1);
+        CompletableFuture<Integer> daemon = CompletableFuture.supplyAsync(() -> {
+            try {
+                return Daemon.runCycles(scheduler, longInterval, () -> {
+                    cycles.incrementAndGet();
+                    firstCycle.countDown();
+                    return false;
+                });
+            } catch (InterruptedException interruptedException) {
+                throw new CompletionException(interruptedException);
+            }
+        });
+        assertThat(firstCycle.await(5L, TimeUnit.SECONDS)).isTrue();
+
+        // when
+        scheduler.shutdown();
+
+        // then
+        assertThat(daemon.get(5L, TimeUnit.SECONDS)).isZero();
+        assertThat(cycles).hasValue(1);
+    }
+
+    @Test
+    void invalid_intervals_are_rejected() {
+        // expect
+        assertThat(new CommandLine(new InwxUpdater()).execute("daemon", "--min-interval", "0"))
+                .isEqualTo(CommandLine.ExitCode.USAGE);
+        assertThat(new CommandLine(new InwxUpdater()).execute("daemon", "--min-interval", "60", "--max-interval", "10"))
+                .isEqualTo(CommandLine.ExitCode.USAGE);
+    }
+}
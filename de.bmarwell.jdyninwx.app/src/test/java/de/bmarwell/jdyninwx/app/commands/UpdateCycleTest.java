@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.app.commands;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.ok;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import de.bmarwell.jdyninwx.app.settings.InwxSettings;
+import de.bmarwell.jdyninwx.app.settings.PropertyParser;
+import de.bmarwell.jdyninwx.lib.metrics.Counter;
+import de.bmarwell.jdyninwx.lib.metrics.LatencyHistogram;
+import de.bmarwell.jdyninwx.lib.metrics.MetricsRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+class UpdateCycleTest {
+
+    @RegisterExtension
+    static WireMockExtension SERVER = WireMockExtension.newInstance()
+            .options(wireMockConfig().dynamicPort())
+            .build();
+
+    private static final String SUCCESS_RESPONSE = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <methodResponse><params><param><value><struct>
+              <member><name>code</name><value><int>1000</int></value></member>
+              <member><name>msg</name><value><string>Command completed successfully</string></value></member>
+            </struct></value></param></params></methodResponse>
+            """;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void cycle_records_its_metrics_and_writes_the_textfile() throws IOException {
+        // given
+        SERVER.stubFor(get("/ip").willReturn(ok("192.0.2.1").withHeader("Content-Type", "text/plain")));
+        SERVER.stubFor(post("/api/").willReturn(ok(SUCCESS_RESPONSE)));
+        Path textFile = tempDir.resolve("jdyninwx.prom");
+        InwxSettings settings = settings(textFile);
+        MetricsRegistry metrics = MetricsRegistry.shared();
+        Counter updatedRecords = metrics.counter(
+                        UpdateCycle.RECORD_UPDATES,
+                        "Record updates per address family and outcome.",
+                        "family",
+                        "outcome")
+                .labels("IPv4", "updated");
+        LatencyHistogram successfulCycles = metrics.histogram(
+                        UpdateCycle.CYCLE_DURATION, "Duration of the update cycles.", "outcome")
+                .labels(MetricsRegistry.OUTCOME_SUCCESS);
+        long updatedBefore = updatedRecords.get();
+        long cyclesBefore = successfulCycles.count();
+
+        // when
+        int returnCode;
+        try (UpdateCycle updateCycle = new UpdateCycle(settings, null)) {
+            returnCode = updateCycle.run();
+        }
+
+        // then
+        assertThat(returnCode).isZero();
+        SERVER.verify(1, postRequestedFor(urlEqualTo("/api/")).withRequestBody(containing("<int>42</int>")));
+        assertThat(updatedRecords.get()).isEqualTo(updatedBefore + 1L);
+        assertThat(successfulCycles.count()).isEqualTo(cyclesBefore + 1L);
+        assertThat(Files.readString(textFile, StandardCharsets.UTF_8))
+                .contains("jdyninwx_record_updates_total{family=\"IPv4\",outcome=\"updated\"} ")
+                .contains("jdyninwx_update_cycle_duration_seconds_count{outcome=\"success\"} ")
+                .contains("# TYPE jdyninwx_update_cycle_last_success_timestamp_seconds gauge");
+    }
+
+    private InwxSettings settings(Path textFile) throws IOException {
+        Path properties = tempDir.resolve("application.properties");
+        Files.writeString(
+                properties, """
+                jdynsinwx.inwx.username = myUserName
+                jdynsinwx.inwx.password = myFancyPassword
+                jdynsinwx.inwx.api.endpoint = %1$s/api/
+                jdynsinwx.inwx.record.ipv4[0].id = 42
+                jdynsinwx.ident.pool.ipv4[0] = %1$s/ip
+                jdynsinwx.ident.pool.ipv6[0] = %1$s/ip
+                jdynsinwx.metrics.textfile = %2$s
+                """.formatted(SERVER.baseUrl(), textFile),
+                StandardCharsets.UTF_8);
+
+        return new PropertyParser(properties).getInwxSettings();
+    }
+}
@@ -18,10 +18,22 @@ package de.bmarwell.jdyninwx.app.settings;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
+import de.bmarwell.jdyninwx.app.settings.InwxSettings.RecordConfiguration;
+import de.bmarwell.jdyninwx.lib.services.CircuitBreakerSettings;
+import de.bmarwell.jdyninwx.lib.services.IdentQueryStrategy;
+import de.bmarwell.jdyninwx.lib.services.IdentResolverStatistics;
+import de.bmarwell.jdyninwx.lib.services.InwxApiProtocol;
+import de.bmarwell.jdyninwx.lib.services.LocalAddressRules;
+import de.bmarwell.jdyninwx.lib.services.RateLimiterSettings;
+import de.bmarwell.jdyninwx.lib.services.RetrySettings;
+import java.net.InetSocketAddress;
+import java.net.URI;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
 import org.junit.jupiter.api.Test;
 
@@ -149,6 +161,140 @@ class PropertyParserTest {
                 .matches(is -> is.ipv6UpdateRecords().size() == 1)
                 .matches(is -> is.identPoolIpv6().size() == 1)
                 .matches(is -> is.identPoolIpv4().size() == 1);
+        assertThat(inwxSettings.ipv4UpdateRecords())
+                .extracting(RecordConfiguration::domain)
+                .containsExactly(Optional.of("example.com"), Optional.empty());
+    }
+
+    @Test
+    void defaults_to_sequential_ident_query() {
+        // given
+        Properties properties = new Properties();
+
+        // when
+        InwxSettings inwxSettings = new PropertyParser(properties).getInwxSettings();
+
+        // then
+        assertThat(inwxSettings.identQueryStrategy()).isEqualTo(IdentQueryStrategy.sequential());
+    }
+
+    @Test
+    void read_hedged_ident_query() {
+        // given
+        Properties properties = new Properties();
+        properties.put("jdynsinwx.ident.query.mode", "hedged");
+        properties.put("jdynsinwx.ident.query.parallelism", "2");
+        properties.put("jdynsinwx.ident.query.hedge.delay", "100");
+
+        // when
+        InwxSettings inwxSettings = new PropertyParser(properties).getInwxSettings();
+
+        // then
+        assertThat(inwxSettings.identQueryStrategy()).isEqualTo(IdentQueryStrategy.hedged(Duration.ofMillis(100L), 2));
+    }
+
+    @Test
+    void read_update_concurrency() {
+        // given
+        Properties properties = new Properties();
+        properties.put("jdynsinwx.inwx.update.concurrency", "8");
+
+        // expect
+        assertThat(new PropertyParser(new Properties()).getInwxSettings().inwxUpdateConcurrency())
+                .isEqualTo(4);
+        assertThat(new PropertyParser(properties).getInwxSettings().inwxUpdateConcurrency())
+                .isEqualTo(8);
+    }
+
+    @Test
+    void read_update_batch_size() {
+        // given
+        Properties properties = new Properties();
+        properties.put("jdynsinwx.inwx.update.batch.size", "25");
+
+        // expect
+        assertThat(new PropertyParser(new Properties()).getInwxSettings().inwxUpdateBatchSize())
+                .isEqualTo(1);
+        assertThat(new PropertyParser(properties).getInwxSettings().inwxUpdateBatchSize())
+                .isEqualTo(25);
+    }
+
+    @Test
+    void read_session_settings() {
+        // given
+        Properties properties = new Properties();
+        properties.put("jdynsinwx.inwx.session.enabled", "true");
+        properties.put("jdynsinwx.inwx.session.file", "/tmp/jdyninwx.session");
+
+        // when
+        InwxSettings inwxSettings = new PropertyParser(properties).getInwxSettings();
+
+        // then
+        assertThat(inwxSettings.inwxSessionLogin()).isTrue();
+        assertThat(inwxSettings.inwxSessionFile()).contains(Path.of("/tmp/jdyninwx.session"));
+        assertThat(new PropertyParser(new Properties()).getInwxSettings().inwxSessionLogin())
+                .isFalse();
+    }
+
+    @Test
+    void read_api_protocol() {
+        // given
+        Properties properties = new Properties();
+        properties.put("jdynsinwx.inwx.api.protocol", "json-rpc");
+
+        // when
+        InwxSettings inwxSettings = new PropertyParser(properties).getInwxSettings();
+
+        // then
+        assertThat(inwxSettings.inwxApiProtocol()).isEqualTo(InwxApiProtocol.JSON_RPC);
+        assertThat(inwxSettings.inwxApiEndpointOrDefault()).isEqualTo(URI.create("https://api.domrobot.com/jsonrpc/"));
+        assertThat(new PropertyParser(new Properties()).getInwxSettings().inwxApiProtocol())
+                .isEqualTo(InwxApiProtocol.XML_RPC);
+    }
+
+    @Test
+    void read_ident_statistics_settings() {
+        // given
+        Properties properties = new Properties();
+        properties.put("jdynsinwx.ident.statistics.file", "/tmp/ident-statistics");
+        properties.put("jdynsinwx.ident.budget.per.hour", "60");
+
+        // when
+        InwxSettings inwxSettings = new PropertyParser(properties).getInwxSettings();
+
+        // then
+        assertThat(inwxSettings.identStatisticsFile()).contains(Path.of("/tmp/ident-statistics"));
+        assertThat(inwxSettings.identRequestBudgetPerHour()).isEqualTo(60);
+        assertThat(new PropertyParser(new Properties()).getInwxSettings().identRequestBudgetPerHour())
+                .isEqualTo(IdentResolverStatistics.UNLIMITED_BUDGET);
+    }
+
+    @Test
+    void read_circuit_breaker_settings() {
+        // given
+        Properties properties = new Properties();
+        properties.put("jdynsinwx.circuitbreaker.window.size", "4");
+        properties.put("jdynsinwx.circuitbreaker.failure.rate", "75");
+        properties.put("jdynsinwx.circuitbreaker.cooldown", "120");
+
+        // expect
+        assertThat(new PropertyParser(new Properties()).getInwxSettings().circuitBreakerSettings())
+                .isEqualTo(CircuitBreakerSettings.defaults());
+        assertThat(new PropertyParser(properties).getInwxSettings().circuitBreakerSettings())
+                .isEqualTo(new CircuitBreakerSettings(4, 4, 75, Duration.ofSeconds(120L)));
+    }
+
+    @Test
+    void rejects_update_concurrency_below_one() {
+        // given
+        Properties properties = new Properties();
+        properties.put("jdynsinwx.inwx.update.concurrency", "0");
+        PropertyParser propertyParser = new PropertyParser(properties);
+
+        // expect
+        assertThatThrownBy(propertyParser::getInwxSettings)
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("jdynsinwx.inwx.update.concurrency");
     }
 
     @Test
@@ -167,4 +313,79 @@ class PropertyParserTest {
                 .matches(is -> is.ipv4UpdateRecords().size() == 1)
                 .matches(is -> is.ipv6UpdateRecords().isEmpty());
     }
+
+    @Test
+    void read_local_address_rules() {
+        // given
+        Properties properties = new Properties();
+        properties.put("jdynsinwx.ident.local.enabled", "true");
+        properties.put("jdynsinwx.ident.local.interfaces", "eth0, wlp*");
+        properties.put("jdynsinwx.ident.local.allow.temporary", "true");
+
+        // expect
+        assertThat(new PropertyParser(new Properties()).getInwxSettings().identLocalAddressRules())
+                .isEmpty();
+        assertThat(new PropertyParser(properties).getInwxSettings().identLocalAddressRules())
+                .contains(new LocalAddressRules(List.of("eth0", "wlp*"), false, true));
+    }
+
+    @Test
+    void read_rate_limit() {
+        // given
+        Properties properties = new Properties();
+        properties.put("jdynsinwx.inwx.rate.limit.permits", "120");
+        properties.put("jdynsinwx.inwx.rate.limit.burst", "10");
+        properties.put("jdynsinwx.inwx.rate.limit.max.wait", "0");
+
+        // expect
+        assertThat(new PropertyParser(new Properties()).getInwxSettings().inwxRateLimit())
+                .isEmpty();
+        assertThat(new PropertyParser(properties).getInwxSettings().inwxRateLimit())
+                .contains(RateLimiterSettings.failFast(120, Duration.ofMinutes(1L), 10));
+    }
+
+    @Test
+    void read_retry_settings() {
+        // given
+        Properties properties = new Properties();
+        properties.put("jdynsinwx.retry.max.attempts", "5");
+        properties.put("jdynsinwx.retry.initial.backoff", "200");
+        properties.put("jdynsinwx.retry.deadline", "30");
+
+        // expect
+        assertThat(new PropertyParser(new Properties()).getInwxSettings().retrySettings())
+                .isEqualTo(RetrySettings.defaults());
+        assertThat(new PropertyParser(properties).getInwxSettings().retrySettings())
+                .isEqualTo(new RetrySettings(
+                        5, Duration.ofMillis(200L), Duration.ofSeconds(10L), Duration.ofSeconds(30L)));
+    }
+
+    @Test
+    void read_metrics_settings() {
+        // given
+        Properties properties = new Properties();
+        properties.put("jdynsinwx.metrics.textfile", "/var/lib/node_exporter/jdyninwx.prom");
+        properties.put("jdynsinwx.metrics.http.port", "9477");
+
+        // when
+        InwxSettings settings = new PropertyParser(properties).getInwxSettings();
+
+        // then
+        assertThat(settings.metricsTextFile()).contains(Path.of("/var/lib/node_exporter/jdyninwx.prom"));
+        assertThat(settings.metricsHttpAddress()).contains(new InetSocketAddress("127.0.0.1", 9_477));
+        assertThat(new PropertyParser(new Properties()).getInwxSettings().metricsHttpAddress())
+                .isEmpty();
+    }
+
+    @Test
+    void reject_invalid_metrics_port() {
+        // given
+        Properties properties = new Properties();
+        properties.put("jdynsinwx.metrics.http.port", "65536");
+
+        // expect
+        assertThatThrownBy(() -> new PropertyParser(properties).getInwxSettings())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("jdynsinwx.metrics.http.port");
+    }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.app.update;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class AdaptivePollIntervalTest {
+
+    private final AdaptivePollInterval pollInterval =
+            new AdaptivePollInterval(Duration.ofMinutes(1L), Duration.ofMinutes(5L));
+
+    @Test
+    void interval_backs_off_while_stable() {
+        // expect
+        assertThat(pollInterval.next(false)).isEqualTo(Duration.ofMinutes(2L));
+        assertThat(pollInterval.next(false)).isEqualTo(Duration.ofMinutes(4L));
+        assertThat(pollInterval.next(false)).isEqualTo(Duration.ofMinutes(5L));
+        assertThat(pollInterval.next(false)).isEqualTo(Duration.ofMinutes(5L));
+    }
+
+    @Test
+    void change_or_failure_resets_interval() {
+        // given
+        pollInterval.next(false);
+        pollInterval.next(false);
+
+        // when
+        Duration next = pollInterval.next(true);
+
+        // then
+        assertThat(next).isEqualTo(Duration.ofMinutes(1L));
+        assertThat(pollInterval.next(false)).isEqualTo(Duration.ofMinutes(2L));
+    }
+
+    @Test
+    void maximum_must_not_be_less_than_minimum() {
+        // expect
+        assertThatThrownBy(() -> new AdaptivePollInterval(Duration.ofMinutes(5L), Duration.ofMinutes(1L)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
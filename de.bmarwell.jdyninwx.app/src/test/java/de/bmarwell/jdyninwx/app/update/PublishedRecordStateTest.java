@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.app.update;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.bmarwell.jdyninwx.app.settings.InwxSettings.RecordConfiguration;
+import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import de.bmarwell.jdyninwx.lib.services.InwxResponse;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PublishedRecordStateTest {
+
+    private static final Instant NOW = Instant.parse("2023-06-01T12:00:00Z");
+
+    private static final RecordConfiguration RECORD =
+            new RecordConfiguration(new InwxRecordId(42L), Duration.ofSeconds(300L));
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void published_records_are_remembered_between_invocations() throws Exception {
+        // given
+        Path stateFile = tempDir.resolve("state/published");
+        InetAddress address = InetAddress.getByName("192.0.2.1");
+        PublishedRecordState state = PublishedRecordState.load(stateFile, Duration.ofDays(1L), clockAt(NOW));
+        state.recordPublished(List.of(RecordUpdateOutcome.ok(RECORD, new InwxResponse(1_000, "ok"))), address);
+
+        // when
+        state.save();
+        PublishedRecordState loaded =
+                PublishedRecordState.load(stateFile, Duration.ofDays(1L), clockAt(NOW.plusSeconds(60L)));
+
+        // then
+        assertThat(loaded.isPublished(RECORD, address)).isTrue();
+        assertThat(loaded.isPublished(RECORD, InetAddress.getByName("192.0.2.2")))
+                .isFalse();
+        assertThat(loaded.isPublished(new RecordConfiguration(RECORD.recordId(), Duration.ofSeconds(600L)), address))
+                .isFalse();
+    }
+
+    @Test
+    void entries_older_than_max_age_are_verified_again() throws Exception {
+        // given
+        Path stateFile = tempDir.resolve("published");
+        InetAddress address = InetAddress.getByName("192.0.2.1");
+        PublishedRecordState state = PublishedRecordState.load(stateFile, Duration.ofHours(1L), clockAt(NOW));
+        state.recordPublished(List.of(RecordUpdateOutcome.unchanged(RECORD)), address);
+        state.save();
+
+        // when
+        PublishedRecordState loaded =
+                PublishedRecordState.load(stateFile, Duration.ofHours(1L), clockAt(NOW.plus(Duration.ofHours(2L))));
+
+        // then
+        assertThat(loaded.isPublished(RECORD, address)).isFalse();
+    }
+
+    @Test
+    void failed_records_are_not_remembered() throws Exception {
+        // given
+        InetAddress address = InetAddress.getByName("192.0.2.1");
+        PublishedRecordState state =
+                PublishedRecordState.load(tempDir.resolve("published"), Duration.ofDays(1L), clockAt(NOW));
+
+        // when
+        state.recordPublished(List.of(RecordUpdateOutcome.fail(RECORD, new IllegalStateException("2303"))), address);
+
+        // then
+        assertThat(state.isPublished(RECORD, address)).isFalse();
+    }
+
+    @Test
+    void save_keeps_entries_saved_by_other_invocations() throws Exception {
+        // given
+        Path stateFile = tempDir.resolve("published");
+        InetAddress address = InetAddress.getByName("192.0.2.1");
+        RecordConfiguration other = new RecordConfiguration(new InwxRecordId(43L), Duration.ofSeconds(300L));
+        PublishedRecordState first = PublishedRecordState.load(stateFile, Duration.ofDays(1L), clockAt(NOW));
+        PublishedRecordState second = PublishedRecordState.load(stateFile, Duration.ofDays(1L), clockAt(NOW));
+        first.recordPublished(List.of(RecordUpdateOutcome.unchanged(RECORD)), address);
+        second.recordPublished(List.of(RecordUpdateOutcome.unchanged(other)), address);
+
+        // when
+        first.save();
+        second.save();
+
+        // then
+        PublishedRecordState loaded = PublishedRecordState.load(stateFile, Duration.ofDays(1L), clockAt(NOW));
+        assertThat(loaded.isPublished(RECORD, address)).isTrue();
+        assertThat(loaded.isPublished(other, address)).isTrue();
+    }
+
+    @Test
+    void unchanged_state_is_not_written_again() throws Exception {
+        // given
+        Path stateFile = tempDir.resolve("published");
+        InetAddress address = InetAddress.getByName("192.0.2.1");
+        PublishedRecordState state = PublishedRecordState.load(stateFile, Duration.ofDays(1L), clockAt(NOW));
+        state.recordPublished(List.of(RecordUpdateOutcome.unchanged(RECORD)), address);
+        state.save();
+        Files.setLastModifiedTime(stateFile, FileTime.from(Instant.EPOCH));
+
+        // when
+        PublishedRecordState.load(stateFile, Duration.ofDays(1L), clockAt(NOW)).save();
+
+        // then
+        assertThat(Files.getLastModifiedTime(stateFile)).isEqualTo(FileTime.from(Instant.EPOCH));
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertThat(files.map(Path::getFileName).map(Path::toString))
+                    .containsExactlyInAnyOrder("published", "published.lock");
+        }
+    }
+
+    private static Clock clockAt(Instant instant) {
+        return Clock.fixed(instant, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.app.update;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.ok;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.tomakehurst.wiremock.extension.ResponseDefinitionTransformerV2;
+import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import com.github.tomakehurst.wiremock.stubbing.ServeEvent;
+import de.bmarwell.jdyninwx.app.settings.InwxSettings.RecordConfiguration;
+import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import de.bmarwell.jdyninwx.lib.services.ApacheHttpClientIpAddressService;
+import de.bmarwell.jdyninwx.lib.services.ApacheHttpClientStaticInwxUpdateService;
+import de.bmarwell.jdyninwx.lib.services.InwxQueryService;
+import de.bmarwell.jdyninwx.lib.services.InwxUpdateService;
+import de.bmarwell.jdyninwx.lib.services.InwxUpdateService.InwxCredentials;
+import java.net.InetAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+// each test stubs its own responses on the shared server.
+@Execution(ExecutionMode.SAME_THREAD)
+class RecordUpdateEngineTest {
+
+    private static final ConcurrentRequests CONCURRENT_REQUESTS = new ConcurrentRequests();
+
+    @RegisterExtension
+    static WireMockExtension SERVER = WireMockExtension.newInstance()
+            .options(wireMockConfig().dynamicPort().extensions(CONCURRENT_REQUESTS))
+            .build();
+
+    private static final String SUCCESS_RESPONSE = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <methodResponse>
+               <params>
+                  <param>
+                     <value>
+                        <struct>
+                           <member>
+                              <name>code</name>
+                              <value>
+                                 <int>1000</int>
+                              </value>
+                           </member>
+                           <member>
+                              <name>msg</name>
+                              <value>
+                                 <string>Command completed successfully</string>
+                              </value>
+                           </member>
+                        </struct>
+                     </value>
+                  </param>
+               </params>
+            </methodResponse>
+            """;
+
+    private final InwxUpdateService updateService = new ApacheHttpClientStaticInwxUpdateService()
+            .withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+            .withApiEndpoint(URI.create(SERVER.baseUrl()));
+
+    private final InwxQueryService queryService = new ApacheHttpClientIpAddressService()
+            .<InwxQueryService>withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+            .withApiEndpoint(URI.create(SERVER.baseUrl()));
+
+    @AfterEach
+    void tearDown() {
+        updateService.close();
+        queryService.close();
+    }
+
+    @Test
+    void updates_records_concurrently() throws Exception {
+        // given
+        CONCURRENT_REQUESTS.holdUntilInFlight(6);
+        SERVER.stubFor(post("/")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withBody(SUCCESS_RESPONSE)
+                        .withTransformers(ConcurrentRequests.NAME)));
+        List<RecordConfiguration> records = LongStream.rangeClosed(1L, 6L)
+                .mapToObj(id -> new RecordConfiguration(new InwxRecordId(id), Duration.ofSeconds(300L * id)))
+                .toList();
+        RecordUpdateEngine engine = new RecordUpdateEngine(updateService, 6);
+
+        // when
+        List<RecordUpdateOutcome> outcomes = engine.updateAll(records, InetAddress.getByName("192.0.2.1"));
+
+        // then
+        assertThat(outcomes).hasSize(6).allMatch(RecordUpdateOutcome::isSuccess);
+        assertThat(outcomes).extracting(RecordUpdateOutcome::record).containsExactlyElementsOf(records);
+        assertThat(CONCURRENT_REQUESTS.maxInFlight()).isEqualTo(6);
+    }
+
+    @Test
+    void never_exceeds_the_concurrency() throws Exception {
+        // given
+        CONCURRENT_REQUESTS.holdUntilInFlight(2);
+        SERVER.stubFor(post("/")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withBody(SUCCESS_RESPONSE)
+                        .withTransformers(ConcurrentRequests.NAME)));
+        List<RecordConfiguration> records = LongStream.rangeClosed(1L, 6L)
+                .mapToObj(id -> new RecordConfiguration(new InwxRecordId(id), Duration.ofSeconds(300L * id)))
+                .toList();
+        RecordUpdateEngine engine = new RecordUpdateEngine(updateService, 2);
+
+        // when
+        List<RecordUpdateOutcome> outcomes = engine.updateAll(records, InetAddress.getByName("192.0.2.1"));
+
+        // then
+        assertThat(outcomes).hasSize(6).allMatch(RecordUpdateOutcome::isSuccess);
+        assertThat(CONCURRENT_REQUESTS.maxInFlight()).isEqualTo(2);
+    }
+
+    @Test
+    void failing_record_does_not_abort_batch() throws Exception {
+        // given
+        SERVER.stubFor(post("/").willReturn(ok(SUCCESS_RESPONSE)));
+        SERVER.stubFor(post("/")
+                .withRequestBody(containing("<int>2</int>"))
+                .willReturn(aResponse().withStatus(500)));
+        SERVER.stubFor(post("/")
+                .withRequestBody(containing("<int>3</int>"))
+                .willReturn(ok(SUCCESS_RESPONSE.replace("1000", "2303"))));
+        // distinct TTLs, so every record is updated by its own call.
+        List<RecordConfiguration> records = LongStream.rangeClosed(1L, 4L)
+                .mapToObj(id -> new RecordConfiguration(new InwxRecordId(id), Duration.ofSeconds(300L * id)))
+                .toList();
+        RecordUpdateEngine engine = new RecordUpdateEngine(updateService, 2);
+
+        // when
+        List<RecordUpdateOutcome> outcomes = engine.updateAll(records, InetAddress.getByName("192.0.2.1"));
+
+        // then
+        assertThat(outcomes).extracting(RecordUpdateOutcome::isSuccess).containsExactly(true, false, false, true);
+        assertThat(outcomes.get(2).error()).hasMessageContaining("2303");
+    }
+
+    @Test
+    void records_sharing_a_ttl_are_updated_by_one_call() throws Exception {
+        // given
+        SERVER.stubFor(post("/").willReturn(ok(SUCCESS_RESPONSE)));
+        List<RecordConfiguration> records = List.of(
+                new RecordConfiguration(new InwxRecordId(1L), Duration.ofSeconds(300L)),
+                new RecordConfiguration(new InwxRecordId(2L), Duration.ofSeconds(3600L)),
+                new RecordConfiguration(new InwxRecordId(3L), Duration.ofSeconds(300L)));
+        RecordUpdateEngine engine = new RecordUpdateEngine(updateService, 2);
+
+        // when
+        List<RecordUpdateOutcome> outcomes = engine.updateAll(records, InetAddress.getByName("192.0.2.1"));
+
+        // then
+        assertThat(outcomes).allMatch(RecordUpdateOutcome::isSuccess);
+        assertThat(outcomes).extracting(RecordUpdateOutcome::record).containsExactlyElementsOf(records);
+        SERVER.verify(2, postRequestedFor(urlEqualTo("/")));
+        SERVER.verify(
+                1,
+                postRequestedFor(urlEqualTo("/"))
+                        .withRequestBody(containing("<int>1</int>"))
+                        .withRequestBody(containing("<int>3</int>")));
+    }
+
+    @Test
+    void rejected_call_is_retried_record_by_record() throws Exception {
+        // given
+        SERVER.stubFor(post("/").willReturn(ok(SUCCESS_RESPONSE)));
+        SERVER.stubFor(post("/")
+                .withRequestBody(containing("<array>"))
+                .willReturn(ok(SUCCESS_RESPONSE.replace("1000", "2303"))));
+        SERVER.stubFor(post("/")
+                .withRequestBody(containing("<name>id</name><value><int>2</int>"))
+                .willReturn(ok(SUCCESS_RESPONSE.replace("1000", "2303"))));
+        List<RecordConfiguration> records = LongStream.rangeClosed(1L, 3L)
+                .mapToObj(id -> new RecordConfiguration(new InwxRecordId(id), Duration.ofSeconds(300L)))
+                .toList();
+        RecordUpdateEngine engine = new RecordUpdateEngine(updateService, 2);
+
+        // when
+        List<RecordUpdateOutcome> outcomes = engine.updateAll(records, InetAddress.getByName("192.0.2.1"));
+
+        // then
+        assertThat(outcomes).extracting(RecordUpdateOutcome::isSuccess).containsExactly(true, false, true);
+        assertThat(outcomes.get(1).error()).hasMessageContaining("2303");
+        SERVER.verify(4, postRequestedFor(urlEqualTo("/")));
+    }
+
+    @Test
+    void uses_multicall_when_batching_is_enabled() throws Exception {
+        // given
+        SERVER.stubFor(
+                post("/")
+                        .withRequestBody(containing("system.multicall"))
+                        .willReturn(
+                                ok("""
+                        <?xml version="1.0" encoding="UTF-8"?>
+                        <methodResponse><params><param><value><array><data>
+                        <value><array><data><value><struct>
+                          <member><name>code</name><value><int>1000</int></value></member>
+                        </struct></value></data></array></value>
+                        <value><struct>
+                          <member><name>faultCode</name><value><int>2303</int></value></member>
+                        </struct></value>
+                        </data></array></value></param></params></methodResponse>
+                        """)));
+        List<RecordConfiguration> records = LongStream.rangeClosed(1L, 2L)
+                .mapToObj(id -> new RecordConfiguration(new InwxRecordId(id), Duration.ofSeconds(300L)))
+                .toList();
+        RecordUpdateEngine engine = new RecordUpdateEngine(updateService, 2, true);
+
+        // when
+        List<RecordUpdateOutcome> outcomes = engine.updateAll(records, InetAddress.getByName("192.0.2.1"));
+
+        // then
+        assertThat(outcomes).extracting(RecordUpdateOutcome::isSuccess).containsExactly(true, false);
+        SERVER.verify(1, postRequestedFor(urlEqualTo("/")));
+    }
+
+    @Test
+    void records_already_up_to_date_are_not_written() throws Exception {
+        // given
+        SERVER.stubFor(
+                post("/")
+                        .withRequestBody(containing("nameserver.info"))
+                        .willReturn(
+                                ok("""
+                        <?xml version="1.0" encoding="UTF-8"?>
+                        <methodResponse><params><param><value><struct>
+                          <member><name>code</name><value><int>1000</int></value></member>
+                          <member><name>resData</name><value><struct>
+                            <member><name>record</name><value><array><data>
+                              <value><struct>
+                                <member><name>id</name><value><int>1</int></value></member>
+                                <member><name>type</name><value><string>A</string></value></member>
+                                <member><name>content</name><value><string>192.0.2.1</string></value></member>
+                                <member><name>ttl</name><value><int>300</int></value></member>
+                              </struct></value>
+                              <value><struct>
+                                <member><name>id</name><value><int>2</int></value></member>
+                                <member><name>type</name><value><string>A</string></value></member>
+                                <member><name>content</name><value><string>192.0.2.9</string></value></member>
+                                <member><name>ttl</name><value><int>300</int></value></member>
+                              </struct></value>
+                            </data></array></value></member>
+                          </struct></value></member>
+                        </struct></value></param></params></methodResponse>
+                        """)));
+        SERVER.stubFor(
+                post("/").withRequestBody(containing("nameserver.updateRecord")).willReturn(ok(SUCCESS_RESPONSE)));
+        List<RecordConfiguration> records = LongStream.rangeClosed(1L, 2L)
+                .mapToObj(id -> new RecordConfiguration(
+                        new InwxRecordId(id), Duration.ofSeconds(300L), Optional.of("example.com")))
+                .toList();
+        RecordUpdateEngine engine = new RecordUpdateEngine(updateService, queryService, 2, false);
+
+        // when
+        List<RecordUpdateOutcome> outcomes = engine.updateAll(records, InetAddress.getByName("192.0.2.1"));
+
+        // then
+        assertThat(outcomes).allMatch(RecordUpdateOutcome::isSuccess);
+        assertThat(outcomes).extracting(RecordUpdateOutcome::unchanged).containsExactly(true, false);
+        SERVER.verify(1, postRequestedFor(urlEqualTo("/")).withRequestBody(containing("nameserver.info")));
+        SERVER.verify(
+                1,
+                postRequestedFor(urlEqualTo("/"))
+                        .withRequestBody(containing("nameserver.updateRecord"))
+                        .withRequestBody(containing("<int>2</int>")));
+        SERVER.verify(2, postRequestedFor(urlEqualTo("/")));
+    }
+
+    @Test
+    void address_families_share_the_current_records_of_a_domain_per_cycle() throws Exception {
+        // given
+        SERVER.stubFor(
+                post("/")
+                        .withRequestBody(containing("nameserver.info"))
+                        .willReturn(
+                                ok("""
+                        <?xml version="1.0" encoding="UTF-8"?>
+                        <methodResponse><params><param><value><struct>
+                          <member><name>code</name><value><int>1000</int></value></member>
+                          <member><name>resData</name><value><struct>
+                            <member><name>record</name><value><array><data>
+                              <value><struct>
+                                <member><name>id</name><value><int>1</int></value></member>
+                                <member><name>type</name><value><string>A</string></value></member>
+                                <member><name>content</name><value><string>192.0.2.1</string></value></member>
+                                <member><name>ttl</name><value><int>300</int></value></member>
+                              </struct></value>
+                              <value><struct>
+                                <member><name>id</name><value><int>2</int></value></member>
+                                <member><name>type</name><value><string>AAAA</string></value></member>
+                                <member><name>content</name><value><string>2001:db8::1</string></value></member>
+                                <member><name>ttl</name><value><int>300</int></value></member>
+                              </struct></value>
+                            </data></array></value></member>
+                          </struct></value></member>
+                        </struct></value></param></params></methodResponse>
+                        """)));
+        RecordConfiguration ipv4Record =
+                new RecordConfiguration(new InwxRecordId(1L), Duration.ofSeconds(300L), Optional.of("example.com"));
+        RecordConfiguration ipv6Record =
+                new RecordConfiguration(new InwxRecordId(2L), Duration.ofSeconds(300L), Optional.of("Example.com"));
+        RecordUpdateEngine engine = new RecordUpdateEngine(updateService, queryService, 2, false);
+
+        // when
+        engine.startCycle();
+        List<RecordUpdateOutcome> ipv4Outcomes =
+                engine.updateAll(List.of(ipv4Record), InetAddress.getByName("192.0.2.1"));
+        List<RecordUpdateOutcome> ipv6Outcomes =
+                engine.updateAll(List.of(ipv6Record), InetAddress.getByName("2001:db8::1"));
+
+        // then
+        assertThat(ipv4Outcomes).extracting(RecordUpdateOutcome::unchanged).containsExactly(true);
+        assertThat(ipv6Outcomes).extracting(RecordUpdateOutcome::unchanged).containsExactly(true);
+        SERVER.verify(1, postRequestedFor(urlEqualTo("/")).withRequestBody(containing("nameserver.info")));
+
+        // next cycle reads them again
+        engine.startCycle();
+        engine.updateAll(List.of(ipv4Record), InetAddress.getByName("192.0.2.1"));
+        SERVER.verify(2, postRequestedFor(urlEqualTo("/")).withRequestBody(containing("nameserver.info")));
+    }
+
+    /**
+     * Holds each request until the expected number of requests is in flight, and counts the most seen at once.
+     *
+     * <p>If fewer requests than expected arrive, each one is released after a timeout, so a missing request fails the
+     * assertion on {@link #maxInFlight()} instead of blocking the test.</p>
+     */
+    private static final class ConcurrentRequests implements ResponseDefinitionTransformerV2 {
+
+        static final String NAME = "concurrent-requests";
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        private volatile CountDownLatch expected = new CountDownLatch(0);
+
+        void holdUntilInFlight(int requests) {
+            this.maxInFlight.set(0);
+            this.expected = new CountDownLatch(requests);
+        }
+
+        int maxInFlight() {
+            return this.maxInFlight.get();
+        }
+
+        @Override
+        public ResponseDefinition transform(ServeEvent serveEvent) {
+            final CountDownLatch latch = this.expected;
+            this.maxInFlight.accumulateAndGet(this.inFlight.incrementAndGet(), Math::max);
+            latch.countDown();
+            try {
+                latch.await(5L, TimeUnit.SECONDS);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            } finally {
+                this.inFlight.decrementAndGet();
+            }
+
+            return serveEvent.getResponseDefinition();
+        }
+
+        @Override
+        public boolean applyGlobally() {
+            return false;
+        }
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+    }
+}
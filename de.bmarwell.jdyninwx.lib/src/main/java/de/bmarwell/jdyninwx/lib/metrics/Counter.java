@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A value which only ever increases, e.g. the number of failed record updates.
+ */
+public final class Counter implements Metric {
+
+    private final LongAdder value = new LongAdder();
+
+    Counter() {
+        // created by the registry.
+    }
+
+    public void increment() {
+        this.value.increment();
+    }
+
+    /**
+     * Increases the counter.
+     *
+     * @param amount the amount to add, must not be negative.
+     */
+    public void add(long amount) {
+        if (amount < 0L) {
+            throw new IllegalArgumentException("A counter cannot decrease, but amount was: " + amount);
+        }
+
+        this.value.add(amount);
+    }
+
+    public long get() {
+        return this.value.sum();
+    }
+
+    @Override
+    public void writeSamples(Appendable out, String name, String labels) throws IOException {
+        PrometheusTextFormat.writeSample(out, name, labels, Long.toString(get()));
+    }
+}
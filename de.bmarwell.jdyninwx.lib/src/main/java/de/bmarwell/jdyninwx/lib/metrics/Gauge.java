@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.metrics;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value which can go up and down, e.g. the time of the last successful update.
+ */
+public final class Gauge implements Metric {
+
+    private final AtomicLong bits = new AtomicLong(Double.doubleToRawLongBits(0.0d));
+
+    Gauge() {
+        // created by the registry.
+    }
+
+    public void set(double value) {
+        this.bits.set(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Sets the gauge to the current time, in seconds since the epoch.
+     *
+     * @param clock the clock to read the time from.
+     */
+    public void setToCurrentTime(Clock clock) {
+        set(clock.millis() / 1_000.0d);
+    }
+
+    public double get() {
+        return Double.longBitsToDouble(this.bits.get());
+    }
+
+    @Override
+    public void writeSamples(Appendable out, String name, String labels) throws IOException {
+        PrometheusTextFormat.writeSample(out, name, labels, PrometheusTextFormat.format(get()));
+    }
+}
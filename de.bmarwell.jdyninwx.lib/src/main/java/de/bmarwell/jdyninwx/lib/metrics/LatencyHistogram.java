@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.metrics;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in fixed buckets, exposed in seconds.
+ *
+ * <p>Recording a duration only increments an atomic bucket counter and adds to a {@link LongAdder}, so it never
+ * blocks, even while the histogram is being written. A sample written concurrently with a recording may therefore be
+ * off by that single recording.</p>
+ */
+public final class LatencyHistogram implements Metric {
+
+    /**
+     * Upper bounds of the buckets, from one millisecond (a local resolver) to 30 seconds (a timed out API call).
+     */
+    static final Duration[] DEFAULT_BUCKETS = {
+        Duration.ofMillis(1L),
+        Duration.ofMillis(5L),
+        Duration.ofMillis(10L),
+        Duration.ofMillis(25L),
+        Duration.ofMillis(50L),
+        Duration.ofMillis(100L),
+        Duration.ofMillis(250L),
+        Duration.ofMillis(500L),
+        Duration.ofSeconds(1L),
+        Duration.ofMillis(2_500L),
+        Duration.ofSeconds(5L),
+        Duration.ofSeconds(10L),
+        Duration.ofSeconds(30L)
+    };
+
+    private final long[] upperBoundsNanos;
+
+    /**
+     * The number of recordings per bucket, not cumulative; the last bucket has no upper bound.
+     */
+    private final AtomicLongArray buckets;
+
+    private final LongAdder sumNanos = new LongAdder();
+
+    LatencyHistogram() {
+        this(DEFAULT_BUCKETS);
+    }
+
+    LatencyHistogram(Duration... upperBounds) {
+        this.upperBoundsNanos =
+                Arrays.stream(upperBounds).mapToLong(Duration::toNanos).sorted().toArray();
+        this.buckets = new AtomicLongArray(this.upperBoundsNanos.length + 1);
+    }
+
+    public void record(Duration duration) {
+        recordNanos(duration.toNanos());
+    }
+
+    /**
+     * Records the time elapsed since the given start.
+     *
+     * @param startNanos the start, as returned by {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    public void recordNanos(long nanos) {
+        final long duration = Math.max(0L, nanos);
+        final int index = Arrays.binarySearch(this.upperBoundsNanos, duration);
+        this.buckets.incrementAndGet(index >= 0 ? index : -index - 1);
+        this.sumNanos.add(duration);
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     *
+     * @return the sum of all buckets.
+     */
+    public long count() {
+        long count = 0L;
+        for (int bucket = 0; bucket < this.buckets.length(); bucket++) {
+            count += this.buckets.get(bucket);
+        }
+
+        return count;
+    }
+
+    public Duration sum() {
+        return Duration.ofNanos(this.sumNanos.sum());
+    }
+
+    @Override
+    public void writeSamples(Appendable out, String name, String labels) throws IOException {
+        String labelPrefix;
+        if (labels.isEmpty()) {
+            labelPrefix = "";
+        } else {
+            labelPrefix = labels + ",";
+        }
+        long cumulative = 0L;
+        for (int bucket = 0; bucket < this.upperBoundsNanos.length; bucket++) {
+            cumulative += this.buckets.get(bucket);
+            final String upperBound = PrometheusTextFormat.format(this.upperBoundsNanos[bucket] / 1e9d);
+            PrometheusTextFormat.writeSample(
+                    out, name + "_bucket", labelPrefix + "le=\"" + upperBound + "\"", Long.toString(cumulative));
+        }
+        cumulative += this.buckets.get(this.upperBoundsNanos.length);
+        PrometheusTextFormat.writeSample(out, name + "_bucket", labelPrefix + "le=\"+Inf\"", Long.toString(cumulative));
+        PrometheusTextFormat.writeSample(
+                out, name + "_sum", labels, PrometheusTextFormat.format(this.sumNanos.sum() / 1e9d));
+        PrometheusTextFormat.writeSample(out, name + "_count", labels, Long.toString(cumulative));
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.metrics;
+
+import java.io.IOException;
+
+/**
+ * A single time series (or, for histograms, a group of them) of a {@link MetricsRegistry.Family}.
+ */
+public sealed interface Metric permits Counter, Gauge, LatencyHistogram {
+
+    /**
+     * Writes the samples of this metric in the Prometheus text format.
+     *
+     * @param out the output to append to.
+     * @param name the name of the family.
+     * @param labels the rendered labels of this metric, e.g. {@code method="nameserver.info"}, or an empty string.
+     * @throws IOException if the output cannot be written.
+     */
+    void writeSamples(Appendable out, String name, String labels) throws IOException;
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Holds the counters, gauges and latency histograms of the services, keyed by name and label values.
+ *
+ * <p>The services record into the {@link #shared() registry shared by the JVM} unless another one is set using
+ * {@link de.bmarwell.jdyninwx.lib.services.InwxService#withMetricsRegistry(MetricsRegistry)}:</p>
+ *
+ * <ul>
+ *     <li>{@value #IDENT_REQUEST_DURATION} per {@code resolver} and {@code outcome},</li>
+ *     <li>{@value #API_REQUEST_DURATION} per API {@code method} and {@code outcome},</li>
+ *     <li>{@value #PARSE_DURATION} per API {@code method} and {@code outcome}.</li>
+ * </ul>
+ *
+ * <p>The registry can be exposed using a {@link PrometheusHttpServer} or a {@link PrometheusTextFile}.</p>
+ */
+public final class MetricsRegistry {
+
+    public static final String IDENT_REQUEST_DURATION = "jdyninwx_ident_request_duration_seconds";
+    public static final String API_REQUEST_DURATION = "jdyninwx_api_request_duration_seconds";
+    public static final String PARSE_DURATION = "jdyninwx_parse_duration_seconds";
+
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_FAILURE = "failure";
+
+    private static final MetricsRegistry SHARED = new MetricsRegistry();
+
+    private static final Pattern METRIC_NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+    private static final Pattern LABEL_NAME = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+
+    private final ConcurrentMap<String, Family<?>> families = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty registry, e.g. to keep the metrics of a test or an embedding application apart from the
+     * {@link #shared() shared} one.
+     */
+    public MetricsRegistry() {
+        // no metrics until they are registered.
+    }
+
+    /**
+     * Returns the registry shared by all services of this JVM.
+     *
+     * @return the shared registry.
+     */
+    public static MetricsRegistry shared() {
+        return SHARED;
+    }
+
+    public Family<Counter> counter(String name, String help, String... labelNames) {
+        return register(name, help, Type.COUNTER, labelNames, Counter::new);
+    }
+
+    public Family<Gauge> gauge(String name, String help, String... labelNames) {
+        return register(name, help, Type.GAUGE, labelNames, Gauge::new);
+    }
+
+    public Family<LatencyHistogram> histogram(String name, String help, String... labelNames) {
+        return register(name, help, Type.HISTOGRAM, labelNames, LatencyHistogram::new);
+    }
+
+    public Family<LatencyHistogram> identRequestDuration() {
+        return histogram(
+                IDENT_REQUEST_DURATION, "Duration of the requests to the IDENT resolvers.", "resolver", "outcome");
+    }
+
+    public Family<LatencyHistogram> apiRequestDuration() {
+        return histogram(
+                API_REQUEST_DURATION, "Duration of the HTTP exchanges with the INWX API.", "method", "outcome");
+    }
+
+    public Family<LatencyHistogram> parseDuration() {
+        return histogram(PARSE_DURATION, "Duration of parsing INWX API responses.", "method", "outcome");
+    }
+
+    /**
+     * Returns the outcome label of a result.
+     *
+     * @param success whether the operation succeeded.
+     * @return {@value #OUTCOME_SUCCESS} or {@value #OUTCOME_FAILURE}.
+     */
+    public static String outcome(boolean success) {
+        if (success) {
+            return OUTCOME_SUCCESS;
+        } else {
+            return OUTCOME_FAILURE;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <M extends Metric> Family<M> register(
+            String name, String help, Type type, String[] labelNames, Supplier<M> factory) {
+        Objects.requireNonNull(help, "help");
+        final Family<?> family = this.families.computeIfAbsent(name, key -> {
+            validate(key, type, labelNames);
+            return new Family<>(key, help, type, labelNames.clone(), factory);
+        });
+
+        if (family.type != type || !Arrays.equals(family.labelNames, labelNames)) {
+            throw new IllegalArgumentException("Metric [%s] is already registered as %s with labels %s."
+                    .formatted(name, family.type, Arrays.toString(family.labelNames)));
+        }
+
+        return (Family<M>) family;
+    }
+
+    private static void validate(String name, Type type, String[] labelNames) {
+        if (!METRIC_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid metric name: " + name);
+        }
+        for (String labelName : labelNames) {
+            if (!LABEL_NAME.matcher(labelName).matches() || labelName.startsWith("__")) {
+                throw new IllegalArgumentException("Invalid label name: " + labelName);
+            }
+            if (type == Type.HISTOGRAM && "le".equals(labelName)) {
+                throw new IllegalArgumentException("Histograms cannot have a label named le.");
+            }
+        }
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text exposition format, version 0.0.4.
+     *
+     * <p>Families are ordered by name, and their metrics by label values, so consecutive outputs are easy to
+     * compare.</p>
+     *
+     * @param out the output to append to.
+     * @throws IOException if the output cannot be written.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        final List<Family<?>> sortedFamilies = this.families.values().stream()
+                .sorted(Comparator.comparing(family -> family.name))
+                .toList();
+        for (Family<?> family : sortedFamilies) {
+            family.writeTo(out);
+        }
+    }
+
+    /**
+     * Returns all metrics in the Prometheus text exposition format.
+     *
+     * @return the text written by {@link #writeTo(Appendable)}.
+     */
+    public String toPrometheusText() {
+        final StringBuilder text = new StringBuilder(4_096);
+        try {
+            writeTo(text);
+        } catch (IOException ioException) {
+            // cannot happen when writing to memory.
+            throw new UncheckedIOException(ioException);
+        }
+
+        return text.toString();
+    }
+
+    enum Type {
+        COUNTER,
+        GAUGE,
+        HISTOGRAM;
+
+        String exposedName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * All metrics of the same name, one per combination of label values.
+     *
+     * @param <M> the metric type.
+     */
+    public static final class Family<M extends Metric> {
+
+        private static final Comparator<List<String>> LABEL_VALUES_ORDER = (left, right) -> {
+            for (int index = 0; index < Math.min(left.size(), right.size()); index++) {
+                final int comparison = left.get(index).compareTo(right.get(index));
+                if (comparison != 0) {
+                    return comparison;
+                }
+            }
+
+            return Integer.compare(left.size(), right.size());
+        };
+
+        private final String name;
+
+        private final String help;
+
+        private final Type type;
+
+        private final String[] labelNames;
+
+        private final Supplier<M> factory;
+
+        private final ConcurrentMap<List<String>, M> metrics = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, Type type, String[] labelNames, Supplier<M> factory) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelNames = labelNames;
+            this.factory = factory;
+        }
+
+        /**
+         * Returns the metric with the given label values, creating it on first use.
+         *
+         * @param labelValues one value per label name of the family, in the same order.
+         * @return the metric.
+         */
+        public M labels(String... labelValues) {
+            if (labelValues.length != this.labelNames.length) {
+                throw new IllegalArgumentException("Metric [%s] expects the labels %s, but got %d values."
+                        .formatted(this.name, Arrays.toString(this.labelNames), labelValues.length));
+            }
+
+            return this.metrics.computeIfAbsent(List.of(labelValues), key -> this.factory.get());
+        }
+
+        private void writeTo(Appendable out) throws IOException {
+            out.append("# HELP ")
+                    .append(this.name)
+                    .append(' ')
+                    .append(PrometheusTextFormat.escapeHelp(this.help))
+                    .append('\n');
+            out.append("# TYPE ")
+                    .append(this.name)
+                    .append(' ')
+                    .append(this.type.exposedName())
+                    .append('\n');
+
+            final List<Map.Entry<List<String>, M>> sortedMetrics = this.metrics.entrySet().stream()
+                    .sorted(Map.Entry.comparingByKey(LABEL_VALUES_ORDER))
+                    .toList();
+            for (Map.Entry<List<String>, M> metric : sortedMetrics) {
+                metric.getValue().writeSamples(out, this.name, renderLabels(metric.getKey()));
+            }
+        }
+
+        private String renderLabels(List<String> labelValues) {
+            final StringBuilder labels = new StringBuilder();
+            for (int index = 0; index < this.labelNames.length; index++) {
+                if (index > 0) {
+                    labels.append(',');
+                }
+                labels.append(this.labelNames[index])
+                        .append("=\"")
+                        .append(PrometheusTextFormat.escapeLabelValue(labelValues.get(index)))
+                        .append('"');
+            }
+
+            return labels.toString();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Serves the metrics of a {@link MetricsRegistry} on {@code /metrics}, for Prometheus to scrape.
+ *
+ * <p>Uses the HTTP server of the JDK, so no further dependencies are needed. Scrapes are answered by a single
+ * thread, one after the other.</p>
+ */
+public final class PrometheusHttpServer implements AutoCloseable {
+
+    public static final String PATH = "/metrics";
+
+    private final HttpServer server;
+
+    private PrometheusHttpServer(HttpServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Starts serving the metrics.
+     *
+     * @param address the address to listen on; port {@code 0} picks a free port.
+     * @param metricsRegistry the metrics to serve.
+     * @return the running server, to be closed on shutdown.
+     * @throws IOException if the address cannot be bound.
+     */
+    public static PrometheusHttpServer start(InetSocketAddress address, MetricsRegistry metricsRegistry)
+            throws IOException {
+        Objects.requireNonNull(metricsRegistry, "metricsRegistry");
+        final HttpServer server = HttpServer.create(address, 0);
+        server.createContext(PATH, exchange -> handle(exchange, metricsRegistry));
+        server.start();
+
+        return new PrometheusHttpServer(server);
+    }
+
+    private static void handle(HttpExchange exchange, MetricsRegistry metricsRegistry) throws IOException {
+        try (exchange) {
+            final String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1L);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", PrometheusTextFormat.CONTENT_TYPE);
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1L);
+                return;
+            }
+
+            final byte[] body = metricsRegistry.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            }
+        }
+    }
+
+    /**
+     * Returns the address the server listens on.
+     *
+     * @return the bound address, including the picked port.
+     */
+    public InetSocketAddress getAddress() {
+        return this.server.getAddress();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Writes the metrics of a {@link MetricsRegistry} to a file, for the textfile collector of the Prometheus
+ * node_exporter.
+ *
+ * <p>Meant for short-lived invocations, e.g. from cron, which are gone before they could be scraped. The file is
+ * replaced atomically, so the collector never reads a partially written file. The collector only reads files
+ * ending in {@code .prom}; the temporary file does not.</p>
+ */
+public final class PrometheusTextFile {
+
+    private PrometheusTextFile() {
+        // utility class
+    }
+
+    /**
+     * Replaces the given file with the current metrics.
+     *
+     * @param file the file to write, e.g. {@code /var/lib/node_exporter/textfile_collector/jdyninwx.prom}.
+     * @param metricsRegistry the metrics to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(Path file, MetricsRegistry metricsRegistry) throws IOException {
+        final Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final Path tempFile = Files.createTempFile(directory, "." + file.getFileName(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                metricsRegistry.writeTo(writer);
+            }
+            // temporary files are only readable by their owner, but the exporter usually runs as another user.
+            if (directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Files.setPosixFilePermissions(tempFile, PosixFilePermissions.fromString("rw-r--r--"));
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
@@ -15,8 +15,18 @@
  */
 package de.bmarwell.jdyninwx.lib.services;
 
+import java.io.IOException;
 import java.io.Serial;
+import java.net.InetAddress;
+import java.net.URI;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Default base implementation for {@code with*()}-methods.
@@ -26,13 +36,31 @@ abstract class AbstractConfigurableHttpClientIpAddressService extends AbstractIn
     @Serial
     private static final long serialVersionUID = -3790874923289555729L;
 
+    private static final System.Logger LOG =
+            System.getLogger(AbstractConfigurableHttpClientIpAddressService.class.getName());
+
     private Duration requestTimeout = Duration.ofMillis(1500L);
     private Duration connectTimeout = Duration.ofMillis(500L);
 
+    private IdentQueryStrategy identQueryStrategy = IdentQueryStrategy.sequential();
+
+    private transient ExecutorService identExecutor = null;
+
+    private int identRequestsPerHour = IdentResolverStatistics.UNLIMITED_BUDGET;
+
+    private String identStatisticsFile = null;
+
+    private transient IdentResolverStatistics identStatistics = null;
+
+    private LocalAddressRules localAddressRules = null;
+
+    private transient LocalAddressDetector localAddressDetector = null;
+
     @SuppressWarnings("unchecked")
     @Override
     public <T extends InwxQueryService> T withRequestTimeout(Duration timeout) {
         this.requestTimeout = timeout;
+        releaseOwnHttpClientRegistry();
         return (T) this;
     }
 
@@ -40,9 +68,161 @@ abstract class AbstractConfigurableHttpClientIpAddressService extends AbstractIn
     @Override
     public <T extends InwxQueryService> T withConnectTimeout(Duration timeout) {
         this.connectTimeout = timeout;
+        releaseOwnHttpClientRegistry();
+        return (T) this;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends InwxQueryService> T withIdentQueryStrategy(IdentQueryStrategy identQueryStrategy) {
+        this.identQueryStrategy = Objects.requireNonNull(identQueryStrategy, "identQueryStrategy");
+        return (T) this;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public synchronized <T extends InwxQueryService> T withIdentStatisticsFile(Path statisticsFile) {
+        this.identStatisticsFile = statisticsFile == null ? null : statisticsFile.toString();
+        this.identStatistics = null;
         return (T) this;
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    public synchronized <T extends InwxQueryService> T withIdentRequestBudget(int requestsPerHour) {
+        if (requestsPerHour < 1) {
+            throw new IllegalArgumentException("requestsPerHour must be at least 1, but was: " + requestsPerHour);
+        }
+
+        this.identRequestsPerHour = requestsPerHour;
+        this.identStatistics = null;
+        return (T) this;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public synchronized <T extends InwxQueryService> T withLocalAddressDetection(LocalAddressRules localAddressRules) {
+        this.localAddressRules = localAddressRules;
+        this.localAddressDetector = null;
+        return (T) this;
+    }
+
+    /**
+     * Returns the detector for addresses of the local network interfaces.
+     *
+     * @return the detector, or empty if local address detection is disabled.
+     */
+    protected synchronized Optional<LocalAddressDetector> getLocalAddressDetector() {
+        if (this.localAddressRules == null) {
+            return Optional.empty();
+        }
+
+        if (this.localAddressDetector == null) {
+            this.localAddressDetector = new LocalAddressDetector(this.localAddressRules);
+        }
+
+        return Optional.of(this.localAddressDetector);
+    }
+
+    /**
+     * Whether the resolver is asked over UDP instead of HTTP.
+     *
+     * @param resolverUri the ident resolver.
+     * @return {@code true} for {@code dns:} and {@code stun:} resolvers.
+     */
+    protected static boolean isUdpResolver(URI resolverUri) {
+        return DnsIdentClient.isDnsResolver(resolverUri) || StunIdentClient.isStunResolver(resolverUri);
+    }
+
+    /**
+     * Prepares a query to a {@code dns:} or {@code stun:} ident resolver.
+     *
+     * @param resolverUri the ident resolver.
+     * @param family the address family to look up.
+     * @param <T> the address type.
+     * @return an exchange using the {@link #getRequestTimeout() request timeout}.
+     */
+    protected <T extends InetAddress> UdpIdentExchange<T> createUdpIdentExchange(URI resolverUri, Class<T> family) {
+        if (StunIdentClient.isStunResolver(resolverUri)) {
+            return new StunIdentClient(getRequestTimeout()).exchange(resolverUri, family);
+        }
+
+        return new DnsIdentClient(getRequestTimeout()).exchange(resolverUri, family);
+    }
+
+    /**
+     * Returns the statistics used to rank the ident resolvers.
+     *
+     * @return the statistics, loaded from the statistics file on first use if one was set.
+     */
+    public synchronized IdentResolverStatistics getIdentStatistics() {
+        if (this.identStatistics == null) {
+            this.identStatistics = Optional.ofNullable(this.identStatisticsFile)
+                    .map(Path::of)
+                    .map(file -> IdentResolverStatistics.load(file, this.identRequestsPerHour))
+                    .orElseGet(() -> new IdentResolverStatistics(this.identRequestsPerHour));
+        }
+
+        return this.identStatistics;
+    }
+
+    public IdentQueryStrategy getIdentQueryStrategy() {
+        return identQueryStrategy;
+    }
+
+    /**
+     * Returns the executor used to query several ident resolvers concurrently.
+     *
+     * @return a lazily created executor, which is shut down by {@link #close()}.
+     */
+    protected synchronized ExecutorService getIdentExecutor() {
+        if (this.identExecutor == null) {
+            this.identExecutor = Executors.newCachedThreadPool(new IdentThreadFactory());
+        }
+
+        return this.identExecutor;
+    }
+
+    /**
+     * Returns the circuit breaker of an ident resolver.
+     *
+     * @param resolverUri the resolver to query.
+     * @return the circuit breaker guarding calls to the resolver.
+     */
+    protected CircuitBreaker getIdentCircuitBreaker(URI resolverUri) {
+        return getCircuitBreakerRegistry().forEndpoint(resolverUri);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (this.identExecutor != null) {
+                this.identExecutor.shutdownNow();
+                this.identExecutor = null;
+            }
+
+            if (this.identStatistics != null && this.identStatisticsFile != null) {
+                try {
+                    this.identStatistics.save(Path.of(this.identStatisticsFile));
+                } catch (IOException ioException) {
+                    // the statistics are only an optimization; the next invocation just starts over.
+                    LOG.log(
+                            System.Logger.Level.WARNING,
+                            "Unable to save the ident resolver statistics to [" + this.identStatisticsFile + "].",
+                            ioException);
+                }
+            }
+        }
+
+        super.close();
+    }
+
+    @Override
+    protected HttpClientRegistry createHttpClientRegistry() {
+        return new HttpClientRegistry(
+                getConnectTimeout(), getRequestTimeout(), HttpClientRegistry.DEFAULT_MAX_IDLE_TIME);
+    }
+
     public Duration getRequestTimeout() {
         return requestTimeout;
     }
@@ -50,4 +230,16 @@ abstract class AbstractConfigurableHttpClientIpAddressService extends AbstractIn
     public Duration getConnectTimeout() {
         return connectTimeout;
     }
+
+    private static final class IdentThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "jdyninwx-ident-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
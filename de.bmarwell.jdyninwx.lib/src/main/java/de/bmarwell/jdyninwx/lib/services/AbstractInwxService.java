@@ -15,30 +15,567 @@
  */
 package de.bmarwell.jdyninwx.lib.services;
 
+import de.bmarwell.jdyninwx.lib.metrics.MetricsRegistry;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResult;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.impl.classic.AbstractHttpClientResponseHandler;
+import org.apache.hc.client5.http.impl.classic.BasicHttpClientResponseHandler;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
 
 public abstract class AbstractInwxService implements InwxService {
 
     private InwxUpdateService.InwxCredentials credentials = null;
 
-    private URI apiEndpoint = URI.create("https://api.domrobot.com/xmlrpc/");
+    private InwxApiProtocol apiProtocol = InwxApiProtocol.XML_RPC;
+
+    private URI apiEndpoint = null;
+
+    private boolean sessionLogin = false;
+
+    private String sessionFile = null;
+
+    private transient InwxSession session = null;
+
+    private transient HttpClientRegistry httpClientRegistry = null;
+
+    private transient boolean ownsHttpClientRegistry = false;
+
+    private transient Executor executor = null;
+
+    private transient CircuitBreakerRegistry circuitBreakerRegistry = null;
+
+    private transient RateLimiterRegistry rateLimiterRegistry = null;
+
+    private RetrySettings retrySettings = RetrySettings.disabled();
+
+    private transient RetryPolicy retryPolicy = null;
+
+    private transient MetricsRegistry metricsRegistry = null;
+
+    private transient Template.CompiledCredentials compiledCredentials = null;
 
     @SuppressWarnings("unchecked")
-    public <T extends InwxService> T withCredentials(InwxUpdateService.InwxCredentials credentials) {
+    public synchronized <T extends InwxService> T withCredentials(InwxUpdateService.InwxCredentials credentials) {
         this.credentials = credentials;
+        this.compiledCredentials = null;
+        this.session = null;
 
         return (T) this;
     }
 
     @SuppressWarnings("unchecked")
-    public <T extends InwxService> T withApiEndpoint(URI apiEndpoint) {
+    public synchronized <T extends InwxService> T withApiEndpoint(URI apiEndpoint) {
         this.apiEndpoint = apiEndpoint;
+        this.session = null;
+        return (T) this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends InwxService> T withApiProtocol(InwxApiProtocol apiProtocol) {
+        this.apiProtocol = Objects.requireNonNull(apiProtocol, "apiProtocol");
+        this.session = null;
+        return (T) this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends InwxService> T withSessionLogin(boolean sessionLogin) {
+        this.sessionLogin = sessionLogin;
+        return (T) this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends InwxService> T withSessionFile(Path sessionFile) {
+        this.sessionFile = sessionFile == null ? null : sessionFile.toString();
+        this.session = null;
+        return (T) this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends InwxService> T withHttpClientRegistry(HttpClientRegistry httpClientRegistry) {
+        releaseOwnHttpClientRegistry();
+        this.httpClientRegistry = httpClientRegistry;
+        this.ownsHttpClientRegistry = false;
+        this.session = null;
+        return (T) this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends InwxService> T withExecutor(Executor executor) {
+        this.executor = Objects.requireNonNull(executor, "executor");
         return (T) this;
     }
 
-    public URI getApiEndpoint() {
-        return apiEndpoint;
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends InwxService> T withCircuitBreakerRegistry(
+            CircuitBreakerRegistry circuitBreakerRegistry) {
+        this.circuitBreakerRegistry = Objects.requireNonNull(circuitBreakerRegistry, "circuitBreakerRegistry");
+        return (T) this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends InwxService> T withRateLimiterRegistry(RateLimiterRegistry rateLimiterRegistry) {
+        this.rateLimiterRegistry = Objects.requireNonNull(rateLimiterRegistry, "rateLimiterRegistry");
+        return (T) this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends InwxService> T withRetrySettings(RetrySettings retrySettings) {
+        this.retrySettings = Objects.requireNonNull(retrySettings, "retrySettings");
+        this.retryPolicy = null;
+        return (T) this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized <T extends InwxService> T withMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = Objects.requireNonNull(metricsRegistry, "metricsRegistry");
+        return (T) this;
+    }
+
+    /**
+     * Returns the endpoint the API calls are sent to.
+     *
+     * @return the endpoint set using {@link #withApiEndpoint(URI)}, or the default endpoint of the
+     *     {@link #getApiProtocol() protocol}.
+     */
+    public synchronized URI getApiEndpoint() {
+        return Optional.ofNullable(this.apiEndpoint).orElseGet(this.apiProtocol::defaultApiEndpoint);
+    }
+
+    public synchronized InwxApiProtocol getApiProtocol() {
+        return this.apiProtocol;
+    }
+
+    protected Executor getExecutor() {
+        return Optional.ofNullable(this.executor).orElseGet(ForkJoinPool::commonPool);
+    }
+
+    /**
+     * Returns the registry used for HTTP calls.
+     *
+     * <p>If no registry was set using {@link #withHttpClientRegistry(HttpClientRegistry)}, a new one will be created
+     * on first use. That one is owned by this service and will be closed by {@link #close()}.</p>
+     *
+     * @return the registry to obtain pooled HTTP clients from.
+     */
+    protected synchronized HttpClientRegistry getHttpClientRegistry() {
+        if (this.httpClientRegistry == null || (this.ownsHttpClientRegistry && this.httpClientRegistry.isClosed())) {
+            this.httpClientRegistry = createHttpClientRegistry();
+            this.ownsHttpClientRegistry = true;
+            this.session = null;
+        }
+
+        return this.httpClientRegistry;
+    }
+
+    /**
+     * Returns the circuit breakers guarding the HTTP calls of this service.
+     *
+     * @return the registry set using {@link #withCircuitBreakerRegistry(CircuitBreakerRegistry)}, or one created on
+     *     first use.
+     */
+    protected synchronized CircuitBreakerRegistry getCircuitBreakerRegistry() {
+        if (this.circuitBreakerRegistry == null) {
+            this.circuitBreakerRegistry = new CircuitBreakerRegistry();
+        }
+
+        return this.circuitBreakerRegistry;
+    }
+
+    /**
+     * Returns the rate limiters of the API calls of this service.
+     *
+     * @return the registry set using {@link #withRateLimiterRegistry(RateLimiterRegistry)}, or the
+     *     {@link RateLimiterRegistry#shared() shared} one.
+     */
+    protected synchronized RateLimiterRegistry getRateLimiterRegistry() {
+        return Optional.ofNullable(this.rateLimiterRegistry).orElseGet(RateLimiterRegistry::shared);
+    }
+
+    /**
+     * Returns the policy retrying idempotent calls of this service.
+     *
+     * @return a policy using the settings set by {@link #withRetrySettings(RetrySettings)}.
+     */
+    protected synchronized RetryPolicy getRetryPolicy() {
+        if (this.retryPolicy == null) {
+            this.retryPolicy = new RetryPolicy(this.retrySettings);
+        }
+
+        return this.retryPolicy;
+    }
+
+    /**
+     * Returns the registry the calls of this service are recorded into.
+     *
+     * @return the registry set using {@link #withMetricsRegistry(MetricsRegistry)}, or the
+     *     {@link MetricsRegistry#shared() shared} one.
+     */
+    protected synchronized MetricsRegistry getMetricsRegistry() {
+        return Optional.ofNullable(this.metricsRegistry).orElseGet(MetricsRegistry::shared);
+    }
+
+    /**
+     * Parses a response and records how long that took in {@link MetricsRegistry#PARSE_DURATION}.
+     *
+     * @param method the method whose response is parsed.
+     * @param parser parses the response.
+     * @param <T> the type of the parsed data.
+     * @return the result of the parser.
+     */
+    <T> XmlRpcResult<T> timedParse(Template.MethodName method, Supplier<XmlRpcResult<T>> parser) {
+        return timedParse(method, parser, XmlRpcResult::isSuccess);
+    }
+
+    /**
+     * Variant of {@link #timedParse(Template.MethodName, Supplier)} for parsers with other results.
+     *
+     * @param method the method whose response is parsed.
+     * @param parser parses the response.
+     * @param isSuccess decides the outcome label of the parsed result.
+     * @param <T> the type of the parsed result.
+     * @return the result of the parser.
+     */
+    <T> T timedParse(Template.MethodName method, Supplier<T> parser, Predicate<T> isSuccess) {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final T result = parser.get();
+            success = isSuccess.test(result);
+            return result;
+        } finally {
+            getMetricsRegistry()
+                    .parseDuration()
+                    .labels(methodLabel(method), MetricsRegistry.outcome(success))
+                    .recordSince(start);
+        }
+    }
+
+    private void recordApiRequest(Template.Request apiRequest, boolean success, long startNanos) {
+        getMetricsRegistry()
+                .apiRequestDuration()
+                .labels(methodLabel(apiRequest.method()), MetricsRegistry.outcome(success))
+                .recordSince(startNanos);
+    }
+
+    private static String methodLabel(Template.MethodName method) {
+        if (method != null) {
+            return method.inwxName().toString();
+        } else {
+            return "unknown";
+        }
+    }
+
+    protected HttpClientRegistry createHttpClientRegistry() {
+        return new HttpClientRegistry();
+    }
+
+    /**
+     * Closes a self-created registry, so that the next call will create a new one with the current settings.
+     */
+    protected synchronized void releaseOwnHttpClientRegistry() {
+        if (this.ownsHttpClientRegistry && this.httpClientRegistry != null) {
+            this.httpClientRegistry.close();
+            this.httpClientRegistry = null;
+            this.ownsHttpClientRegistry = false;
+        }
+    }
+
+    public boolean isSessionLogin() {
+        return this.sessionLogin;
+    }
+
+    /**
+     * Creates a call in the {@link #getApiProtocol() protocol} of this service.
+     *
+     * @return an authenticated call, see {@link #authenticate(CallBuilder)}.
+     */
+    CallBuilder newCall() {
+        return authenticate(getApiProtocol().callBuilder());
+    }
+
+    /**
+     * Adds the credentials to the call, unless it is authenticated by a session.
+     *
+     * @param builder the call to authenticate.
+     * @param <B> the type of the builder.
+     * @return the given builder.
+     */
+    <B extends CallBuilder> B authenticate(B builder) {
+        if (isSessionLogin()) {
+            return builder;
+        }
+
+        builder.withCredentials(getCompiledCredentials());
+
+        return builder;
+    }
+
+    /**
+     * The credentials are encoded once per service, as they are added to every call.
+     */
+    private synchronized Template.CompiledCredentials getCompiledCredentials() {
+        if (this.compiledCredentials == null) {
+            this.compiledCredentials = Template.compile(getCredentials().orElseThrow());
+        }
+
+        return this.compiledCredentials;
+    }
+
+    /**
+     * Posts a request to the API endpoint.
+     *
+     * <p>In session mode, a session is established first. If INWX rejects the session, a new one is established
+     * and the request is sent again once.</p>
+     *
+     * <p>The request is guarded by the {@link CircuitBreaker} of the API endpoint: while it is open, the request
+     * fails fast without being sent. Before that, it takes a token from the {@link RateLimiter} of the account, if
+     * one is configured, and waits for it or fails with a {@link RateLimitExceededException}.</p>
+     *
+     * <p>{@link Template.Request#isIdempotent() Idempotent} requests which fail transiently are sent again according
+     * to the {@link #getRetryPolicy() retry policy}, each attempt taking its own token.</p>
+     *
+     * @param apiRequest the request body, created using {@link #newCall()}.
+     * @return the raw response body.
+     */
+    protected Result<String> postApiRequest(Template.Request apiRequest) {
+        final InwxApiProtocol protocol = getApiProtocol();
+
+        return retried(
+                apiRequest,
+                () -> rateLimited(() -> getCircuitBreakerRegistry()
+                        .forEndpoint(getApiEndpoint())
+                        .execute(() -> postAuthenticatedApiRequest(
+                                () -> doPostApiRequest(apiRequest, new BasicHttpClientResponseHandler()),
+                                protocol::isAuthenticationError))),
+                protocol::isTransientError);
+    }
+
+    /**
+     * Variant of {@link #postApiRequest(Template.Request)} which parses the response while it is being received.
+     *
+     * <p>The response body is never buffered as a whole, so the parser decides how much of it is kept in memory.</p>
+     *
+     * @param apiRequest the request body, created using {@link #newCall()}.
+     * @param responseParser reads the response body. The stream is closed afterwards.
+     * @param <T> the type of the parsed data.
+     * @return the parsed response.
+     */
+    <T> Result<XmlRpcResult<T>> postApiRequest(
+            Template.Request apiRequest, Function<InputStream, XmlRpcResult<T>> responseParser) {
+        final AbstractHttpClientResponseHandler<XmlRpcResult<T>> responseHandler =
+                new AbstractHttpClientResponseHandler<>() {
+                    @Override
+                    public XmlRpcResult<T> handleEntity(HttpEntity entity) throws IOException {
+                        try (InputStream content = entity.getContent()) {
+                            return timedParse(apiRequest.method(), () -> responseParser.apply(content));
+                        }
+                    }
+                };
+
+        // the parser may already have passed records to a consumer, so only failures before the response are retried.
+        return retried(
+                apiRequest,
+                () -> rateLimited(() -> getCircuitBreakerRegistry()
+                        .forEndpoint(getApiEndpoint())
+                        .execute(() -> postAuthenticatedApiRequest(
+                                () -> doPostApiRequest(apiRequest, responseHandler),
+                                response -> response.isSuccess()
+                                        && InwxSession.isAuthenticationError(response.response())))),
+                response -> false);
+    }
+
+    private <T> Result<T> retried(
+            Template.Request apiRequest, Supplier<Result<T>> call, Predicate<T> isTransientResponse) {
+        if (!apiRequest.isIdempotent()) {
+            return call.get();
+        }
+
+        return getRetryPolicy().execute(call, isTransientResponse);
+    }
+
+    private <T> Result<T> rateLimited(Supplier<Result<T>> apiRequest) {
+        return getApiRateLimiter()
+                .map(rateLimiter -> rateLimiter.execute(apiRequest))
+                .orElseGet(apiRequest);
+    }
+
+    private Optional<RateLimiter> getApiRateLimiter() {
+        final String account = getCredentials()
+                .map(InwxUpdateService.InwxCredentials::username)
+                .orElse(null);
+
+        return getRateLimiterRegistry().forAccount(getApiEndpoint(), account);
+    }
+
+    private <T> Result<T> postAuthenticatedApiRequest(
+            Supplier<Result<T>> apiRequest, Predicate<T> isAuthenticationError) {
+        if (!isSessionLogin()) {
+            return apiRequest.get();
+        }
+
+        final InwxSession currentSession = getSession();
+        final Result<Instant> login = currentSession.ensureLoggedIn();
+        if (login.isError()) {
+            return Result.fail(login.error());
+        }
+
+        final long generation = currentSession.generation();
+        final Result<T> response = apiRequest.get();
+        if (response.isError() || !isAuthenticationError.test(response.success())) {
+            return response;
+        }
+
+        currentSession.invalidate(generation);
+        final Result<Instant> relogin = currentSession.ensureLoggedIn();
+        if (relogin.isError()) {
+            return Result.fail(relogin.error());
+        }
+
+        return apiRequest.get();
+    }
+
+    /**
+     * Non-blocking variant of {@link #postApiRequest(Template.Request)}.
+     *
+     * <p>A login, if needed, runs on the {@link #getExecutor() executor}. A request waiting for a token of its
+     * {@link RateLimiter} or for its next retry does not block a thread.</p>
+     *
+     * @param apiRequest the request body, created using {@link #newCall()}.
+     * @return a future which completes with the raw response body; cancelling it aborts the request.
+     */
+    protected CompletableFuture<Result<String>> postApiRequestAsync(Template.Request apiRequest) {
+        final Supplier<CompletableFuture<Result<String>>> guardedRequest = () -> getCircuitBreakerRegistry()
+                .forEndpoint(getApiEndpoint())
+                .executeAsync(() -> postAuthenticatedApiRequestAsync(apiRequest));
+        final Supplier<CompletableFuture<Result<String>>> rateLimitedRequest = () -> getApiRateLimiter()
+                .map(rateLimiter -> rateLimiter.executeAsync(guardedRequest, getExecutor()))
+                .orElseGet(guardedRequest);
+
+        if (!apiRequest.isIdempotent()) {
+            return rateLimitedRequest.get();
+        }
+
+        return getRetryPolicy().executeAsync(rateLimitedRequest, getApiProtocol()::isTransientError, getExecutor());
+    }
+
+    private CompletableFuture<Result<String>> postAuthenticatedApiRequestAsync(Template.Request apiRequest) {
+        if (!isSessionLogin()) {
+            return doPostApiRequestAsync(apiRequest);
+        }
+
+        final InwxSession currentSession = getSession();
+        final InwxApiProtocol protocol = getApiProtocol();
+
+        return CompletableFuture.supplyAsync(currentSession::ensureLoggedIn, getExecutor())
+                .thenCompose(login -> {
+                    if (login.isError()) {
+                        return CompletableFuture.completedFuture(Result.<String>fail(login.error()));
+                    }
+
+                    final long generation = currentSession.generation();
+                    return doPostApiRequestAsync(apiRequest).thenCompose(response -> {
+                        if (response.isError() || !protocol.isAuthenticationError(response.success())) {
+                            return CompletableFuture.completedFuture(response);
+                        }
+
+                        return CompletableFuture.supplyAsync(
+                                        () -> {
+                                            currentSession.invalidate(generation);
+                                            return currentSession.ensureLoggedIn();
+                                        },
+                                        getExecutor())
+                                .thenCompose(relogin -> relogin.isError()
+                                        ? CompletableFuture.completedFuture(Result.<String>fail(relogin.error()))
+                                        : doPostApiRequestAsync(apiRequest));
+                    });
+                });
+    }
+
+    private <T> Result<T> doPostApiRequest(Template.Request apiRequest, HttpClientResponseHandler<T> responseHandler) {
+        final long start = System.nanoTime();
+        try {
+            CloseableHttpClient client = getHttpClientRegistry().apiClient();
+            HttpPost httpPost = new HttpPost(getApiEndpoint());
+            httpPost.setEntity(apiRequest.toEntity());
+            httpPost.setHeader("Content-Type", apiRequest.contentType());
+            httpPost.setHeader("Accept", apiRequest.contentType());
+            T execute = client.execute(httpPost, responseHandler);
+            recordApiRequest(apiRequest, true, start);
+
+            return Result.ok(execute);
+        } catch (IOException | RuntimeException e) {
+            recordApiRequest(apiRequest, false, start);
+            return Result.fail(e);
+        }
+    }
+
+    private CompletableFuture<Result<String>> doPostApiRequestAsync(Template.Request apiRequest) {
+        try {
+            SimpleHttpRequest httpPost = SimpleRequestBuilder.post(getApiEndpoint())
+                    .setBody(apiRequest.toByteArray(), apiRequest.contentType())
+                    .setHeader("Accept", apiRequest.contentType().toString())
+                    .build();
+
+            final long start = System.nanoTime();
+            final CompletableFuture<Result<String>> response = AsyncHttpExchange.execute(
+                    getHttpClientRegistry().apiAsyncClient(),
+                    httpPost,
+                    getExecutor(),
+                    httpResponse -> Result.ok(httpResponse.getBodyText()));
+            response.whenComplete((result, error) -> {
+                if (!response.isCancelled()) {
+                    recordApiRequest(apiRequest, error == null && result.isSuccess(), start);
+                }
+            });
+
+            return response;
+        } catch (RuntimeException runtimeException) {
+            return CompletableFuture.completedFuture(Result.fail(runtimeException));
+        }
+    }
+
+    synchronized InwxSession getSession() {
+        if (this.session == null) {
+            this.session = getHttpClientRegistry()
+                    .session(
+                            getApiEndpoint(),
+                            getApiProtocol(),
+                            getCredentials().orElseThrow(() -> new IllegalStateException("No credentials configured!")),
+                            Optional.ofNullable(this.sessionFile).map(Path::of).orElse(null));
+        }
+
+        return this.session;
+    }
+
+    @Override
+    public void close() {
+        releaseOwnHttpClientRegistry();
     }
 
     protected Optional<InwxUpdateService.InwxCredentials> getCredentials() {
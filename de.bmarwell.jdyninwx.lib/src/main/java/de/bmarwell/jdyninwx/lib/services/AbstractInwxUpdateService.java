@@ -15,6 +15,7 @@
  */
 package de.bmarwell.jdyninwx.lib.services;
 
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResult;
 import java.io.Serial;
 import java.time.Duration;
 
@@ -28,6 +29,8 @@ abstract class AbstractInwxUpdateService extends AbstractInwxService implements
 
     private int defaultTtlSeconds = 300;
 
+    private int multicallBatchSize = 50;
+
     @Override
     public int getDefaultTtlSeconds() {
         return defaultTtlSeconds;
@@ -41,4 +44,33 @@ abstract class AbstractInwxUpdateService extends AbstractInwxService implements
 
         return (T) this;
     }
+
+    @Override
+    public Result<InwxResponse> parseUpdateResponse(String rawResponse) {
+        final XmlRpcResult<Void> xmlRpcResult =
+                timedParse(Template.MethodName.nameserver_updateRecord, () -> getApiProtocol()
+                        .parseResponse(rawResponse));
+        if (xmlRpcResult.isError()) {
+            return Result.fail(xmlRpcResult.error());
+        }
+
+        return Result.ok(InwxResponse.of(xmlRpcResult.response()));
+    }
+
+    @Override
+    public int getMulticallBatchSize() {
+        return multicallBatchSize;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends InwxUpdateService> T withMulticallBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1, but was: " + batchSize);
+        }
+
+        this.multicallBatchSize = batchSize;
+
+        return (T) this;
+    }
 }
@@ -16,7 +16,10 @@
 package de.bmarwell.jdyninwx.lib.services;
 
 import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
-import de.bmarwell.jdyninwx.xml.ResultUtility;
+import de.bmarwell.jdyninwx.lib.metrics.MetricsRegistry;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResponse;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResult;
+import de.bmarwell.jdyninwx.xmlrpc.XmlRpcValue;
 import java.io.IOException;
 import java.io.Serial;
 import java.net.Inet4Address;
@@ -24,24 +27,29 @@ import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import org.apache.hc.client5.http.SystemDefaultDnsResolver;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
-import org.apache.hc.client5.http.classic.methods.HttpPost;
-import org.apache.hc.client5.http.config.ConnectionConfig;
 import org.apache.hc.client5.http.impl.classic.BasicHttpClientResponseHandler;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
-import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
-import org.apache.hc.client5.http.io.HttpClientConnectionManager;
-import org.apache.hc.core5.http.ContentType;
-import org.apache.hc.core5.http.io.entity.StringEntity;
 
 /**
  * Apache HttpClient-based IP Address Service.
+ *
+ * <p>Ident resolvers using the {@code dns:} scheme, e.g. {@code dns://resolver1.opendns.com/myip.opendns.com}, or the
+ * {@code stun:} scheme, e.g. {@code stun:stun.l.google.com:19302}, are asked using a single UDP exchange instead of an
+ * HTTP request, see {@link DnsIdentClient} and {@link StunIdentClient}.</p>
  */
 public class ApacheHttpClientIpAddressService extends AbstractConfigurableHttpClientIpAddressService
         implements InwxQueryService {
@@ -49,6 +57,8 @@ public class ApacheHttpClientIpAddressService extends AbstractConfigurableHttpCl
     @Serial
     private static final long serialVersionUID = 3653973017046313858L;
 
+    private transient NameServerInfoCache nameServerInfoCache = null;
+
     /**
      * Constructs a default, immutable instance.
      */
@@ -61,11 +71,232 @@ public class ApacheHttpClientIpAddressService extends AbstractConfigurableHttpCl
         return getResolverResponseForFamily(ipv4resolver, IpFamily.IPV4);
     }
 
+    @Override
+    public CompletableFuture<Result<Inet4Address>> getInet4AddressAsync(URI ipv4resolver) {
+        return getResolverResponseForFamilyAsync(ipv4resolver, IpFamily.IPV4);
+    }
+
+    @Override
+    public CompletableFuture<Result<Inet6Address>> getInet6AddressAsync(URI ipv6resolver) {
+        return getResolverResponseForFamilyAsync(ipv6resolver, IpFamily.IPV6);
+    }
+
+    /**
+     * Non-blocking variant of {@link #getResolverResponseForFamily(URI, IpFamily)}.
+     */
+    private <T extends InetAddress> CompletableFuture<Result<T>> getResolverResponseForFamilyAsync(
+            URI resolverUri, IpFamily ipFamily) {
+        if (isUdpResolver(resolverUri)) {
+            return queryResolverForFamilyAsync(resolverUri, ipFamily);
+        }
+
+        return getRetryPolicy()
+                .executeAsync(
+                        () -> queryResolverForFamilyAsync(resolverUri, ipFamily), response -> false, getExecutor());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends InetAddress> CompletableFuture<Result<T>> queryResolverForFamilyAsync(
+            URI resolverUri, IpFamily ipFamily) {
+        if (isUdpResolver(resolverUri)) {
+            return getUdpResponseForFamilyAsync(resolverUri, ipFamily);
+        }
+
+        try {
+            SimpleHttpRequest getIpRequest = SimpleRequestBuilder.get(resolverUri)
+                    .setHeader("accept", "text/plain")
+                    .build();
+
+            final CircuitBreaker circuitBreaker = getIdentCircuitBreaker(resolverUri);
+            if (!acquireIdentBudget(resolverUri, circuitBreaker)) {
+                return CompletableFuture.completedFuture(Result.fail(budgetExhausted(resolverUri)));
+            }
+
+            return circuitBreaker.executeAsync(() -> {
+                final long start = System.nanoTime();
+                final CompletableFuture<Result<T>> response = AsyncHttpExchange.execute(
+                        getHttpClientRegistry().identAsyncClient(ipFamily),
+                        getIpRequest,
+                        getExecutor(),
+                        httpResponse -> {
+                            String body = httpResponse.getBodyText();
+                            if (body == null || body.isBlank()) {
+                                return Result.fail(new IllegalStateException("empty result"));
+                            }
+
+                            return Result.ok((T) ipFamily.getByName(body.trim()));
+                        });
+                response.whenComplete((result, error) -> {
+                    if (!response.isCancelled()) {
+                        recordIdentStatistics(resolverUri, result, error, start);
+                    }
+                });
+
+                return response;
+            });
+        } catch (IllegalStateException illegalStateException) {
+            return CompletableFuture.completedFuture(Result.fail(illegalStateException));
+        }
+    }
+
+    @Override
+    public Optional<Inet4Address> getFirstResolvedInet4Address(List<URI> ipv4resolvers) {
+        return getFirstResolvedForFamily(ipv4resolvers, IpFamily.IPV4);
+    }
+
+    @Override
+    public Optional<Inet6Address> getFirstResolvedInet6Address(List<URI> ipv6resolvers) {
+        return getFirstResolvedForFamily(ipv6resolvers, IpFamily.IPV6);
+    }
+
     @SuppressWarnings("unchecked")
+    private <T extends InetAddress> Optional<T> getFirstResolvedForFamily(
+            List<URI> configuredResolvers, IpFamily ipFamily) {
+        final Optional<T> localAddress =
+                getLocalAddressDetector().flatMap(detector -> detector.find((Class<T>) ipFamily.implementation));
+        if (localAddress.isPresent()) {
+            return localAddress;
+        }
+
+        final List<URI> resolvers = getIdentStatistics().rank(configuredResolvers);
+
+        if (getIdentQueryStrategy().isSequential()) {
+            // asking the next resolver is the retry, so a failing resolver is not asked again.
+            return resolvers.stream()
+                    .map(resolverUri -> this.<T>queryResolverForFamily(resolverUri, ipFamily))
+                    .filter(Result::isSuccess)
+                    .flatMap(Result::stream)
+                    .findFirst();
+        }
+
+        return new IdentResolverRace<T>(getIdentExecutor(), getIdentQueryStrategy())
+                .firstResolved(
+                        resolvers,
+                        resolverUri -> isUdpResolver(resolverUri)
+                                ? new UdpIdentAttempt<>(resolverUri, ipFamily)
+                                : new HttpIdentAttempt<>(resolverUri, ipFamily));
+    }
+
+    /**
+     * Ident lookups are idempotent, so transient failures of a single HTTP resolver are retried according to the
+     * retry policy.
+     *
+     * <p>Resolvers of a pool are not retried, as the next resolver of the pool is queried instead. UDP resolvers are
+     * not retried either, as the {@link UdpIdentExchange} already sends its query several times.</p>
+     */
     private <T extends InetAddress> Result<T> getResolverResponseForFamily(URI resolverUri, IpFamily ipFamily) {
-        try (CloseableHttpClient client = createApacheHttpClient(ipFamily)) {
-            HttpGet getIpRequest = new HttpGet(resolverUri);
-            getIpRequest.addHeader("accept", "text/plain");
+        if (isUdpResolver(resolverUri)) {
+            return queryResolverForFamily(resolverUri, ipFamily);
+        }
+
+        return getRetryPolicy().execute(() -> queryResolverForFamily(resolverUri, ipFamily), response -> false);
+    }
+
+    private <T extends InetAddress> Result<T> queryResolverForFamily(URI resolverUri, IpFamily ipFamily) {
+        if (isUdpResolver(resolverUri)) {
+            return getUdpResponseForFamily(resolverUri, this.<T>createUdpExchange(resolverUri, ipFamily));
+        }
+
+        return getResolverResponseForFamily(resolverUri, createIdentRequest(resolverUri), ipFamily);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends InetAddress> UdpIdentExchange<T> createUdpExchange(URI resolverUri, IpFamily ipFamily) {
+        return createUdpIdentExchange(resolverUri, (Class<T>) ipFamily.implementation);
+    }
+
+    private <T extends InetAddress> Result<T> getUdpResponseForFamily(URI resolverUri, UdpIdentExchange<T> exchange) {
+        final CircuitBreaker circuitBreaker = getIdentCircuitBreaker(resolverUri);
+        if (!acquireIdentBudget(resolverUri, circuitBreaker)) {
+            return Result.fail(budgetExhausted(resolverUri));
+        }
+
+        return circuitBreaker.execute(
+                () -> {
+                    final long start = System.nanoTime();
+                    final Result<T> result = exchange.execute();
+                    if (!exchange.isCancelled()) {
+                        recordIdentStatistics(resolverUri, result, null, start);
+                    }
+
+                    return result;
+                },
+                exchange::isCancelled);
+    }
+
+    /**
+     * A UDP exchange blocks while waiting for the answer, so it runs on the ident executor.
+     */
+    private <T extends InetAddress> CompletableFuture<Result<T>> getUdpResponseForFamilyAsync(
+            URI resolverUri, IpFamily ipFamily) {
+        final UdpIdentExchange<T> exchange = createUdpExchange(resolverUri, ipFamily);
+        final CompletableFuture<Result<T>> response =
+                CompletableFuture.supplyAsync(() -> getUdpResponseForFamily(resolverUri, exchange), getIdentExecutor());
+        response.whenComplete((result, error) -> {
+            if (response.isCancelled()) {
+                exchange.cancel();
+            }
+        });
+
+        return response;
+    }
+
+    private static HttpGet createIdentRequest(URI resolverUri) {
+        HttpGet getIpRequest = new HttpGet(resolverUri);
+        getIpRequest.addHeader("accept", "text/plain");
+        return getIpRequest;
+    }
+
+    private <T extends InetAddress> Result<T> getResolverResponseForFamily(
+            URI resolverUri, HttpGet getIpRequest, IpFamily ipFamily) {
+        final CircuitBreaker circuitBreaker = getIdentCircuitBreaker(resolverUri);
+        if (!acquireIdentBudget(resolverUri, circuitBreaker)) {
+            return Result.fail(budgetExhausted(resolverUri));
+        }
+
+        // an aborted request lost a race and does not tell anything about the health of the resolver.
+        return circuitBreaker.execute(
+                () -> {
+                    final long start = System.nanoTime();
+                    final Result<T> result = queryResolver(getIpRequest, ipFamily);
+                    if (!getIpRequest.isCancelled()) {
+                        recordIdentStatistics(resolverUri, result, null, start);
+                    }
+
+                    return result;
+                },
+                getIpRequest::isCancelled);
+    }
+
+    /**
+     * Takes a request from the budget of the resolver's host, unless the call will fail fast anyway.
+     */
+    private boolean acquireIdentBudget(URI resolverUri, CircuitBreaker circuitBreaker) {
+        return circuitBreaker.getState() == CircuitBreaker.State.OPEN
+                || getIdentStatistics().tryAcquireBudget(resolverUri);
+    }
+
+    private static IllegalStateException budgetExhausted(URI resolverUri) {
+        return new IllegalStateException("Request budget for ident host [" + IdentResolverStatistics.hostOf(resolverUri)
+                + "] is used up for this hour.");
+    }
+
+    private void recordIdentStatistics(URI resolverUri, Result<?> result, Throwable error, long startNanos) {
+        getMetricsRegistry()
+                .identRequestDuration()
+                .labels(resolverUri.toString(), MetricsRegistry.outcome(error == null && result.isSuccess()))
+                .recordSince(startNanos);
+        if (error == null && result.isSuccess()) {
+            getIdentStatistics().recordSuccess(resolverUri, Duration.ofNanos(System.nanoTime() - startNanos));
+        } else {
+            getIdentStatistics().recordFailure(resolverUri, error != null ? error : result.error());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends InetAddress> Result<T> queryResolver(HttpGet getIpRequest, IpFamily ipFamily) {
+        try {
+            CloseableHttpClient client = getHttpClientRegistry().identClient(ipFamily);
             String execute = client.execute(getIpRequest, new BasicHttpClientResponseHandler());
 
             if (execute.isBlank()) {
@@ -78,64 +309,204 @@ public class ApacheHttpClientIpAddressService extends AbstractConfigurableHttpCl
         }
     }
 
-    CloseableHttpClient createApacheHttpClient(IpFamily ipFamily) {
-        return HttpClientBuilder.create()
-                .useSystemProperties()
-                .setConnectionManager(createConnectionManager(ipFamily))
-                .build();
+    @Override
+    public Result<Inet6Address> getInet6Address(URI ipv6resolver) {
+        return getResolverResponseForFamily(ipv6resolver, IpFamily.IPV6);
     }
 
-    CloseableHttpClient createApacheHttpClient() {
-        return HttpClientBuilder.create().useSystemProperties().build();
+    /**
+     * Lists all records of a domain.
+     *
+     * <p>If the response only differs from the previous response for the same domain in its runtime, the records
+     * parsed from the previous response are returned instead of parsing it again, see {@link NameServerInfoCache}.</p>
+     *
+     * @param domainName the domain to list the records of.
+     * @return all records of the domain.
+     */
+    @Override
+    public Result<List<InwxNameServerRecord>> listAllNameServerRecords(String domainName) {
+        final InwxApiProtocol protocol = getApiProtocol();
+        final NameServerInfoCache cache = getNameServerInfoCache();
+        final Result<XmlRpcResult<List<InwxNameServerRecord>>> response;
+        try {
+            response = postApiRequest(
+                    createListRequest(domainName), rawResponse -> cache.parse(domainName, rawResponse, protocol));
+        } catch (RuntimeException runtimeException) {
+            return Result.fail(runtimeException);
+        }
+
+        if (response.isError()) {
+            return Result.fail(response.error());
+        }
+
+        return toRecords(response.success());
     }
 
-    private HttpClientConnectionManager createConnectionManager(IpFamily ipFamily) {
-        final DnsResolver dnsResolver = new DnsResolver(ipFamily);
-        final ConnectionConfig connConfig = ConnectionConfig.custom()
-                .setConnectTimeout(getConnectTimeout().toMillis(), TimeUnit.MILLISECONDS)
-                .setSocketTimeout(Math.toIntExact(getRequestTimeout().toMillis()), TimeUnit.MILLISECONDS)
-                .build();
+    @Override
+    public Result<InwxResponse> listAllNameServerRecords(
+            String domainName, Consumer<InwxNameServerRecord> recordConsumer) {
+        final InwxApiProtocol protocol = getApiProtocol();
+        final Result<XmlRpcResult<Void>> response;
+        try {
+            response = postApiRequest(
+                    createListRequest(domainName),
+                    rawResponse -> protocol.parseNameServerInfoResponse(rawResponse, recordConsumer));
+        } catch (RuntimeException runtimeException) {
+            return Result.fail(runtimeException);
+        }
 
-        return PoolingHttpClientConnectionManagerBuilder.create()
-                .useSystemProperties()
-                .setDnsResolver(dnsResolver)
-                .setDefaultConnectionConfig(connConfig)
-                .build();
+        if (response.isError()) {
+            return Result.fail(response.error());
+        }
+
+        if (response.success().isError()) {
+            return Result.fail(response.success().error());
+        }
+
+        return Result.ok(InwxResponse.of(response.success().response()));
     }
 
     @Override
-    public Result<Inet6Address> getInet6Address(URI ipv6resolver) {
-        return getResolverResponseForFamily(ipv6resolver, IpFamily.IPV6);
+    public CompletableFuture<Result<List<InwxNameServerRecord>>> listAllNameServerRecordsAsync(String domainName) {
+        final InwxApiProtocol protocol = getApiProtocol();
+        final NameServerInfoCache cache = getNameServerInfoCache();
+        try {
+            return postApiRequestAsync(createListRequest(domainName))
+                    .thenApply(response -> response.isError()
+                            ? Result.fail(response.error())
+                            : toRecords(timedParse(
+                                    Template.MethodName.nameserver_info,
+                                    () -> cache.parse(
+                                            domainName,
+                                            response.success().getBytes(StandardCharsets.UTF_8),
+                                            protocol))));
+        } catch (RuntimeException runtimeException) {
+            return CompletableFuture.completedFuture(Result.fail(runtimeException));
+        }
     }
 
     @Override
-    public Result<List<InwxNameServerRecord>> listAllNameServerRecords(String domainName) {
-        try (CloseableHttpClient client = createApacheHttpClient()) {
-            String xmlPost = createListRequest(domainName);
-            StringEntity entity = new StringEntity(xmlPost, ContentType.APPLICATION_XML);
-            HttpPost httpPost = new HttpPost(getApiEndpoint());
-            httpPost.setEntity(entity);
-            httpPost.setHeader("Content-Type", ContentType.APPLICATION_XML);
-            httpPost.setHeader("Accept", ContentType.APPLICATION_XML);
-            String execute = client.execute(httpPost, new BasicHttpClientResponseHandler());
-
-            ResultUtility.XmlRpcResult<List<InwxNameServerRecord>> xmlRpcResult =
-                    new ResultUtility().parseNameServerInfoResponse(execute);
-
-            return Result.ok(xmlRpcResult.data());
-        } catch (IOException e) {
-            return Result.fail(e);
+    public Flow.Publisher<InwxNameServerRecord> publishNameServerRecords(String domainName, int pageSize) {
+        return new NameServerRecordPublisher(
+                (page, limit) -> listNameServerRecordsPageAsync(domainName, page, limit), pageSize);
+    }
+
+    private CompletableFuture<Result<NameServerRecordPublisher.Page>> listNameServerRecordsPageAsync(
+            String domainName, int page, int pageSize) {
+        final InwxApiProtocol protocol = getApiProtocol();
+        try {
+            return postApiRequestAsync(createListRequest(domainName, page, pageSize))
+                    .thenApply(response -> response.isError()
+                            ? Result.fail(response.error())
+                            : timedParse(
+                                    Template.MethodName.nameserver_info,
+                                    () -> parsePage(response.success(), protocol),
+                                    Result::isSuccess));
+        } catch (RuntimeException runtimeException) {
+            return CompletableFuture.completedFuture(Result.fail(runtimeException));
         }
     }
 
-    protected String createListRequest(String domainName) {
-        return Template.templateBuilder()
+    private static Result<NameServerRecordPublisher.Page> parsePage(String rawResponse, InwxApiProtocol protocol) {
+        final List<InwxNameServerRecord> records = new ArrayList<>();
+        final XmlRpcResult<Integer> xmlRpcResult = protocol.parseNameServerInfoPage(rawResponse, records::add);
+        if (xmlRpcResult.isError()) {
+            return Result.fail(xmlRpcResult.error());
+        }
+
+        final XmlRpcResponse response = xmlRpcResult.response();
+        if (response.code() == null
+                || response.code().intValue() < 1_000
+                || response.code().intValue() >= 2_000) {
+            return Result.fail(new IllegalStateException(
+                    "INWX returned code [%s]: [%s].".formatted(response.code(), response.message())));
+        }
+
+        return Result.ok(new NameServerRecordPublisher.Page(List.copyOf(records), xmlRpcResult.data()));
+    }
+
+    private static Result<List<InwxNameServerRecord>> toRecords(XmlRpcResult<List<InwxNameServerRecord>> xmlRpcResult) {
+        if (xmlRpcResult.isError()) {
+            return Result.fail(xmlRpcResult.error());
+        }
+
+        return Result.ok(xmlRpcResult.data());
+    }
+
+    private synchronized NameServerInfoCache getNameServerInfoCache() {
+        if (this.nameServerInfoCache == null) {
+            this.nameServerInfoCache = new NameServerInfoCache();
+        }
+
+        return this.nameServerInfoCache;
+    }
+
+    protected Template.Request createListRequest(String domainName) {
+        return newCall()
                 .withMethod(Template.MethodName.nameserver_info)
-                .withCredentials(getCredentials().orElseThrow())
-                .withParameter("domain", "string", domainName)
+                .withParameter("domain", XmlRpcValue.of(domainName))
                 .build();
     }
 
+    protected Template.Request createListRequest(String domainName, int page, int pageSize) {
+        return newCall()
+                .withMethod(Template.MethodName.nameserver_info)
+                .withParameter("domain", XmlRpcValue.of(domainName))
+                .withParameter("page", XmlRpcValue.of(page))
+                .withParameter("pagelimit", XmlRpcValue.of(pageSize))
+                .build();
+    }
+
+    /**
+     * An ident request which can be aborted while in flight, e.g. because another resolver answered first.
+     */
+    private final class HttpIdentAttempt<T extends InetAddress> implements IdentResolverRace.Attempt<T> {
+
+        private final URI resolverUri;
+        private final HttpGet request;
+        private final IpFamily ipFamily;
+
+        private HttpIdentAttempt(URI resolverUri, IpFamily ipFamily) {
+            this.resolverUri = resolverUri;
+            this.request = createIdentRequest(resolverUri);
+            this.ipFamily = ipFamily;
+        }
+
+        @Override
+        public Result<T> execute() {
+            return getResolverResponseForFamily(resolverUri, request, ipFamily);
+        }
+
+        @Override
+        public void cancel() {
+            request.cancel();
+        }
+    }
+
+    /**
+     * A DNS or STUN ident query which can be aborted while waiting for the answer.
+     */
+    private final class UdpIdentAttempt<T extends InetAddress> implements IdentResolverRace.Attempt<T> {
+
+        private final URI resolverUri;
+        private final UdpIdentExchange<T> exchange;
+
+        private UdpIdentAttempt(URI resolverUri, IpFamily ipFamily) {
+            this.resolverUri = resolverUri;
+            this.exchange = createUdpExchange(resolverUri, ipFamily);
+        }
+
+        @Override
+        public Result<T> execute() {
+            return getUdpResponseForFamily(resolverUri, exchange);
+        }
+
+        @Override
+        public void cancel() {
+            exchange.cancel();
+        }
+    }
+
     enum IpFamily {
         IPV4(Inet4Address.class, (String host) -> {
             try {
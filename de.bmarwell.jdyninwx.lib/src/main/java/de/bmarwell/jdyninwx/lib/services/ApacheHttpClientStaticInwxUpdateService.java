@@ -16,15 +16,16 @@
 package de.bmarwell.jdyninwx.lib.services;
 
 import de.bmarwell.jdyninwx.common.value.InwxRecordId;
-import java.io.IOException;
+import de.bmarwell.jdyninwx.xml.ResultUtility;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResult;
+import de.bmarwell.jdyninwx.xmlrpc.XmlRpcValue;
 import java.io.Serial;
 import java.net.InetAddress;
-import org.apache.hc.client5.http.classic.methods.HttpPost;
-import org.apache.hc.client5.http.impl.classic.BasicHttpClientResponseHandler;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
-import org.apache.hc.core5.http.ContentType;
-import org.apache.hc.core5.http.io.entity.StringEntity;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * InwxUpdateService based on the Apache HttpCilent and a static template string.
@@ -43,32 +44,146 @@ public class ApacheHttpClientStaticInwxUpdateService extends AbstractInwxUpdateS
 
     @Override
     public Result<String> updateRecord(InwxRecordId dnsRecordId, InetAddress newIp, int ttlSeconds) {
-        try (CloseableHttpClient client = createApacheHttpClient()) {
-            String xmlPost = createPostRequest(dnsRecordId, newIp, ttlSeconds);
-            StringEntity entity = new StringEntity(xmlPost, ContentType.APPLICATION_XML);
-            HttpPost httpPost = new HttpPost(getApiEndpoint());
-            httpPost.setEntity(entity);
-            httpPost.setHeader("Content-Type", ContentType.APPLICATION_XML);
-            httpPost.setHeader("Accept", ContentType.APPLICATION_XML);
-            String execute = client.execute(httpPost, new BasicHttpClientResponseHandler());
-
-            return Result.ok(execute);
-        } catch (IOException e) {
-            return Result.fail(e);
+        try {
+            return postApiRequest(createPostRequest(dnsRecordId, newIp, ttlSeconds));
+        } catch (RuntimeException runtimeException) {
+            return Result.fail(runtimeException);
         }
     }
 
-    CloseableHttpClient createApacheHttpClient() {
-        return HttpClientBuilder.create().useSystemProperties().build();
+    @Override
+    public CompletableFuture<Result<String>> updateRecordAsync(
+            InwxRecordId dnsRecordId, InetAddress newIp, int ttlSeconds) {
+        try {
+            return postApiRequestAsync(createPostRequest(dnsRecordId, newIp, ttlSeconds));
+        } catch (RuntimeException runtimeException) {
+            return CompletableFuture.completedFuture(Result.fail(runtimeException));
+        }
+    }
+
+    @Override
+    public Result<String> updateRecords(Collection<InwxRecordId> dnsRecordIds, InetAddress newIp, int ttlSeconds) {
+        try {
+            return postApiRequest(createPostRequest(dnsRecordIds, newIp, ttlSeconds));
+        } catch (RuntimeException runtimeException) {
+            return Result.fail(runtimeException);
+        }
     }
 
-    protected String createPostRequest(InwxRecordId dnsRecordId, InetAddress newIp, int ttlSeconds) {
-        return Template.templateBuilder()
-                .withCredentials(getCredentials().orElseThrow())
+    @Override
+    public CompletableFuture<Result<String>> updateRecordsAsync(
+            Collection<InwxRecordId> dnsRecordIds, InetAddress newIp, int ttlSeconds) {
+        try {
+            return postApiRequestAsync(createPostRequest(dnsRecordIds, newIp, ttlSeconds));
+        } catch (RuntimeException runtimeException) {
+            return CompletableFuture.completedFuture(Result.fail(runtimeException));
+        }
+    }
+
+    @Override
+    public List<Result<InwxResponse>> updateRecords(Collection<RecordUpdate> updates) {
+        final List<RecordUpdate> allUpdates = List.copyOf(updates);
+        final List<Result<InwxResponse>> results = new ArrayList<>(allUpdates.size());
+        final int batchSize = getMulticallBatchSize();
+
+        for (int start = 0; start < allUpdates.size(); start += batchSize) {
+            final List<RecordUpdate> batch = allUpdates.subList(start, Math.min(start + batchSize, allUpdates.size()));
+            results.addAll(updateBatch(batch));
+        }
+
+        return List.copyOf(results);
+    }
+
+    private List<Result<InwxResponse>> updateBatch(List<RecordUpdate> batch) {
+        if (!getApiProtocol().supportsMulticall()) {
+            return updateConcurrently(batch);
+        }
+
+        final Result<String> xmlResponse;
+        try {
+            xmlResponse = postApiRequest(createMulticallRequest(batch));
+        } catch (RuntimeException runtimeException) {
+            return Collections.nCopies(batch.size(), Result.fail(runtimeException));
+        }
+
+        if (xmlResponse.isError()) {
+            return Collections.nCopies(batch.size(), Result.fail(xmlResponse.error()));
+        }
+
+        final List<XmlRpcResult<Void>> xmlRpcResults = timedParse(
+                Template.MethodName.system_multicall,
+                () -> new ResultUtility().parseMulticallResponse(xmlResponse.success(), batch.size()),
+                parsed -> parsed.stream().allMatch(XmlRpcResult::isSuccess));
+
+        return xmlRpcResults.stream()
+                .map(xmlRpcResult -> xmlRpcResult.isSuccess()
+                        ? Result.ok(InwxResponse.of(xmlRpcResult.response()))
+                        : Result.<InwxResponse>fail(xmlRpcResult.error()))
+                .toList();
+    }
+
+    /**
+     * Sends the calls of a batch concurrently, for protocols without {@code system.multicall}.
+     */
+    private List<Result<InwxResponse>> updateConcurrently(List<RecordUpdate> batch) {
+        final List<CompletableFuture<Result<String>>> responses = batch.stream()
+                .map(update -> updateRecordAsync(update.recordId(), update.newIp(), update.ttlSeconds())
+                        .exceptionally(Result::fail))
+                .toList();
+
+        return responses.stream()
+                .map(CompletableFuture::join)
+                .map(response -> response.isError()
+                        ? Result.<InwxResponse>fail(response.error())
+                        : parseUpdateResponse(response.success()))
+                .toList();
+    }
+
+    protected Template.Request createPostRequest(InwxRecordId dnsRecordId, InetAddress newIp, int ttlSeconds) {
+        return withUpdateParameters(newCall(), new RecordUpdate(dnsRecordId, newIp, ttlSeconds))
+                .build();
+    }
+
+    protected Template.Request createPostRequest(
+            Collection<InwxRecordId> dnsRecordIds, InetAddress newIp, int ttlSeconds) {
+        if (dnsRecordIds.isEmpty()) {
+            throw new IllegalArgumentException("At least one record id is required.");
+        }
+
+        if (dnsRecordIds.size() == 1) {
+            return createPostRequest(dnsRecordIds.iterator().next(), newIp, ttlSeconds);
+        }
+
+        final List<Long> ids =
+                dnsRecordIds.stream().map(InwxRecordId::value).distinct().toList();
+
+        return newCall()
                 .withMethod(Template.MethodName.nameserver_updateRecord)
-                .withParameter("id", "string", dnsRecordId.value())
-                .withParameter("content", "string", newIp.getHostAddress())
-                .withParameter("ttl", "int", Integer.toString(ttlSeconds, 10))
+                .withParameter(
+                        "id",
+                        new XmlRpcValue.Array(ids.stream()
+                                .map(id -> XmlRpcValue.of(id.longValue()))
+                                .toList()))
+                .withParameter("content", XmlRpcValue.of(newIp.getHostAddress()))
+                .withParameter("ttl", XmlRpcValue.of(ttlSeconds))
                 .build();
     }
+
+    protected Template.Request createMulticallRequest(List<RecordUpdate> updates) {
+        final Template.MulticallBuilder multicallBuilder = Template.multicallBuilder();
+        for (RecordUpdate update : updates) {
+            multicallBuilder.withCall(withUpdateParameters(authenticate(Template.multicallEntryBuilder()), update));
+        }
+
+        return multicallBuilder.build();
+    }
+
+    private static <B extends CallBuilder> B withUpdateParameters(B builder, RecordUpdate update) {
+        builder.withMethod(Template.MethodName.nameserver_updateRecord)
+                .withParameter("id", XmlRpcValue.of(update.recordId().value()))
+                .withParameter("content", XmlRpcValue.of(update.newIp().getHostAddress()))
+                .withParameter("ttl", XmlRpcValue.of(update.ttlSeconds()));
+
+        return builder;
+    }
 }
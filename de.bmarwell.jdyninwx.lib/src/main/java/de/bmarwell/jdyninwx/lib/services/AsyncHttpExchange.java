@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import org.apache.hc.client5.http.HttpResponseException;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.HttpStatus;
+
+/**
+ * Bridges the Apache async client to {@link CompletableFuture}s of {@link Result}s.
+ */
+final class AsyncHttpExchange {
+
+    private AsyncHttpExchange() {}
+
+    /**
+     * Executes the request without blocking the calling thread.
+     *
+     * <p>The response handler runs on the given executor, never on the I/O dispatcher.
+     * Errors complete the returned future normally with a failed {@link Result}, just like the blocking methods.
+     * Cancelling the returned future aborts the HTTP exchange.</p>
+     *
+     * @param client the started async client.
+     * @param request the request to send.
+     * @param executor the executor to run the response handler on.
+     * @param responseHandler maps a successful (2xx) response to a result.
+     * @param <T> the result type.
+     * @return a future which completes with the result.
+     */
+    static <T> CompletableFuture<Result<T>> execute(
+            CloseableHttpAsyncClient client,
+            SimpleHttpRequest request,
+            Executor executor,
+            Function<SimpleHttpResponse, Result<T>> responseHandler) {
+        final CompletableFuture<SimpleHttpResponse> exchange = new CompletableFuture<>();
+        final Future<SimpleHttpResponse> httpFuture = client.execute(request, new FutureCallback<>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                exchange.complete(response);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                exchange.completeExceptionally(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                exchange.cancel(false);
+            }
+        });
+
+        final CompletableFuture<Result<T>> result = exchange.handleAsync(
+                (response, error) -> {
+                    if (error != null) {
+                        return Result.fail(unwrap(error));
+                    }
+
+                    if (response.getCode() >= HttpStatus.SC_REDIRECTION) {
+                        return Result.fail(new HttpResponseException(response.getCode(), response.getReasonPhrase()));
+                    }
+
+                    try {
+                        return responseHandler.apply(response);
+                    } catch (RuntimeException runtimeException) {
+                        return Result.fail(runtimeException);
+                    }
+                },
+                executor);
+
+        result.whenComplete((ignored, error) -> {
+            if (result.isCancelled()) {
+                httpFuture.cancel(true);
+            }
+        });
+
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+
+        return error;
+    }
+}
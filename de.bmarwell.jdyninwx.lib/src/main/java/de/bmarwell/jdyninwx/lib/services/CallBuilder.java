@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import de.bmarwell.jdyninwx.xmlrpc.XmlRpcValue;
+
+/**
+ * Builds the request body of a single API call, independent of the {@link InwxApiProtocol} it is encoded in.
+ */
+interface CallBuilder {
+
+    CallBuilder withMethod(Template.MethodName methodName);
+
+    CallBuilder withCredentials(InwxUpdateService.InwxCredentials credentials);
+
+    /**
+     * Adds credentials which were prepared once for all calls of a service.
+     *
+     * @param credentials the credentials, see {@link Template#compile(InwxUpdateService.InwxCredentials)}.
+     * @return this builder.
+     */
+    CallBuilder withCredentials(Template.CompiledCredentials credentials);
+
+    /**
+     * Adds a parameter to the call.
+     *
+     * @param name the name of the parameter.
+     * @param value the typed value, e.g. an array of record ids.
+     * @return this builder.
+     */
+    CallBuilder withParameter(String name, XmlRpcValue value);
+
+    Template.Request build();
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the recent failures of a single endpoint, so that calls to an endpoint known to be down fail fast instead
+ * of waiting for their timeout again.
+ *
+ * <ul>
+ *     <li>{@link State#CLOSED}: all calls are sent. The circuit opens once the failure rate of the last
+ *     {@link CircuitBreakerSettings#windowSize()} calls reaches {@link CircuitBreakerSettings#failureRatePercent()}.</li>
+ *     <li>{@link State#OPEN}: all calls fail with a {@link CircuitBreakerOpenException} without being sent, until the
+ *     {@link CircuitBreakerSettings#coolDown()} has elapsed.</li>
+ *     <li>{@link State#HALF_OPEN}: a single probe call is sent. If it succeeds, the circuit closes again,
+ *     otherwise it opens for another cool-down.</li>
+ * </ul>
+ *
+ * <p>Calls which were started before the circuit opened do not count once it is open, so a late success cannot close
+ * it.</p>
+ *
+ * <p>Cancelled calls, e.g. the losers of an ident resolver race, are not counted.</p>
+ */
+public final class CircuitBreaker {
+
+    private final String endpoint;
+
+    private final CircuitBreakerSettings settings;
+
+    private final Clock clock;
+
+    /**
+     * Ring buffer of the last calls, {@code true} meaning failed.
+     */
+    private final boolean[] window;
+
+    private int windowPosition = 0;
+
+    private int recordedCalls = 0;
+
+    private int failedCalls = 0;
+
+    private State state = State.CLOSED;
+
+    private Instant openUntil = Instant.MIN;
+
+    private boolean probeInFlight = false;
+
+    CircuitBreaker(String endpoint, CircuitBreakerSettings settings, Clock clock) {
+        this.endpoint = Objects.requireNonNull(endpoint, "endpoint");
+        this.settings = Objects.requireNonNull(settings, "settings");
+        this.clock = Objects.requireNonNull(clock, "clock");
+        this.window = new boolean[settings.windowSize()];
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Returns the current state; an open circuit whose cool-down has elapsed is reported as half-open.
+     *
+     * @return the state of this circuit.
+     */
+    public synchronized State getState() {
+        if (this.state == State.OPEN && !clock.instant().isBefore(this.openUntil)) {
+            return State.HALF_OPEN;
+        }
+
+        return this.state;
+    }
+
+    /**
+     * Sends the call unless the circuit is open, and records its outcome.
+     *
+     * @param call the call to send.
+     * @param <T> the result type.
+     * @return the result of the call, or a failed result with a {@link CircuitBreakerOpenException}.
+     */
+    <T> Result<T> execute(Supplier<Result<T>> call) {
+        return execute(call, () -> false);
+    }
+
+    /**
+     * Sends the call unless the circuit is open, and records its outcome.
+     *
+     * @param call the call to send.
+     * @param cancelled tells whether a failed call was cancelled by the caller, which is not counted as a failure.
+     * @param <T> the result type.
+     * @return the result of the call, or a failed result with a {@link CircuitBreakerOpenException}.
+     */
+    <T> Result<T> execute(Supplier<Result<T>> call, BooleanSupplier cancelled) {
+        final Admission admission = tryAcquire();
+        if (admission == Admission.DENIED) {
+            return Result.fail(openException());
+        }
+
+        final Result<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException runtimeException) {
+            onFailure(admission);
+            throw runtimeException;
+        }
+
+        if (result.isSuccess()) {
+            onSuccess(admission);
+        } else if (cancelled.getAsBoolean()) {
+            onCancelled(admission);
+        } else {
+            onFailure(admission);
+        }
+
+        return result;
+    }
+
+    /**
+     * Non-blocking variant of {@link #execute(Supplier)}.
+     *
+     * <p>The outcome is recorded on completion of the returned future, which is the one returned by {@code call},
+     * so cancelling it still aborts the call.</p>
+     *
+     * @param call the call to send.
+     * @param <T> the result type.
+     * @return the future of the call, or a completed future with a {@link CircuitBreakerOpenException}.
+     */
+    <T> CompletableFuture<Result<T>> executeAsync(Supplier<CompletableFuture<Result<T>>> call) {
+        final Admission admission = tryAcquire();
+        if (admission == Admission.DENIED) {
+            return CompletableFuture.completedFuture(Result.fail(openException()));
+        }
+
+        final CompletableFuture<Result<T>> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException runtimeException) {
+            onFailure(admission);
+            throw runtimeException;
+        }
+
+        future.whenComplete((result, error) -> {
+            if (error instanceof CancellationException
+                    || (error instanceof CompletionException && error.getCause() instanceof CancellationException)) {
+                onCancelled(admission);
+            } else if (error == null && result.isSuccess()) {
+                onSuccess(admission);
+            } else {
+                onFailure(admission);
+            }
+        });
+
+        return future;
+    }
+
+    synchronized Admission tryAcquire() {
+        if (this.state == State.CLOSED) {
+            return Admission.CALL;
+        }
+
+        if (this.state == State.OPEN) {
+            if (clock.instant().isBefore(this.openUntil)) {
+                return Admission.DENIED;
+            }
+
+            this.state = State.HALF_OPEN;
+        } else if (this.probeInFlight) {
+            // half-open: only a single probe at a time.
+            return Admission.DENIED;
+        }
+
+        this.probeInFlight = true;
+        return Admission.PROBE;
+    }
+
+    synchronized void onSuccess(Admission admission) {
+        if (admission == Admission.PROBE) {
+            close();
+            return;
+        }
+
+        // calls started before the circuit opened do not count any more.
+        if (this.state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    synchronized void onFailure(Admission admission) {
+        if (admission == Admission.PROBE) {
+            open();
+            return;
+        }
+
+        if (this.state != State.CLOSED) {
+            return;
+        }
+
+        record(true);
+
+        if (this.recordedCalls >= settings.minimumCalls()
+                && this.failedCalls * 100 >= settings.failureRatePercent() * this.recordedCalls) {
+            open();
+        }
+    }
+
+    synchronized void onCancelled(Admission admission) {
+        if (admission == Admission.PROBE) {
+            this.probeInFlight = false;
+        }
+    }
+
+    private void record(boolean failed) {
+        if (this.recordedCalls == this.window.length) {
+            if (this.window[this.windowPosition]) {
+                this.failedCalls--;
+            }
+        } else {
+            this.recordedCalls++;
+        }
+
+        this.window[this.windowPosition] = failed;
+        if (failed) {
+            this.failedCalls++;
+        }
+
+        this.windowPosition = (this.windowPosition + 1) % this.window.length;
+    }
+
+    private void open() {
+        this.state = State.OPEN;
+        this.openUntil = clock.instant().plus(settings.coolDown());
+        this.probeInFlight = false;
+    }
+
+    private void close() {
+        this.state = State.CLOSED;
+        this.probeInFlight = false;
+        this.windowPosition = 0;
+        this.recordedCalls = 0;
+        this.failedCalls = 0;
+    }
+
+    private synchronized CircuitBreakerOpenException openException() {
+        return new CircuitBreakerOpenException(this.endpoint, this.openUntil);
+    }
+
+    /**
+     * How a call was let through; only the probe of a half-open circuit may close or reopen it.
+     */
+    enum Admission {
+        DENIED,
+        CALL,
+        PROBE
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.io.Serial;
+import java.time.Instant;
+
+/**
+ * Returned as the error of a {@link Result} when a call was not sent, because the circuit of its endpoint is open.
+ */
+public class CircuitBreakerOpenException extends IllegalStateException {
+
+    @Serial
+    private static final long serialVersionUID = 6504313563398052727L;
+
+    private final String endpoint;
+
+    private final Instant retryAfter;
+
+    public CircuitBreakerOpenException(String endpoint, Instant retryAfter) {
+        super("Circuit for endpoint [" + endpoint + "] is open until [" + retryAfter + "].");
+        this.endpoint = endpoint;
+        this.retryAfter = retryAfter;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public Instant getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.net.URI;
+import java.time.Clock;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds one {@link CircuitBreaker} per endpoint, i.e. per API endpoint and per ident resolver.
+ *
+ * <p>A registry can be shared by several services, so that a failure seen by one of them protects the others, too.</p>
+ */
+public final class CircuitBreakerRegistry {
+
+    private final CircuitBreakerSettings settings;
+
+    private final Clock clock;
+
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a registry using {@link CircuitBreakerSettings#defaults()}.
+     */
+    public CircuitBreakerRegistry() {
+        this(CircuitBreakerSettings.defaults());
+    }
+
+    public CircuitBreakerRegistry(CircuitBreakerSettings settings) {
+        this(settings, Clock.systemUTC());
+    }
+
+    CircuitBreakerRegistry(CircuitBreakerSettings settings, Clock clock) {
+        this.settings = Objects.requireNonNull(settings, "settings");
+        this.clock = Objects.requireNonNull(clock, "clock");
+    }
+
+    public CircuitBreakerSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Returns the circuit breaker for the given endpoint. Query parameters and fragments are ignored.
+     *
+     * @param endpoint the URI of an API endpoint or ident resolver.
+     * @return the circuit breaker of the endpoint, created on first use.
+     */
+    public CircuitBreaker forEndpoint(URI endpoint) {
+        return circuitBreakers.computeIfAbsent(
+                endpointKey(endpoint), key -> new CircuitBreaker(key, this.settings, this.clock));
+    }
+
+    static String endpointKey(URI endpoint) {
+        final String scheme =
+                Objects.requireNonNullElse(endpoint.getScheme(), "").toLowerCase(Locale.ROOT);
+        if (endpoint.isOpaque()) {
+            // e.g. stun:stun.example.com:3478
+            return scheme + ":" + endpoint.getRawSchemeSpecificPart().toLowerCase(Locale.ROOT);
+        }
+
+        final String authority =
+                Objects.requireNonNullElse(endpoint.getRawAuthority(), "").toLowerCase(Locale.ROOT);
+        final String path = Objects.requireNonNullElse(endpoint.getRawPath(), "");
+
+        return scheme + "://" + authority + path;
+    }
+}
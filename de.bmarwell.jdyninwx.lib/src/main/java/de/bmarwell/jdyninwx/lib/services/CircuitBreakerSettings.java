@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Defines when a {@link CircuitBreaker} opens, and for how long.
+ *
+ * @param windowSize the number of most recent calls used to calculate the failure rate.
+ * @param minimumCalls the number of calls which must have been recorded before the circuit can open.
+ * @param failureRatePercent the failure rate (in percent of the window) at which the circuit opens.
+ * @param coolDown the time an open circuit rejects calls, before a single probe call is let through.
+ */
+public record CircuitBreakerSettings(int windowSize, int minimumCalls, int failureRatePercent, Duration coolDown)
+        implements Serializable {
+
+    public static final int DEFAULT_WINDOW_SIZE = 10;
+    public static final int DEFAULT_MINIMUM_CALLS = 5;
+    public static final int DEFAULT_FAILURE_RATE_PERCENT = 50;
+    public static final Duration DEFAULT_COOL_DOWN = Duration.ofSeconds(30L);
+
+    public CircuitBreakerSettings {
+        Objects.requireNonNull(coolDown, "coolDown");
+
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1, but was: " + windowSize);
+        }
+        if (minimumCalls < 1 || minimumCalls > windowSize) {
+            throw new IllegalArgumentException(
+                    "minimumCalls must be between 1 and windowSize, but was: " + minimumCalls);
+        }
+        if (failureRatePercent < 1 || failureRatePercent > 100) {
+            throw new IllegalArgumentException(
+                    "failureRatePercent must be between 1 and 100, but was: " + failureRatePercent);
+        }
+        if (coolDown.isNegative()) {
+            throw new IllegalArgumentException("coolDown must not be negative, but was: " + coolDown);
+        }
+    }
+
+    /**
+     * Opens after at least 5 of the last 10 calls failed, and probes again after 30 seconds.
+     *
+     * @return the default settings.
+     */
+    public static CircuitBreakerSettings defaults() {
+        return new CircuitBreakerSettings(
+                DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_RATE_PERCENT, DEFAULT_COOL_DOWN);
+    }
+
+    public CircuitBreakerSettings withCoolDown(Duration coolDown) {
+        return new CircuitBreakerSettings(this.windowSize, this.minimumCalls, this.failureRatePercent, coolDown);
+    }
+}
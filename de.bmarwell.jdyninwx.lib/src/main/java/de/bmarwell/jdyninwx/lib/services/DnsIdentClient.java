@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal DNS client for "what is my IP" responders.
+ *
+ * <p>Some DNS servers answer a special name with the source address of the query, e.g.
+ * {@code dns://resolver1.opendns.com/myip.opendns.com?type=A} or
+ * {@code dns://ns1.google.com/o-o.myaddr.l.google.com?type=TXT}. A single UDP packet pair then replaces a whole HTTPS
+ * exchange. The URI follows RFC 4501: the authority is the server to ask, the path is the name to query and the
+ * optional {@code type} parameter is one of {@code A}, {@code AAAA} or {@code TXT}. Without it, {@code A} is asked for
+ * IPv4 and {@code AAAA} for IPv6. The server is always contacted using the requested address family, as that is the
+ * address the responder sees.</p>
+ *
+ * <p>The query is sent with a random id, see {@link UdpIdentExchange}. Answers with another id or for another question
+ * are ignored. Truncated answers are not retried over TCP.</p>
+ */
+final class DnsIdentClient {
+
+    static final String SCHEME = "dns";
+
+    static final int DEFAULT_PORT = 53;
+
+    private static final int HEADER_SIZE = 12;
+
+    private static final int FLAG_RESPONSE = 0x8000;
+    private static final int MASK_OPCODE = 0x7800;
+    private static final int FLAG_TRUNCATED = 0x0200;
+    private static final int FLAG_RECURSION_DESIRED = 0x0100;
+    private static final int MASK_RCODE = 0x000F;
+
+    private static final int CLASS_IN = 1;
+
+    private static final Pattern IPV4_LITERAL = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+    private static final Pattern IPV6_LITERAL = Pattern.compile("[0-9a-fA-F.]*:[0-9a-fA-F:.]*");
+
+    private final Duration timeout;
+
+    DnsIdentClient(Duration timeout) {
+        this.timeout = Objects.requireNonNull(timeout, "timeout");
+    }
+
+    static boolean isDnsResolver(URI resolverUri) {
+        return SCHEME.equalsIgnoreCase(resolverUri.getScheme());
+    }
+
+    /**
+     * Prepares a query, which is only sent by {@link Exchange#execute()}.
+     *
+     * @param resolverUri the responder and the name to query, see above.
+     * @param family the address family to look up.
+     * @param <T> the address type.
+     * @return a new, cancellable exchange.
+     */
+    <T extends InetAddress> Exchange<T> exchange(URI resolverUri, Class<T> family) {
+        return new Exchange<>(resolverUri, family);
+    }
+
+    enum RecordType {
+        A(1),
+        TXT(16),
+        AAAA(28);
+
+        private final int code;
+
+        RecordType(int code) {
+            this.code = code;
+        }
+    }
+
+    /**
+     * A parsed {@code dns:} URI.
+     */
+    record Query(String host, int port, String name, RecordType type) {
+
+        static Query parse(URI resolverUri, Class<? extends InetAddress> family) {
+            if (resolverUri.getHost() == null) {
+                throw new IllegalArgumentException("DNS ident resolver without a server: [" + resolverUri + "].");
+            }
+
+            String name = Objects.requireNonNullElse(resolverUri.getPath(), "");
+            name = name.startsWith("/") ? name.substring(1) : name;
+            name = name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+            if (name.isEmpty() || name.length() > 253) {
+                throw new IllegalArgumentException("DNS ident resolver without a valid name: [" + resolverUri + "].");
+            }
+            for (String label : name.split("\\.", -1)) {
+                if (label.isEmpty()
+                        || label.length() > 63
+                        || !StandardCharsets.US_ASCII.newEncoder().canEncode(label)) {
+                    throw new IllegalArgumentException(
+                            "DNS ident resolver with an invalid label [" + label + "]: [" + resolverUri + "].");
+                }
+            }
+            RecordType type;
+
+            if (Inet6Address.class.equals(family)) {
+                type = RecordType.AAAA;
+            } else {
+                type = RecordType.A;
+            }
+            if (resolverUri.getQuery() != null) {
+                for (String parameter : resolverUri.getQuery().split("[;&]")) {
+                    final String[] keyValue = parameter.split("=", 2);
+                    if (keyValue.length == 2 && "type".equalsIgnoreCase(keyValue[0].trim())) {
+                        type = RecordType.valueOf(keyValue[1].trim().toUpperCase(Locale.ROOT));
+                    }
+                }
+            }
+            int port;
+
+            if (resolverUri.getPort() == -1) {
+                port = DEFAULT_PORT;
+            } else {
+                port = resolverUri.getPort();
+            }
+
+            return new Query(resolverUri.getHost(), port, name.toLowerCase(Locale.ROOT), type);
+        }
+    }
+
+    /**
+     * A single query, which can be cancelled from another thread.
+     *
+     * @param <T> the address type.
+     */
+    final class Exchange<T extends InetAddress> extends UdpIdentExchange<T> {
+
+        private Query query;
+
+        private Exchange(URI resolverUri, Class<T> family) {
+            super(resolverUri, family, timeout);
+        }
+
+        @Override
+        InetSocketAddress prepare() throws UnknownHostException {
+            this.query = Query.parse(resolverUri(), family());
+
+            return resolveServer(query.host(), query.port());
+        }
+
+        @Override
+        ByteBuffer createRequest() {
+            return encodeQuery(RANDOM.nextInt(0x1_0000), query);
+        }
+
+        /**
+         * Decodes an answer to the request.
+         *
+         * @return empty if the packet does not answer the request and should be ignored.
+         */
+        @Override
+        Optional<Result<T>> decodeResponse(ByteBuffer response, ByteBuffer request) {
+            final int questionEnd = request.limit();
+            try {
+                final int flags = Short.toUnsignedInt(response.getShort(2));
+                if (response.limit() < questionEnd
+                        || response.getShort(0) != request.getShort(0)
+                        || (flags & FLAG_RESPONSE) == 0
+                        || (flags & MASK_OPCODE) != 0
+                        || response.getShort(4) != 1
+                        || !sameQuestion(response, request)) {
+                    return Optional.empty();
+                }
+
+                if ((flags & FLAG_TRUNCATED) != 0) {
+                    return Optional.of(
+                            Result.fail(new IllegalStateException("Truncated DNS answer for [" + query.name() + "].")));
+                }
+
+                final int rcode = flags & MASK_RCODE;
+                if (rcode != 0) {
+                    return Optional.of(Result.fail(new IllegalStateException(
+                            "DNS answer for [" + query.name() + "] has response code [" + rcode + "].")));
+                }
+
+                final int answers = Short.toUnsignedInt(response.getShort(6));
+                int position = questionEnd;
+                for (int answer = 0; answer < answers; answer++) {
+                    position = skipName(response, position);
+                    final int type = Short.toUnsignedInt(response.getShort(position));
+                    final int recordClass = Short.toUnsignedInt(response.getShort(position + 2));
+                    final int length = Short.toUnsignedInt(response.getShort(position + 8));
+                    final int data = position + 10;
+                    position = data + length;
+                    if (position > response.limit() || type != query.type().code || recordClass != CLASS_IN) {
+                        continue;
+                    }
+                    Optional<T> address;
+
+                    if (query.type() == RecordType.TXT) {
+                        address = decodeText(response, data, position);
+                    } else {
+                        address = decodeAddress(response, data, length);
+                    }
+                    if (address.isPresent()) {
+                        return Optional.of(Result.ok(address.orElseThrow()));
+                    }
+                }
+            } catch (IndexOutOfBoundsException malformed) {
+                return Optional.empty();
+            }
+
+            return Optional.of(Result.fail(new IllegalStateException("DNS answer for [" + query.name()
+                    + "] does not contain an address of type " + family().getSimpleName() + ".")));
+        }
+
+        private Optional<T> decodeAddress(ByteBuffer response, int data, int length) {
+            if (length != 4 && length != 16) {
+                return Optional.empty();
+            }
+
+            final byte[] raw = new byte[length];
+            response.get(data, raw);
+            try {
+                return Optional.of(InetAddress.getByAddress(raw))
+                        .filter(family()::isInstance)
+                        .map(family()::cast);
+            } catch (UnknownHostException unknownHostException) {
+                return Optional.empty();
+            }
+        }
+
+        /**
+         * A TXT record consists of one or more length-prefixed strings, each of which might be the address.
+         */
+        private Optional<T> decodeText(ByteBuffer response, int data, int end) {
+            int position = data;
+            while (position < end) {
+                final int length = Byte.toUnsignedInt(response.get(position));
+                final byte[] raw = new byte[length];
+                response.get(position + 1, raw);
+                position += 1 + length;
+
+                final Optional<T> address = parseLiteral(new String(raw, StandardCharsets.US_ASCII).trim());
+                if (address.isPresent()) {
+                    return address;
+                }
+            }
+
+            return Optional.empty();
+        }
+
+        private Optional<T> parseLiteral(String text) {
+            Pattern literal;
+            if (Inet4Address.class.equals(family())) {
+                literal = IPV4_LITERAL;
+            } else {
+                literal = IPV6_LITERAL;
+            }
+            if (!literal.matcher(text).matches()) {
+                // never let InetAddress look up anything which is not a literal.
+                return Optional.empty();
+            }
+
+            try {
+                return Optional.of(InetAddress.getByName(text))
+                        .filter(family()::isInstance)
+                        .map(family()::cast);
+            } catch (UnknownHostException unknownHostException) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    private static ByteBuffer encodeQuery(int id, Query query) {
+        // every dot becomes a length byte, plus the first length byte and the terminating root label.
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + query.name().length() + 2 + 4);
+        buffer.putShort((short) id)
+                .putShort((short) FLAG_RECURSION_DESIRED)
+                .putShort((short) 1)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) 0);
+        for (String label : query.name().split("\\.")) {
+            buffer.put((byte) label.length()).put(label.getBytes(StandardCharsets.US_ASCII));
+        }
+        buffer.put((byte) 0).putShort((short) query.type().code).putShort((short) CLASS_IN);
+
+        return buffer.flip();
+    }
+
+    /**
+     * Whether the response repeats the question of the request; names are compared ignoring ASCII case.
+     */
+    private static boolean sameQuestion(ByteBuffer response, ByteBuffer request) {
+        for (int index = HEADER_SIZE; index < request.limit(); index++) {
+            final int expected = Character.toLowerCase(request.get(index));
+            final int actual = Character.toLowerCase(response.get(index));
+            if (expected != actual) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the position after a possibly compressed name.
+     */
+    private static int skipName(ByteBuffer message, int start) {
+        int position = start;
+        while (true) {
+            final int length = Byte.toUnsignedInt(message.get(position));
+            if ((length & 0xC0) == 0xC0) {
+                return position + 2;
+            }
+            if (length == 0) {
+                return position + 1;
+            }
+            position += 1 + length;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import de.bmarwell.jdyninwx.lib.services.ApacheHttpClientIpAddressService.DnsResolver;
+import de.bmarwell.jdyninwx.lib.services.ApacheHttpClientIpAddressService.IpFamily;
+import de.bmarwell.jdyninwx.lib.services.InwxUpdateService.InwxCredentials;
+import java.io.Closeable;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.cookie.BasicCookieStore;
+import org.apache.hc.client5.http.cookie.CookieStore;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.nio.AsyncClientConnectionManager;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+
+/**
+ * Long-lived holder of pooled Apache HTTP clients.
+ *
+ * <p>Keeps one connection pool per {@link IpFamily} for ident requests and one pool for the INWX API endpoint.
+ * Connections are kept alive between calls, so consecutive requests to the same host reuse the TCP connection
+ * and TLS session instead of performing a new handshake each time. Idle connections are evicted in the background.</p>
+ *
+ * <p>The non-blocking (async) clients are started on first use and have connection pools of their own, so a
+ * connection opened by a blocking call is not reused by an async call and vice versa.</p>
+ *
+ * <p>The API clients share one cookie store, so an INWX session obtained by one call is used by all later calls.
+ * Services sharing a registry also share their {@link InwxSession}, so they log in only once.</p>
+ *
+ * <p>A registry can be shared by several services. It must be closed by whoever created it.</p>
+ */
+public final class HttpClientRegistry implements Closeable {
+
+    static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofMillis(500L);
+    static final Duration DEFAULT_SOCKET_TIMEOUT = Duration.ofMillis(1500L);
+    static final Duration DEFAULT_MAX_IDLE_TIME = Duration.ofSeconds(30L);
+
+    /**
+     * All API calls go to the same host, so the pool allows as many connections to it as in total. The default of
+     * HttpClient, 5 per host, would silently cap the concurrency of the record updates.
+     */
+    static final int MAX_API_CONNECTIONS = 25;
+
+    private final Duration identConnectTimeout;
+    private final Duration identSocketTimeout;
+    private final Duration maxIdleTime;
+
+    private final Map<IpFamily, CloseableHttpClient> identClients = new EnumMap<>(IpFamily.class);
+
+    private final Map<IpFamily, CloseableHttpAsyncClient> identAsyncClients = new EnumMap<>(IpFamily.class);
+
+    private final CookieStore apiCookieStore = new BasicCookieStore();
+
+    private final Map<SessionKey, InwxSession> sessions = new ConcurrentHashMap<>();
+
+    private CloseableHttpClient apiClient;
+
+    private CloseableHttpAsyncClient apiAsyncClient;
+
+    private boolean closed;
+
+    /**
+     * Creates a registry with default ident timeouts (500ms connect, 1500ms socket).
+     */
+    public HttpClientRegistry() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_SOCKET_TIMEOUT, DEFAULT_MAX_IDLE_TIME);
+    }
+
+    /**
+     * Creates a registry.
+     *
+     * @param identConnectTimeout the connect timeout for ident requests.
+     * @param identSocketTimeout the socket (request) timeout for ident requests.
+     * @param maxIdleTime the time after which idle pooled connections get evicted.
+     */
+    public HttpClientRegistry(Duration identConnectTimeout, Duration identSocketTimeout, Duration maxIdleTime) {
+        this.identConnectTimeout = identConnectTimeout;
+        this.identSocketTimeout = identSocketTimeout;
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    synchronized CloseableHttpClient identClient(IpFamily ipFamily) {
+        ensureOpen();
+        return identClients.computeIfAbsent(ipFamily, this::createIdentClient);
+    }
+
+    synchronized CloseableHttpClient apiClient() {
+        ensureOpen();
+        if (this.apiClient == null) {
+            this.apiClient = createClient(
+                    PoolingHttpClientConnectionManagerBuilder.create()
+                            .useSystemProperties()
+                            .setMaxConnTotal(MAX_API_CONNECTIONS)
+                            .setMaxConnPerRoute(MAX_API_CONNECTIONS)
+                            .build(),
+                    apiCookieStore);
+        }
+
+        return this.apiClient;
+    }
+
+    synchronized CloseableHttpAsyncClient identAsyncClient(IpFamily ipFamily) {
+        ensureOpen();
+        return identAsyncClients.computeIfAbsent(ipFamily, this::createIdentAsyncClient);
+    }
+
+    synchronized CloseableHttpAsyncClient apiAsyncClient() {
+        ensureOpen();
+        if (this.apiAsyncClient == null) {
+            this.apiAsyncClient = createAsyncClient(
+                    PoolingAsyncClientConnectionManagerBuilder.create()
+                            .useSystemProperties()
+                            .setMaxConnTotal(MAX_API_CONNECTIONS)
+                            .setMaxConnPerRoute(MAX_API_CONNECTIONS)
+                            .build(),
+                    apiCookieStore);
+        }
+
+        return this.apiAsyncClient;
+    }
+
+    /**
+     * The cookie store shared by {@link #apiClient()} and {@link #apiAsyncClient()}.
+     *
+     * @return the cookie store of the API clients.
+     */
+    CookieStore apiCookieStore() {
+        return this.apiCookieStore;
+    }
+
+    /**
+     * Returns the session of an account, shared by all services using this registry.
+     *
+     * @param apiEndpoint the API endpoint to log in to.
+     * @param apiProtocol the protocol of the login call.
+     * @param credentials the account to log in with.
+     * @param sessionFile the file to keep the session cookie in, or {@code null}.
+     * @return the session, created on first use.
+     */
+    InwxSession session(URI apiEndpoint, InwxApiProtocol apiProtocol, InwxCredentials credentials, Path sessionFile) {
+        return sessions.computeIfAbsent(
+                new SessionKey(apiEndpoint, apiProtocol, credentials.username(), sessionFile),
+                key -> new InwxSession(this, apiEndpoint, apiProtocol, credentials, sessionFile));
+    }
+
+    private CloseableHttpClient createIdentClient(IpFamily ipFamily) {
+        return createClient(
+                PoolingHttpClientConnectionManagerBuilder.create()
+                        .useSystemProperties()
+                        .setDnsResolver(new DnsResolver(ipFamily))
+                        .setDefaultConnectionConfig(identConnectionConfig())
+                        .build(),
+                new BasicCookieStore());
+    }
+
+    private CloseableHttpAsyncClient createIdentAsyncClient(IpFamily ipFamily) {
+        return createAsyncClient(
+                PoolingAsyncClientConnectionManagerBuilder.create()
+                        .useSystemProperties()
+                        .setDnsResolver(new DnsResolver(ipFamily))
+                        .setDefaultConnectionConfig(identConnectionConfig())
+                        .build(),
+                new BasicCookieStore());
+    }
+
+    private ConnectionConfig identConnectionConfig() {
+        return ConnectionConfig.custom()
+                .setConnectTimeout(identConnectTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .setSocketTimeout(Math.toIntExact(identSocketTimeout.toMillis()), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private CloseableHttpClient createClient(HttpClientConnectionManager connectionManager, CookieStore cookieStore) {
+        return HttpClientBuilder.create()
+                .useSystemProperties()
+                .setConnectionManager(connectionManager)
+                .setDefaultCookieStore(cookieStore)
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(maxIdleTime.toMillis()))
+                .build();
+    }
+
+    private CloseableHttpAsyncClient createAsyncClient(
+            AsyncClientConnectionManager connectionManager, CookieStore cookieStore) {
+        final CloseableHttpAsyncClient asyncClient = HttpAsyncClients.custom()
+                .useSystemProperties()
+                .setConnectionManager(connectionManager)
+                .setDefaultCookieStore(cookieStore)
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(maxIdleTime.toMillis()))
+                .build();
+        asyncClient.start();
+
+        return asyncClient;
+    }
+
+    private void ensureOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("HttpClientRegistry has already been closed.");
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        identClients.values().forEach(client -> client.close(CloseMode.GRACEFUL));
+        identClients.clear();
+
+        identAsyncClients.values().forEach(client -> client.close(CloseMode.GRACEFUL));
+        identAsyncClients.clear();
+
+        if (this.apiClient != null) {
+            this.apiClient.close(CloseMode.GRACEFUL);
+            this.apiClient = null;
+        }
+
+        if (this.apiAsyncClient != null) {
+            this.apiAsyncClient.close(CloseMode.GRACEFUL);
+            this.apiAsyncClient = null;
+        }
+    }
+
+    private record SessionKey(URI apiEndpoint, InwxApiProtocol apiProtocol, String username, Path sessionFile) {}
+}
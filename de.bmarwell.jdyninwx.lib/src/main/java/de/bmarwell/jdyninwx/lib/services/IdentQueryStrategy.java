@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Defines how the resolvers of an ident pool are queried.
+ *
+ * @param mode the query mode.
+ * @param parallelism the maximum number of resolvers queried at the same time.
+ * @param hedgeDelay for {@link Mode#HEDGED} only: the time to wait for an answer before the next resolver is queried.
+ */
+public record IdentQueryStrategy(Mode mode, int parallelism, Duration hedgeDelay) implements Serializable {
+
+    public IdentQueryStrategy {
+        Objects.requireNonNull(mode, "mode");
+        Objects.requireNonNull(hedgeDelay, "hedgeDelay");
+
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1, but was: " + parallelism);
+        }
+        if (hedgeDelay.isNegative()) {
+            throw new IllegalArgumentException("hedgeDelay must not be negative, but was: " + hedgeDelay);
+        }
+    }
+
+    /**
+     * Query one resolver after another, until one returns a valid address.
+     *
+     * @return the default strategy.
+     */
+    public static IdentQueryStrategy sequential() {
+        return new IdentQueryStrategy(Mode.SEQUENTIAL, 1, Duration.ZERO);
+    }
+
+    /**
+     * Query the first {@code parallelism} resolvers at once and use the first valid answer.
+     *
+     * @param parallelism the number of resolvers to query at the same time.
+     * @return a racing strategy.
+     */
+    public static IdentQueryStrategy race(int parallelism) {
+        return new IdentQueryStrategy(Mode.RACE, parallelism, Duration.ZERO);
+    }
+
+    /**
+     * Query the first resolver, and only query the next one if there was no answer within {@code hedgeDelay}
+     * or the previous one failed.
+     *
+     * @param hedgeDelay the latency threshold after which the next resolver will be queried.
+     * @param parallelism the maximum number of resolvers queried at the same time.
+     * @return a hedging strategy.
+     */
+    public static IdentQueryStrategy hedged(Duration hedgeDelay, int parallelism) {
+        return new IdentQueryStrategy(Mode.HEDGED, parallelism, hedgeDelay);
+    }
+
+    public boolean isSequential() {
+        return this.mode == Mode.SEQUENTIAL;
+    }
+
+    /**
+     * The time to wait before another resolver is queried while fewer than {@link #parallelism()} are in flight.
+     *
+     * @return the launch delay.
+     */
+    Duration launchDelay() {
+        if (this.mode == Mode.RACE) {
+            return Duration.ZERO;
+        } else {
+            return this.hedgeDelay;
+        }
+    }
+
+    public enum Mode {
+        SEQUENTIAL,
+        RACE,
+        HEDGED;
+
+        public static Mode fromString(String mode) {
+            return Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Queries several ident resolvers concurrently and returns the first valid address.
+ *
+ * <p>At most {@link IdentQueryStrategy#parallelism()} resolvers are in flight at any time.
+ * A new resolver is started as soon as one fails, or when none of the in-flight resolvers answered within
+ * {@link IdentQueryStrategy#launchDelay()}. For {@link IdentQueryStrategy.Mode#RACE} this delay is zero,
+ * so the first {@code parallelism} resolvers are started at once.</p>
+ *
+ * <p>As soon as a valid address was returned, all other in-flight requests are cancelled.</p>
+ *
+ * @param <T> the address type.
+ */
+final class IdentResolverRace<T extends InetAddress> {
+
+    private final ExecutorService executor;
+    private final IdentQueryStrategy strategy;
+
+    IdentResolverRace(ExecutorService executor, IdentQueryStrategy strategy) {
+        this.executor = executor;
+        this.strategy = strategy;
+    }
+
+    Optional<T> firstResolved(List<URI> resolvers, Function<URI, Attempt<T>> attemptFactory) {
+        if (resolvers.isEmpty()) {
+            return Optional.empty();
+        }
+
+        final BlockingQueue<Completion<T>> completions = new LinkedBlockingQueue<>();
+        final List<Running<T>> inFlight = new ArrayList<>();
+        final long launchDelayNanos = strategy.launchDelay().toNanos();
+        int next = 0;
+
+        try {
+            // start the first resolver, and all others which may start without delay.
+            do {
+                inFlight.add(launch(attemptFactory.apply(resolvers.get(next++)), completions));
+            } while (launchDelayNanos == 0L && canLaunch(inFlight, next, resolvers));
+
+            while (!inFlight.isEmpty()) {
+                Completion<T> completion;
+                if (canLaunch(inFlight, next, resolvers)) {
+                    completion = completions.poll(launchDelayNanos, TimeUnit.NANOSECONDS);
+                } else {
+                    completion = completions.take();
+                }
+
+                if (completion == null) {
+                    // hedge: no answer within the delay.
+                    inFlight.add(launch(attemptFactory.apply(resolvers.get(next++)), completions));
+                    continue;
+                }
+
+                inFlight.remove(completion.running());
+
+                if (completion.result().isSuccess()) {
+                    return Optional.of(completion.result().success());
+                }
+
+                while (canLaunch(inFlight, next, resolvers)) {
+                    inFlight.add(launch(attemptFactory.apply(resolvers.get(next++)), completions));
+                    if (launchDelayNanos != 0L) {
+                        break;
+                    }
+                }
+            }
+
+            return Optional.empty();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } finally {
+            inFlight.forEach(Running::cancel);
+        }
+    }
+
+    private boolean canLaunch(List<Running<T>> inFlight, int next, List<URI> resolvers) {
+        return next < resolvers.size() && inFlight.size() < strategy.parallelism();
+    }
+
+    private Running<T> launch(Attempt<T> attempt, BlockingQueue<Completion<T>> completions) {
+        final Running<T> running = new Running<>(attempt);
+        running.future = executor.submit(() -> {
+            Result<T> result;
+            try {
+                result = attempt.execute();
+            } catch (RuntimeException runtimeException) {
+                result = Result.fail(runtimeException);
+            }
+
+            completions.add(new Completion<>(running, result));
+        });
+
+        return running;
+    }
+
+    /**
+     * A single, cancellable request to an ident resolver.
+     *
+     * @param <T> the address type.
+     */
+    interface Attempt<T extends InetAddress> {
+
+        Result<T> execute();
+
+        /**
+         * Aborts the request if it is still in flight. Must be safe to be called from another thread.
+         */
+        void cancel();
+    }
+
+    private static final class Running<T extends InetAddress> {
+
+        private final Attempt<T> attempt;
+        private volatile Future<?> future;
+
+        private Running(Attempt<T> attempt) {
+            this.attempt = attempt;
+        }
+
+        void cancel() {
+            attempt.cancel();
+            Future<?> theFuture = this.future;
+            if (theFuture != null) {
+                theFuture.cancel(true);
+            }
+        }
+    }
+
+    private record Completion<T extends InetAddress>(Running<T> running, Result<T> result) {}
+}
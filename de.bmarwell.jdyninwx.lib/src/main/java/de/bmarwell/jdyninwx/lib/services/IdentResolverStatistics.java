@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency and success statistics of the ident resolvers, used to query the fastest healthy resolvers first.
+ *
+ * <p>Latency and success rate are exponentially weighted moving averages, so recent calls weigh more than old ones.
+ * The statistics can be saved to a file and loaded again by the next invocation, e.g. by the next cron run.</p>
+ *
+ * <p>The missing success rate of a failed resolver halves every {@link #RECOVERY_HALF_LIFE} after its last error,
+ * so that a resolver which failed once is not starved forever but tried again eventually.</p>
+ *
+ * <p>Each host also has a request budget per hour. Once it is used up, the resolvers of that host are skipped
+ * until the hour has passed, so that no single provider rate-limits us.</p>
+ */
+public final class IdentResolverStatistics {
+
+    /**
+     * Effectively no request budget.
+     */
+    public static final int UNLIMITED_BUDGET = Integer.MAX_VALUE;
+
+    /**
+     * Weight of the latest call in the moving averages.
+     */
+    static final double SMOOTHING_FACTOR = 0.3d;
+
+    /**
+     * Resolvers with a lower success rate are only queried after all healthy ones.
+     */
+    static final double HEALTHY_SUCCESS_RATE = 0.5d;
+
+    /**
+     * Time after which half of the missing success rate of a failed resolver is restored.
+     */
+    static final Duration RECOVERY_HALF_LIFE = Duration.ofMinutes(30L);
+
+    static final Duration BUDGET_WINDOW = Duration.ofHours(1L);
+
+    private final int requestsPerHour;
+
+    private final Clock clock;
+
+    private final Map<String, ResolverStatistic> statistics = new ConcurrentHashMap<>();
+
+    private final Map<String, HostBudget> budgets = new ConcurrentHashMap<>();
+
+    public IdentResolverStatistics() {
+        this(UNLIMITED_BUDGET);
+    }
+
+    public IdentResolverStatistics(int requestsPerHour) {
+        this(requestsPerHour, Clock.systemUTC());
+    }
+
+    IdentResolverStatistics(int requestsPerHour, Clock clock) {
+        if (requestsPerHour < 1) {
+            throw new IllegalArgumentException("requestsPerHour must be at least 1, but was: " + requestsPerHour);
+        }
+
+        this.requestsPerHour = requestsPerHour;
+        this.clock = Objects.requireNonNull(clock, "clock");
+    }
+
+    /**
+     * Loads statistics saved by {@link #save(Path)}.
+     *
+     * @param statisticsFile the file to read; a missing or unreadable file yields empty statistics.
+     * @param requestsPerHour the request budget per host.
+     * @return the loaded statistics.
+     */
+    public static IdentResolverStatistics load(Path statisticsFile, int requestsPerHour) {
+        final IdentResolverStatistics loaded = new IdentResolverStatistics(requestsPerHour);
+        if (!Files.isRegularFile(statisticsFile)) {
+            return loaded;
+        }
+
+        final Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(statisticsFile, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException | IllegalArgumentException e) {
+            // just start over.
+            return loaded;
+        }
+
+        loaded.readFrom(properties);
+
+        return loaded;
+    }
+
+    /**
+     * Writes the statistics and request budgets to the given file.
+     *
+     * @param statisticsFile the file to write, replaced atomically.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(Path statisticsFile) throws IOException {
+        final Properties properties = new Properties();
+        writeTo(properties);
+
+        final Path directory = statisticsFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final Path tempFile = Files.createTempFile(directory, ".ident-statistics", ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                properties.store(writer, "jdyninwx ident resolver statistics");
+            }
+            Files.move(tempFile, statisticsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Sorts the resolvers: healthy resolvers by ascending latency, then unhealthy ones by descending success rate.
+     *
+     * <p>Resolvers without statistics count as healthy and fast, so each of them is tried at least once.
+     * Failed resolvers recover over time, see {@link ResolverStatistic#successRateAt(Instant)}.
+     * Resolvers which compare equal keep their configured order.</p>
+     *
+     * @param resolvers the configured resolvers.
+     * @return the resolvers in the order they should be queried.
+     */
+    public List<URI> rank(List<URI> resolvers) {
+        final Instant now = clock.instant();
+        final Comparator<ResolverStatistic> byHealth = Comparator.comparing(statistic -> !statistic.isHealthyAt(now));
+        final Comparator<ResolverStatistic> ranking = byHealth.thenComparing((left, right) -> left.isHealthyAt(now)
+                ? Double.compare(left.latencyMillis(), right.latencyMillis())
+                : Double.compare(right.successRateAt(now), left.successRateAt(now)));
+
+        return resolvers.stream()
+                .sorted(Comparator.comparing(resolver -> get(resolver).orElse(ResolverStatistic.UNKNOWN), ranking))
+                .toList();
+    }
+
+    public Optional<ResolverStatistic> get(URI resolver) {
+        return Optional.ofNullable(statistics.get(CircuitBreakerRegistry.endpointKey(resolver)));
+    }
+
+    /**
+     * Takes one request from the budget of the resolver's host.
+     *
+     * @param resolver the resolver about to be queried.
+     * @return {@code false} if the budget of the host is used up for the current hour.
+     */
+    boolean tryAcquireBudget(URI resolver) {
+        final String host = hostOf(resolver);
+        final Instant now = clock.instant();
+        final boolean[] acquired = {false};
+
+        budgets.compute(host, (key, budget) -> {
+            HostBudget current;
+            if (budget == null || !now.isBefore(budget.windowStart().plus(BUDGET_WINDOW))) {
+                current = new HostBudget(now, 0);
+            } else {
+                current = budget;
+            }
+            if (current.requests() >= this.requestsPerHour) {
+                return current;
+            }
+
+            acquired[0] = true;
+            return new HostBudget(current.windowStart(), current.requests() + 1);
+        });
+
+        return acquired[0];
+    }
+
+    /**
+     * Returns the lower-case host of a resolver, including opaque URIs like {@code stun:stun.example.com:3478}.
+     *
+     * @param resolver the resolver.
+     * @return the host, or an empty string if the URI has none.
+     */
+    static String hostOf(URI resolver) {
+        String host = resolver.getHost();
+        if (host == null && resolver.isOpaque()) {
+            try {
+                host = new URI("//" + resolver.getRawSchemeSpecificPart()).getHost();
+            } catch (URISyntaxException uriSyntaxException) {
+                host = null;
+            }
+        }
+
+        return Objects.requireNonNullElse(host, "").toLowerCase(Locale.ROOT);
+    }
+
+    void recordSuccess(URI resolver, Duration latency) {
+        statistics.compute(
+                CircuitBreakerRegistry.endpointKey(resolver), (key, statistic) -> Optional.ofNullable(statistic)
+                        .orElse(ResolverStatistic.UNKNOWN)
+                        .withSuccess(latency.toNanos() / 1_000_000.0d));
+    }
+
+    void recordFailure(URI resolver, Throwable error) {
+        statistics.compute(
+                CircuitBreakerRegistry.endpointKey(resolver), (key, statistic) -> Optional.ofNullable(statistic)
+                        .orElse(ResolverStatistic.UNKNOWN)
+                        .withFailure(String.valueOf(error), clock.instant()));
+    }
+
+    private void readFrom(Properties properties) {
+        for (int index = 0; properties.containsKey("resolver." + index + ".endpoint"); index++) {
+            final String prefix = "resolver." + index + ".";
+            try {
+                statistics.put(
+                        properties.getProperty(prefix + "endpoint"),
+                        new ResolverStatistic(
+                                Double.parseDouble(properties.getProperty(prefix + "latency.ms")),
+                                Double.parseDouble(properties.getProperty(prefix + "success.rate")),
+                                Long.parseLong(properties.getProperty(prefix + "samples"), 10),
+                                properties.getProperty(prefix + "last.error"),
+                                Optional.ofNullable(properties.getProperty(prefix + "last.error.at"))
+                                        .map(Instant::parse)
+                                        .orElse(null)));
+            } catch (RuntimeException invalidEntry) {
+                // skip it, it will be measured again.
+            }
+        }
+
+        for (int index = 0; properties.containsKey("budget." + index + ".host"); index++) {
+            final String prefix = "budget." + index + ".";
+            try {
+                budgets.put(
+                        properties.getProperty(prefix + "host"),
+                        new HostBudget(
+                                Instant.parse(properties.getProperty(prefix + "window.start")),
+                                Integer.parseInt(properties.getProperty(prefix + "requests"), 10)));
+            } catch (RuntimeException invalidEntry) {
+                // skip it, the budget starts over.
+            }
+        }
+    }
+
+    private void writeTo(Properties properties) {
+        int index = 0;
+        for (Map.Entry<String, ResolverStatistic> entry : statistics.entrySet()) {
+            final String prefix = "resolver." + index++ + ".";
+            final ResolverStatistic statistic = entry.getValue();
+            properties.setProperty(prefix + "endpoint", entry.getKey());
+            properties.setProperty(prefix + "latency.ms", Double.toString(statistic.latencyMillis()));
+            properties.setProperty(prefix + "success.rate", Double.toString(statistic.successRate()));
+            properties.setProperty(prefix + "samples", Long.toString(statistic.samples(), 10));
+            if (statistic.lastError() != null) {
+                properties.setProperty(prefix + "last.error", statistic.lastError());
+                properties.setProperty(
+                        prefix + "last.error.at", statistic.lastErrorAt().toString());
+            }
+        }
+
+        index = 0;
+        final Instant now = clock.instant();
+        for (Map.Entry<String, HostBudget> entry : budgets.entrySet()) {
+            final HostBudget budget = entry.getValue();
+            if (!now.isBefore(budget.windowStart().plus(BUDGET_WINDOW))) {
+                continue;
+            }
+
+            final String prefix = "budget." + index++ + ".";
+            properties.setProperty(prefix + "host", entry.getKey());
+            properties.setProperty(prefix + "window.start", budget.windowStart().toString());
+            properties.setProperty(prefix + "requests", Integer.toString(budget.requests(), 10));
+        }
+    }
+
+    /**
+     * The statistics of a single resolver.
+     *
+     * @param latencyMillis moving average of the latency of successful calls, in milliseconds.
+     * @param successRate moving average of the success rate, between 0 and 1.
+     * @param samples the number of recorded calls.
+     * @param lastError the last error, if any.
+     * @param lastErrorAt the time of the last error, if any.
+     */
+    public record ResolverStatistic(
+            double latencyMillis, double successRate, long samples, String lastError, Instant lastErrorAt) {
+
+        static final ResolverStatistic UNKNOWN = new ResolverStatistic(0.0d, 1.0d, 0L, null, null);
+
+        public boolean isHealthy() {
+            return this.successRate >= HEALTHY_SUCCESS_RATE;
+        }
+
+        /**
+         * Whether the resolver counts as healthy at the given time, taking its recovery into account.
+         *
+         * @param now the current time.
+         * @return {@code true} if {@link #successRateAt(Instant)} reaches the healthy success rate.
+         */
+        public boolean isHealthyAt(Instant now) {
+            return successRateAt(now) >= HEALTHY_SUCCESS_RATE;
+        }
+
+        /**
+         * Returns the success rate, recovered towards 1 since the last error.
+         *
+         * <p>The missing success rate halves every {@link #RECOVERY_HALF_LIFE}, so a resolver which failed
+         * is queried first again once it was quiet for long enough. The next call then measures it again.</p>
+         *
+         * @param now the current time.
+         * @return the effective success rate, between 0 and 1.
+         */
+        public double successRateAt(Instant now) {
+            if (this.lastErrorAt == null || !now.isAfter(this.lastErrorAt)) {
+                return this.successRate;
+            }
+
+            final double halfLives =
+                    (double) Duration.between(this.lastErrorAt, now).toMillis() / RECOVERY_HALF_LIFE.toMillis();
+
+            return 1.0d - (1.0d - this.successRate) * Math.pow(0.5d, halfLives);
+        }
+
+        ResolverStatistic withSuccess(double latencyMillis) {
+            if (this.samples == 0L) {
+                return new ResolverStatistic(latencyMillis, 1.0d, 1L, null, null);
+            }
+            double newLatency;
+
+            if (this.latencyMillis == 0.0d) {
+                newLatency = latencyMillis;
+            } else {
+                newLatency = average(this.latencyMillis, latencyMillis);
+            }
+
+            return new ResolverStatistic(
+                    newLatency, average(this.successRate, 1.0d), this.samples + 1, this.lastError, this.lastErrorAt);
+        }
+
+        ResolverStatistic withFailure(String error, Instant at) {
+            // start from the recovered rate, so that a single error of a resolver does not outweigh its history.
+            final double newSuccessRate = average(successRateAt(at), 0.0d);
+
+            return new ResolverStatistic(this.latencyMillis, newSuccessRate, this.samples + 1, error, at);
+        }
+
+        private static double average(double current, double sample) {
+            return SMOOTHING_FACTOR * sample + (1.0d - SMOOTHING_FACTOR) * current;
+        }
+    }
+
+    private record HostBudget(Instant windowStart, int requests) {}
+}
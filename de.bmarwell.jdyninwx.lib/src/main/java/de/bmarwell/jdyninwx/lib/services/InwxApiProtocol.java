@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
+import de.bmarwell.jdyninwx.xml.ResultUtility;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResponse;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResult;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The encoding of the calls to the INWX domrobot API.
+ *
+ * <p>Both protocols offer the same methods and result codes. JSON-RPC responses are considerably smaller and cheaper
+ * to parse, while only XML-RPC supports bundling calls using {@code system.multicall}.</p>
+ */
+public enum InwxApiProtocol {
+    XML_RPC(URI.create("https://api.domrobot.com/xmlrpc/"), true) {
+        @Override
+        CallBuilder callBuilder() {
+            return Template.templateBuilder();
+        }
+
+        @Override
+        XmlRpcResult<Void> parseResponse(String rawResponse) {
+            return new ResultUtility().parseUpdateResponse(rawResponse);
+        }
+
+        @Override
+        boolean hasResultCode(String rawResponse, Predicate<XmlRpcResponse> condition) {
+            if (super.hasResultCode(rawResponse, condition)) {
+                return true;
+            }
+
+            final XmlRpcResult<Void> firstCall =
+                    new ResultUtility().parseMulticallResponse(rawResponse, 1).get(0);
+            return firstCall.isSuccess() && condition.test(firstCall.response());
+        }
+
+        @Override
+        XmlRpcResult<Void> parseNameServerInfoResponse(
+                InputStream rawResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+            return new ResultUtility().parseNameServerInfoResponse(rawResponse, recordConsumer);
+        }
+
+        @Override
+        XmlRpcResult<Void> parseNameServerInfoResponse(
+                String rawResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+            return new ResultUtility().parseNameServerInfoResponse(rawResponse, recordConsumer);
+        }
+
+        @Override
+        XmlRpcResult<Integer> parseNameServerInfoPage(
+                String rawResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+            return new ResultUtility().parseNameServerInfoPage(rawResponse, recordConsumer);
+        }
+    },
+
+    JSON_RPC(URI.create("https://api.domrobot.com/jsonrpc/"), false) {
+        @Override
+        CallBuilder callBuilder() {
+            return JsonRpc.callBuilder();
+        }
+
+        @Override
+        XmlRpcResult<Void> parseResponse(String rawResponse) {
+            return JsonRpc.parseResponse(rawResponse);
+        }
+
+        @Override
+        XmlRpcResult<Void> parseNameServerInfoResponse(
+                InputStream rawResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+            return JsonRpc.parseNameServerInfoResponse(rawResponse, recordConsumer);
+        }
+
+        @Override
+        XmlRpcResult<Void> parseNameServerInfoResponse(
+                String rawResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+            return JsonRpc.parseNameServerInfoResponse(rawResponse, recordConsumer);
+        }
+
+        @Override
+        XmlRpcResult<Integer> parseNameServerInfoPage(
+                String rawResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+            return JsonRpc.parseNameServerInfoPage(rawResponse, recordConsumer);
+        }
+    };
+
+    private final URI defaultApiEndpoint;
+
+    private final boolean multicall;
+
+    InwxApiProtocol(URI defaultApiEndpoint, boolean multicall) {
+        this.defaultApiEndpoint = defaultApiEndpoint;
+        this.multicall = multicall;
+    }
+
+    public URI defaultApiEndpoint() {
+        return this.defaultApiEndpoint;
+    }
+
+    /**
+     * Whether several calls can be bundled into a single {@code system.multicall} request.
+     *
+     * @return {@code true} for XML-RPC.
+     */
+    public boolean supportsMulticall() {
+        return this.multicall;
+    }
+
+    /**
+     * Parses a protocol name like {@code json-rpc} or {@code XML_RPC}.
+     *
+     * @param protocol the name of the protocol, case-insensitive.
+     * @return the protocol.
+     * @throws IllegalArgumentException if there is no such protocol.
+     */
+    public static InwxApiProtocol fromString(String protocol) {
+        return InwxApiProtocol.valueOf(protocol.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    /**
+     * Creates the body of a single call.
+     */
+    abstract CallBuilder callBuilder();
+
+    /**
+     * Reads the status of a single call.
+     *
+     * @param rawResponse the raw response body.
+     * @return the code, message and runtime of the response.
+     */
+    abstract XmlRpcResult<Void> parseResponse(String rawResponse);
+
+    /**
+     * Checks whether the given raw API response indicates that the session is not (or no longer) valid.
+     *
+     * @param rawResponse the raw response body.
+     * @return {@code true} if INWX responded with an authentication error.
+     */
+    boolean isAuthenticationError(String rawResponse) {
+        return hasResultCode(rawResponse, InwxSession::isAuthenticationError);
+    }
+
+    /**
+     * Checks whether the given raw API response asks the client to come back later.
+     *
+     * @param rawResponse the raw response body.
+     * @return {@code true} if INWX responded with one of the {@link RetryPolicy#TRANSIENT_RESULT_CODES}.
+     */
+    boolean isTransientError(String rawResponse) {
+        return hasResultCode(rawResponse, RetryPolicy::isTransientResultCode);
+    }
+
+    /**
+     * Checks the result code of a single call, or of the first call of a multicall.
+     */
+    boolean hasResultCode(String rawResponse, Predicate<XmlRpcResponse> condition) {
+        final XmlRpcResult<Void> single = parseResponse(rawResponse);
+        return single.isSuccess() && condition.test(single.response());
+    }
+
+    abstract XmlRpcResult<Void> parseNameServerInfoResponse(
+            InputStream rawResponse, Consumer<InwxNameServerRecord> recordConsumer);
+
+    abstract XmlRpcResult<Void> parseNameServerInfoResponse(
+            String rawResponse, Consumer<InwxNameServerRecord> recordConsumer);
+
+    /**
+     * Parses a page of a {@code nameserver.info} response.
+     *
+     * @param rawResponse the raw response body.
+     * @param recordConsumer receives the records in the order of the response.
+     * @return the number of entries of the page, including entries which are not passed on as records.
+     */
+    abstract XmlRpcResult<Integer> parseNameServerInfoPage(
+            String rawResponse, Consumer<InwxNameServerRecord> recordConsumer);
+}
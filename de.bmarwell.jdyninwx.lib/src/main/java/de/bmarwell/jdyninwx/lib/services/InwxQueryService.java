@@ -20,9 +20,13 @@ import java.io.Serializable;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.URI;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
 
 /**
  * Provides methods to return this device‘s current IP addresses.
@@ -49,9 +53,107 @@ public interface InwxQueryService extends InwxService, Serializable {
 
     Result<Inet6Address> getInet6Address(URI ipv4resolver);
 
+    /**
+     * Non-blocking variant of {@link #getInet4Address(URI)}.
+     *
+     * @param ipv4resolver the ident URI to query.
+     * @return a future which completes with the result; cancelling it aborts the request.
+     */
+    CompletableFuture<Result<Inet4Address>> getInet4AddressAsync(URI ipv4resolver);
+
+    /**
+     * Non-blocking variant of {@link #getInet6Address(URI)}.
+     *
+     * @param ipv6resolver the ident URI to query.
+     * @return a future which completes with the result; cancelling it aborts the request.
+     */
+    CompletableFuture<Result<Inet6Address>> getInet6AddressAsync(URI ipv6resolver);
+
     <T extends InwxQueryService> T withRequestTimeout(Duration timeout);
 
     <T extends InwxQueryService> T withConnectTimeout(Duration timeout);
 
+    /**
+     * Sets how the resolvers passed to {@link #getFirstResolvedInet4Address(List)} and
+     * {@link #getFirstResolvedInet6Address(List)} are queried.
+     *
+     * @param identQueryStrategy sequential (default), racing or hedged.
+     * @param <T> the service type.
+     * @return this instance.
+     */
+    <T extends InwxQueryService> T withIdentQueryStrategy(IdentQueryStrategy identQueryStrategy);
+
+    /**
+     * Keeps the ident resolver statistics in the given file between invocations.
+     *
+     * <p>The statistics are loaded on first use and saved when this service is closed. They are used to query the
+     * fastest healthy resolvers first.</p>
+     *
+     * @param statisticsFile the file to keep the statistics in, or {@code null} to keep them in memory only.
+     * @param <T> the service type.
+     * @return this instance.
+     * @see IdentResolverStatistics
+     */
+    <T extends InwxQueryService> T withIdentStatisticsFile(Path statisticsFile);
+
+    /**
+     * Limits the number of ident requests per host and hour.
+     *
+     * @param requestsPerHour the maximum number of requests to a single host per hour.
+     * @param <T> the service type.
+     * @return this instance.
+     */
+    <T extends InwxQueryService> T withIdentRequestBudget(int requestsPerHour);
+
+    /**
+     * Looks for the public address among the addresses of the local network interfaces first.
+     *
+     * <p>If enabled, {@link #getFirstResolvedInet4Address(List)} and {@link #getFirstResolvedInet6Address(List)} only
+     * query the resolvers if no interface has an address allowed by the rules.</p>
+     *
+     * @param localAddressRules the addresses to consider, or {@code null} to always query the resolvers (default).
+     * @param <T> the service type.
+     * @return this instance.
+     */
+    <T extends InwxQueryService> T withLocalAddressDetection(LocalAddressRules localAddressRules);
+
     Result<List<InwxNameServerRecord>> listAllNameServerRecords(String domainName);
+
+    /**
+     * Lists all records of a domain without keeping them in memory.
+     *
+     * <p>The response is parsed while it is being received, and each record is passed to the consumer as soon as
+     * it has been read. This keeps the memory usage independent of the size of the zone.</p>
+     *
+     * @param domainName the domain to list the records of.
+     * @param recordConsumer receives the records in the order of the response.
+     * @return the result code of the response, or the reason why the records could not be listed. Records read
+     *     before a failure have already been passed to the consumer.
+     */
+    Result<InwxResponse> listAllNameServerRecords(String domainName, Consumer<InwxNameServerRecord> recordConsumer);
+
+    /**
+     * Non-blocking variant of {@link #listAllNameServerRecords(String)}.
+     *
+     * @param domainName the domain to list the records of.
+     * @return a future which completes with the result; cancelling it aborts the request.
+     */
+    CompletableFuture<Result<List<InwxNameServerRecord>>> listAllNameServerRecordsAsync(String domainName);
+
+    /**
+     * Lists all records of a domain page by page, using the {@code page} and {@code pagelimit} parameters of
+     * {@code nameserver.info}.
+     *
+     * <p>Nothing is requested before the subscriber signals demand. While a page is being consumed, the next one is
+     * already requested, but no further page is requested until the subscriber has consumed the current one. This
+     * keeps at most two pages in memory, no matter how large the zone is.</p>
+     *
+     * <p>A failed page or an error code returned by INWX is signalled by {@link Flow.Subscriber#onError(Throwable)}
+     * after the records of the previous pages.</p>
+     *
+     * @param domainName the domain to list the records of.
+     * @param pageSize the number of records per request, at least 1.
+     * @return a publisher which fetches the pages again for every subscriber.
+     */
+    Flow.Publisher<InwxNameServerRecord> publishNameServerRecords(String domainName, int pageSize);
 }
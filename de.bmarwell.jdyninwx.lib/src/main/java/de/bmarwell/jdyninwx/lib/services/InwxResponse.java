@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResponse;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * The status INWX returned for a single call.
+ *
+ * @param code the INWX result code, or {@code 0} if the response had none.
+ * @param message the message of the response, may be empty.
+ */
+public record InwxResponse(int code, String message) implements Serializable {
+
+    public InwxResponse {
+        Objects.requireNonNull(message, "message");
+    }
+
+    /**
+     * Whether INWX accepted the call. INWX uses codes 1000-1999 for successful commands.
+     *
+     * @return {@code true} for a success code.
+     */
+    public boolean isSuccess() {
+        return this.code >= 1_000 && this.code < 2_000;
+    }
+
+    static InwxResponse of(XmlRpcResponse response) {
+        final Number code = response.code();
+        int intCode;
+        if (code == null || Double.isNaN(code.doubleValue())) {
+            intCode = 0;
+        } else {
+            intCode = code.intValue();
+        }
+
+        return new InwxResponse(intCode, Objects.requireNonNullElse(response.message(), ""));
+    }
+}
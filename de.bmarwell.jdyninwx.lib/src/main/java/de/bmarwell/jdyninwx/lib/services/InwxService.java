@@ -15,11 +15,128 @@
  */
 package de.bmarwell.jdyninwx.lib.services;
 
+import de.bmarwell.jdyninwx.lib.metrics.MetricsRegistry;
 import java.net.URI;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
 
-public interface InwxService {
+public interface InwxService extends AutoCloseable {
 
     <T extends InwxService> T withCredentials(InwxUpdateService.InwxCredentials credentials);
 
     <T extends InwxService> T withApiEndpoint(URI apiEndpoint);
+
+    /**
+     * Sets the protocol the API calls are encoded in. Defaults to {@link InwxApiProtocol#XML_RPC}.
+     *
+     * <p>Unless an endpoint was set using {@link #withApiEndpoint(URI)}, the
+     * {@link InwxApiProtocol#defaultApiEndpoint() default endpoint} of the protocol is used.</p>
+     *
+     * @param apiProtocol the protocol to use.
+     * @param <T> the service type.
+     * @return this instance.
+     */
+    <T extends InwxService> T withApiProtocol(InwxApiProtocol apiProtocol);
+
+    /**
+     * Authenticate using {@code account.login} once and reuse the session cookie for all further API calls,
+     * instead of sending the credentials with every request.
+     *
+     * <p>If INWX rejects the session, the service logs in again and repeats the call once.</p>
+     *
+     * @param sessionLogin {@code true} to enable the session mode.
+     * @param <T> the service type.
+     * @return this instance.
+     */
+    <T extends InwxService> T withSessionLogin(boolean sessionLogin);
+
+    /**
+     * Saves the session to the given file, so that later invocations can reuse it until it expires.
+     *
+     * <p>The file is created readable and writable for the owner only. Only used in session mode.</p>
+     *
+     * @param sessionFile the file to store the session in, or {@code null} to keep the session in memory only.
+     * @param <T> the service type.
+     * @return this instance.
+     */
+    <T extends InwxService> T withSessionFile(Path sessionFile);
+
+    /**
+     * Use the given registry for all HTTP calls of this service.
+     *
+     * <p>The registry is not closed when this service is closed; its owner is responsible for closing it.
+     * This allows sharing pooled connections between several services.</p>
+     *
+     * @param httpClientRegistry the registry to use.
+     * @param <T> the service type.
+     * @return this instance.
+     */
+    <T extends InwxService> T withHttpClientRegistry(HttpClientRegistry httpClientRegistry);
+
+    /**
+     * Use the given circuit breakers for all HTTP calls of this service.
+     *
+     * <p>Once an endpoint failed too often, further calls to it fail fast with a {@link CircuitBreakerOpenException}
+     * until its cool-down has elapsed. Defaults to a registry of this service using
+     * {@link CircuitBreakerSettings#defaults()}.</p>
+     *
+     * @param circuitBreakerRegistry the circuit breakers to use, may be shared between several services.
+     * @param <T> the service type.
+     * @return this instance.
+     */
+    <T extends InwxService> T withCircuitBreakerRegistry(CircuitBreakerRegistry circuitBreakerRegistry);
+
+    /**
+     * Use the given rate limiters for all API calls of this service.
+     *
+     * <p>Before an API call is sent, it takes a token from the limiter of its account and endpoint. Defaults to the
+     * {@link RateLimiterRegistry#shared() registry shared by the JVM}, which does not limit any calls until limits
+     * are configured.</p>
+     *
+     * @param rateLimiterRegistry the rate limiters to use, may be shared between several services.
+     * @param <T> the service type.
+     * @return this instance.
+     */
+    <T extends InwxService> T withRateLimiterRegistry(RateLimiterRegistry rateLimiterRegistry);
+
+    /**
+     * Retry idempotent calls which failed transiently, see {@link RetryPolicy}.
+     *
+     * <p>Every attempt passes the rate limiter and circuit breaker again. Defaults to
+     * {@link RetrySettings#disabled()}.</p>
+     *
+     * @param retrySettings the number of attempts, their backoff and the overall deadline.
+     * @param <T> the service type.
+     * @return this instance.
+     */
+    <T extends InwxService> T withRetrySettings(RetrySettings retrySettings);
+
+    /**
+     * Record the latency and outcome of all calls of this service into the given registry.
+     *
+     * <p>Defaults to the {@link MetricsRegistry#shared() registry shared by the JVM}.</p>
+     *
+     * @param metricsRegistry the registry to record into, may be shared between several services.
+     * @param <T> the service type.
+     * @return this instance.
+     */
+    <T extends InwxService> T withMetricsRegistry(MetricsRegistry metricsRegistry);
+
+    /**
+     * Sets the executor which runs the response handling of the {@code *Async} methods.
+     *
+     * <p>The HTTP exchange itself is non-blocking and does not occupy a thread of this executor while waiting.
+     * Defaults to the {@link java.util.concurrent.ForkJoinPool#commonPool() common pool}.</p>
+     *
+     * @param executor the executor to complete async results on.
+     * @param <T> the service type.
+     * @return this instance.
+     */
+    <T extends InwxService> T withExecutor(Executor executor);
+
+    /**
+     * Releases pooled connections held by this service.
+     */
+    @Override
+    void close();
 }
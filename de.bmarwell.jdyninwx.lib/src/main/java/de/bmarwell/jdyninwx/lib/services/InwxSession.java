@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import de.bmarwell.jdyninwx.lib.services.InwxUpdateService.InwxCredentials;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResponse;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResult;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.cookie.Cookie;
+import org.apache.hc.client5.http.cookie.CookieStore;
+import org.apache.hc.client5.http.impl.classic.BasicHttpClientResponseHandler;
+import org.apache.hc.client5.http.impl.cookie.BasicClientCookie;
+
+/**
+ * A session obtained by {@code account.login}.
+ *
+ * <p>The session cookie lives in the {@link HttpClientRegistry#apiCookieStore() cookie store} of the registry,
+ * so every API call made through the registry is authenticated by it. The session can optionally be saved to a file
+ * which is only readable by the current user, so that later invocations can reuse it until it expires.</p>
+ */
+final class InwxSession {
+
+    /**
+     * INWX result code for an authentication error, e.g. an expired session.
+     */
+    static final int CODE_AUTHENTICATION_ERROR = 2_200;
+
+    /**
+     * Names of the session cookie set by {@code account.login}. Other cookies of the API host, e.g. of a load
+     * balancer, do not make a session.
+     */
+    static final Set<String> SESSION_COOKIE_NAMES = Set.of("domrobot_sessid", "domrobot");
+
+    /**
+     * Sessions without an explicit cookie expiry are not reused from the session file after this time.
+     */
+    static final Duration DEFAULT_SESSION_LIFETIME = Duration.ofHours(1L);
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    private final HttpClientRegistry httpClientRegistry;
+
+    private final URI apiEndpoint;
+
+    private final InwxCredentials credentials;
+
+    private final Path sessionFile;
+
+    private final InwxApiProtocol apiProtocol;
+
+    /**
+     * Incremented whenever the session is dropped, so that a request which failed with an outdated session does not
+     * drop the session another request has just logged in with.
+     */
+    private long generation = 0L;
+
+    InwxSession(
+            HttpClientRegistry httpClientRegistry,
+            URI apiEndpoint,
+            InwxApiProtocol apiProtocol,
+            InwxCredentials credentials,
+            Path sessionFile) {
+        this.httpClientRegistry = httpClientRegistry;
+        this.apiEndpoint = apiEndpoint;
+        this.apiProtocol = apiProtocol;
+        this.credentials = credentials;
+        this.sessionFile = sessionFile;
+    }
+
+    /**
+     * Makes sure a session cookie is available, logging in if necessary.
+     *
+     * @return the time until which the session is considered valid, or the reason why the login failed.
+     */
+    synchronized Result<Instant> ensureLoggedIn() {
+        final Optional<Cookie> sessionCookie = findSessionCookie();
+        if (sessionCookie.isPresent()) {
+            return Result.ok(expiryOf(sessionCookie.orElseThrow()));
+        }
+
+        final Optional<Instant> restored = restoreFromSessionFile();
+        if (restored.isPresent()) {
+            return Result.ok(restored.orElseThrow());
+        }
+
+        return login();
+    }
+
+    /**
+     * Returns the current generation of the session, to be passed to {@link #invalidate(long)} later.
+     *
+     * @return the generation of the session requests are currently sent with.
+     */
+    synchronized long generation() {
+        return this.generation;
+    }
+
+    /**
+     * Drops the session, e.g. after INWX rejected it, unless it was already replaced in the meantime.
+     *
+     * @param rejectedGeneration the {@link #generation()} the rejected request was sent with.
+     */
+    synchronized void invalidate(long rejectedGeneration) {
+        if (rejectedGeneration != this.generation) {
+            // another request already logged in again.
+            return;
+        }
+
+        this.generation++;
+        final CookieStore cookieStore = httpClientRegistry.apiCookieStore();
+        for (Cookie cookie : cookieStore.getCookies()) {
+            if (isSessionCookie(cookie)) {
+                // adding an expired cookie removes the stored one.
+                final BasicClientCookie expired = new BasicClientCookie(cookie.getName(), "");
+                expired.setDomain(cookie.getDomain());
+                expired.setPath(cookie.getPath());
+                expired.setExpiryDate(Instant.EPOCH);
+                cookieStore.addCookie(expired);
+            }
+        }
+
+        if (sessionFile != null) {
+            try {
+                Files.deleteIfExists(sessionFile);
+            } catch (IOException ignored) {
+                // will be overwritten on the next login.
+            }
+        }
+    }
+
+    static boolean isAuthenticationError(XmlRpcResponse response) {
+        return response.code() != null && response.code().intValue() == CODE_AUTHENTICATION_ERROR;
+    }
+
+    private Result<Instant> login() {
+        final Template.Request loginRequest = apiProtocol
+                .callBuilder()
+                .withMethod(Template.MethodName.account_login)
+                .withCredentials(credentials)
+                .build();
+
+        final String rawResponse;
+        try {
+            HttpPost httpPost = new HttpPost(apiEndpoint);
+            httpPost.setEntity(loginRequest.toEntity());
+            httpPost.setHeader("Content-Type", loginRequest.contentType());
+            httpPost.setHeader("Accept", loginRequest.contentType());
+            rawResponse = httpClientRegistry.apiClient().execute(httpPost, new BasicHttpClientResponseHandler());
+        } catch (IOException e) {
+            return Result.fail(e);
+        }
+
+        final XmlRpcResult<Void> loginResult = apiProtocol.parseResponse(rawResponse);
+        if (loginResult.isError()) {
+            return Result.fail(loginResult.error());
+        }
+
+        final XmlRpcResponse response = loginResult.response();
+        if (response.code() == null || response.code().intValue() != 1_000) {
+            return Result.fail(new IllegalStateException(
+                    "INWX login failed with code [%s]: [%s].".formatted(response.code(), response.message())));
+        }
+
+        final Optional<Cookie> sessionCookie = findSessionCookie();
+        if (sessionCookie.isEmpty()) {
+            return Result.fail(new IllegalStateException("INWX login did not return a session cookie."));
+        }
+
+        final Instant expiry = expiryOf(sessionCookie.orElseThrow());
+        saveToSessionFile(expiry);
+
+        return Result.ok(expiry);
+    }
+
+    private Optional<Cookie> findSessionCookie() {
+        final Instant now = Instant.now();
+        return httpClientRegistry.apiCookieStore().getCookies().stream()
+                .filter(this::isSessionCookie)
+                .filter(cookie -> !cookie.isExpired(now))
+                .findFirst();
+    }
+
+    private boolean isSessionCookie(Cookie cookie) {
+        return SESSION_COOKIE_NAMES.contains(cookie.getName()) && matchesEndpoint(cookie);
+    }
+
+    private boolean matchesEndpoint(Cookie cookie) {
+        final String host = apiEndpoint.getHost().toLowerCase(Locale.ROOT);
+        final String domain = Optional.ofNullable(cookie.getDomain())
+                .map(d -> d.toLowerCase(Locale.ROOT))
+                .map(d -> d.startsWith(".") ? d.substring(1) : d)
+                .orElse("");
+
+        return host.equals(domain) || host.endsWith("." + domain);
+    }
+
+    private static Instant expiryOf(Cookie cookie) {
+        return Optional.ofNullable(cookie.getExpiryInstant())
+                .orElseGet(() -> Instant.now().plus(DEFAULT_SESSION_LIFETIME));
+    }
+
+    private Optional<Instant> restoreFromSessionFile() {
+        if (sessionFile == null || !Files.isRegularFile(sessionFile)) {
+            return Optional.empty();
+        }
+
+        final Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(sessionFile, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+
+        if (!apiEndpoint.toString().equals(properties.getProperty("endpoint"))
+                || !credentials.username().equals(properties.getProperty("username"))) {
+            return Optional.empty();
+        }
+
+        final Instant expiry;
+        try {
+            expiry = Instant.ofEpochSecond(Long.parseLong(properties.getProperty("expires", "0"), 10));
+        } catch (NumberFormatException nfe) {
+            return Optional.empty();
+        }
+
+        if (!expiry.isAfter(Instant.now())) {
+            return Optional.empty();
+        }
+
+        final String name = properties.getProperty("cookie.name");
+        final String value = properties.getProperty("cookie.value");
+        if (name == null || value == null) {
+            return Optional.empty();
+        }
+
+        final BasicClientCookie cookie = new BasicClientCookie(name, value);
+        cookie.setDomain(properties.getProperty("cookie.domain", apiEndpoint.getHost()));
+        cookie.setPath(properties.getProperty("cookie.path", "/"));
+        cookie.setSecure(Boolean.parseBoolean(properties.getProperty("cookie.secure", "false")));
+        cookie.setExpiryDate(expiry);
+        cookie.setCreationDate(Instant.now());
+        httpClientRegistry.apiCookieStore().addCookie(cookie);
+
+        return Optional.of(expiry);
+    }
+
+    private void saveToSessionFile(Instant expiry) {
+        if (sessionFile == null) {
+            return;
+        }
+
+        final Cookie cookie = findSessionCookie().orElseThrow();
+        final Properties properties = new Properties();
+        properties.setProperty("endpoint", apiEndpoint.toString());
+        properties.setProperty("username", credentials.username());
+        properties.setProperty("expires", Long.toString(expiry.getEpochSecond(), 10));
+        properties.setProperty("cookie.name", cookie.getName());
+        properties.setProperty("cookie.value", cookie.getValue());
+        properties.setProperty("cookie.domain", cookie.getDomain());
+        properties.setProperty(
+                "cookie.path", Optional.ofNullable(cookie.getPath()).orElse("/"));
+        properties.setProperty("cookie.secure", Boolean.toString(cookie.isSecure()));
+
+        try {
+            final Path directory = sessionFile.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            final Path tempFile = createOwnerOnlyFile(directory);
+            try {
+                try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                    properties.store(writer, "INWX session, do not share.");
+                }
+                Files.move(tempFile, sessionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                // only left over if writing or moving failed.
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            // the session file is only an optimization; the next invocation will just log in again.
+        }
+    }
+
+    private static Path createOwnerOnlyFile(Path directory) throws IOException {
+        final String prefix = ".session";
+        if (directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            final FileAttribute<Set<PosixFilePermission>> ownerOnly = PosixFilePermissions.asFileAttribute(OWNER_ONLY);
+            return Files.createTempFile(directory, prefix, ".tmp", ownerOnly);
+        }
+
+        return Files.createTempFile(directory, prefix, ".tmp");
+    }
+}
@@ -20,6 +20,9 @@ import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.URI;
 import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface InwxUpdateService extends InwxService, Serializable {
 
@@ -33,8 +36,80 @@ public interface InwxUpdateService extends InwxService, Serializable {
         return updateRecord(dnsRecordId, newIp, getDefaultTtlSeconds());
     }
 
+    /**
+     * Non-blocking variant of {@link #updateRecord(InwxRecordId, InetAddress, int)}.
+     *
+     * @param dnsRecordId the record to update.
+     * @param newIp the new record content.
+     * @param ttlSeconds the new TTL.
+     * @return a future which completes with the raw API response; cancelling it aborts the request.
+     */
+    CompletableFuture<Result<String>> updateRecordAsync(InwxRecordId dnsRecordId, InetAddress newIp, int ttlSeconds);
+
+    /**
+     * Sets all given records to the same content and TTL using a single {@code nameserver.updateRecord} call.
+     *
+     * <p>INWX accepts an array of record ids for this method, so e.g. all A records of a host can be updated at once.
+     * The call either succeeds or fails for all given records.</p>
+     *
+     * @param dnsRecordIds the records to update, must not be empty.
+     * @param newIp the new content of all records.
+     * @param ttlSeconds the new TTL of all records.
+     * @return the raw API response.
+     */
+    Result<String> updateRecords(Collection<InwxRecordId> dnsRecordIds, InetAddress newIp, int ttlSeconds);
+
+    /**
+     * Non-blocking variant of {@link #updateRecords(Collection, InetAddress, int)}.
+     *
+     * @param dnsRecordIds the records to update, must not be empty.
+     * @param newIp the new content of all records.
+     * @param ttlSeconds the new TTL of all records.
+     * @return a future which completes with the raw API response; cancelling it aborts the request.
+     */
+    CompletableFuture<Result<String>> updateRecordsAsync(
+            Collection<InwxRecordId> dnsRecordIds, InetAddress newIp, int ttlSeconds);
+
+    /**
+     * Updates several records using as few requests as possible.
+     *
+     * <p>The updates are packed into {@code system.multicall} requests of at most
+     * {@link #getMulticallBatchSize()} calls each. A failed request fails all updates of its batch,
+     * but not the other batches.</p>
+     *
+     * <p>Protocols without multicall, see {@link InwxApiProtocol#supportsMulticall()}, send the calls of each batch
+     * concurrently instead, so every update succeeds or fails on its own.</p>
+     *
+     * <p>The batches themselves are sent one after the other.</p>
+     *
+     * @param updates the updates to send.
+     * @return one result per update, in the order of the given updates. A successful result contains the
+     *     parsed response of the single call, which may still carry an INWX error code.
+     */
+    List<Result<InwxResponse>> updateRecords(Collection<RecordUpdate> updates);
+
+    /**
+     * Reads the status from the raw response of {@link #updateRecord(InwxRecordId, InetAddress, int)} and
+     * {@link #updateRecords(Collection, InetAddress, int)}, in the protocol this service uses.
+     *
+     * @param rawResponse the raw API response.
+     * @return the parsed response, which may still carry an INWX error code, or the reason why it could not be read.
+     */
+    Result<InwxResponse> parseUpdateResponse(String rawResponse);
+
     int getDefaultTtlSeconds();
 
+    int getMulticallBatchSize();
+
+    /**
+     * Sets the maximum number of updates sent in a single {@code system.multicall} request.
+     *
+     * @param batchSize the maximum number of calls per request, at least 1.
+     * @param <T> the type of this service.
+     * @return this service.
+     */
+    <T extends InwxUpdateService> T withMulticallBatchSize(int batchSize);
+
     @SuppressWarnings("unchecked")
     default <T extends InwxUpdateService> T withDefaultTtl(Duration defaultTtl) {
         if (defaultTtl.toSeconds() > Integer.MAX_VALUE) {
@@ -47,4 +122,6 @@ public interface InwxUpdateService extends InwxService, Serializable {
     URI getApiEndpoint();
 
     record InwxCredentials(String username, char[] password) {}
+
+    record RecordUpdate(InwxRecordId recordId, InetAddress newIp, int ttlSeconds) implements Serializable {}
 }
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import de.bmarwell.jdyninwx.common.value.DnsRecordType;
+import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
+import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResponse;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResult;
+import de.bmarwell.jdyninwx.xmlrpc.XmlRpcValue;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.apache.hc.core5.http.ContentType;
+
+/**
+ * JSON-RPC encoding of API calls and responses.
+ *
+ * <p>Requests are written and responses are read using the streaming API of Jackson, so no JSON tree is ever built.
+ * Just like the XML-RPC variant, the records of a {@code nameserver.info} response are passed on one at a time while
+ * the response is being read.</p>
+ */
+final class JsonRpc {
+
+    /**
+     * Thread-safe once configured; parsers and generators are created per call.
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private JsonRpc() {}
+
+    static CallBuilder callBuilder() {
+        return new JsonRpcCallBuilder();
+    }
+
+    /**
+     * Reads the status of a single call.
+     *
+     * @param jsonResponse the raw response.
+     * @return the code, message and runtime of the response; any {@code resData} is skipped.
+     */
+    static XmlRpcResult<Void> parseResponse(String jsonResponse) {
+        try (JsonParser parser = JSON_FACTORY.createParser(jsonResponse)) {
+            return readResponse(parser, null, new AtomicInteger());
+        } catch (IOException | IllegalArgumentException parseException) {
+            return fail(parseException);
+        }
+    }
+
+    /**
+     * Parses a {@code nameserver.info} response while it is being read.
+     *
+     * @param jsonResponse the raw response, e.g. the content of the HTTP response. It is not closed.
+     * @param recordConsumer receives the records in the order of the response.
+     * @return the result code of the response, or the reason why the response could not be read. Records read
+     *     before an error was encountered have already been passed to the consumer.
+     */
+    static XmlRpcResult<Void> parseNameServerInfoResponse(
+            InputStream jsonResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+        try (JsonParser parser = JSON_FACTORY.createParser(jsonResponse)) {
+            return readResponse(parser, recordConsumer, new AtomicInteger());
+        } catch (IOException | IllegalArgumentException parseException) {
+            return fail(parseException);
+        }
+    }
+
+    static XmlRpcResult<Void> parseNameServerInfoResponse(
+            String jsonResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+        try (JsonParser parser = JSON_FACTORY.createParser(jsonResponse)) {
+            return readResponse(parser, recordConsumer, new AtomicInteger());
+        } catch (IOException | IllegalArgumentException parseException) {
+            return fail(parseException);
+        }
+    }
+
+    /**
+     * Parses a page of a {@code nameserver.info} response.
+     *
+     * @param jsonResponse the raw response.
+     * @param recordConsumer receives the records in the order of the response.
+     * @return the result code and the number of entries of the page, including entries which are not records.
+     */
+    static XmlRpcResult<Integer> parseNameServerInfoPage(
+            String jsonResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+        final AtomicInteger entries = new AtomicInteger();
+        try (JsonParser parser = JSON_FACTORY.createParser(jsonResponse)) {
+            final XmlRpcResult<Void> result = readResponse(parser, recordConsumer, entries);
+            return new XmlRpcResult<>(result.response(), entries.get(), null);
+        } catch (IOException | IllegalArgumentException parseException) {
+            return new XmlRpcResult<>(null, null, parseException);
+        }
+    }
+
+    private static XmlRpcResult<Void> fail(Exception parseException) {
+        return new XmlRpcResult<>(null, null, parseException);
+    }
+
+    /**
+     * Reads the response object. Records are only read if a consumer is given.
+     */
+    private static XmlRpcResult<Void> readResponse(
+            JsonParser parser, Consumer<InwxNameServerRecord> recordConsumer, AtomicInteger entries)
+            throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Response is not a JSON object.");
+        }
+
+        double code = Double.NaN;
+        String message = "";
+        double runtime = Double.NaN;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.currentName();
+            final JsonToken value = parser.nextToken();
+            switch (name) {
+                case "code" -> code = parser.getValueAsDouble(Double.NaN);
+                case "msg" -> message = parser.getValueAsString("");
+                case "runtime" -> runtime = parser.getValueAsDouble(Double.NaN);
+                case "resData" -> {
+                    if (recordConsumer != null && value == JsonToken.START_OBJECT) {
+                        readResData(parser, recordConsumer, entries);
+                    }
+                }
+                default -> {
+                    // e.g. reason and reasonCode, which are not part of the XML-RPC status either.
+                }
+            }
+            parser.skipChildren();
+        }
+
+        return new XmlRpcResult<>(new XmlRpcResponse(code, message, runtime), null, null);
+    }
+
+    /**
+     * Reads the {@code resData} object up to and including its end.
+     */
+    private static void readResData(
+            JsonParser parser, Consumer<InwxNameServerRecord> recordConsumer, AtomicInteger entries)
+            throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.currentName();
+            final JsonToken value = parser.nextToken();
+            if ("record".equals(name) && value == JsonToken.START_ARRAY) {
+                readRecords(parser, recordConsumer, entries);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void readRecords(
+            JsonParser parser, Consumer<InwxNameServerRecord> recordConsumer, AtomicInteger entries)
+            throws IOException {
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            entries.incrementAndGet();
+            if (parser.currentToken() == JsonToken.START_OBJECT) {
+                readRecord(parser).ifPresent(recordConsumer);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static Optional<InwxNameServerRecord> readRecord(JsonParser parser) throws IOException {
+        long recordId = 0L;
+        String name = "";
+        String type = "";
+        String content = "";
+        long ttl = 0L;
+        int prio = 0;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "id" -> recordId = parser.getValueAsLong(0L);
+                case "name" -> name = parser.getValueAsString("");
+                case "type" -> type = parser.getValueAsString("");
+                case "content" -> content = parser.getValueAsString("");
+                case "ttl" -> ttl = parser.getValueAsLong(0L);
+                case "prio" -> prio = parser.getValueAsInt(0);
+                default -> {
+                    // not part of InwxNameServerRecord.
+                }
+            }
+            parser.skipChildren();
+        }
+
+        if (recordId == 0L) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new InwxNameServerRecord(
+                new InwxRecordId(recordId),
+                name,
+                DnsRecordType.valueOf(type.trim().toUpperCase(Locale.ROOT)),
+                content,
+                Duration.ofSeconds(ttl),
+                prio));
+    }
+
+    private static void writeValue(JsonGenerator generator, XmlRpcValue value) throws IOException {
+        if (value instanceof XmlRpcValue.StringValue stringValue) {
+            generator.writeString(stringValue.value());
+        } else if (value instanceof XmlRpcValue.IntValue intValue) {
+            generator.writeNumber(intValue.value());
+        } else if (value instanceof XmlRpcValue.BooleanValue booleanValue) {
+            generator.writeBoolean(booleanValue.value());
+        } else if (value instanceof XmlRpcValue.DoubleValue doubleValue) {
+            generator.writeNumber(doubleValue.value());
+        } else if (value instanceof XmlRpcValue.DateTimeValue dateTimeValue) {
+            generator.writeString(DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(dateTimeValue.value()));
+        } else if (value instanceof XmlRpcValue.Base64Value base64Value) {
+            generator.writeBinary(base64Value.value());
+        } else if (value instanceof XmlRpcValue.Struct struct) {
+            generator.writeStartObject();
+            for (Map.Entry<String, XmlRpcValue> member : struct.members().entrySet()) {
+                generator.writeFieldName(member.getKey());
+                writeValue(generator, member.getValue());
+            }
+            generator.writeEndObject();
+        } else if (value instanceof XmlRpcValue.Array array) {
+            generator.writeStartArray();
+            for (XmlRpcValue element : array.values()) {
+                writeValue(generator, element);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Builds a call like {@code {"method":"nameserver.info","params":{"lang":"en","domain":"example.com"}}}.
+     *
+     * <p>The body is written once on {@link #build()}, so parameters are kept as typed values until then.</p>
+     */
+    private static final class JsonRpcCallBuilder implements CallBuilder {
+
+        private final Map<String, XmlRpcValue> parameters = new LinkedHashMap<>();
+
+        private Template.MethodName method = null;
+
+        private InwxUpdateService.InwxCredentials credentials = null;
+
+        @Override
+        public CallBuilder withMethod(Template.MethodName methodName) {
+            this.method = methodName;
+            return this;
+        }
+
+        @Override
+        public CallBuilder withCredentials(InwxUpdateService.InwxCredentials credentials) {
+            this.credentials = credentials;
+            return this;
+        }
+
+        @Override
+        public CallBuilder withCredentials(Template.CompiledCredentials credentials) {
+            return withCredentials(credentials.credentials());
+        }
+
+        @Override
+        public CallBuilder withParameter(String name, XmlRpcValue value) {
+            this.parameters.put(name, value);
+            return this;
+        }
+
+        @Override
+        public Template.Request build() {
+            if (this.method == null) {
+                throw new IllegalStateException("No method set.");
+            }
+
+            final ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+            try (JsonGenerator generator = JSON_FACTORY.createGenerator(body, JsonEncoding.UTF8)) {
+                generator.writeStartObject();
+                generator.writeStringField("method", this.method.inwxName().toString());
+                generator.writeObjectFieldStart("params");
+                if (this.credentials != null) {
+                    final char[] password = this.credentials.password();
+                    generator.writeStringField("user", this.credentials.username());
+                    generator.writeFieldName("pass");
+                    generator.writeString(password, 0, password.length);
+                }
+                generator.writeStringField("lang", "en");
+                for (Map.Entry<String, XmlRpcValue> parameter : this.parameters.entrySet()) {
+                    generator.writeFieldName(parameter.getKey());
+                    writeValue(generator, parameter.getValue());
+                }
+                generator.writeEndObject();
+                generator.writeEndObject();
+            } catch (IOException ioException) {
+                // cannot happen when writing to memory.
+                throw new UncheckedIOException(ioException);
+            }
+
+            return new Template.Request(
+                    ContentType.APPLICATION_JSON, List.of(body.toByteArray()), this.method, this.method.isIdempotent());
+        }
+    }
+}
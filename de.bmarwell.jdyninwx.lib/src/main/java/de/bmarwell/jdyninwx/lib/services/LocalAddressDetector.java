@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the public address among the addresses of the local network interfaces, without any network traffic.
+ *
+ * <p>This works for IPv6 in general, and for IPv4 if the host has a public address on one of its interfaces
+ * (i.e. it is not behind NAT). Candidates are filtered by {@link LocalAddressRules}; the first remaining address in
+ * the order of the interfaces is used.</p>
+ */
+final class LocalAddressDetector {
+
+    /**
+     * Lists the IPv6 addresses of all interfaces including their flags on Linux.
+     */
+    static final Path PROC_NET_IF_INET6 = Path.of("/proc/net/if_inet6");
+
+    private static final int IFA_F_TEMPORARY = 0x01;
+
+    private static final int IFA_F_DEPRECATED = 0x20;
+
+    private final LocalAddressRules rules;
+
+    private final Supplier<List<LocalAddress>> addressSource;
+
+    LocalAddressDetector(LocalAddressRules rules) {
+        this(rules, LocalAddressDetector::interfaceAddresses);
+    }
+
+    LocalAddressDetector(LocalAddressRules rules, Supplier<List<LocalAddress>> addressSource) {
+        this.rules = Objects.requireNonNull(rules, "rules");
+        this.addressSource = Objects.requireNonNull(addressSource, "addressSource");
+    }
+
+    /**
+     * Returns the first suitable address of the given family.
+     *
+     * @param family {@link Inet4Address} or {@link Inet6Address}.
+     * @param <T> the address type.
+     * @return the address, or empty if no interface has a suitable one.
+     */
+    <T extends InetAddress> Optional<T> find(Class<T> family) {
+        return addressSource.get().stream()
+                .filter(candidate -> family.isInstance(candidate.address()))
+                .filter(candidate -> rules.matchesInterface(candidate.interfaceName()))
+                .filter(candidate -> rules.allowTemporary() || !candidate.temporary())
+                .filter(candidate ->
+                        isGlobal(candidate.address()) || (rules.allowPrivate() && isPrivate(candidate.address())))
+                .map(candidate -> family.cast(candidate.address()))
+                .findFirst();
+    }
+
+    static boolean isGlobal(InetAddress address) {
+        if (address.isAnyLocalAddress()
+                || address.isLoopbackAddress()
+                || address.isLinkLocalAddress()
+                || address.isSiteLocalAddress()
+                || address.isMulticastAddress()) {
+            return false;
+        }
+
+        return !isPrivate(address);
+    }
+
+    /**
+     * Private IPv4 addresses (RFC 1918, and carrier-grade NAT from RFC 6598) and IPv6 unique local addresses.
+     */
+    static boolean isPrivate(InetAddress address) {
+        final byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            final boolean carrierGradeNat = (bytes[0] & 0xff) == 100 && (bytes[1] & 0xc0) == 0x40;
+            return address.isSiteLocalAddress() || carrierGradeNat;
+        }
+
+        // fc00::/7
+        return (bytes[0] & 0xfe) == 0xfc;
+    }
+
+    private static List<LocalAddress> interfaceAddresses() {
+        final Set<String> temporaryAddresses = temporaryInet6Addresses();
+        final List<LocalAddress> addresses = new ArrayList<>();
+
+        try {
+            for (NetworkInterface networkInterface :
+                    NetworkInterface.networkInterfaces().toList()) {
+                if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                    continue;
+                }
+
+                networkInterface
+                        .inetAddresses()
+                        .forEach(address -> addresses.add(new LocalAddress(
+                                networkInterface.getName(),
+                                address,
+                                address instanceof Inet6Address && temporaryAddresses.contains(toHex(address)))));
+            }
+        } catch (SocketException socketException) {
+            // no addresses, the ident pool will be used.
+            return List.of();
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Reads the temporary and deprecated IPv6 addresses, which Java has no API for.
+     *
+     * @return the addresses as 32 lower case hex digits; empty if not running on Linux.
+     */
+    private static Set<String> temporaryInet6Addresses() {
+        if (!Files.isReadable(PROC_NET_IF_INET6)) {
+            return Set.of();
+        }
+
+        try {
+            return parseTemporaryInet6Addresses(Files.readAllLines(PROC_NET_IF_INET6, StandardCharsets.US_ASCII));
+        } catch (IOException ioException) {
+            return Set.of();
+        }
+    }
+
+    /**
+     * Parses lines like {@code 20010db8000000000000000000000001 02 40 00 01 eth0}: address, interface index, prefix
+     * length, scope, flags and interface name.
+     */
+    static Set<String> parseTemporaryInet6Addresses(List<String> lines) {
+        return lines.stream()
+                .map(String::trim)
+                .map(line -> line.split("\\s+"))
+                .filter(fields -> fields.length >= 5)
+                .filter(fields -> {
+                    try {
+                        final int flags = Integer.parseInt(fields[4], 16);
+                        return (flags & (IFA_F_TEMPORARY | IFA_F_DEPRECATED)) != 0;
+                    } catch (NumberFormatException nfe) {
+                        return false;
+                    }
+                })
+                .map(fields -> fields[0].toLowerCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    private static String toHex(InetAddress address) {
+        return HexFormat.of().formatHex(address.getAddress());
+    }
+
+    /**
+     * An address of a local network interface.
+     *
+     * @param interfaceName the name of the interface.
+     * @param address the address.
+     * @param temporary whether the address is a temporary or deprecated IPv6 address.
+     */
+    record LocalAddress(String interfaceName, InetAddress address, boolean temporary) {}
+}
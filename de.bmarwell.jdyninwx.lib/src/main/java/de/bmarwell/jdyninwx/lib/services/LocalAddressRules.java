@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Defines which addresses of the local network interfaces may be used as the public address.
+ *
+ * <p>Loopback, link-local and multicast addresses are never used.</p>
+ *
+ * @param interfaceNames the interfaces to consider, e.g. {@code eth0}, or a prefix ending with {@code *}, e.g.
+ *     {@code enp*}. An empty list considers all interfaces which are up.
+ * @param allowPrivate whether private IPv4 addresses (RFC 1918, carrier-grade NAT) and IPv6 unique local addresses
+ *     may be used, e.g. for a DNS zone only used internally.
+ * @param allowTemporary whether temporary (privacy extension) and deprecated IPv6 addresses may be used. They are
+ *     only recognised on Linux.
+ */
+public record LocalAddressRules(List<String> interfaceNames, boolean allowPrivate, boolean allowTemporary)
+        implements Serializable {
+
+    public LocalAddressRules {
+        interfaceNames = List.copyOf(Objects.requireNonNull(interfaceNames, "interfaceNames"));
+    }
+
+    /**
+     * Only global, stable addresses of any interface.
+     *
+     * @return the default rules.
+     */
+    public static LocalAddressRules defaults() {
+        return new LocalAddressRules(List.of(), false, false);
+    }
+
+    /**
+     * Whether addresses of the given interface may be used.
+     *
+     * @param interfaceName the name of the interface, e.g. {@code eth0}.
+     * @return {@code true} if no interfaces were configured or the name matches one of them.
+     */
+    public boolean matchesInterface(String interfaceName) {
+        if (interfaceNames.isEmpty()) {
+            return true;
+        }
+
+        return interfaceNames.stream()
+                .anyMatch(pattern -> pattern.endsWith("*")
+                        ? interfaceName.startsWith(pattern.substring(0, pattern.length() - 1))
+                        : interfaceName.equals(pattern));
+    }
+}
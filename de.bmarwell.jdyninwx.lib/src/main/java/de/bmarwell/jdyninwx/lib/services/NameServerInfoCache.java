@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResponse;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResult;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the last parsed {@code nameserver.info} response of each domain.
+ *
+ * <p>When a zone is polled repeatedly, the responses usually only differ in their {@code runtime}. Each response is
+ * fingerprinted with the runtime value left out, and if the fingerprint matches the one of the previous response of
+ * the same domain, the records parsed back then are returned without parsing the response again. The returned status
+ * is the one of the cached response, so its runtime may be outdated.</p>
+ *
+ * <p>Only successful responses are cached.</p>
+ */
+final class NameServerInfoCache {
+
+    private static final byte[] XML_RUNTIME_MEMBER = ascii("<name>runtime</name>");
+
+    private static final byte[] XML_MEMBER_END = ascii("</member>");
+
+    private static final byte[] JSON_RUNTIME_FIELD = ascii("\"runtime\":");
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Reads the whole response and parses it, unless it matches the previous response of the domain.
+     *
+     * @param domainName the domain the response belongs to.
+     * @param rawResponse the response body. It is not closed.
+     * @param protocol the protocol of the response.
+     * @return the status and all records of the response.
+     */
+    XmlRpcResult<List<InwxNameServerRecord>> parse(
+            String domainName, InputStream rawResponse, InwxApiProtocol protocol) {
+        try {
+            return parse(domainName, rawResponse.readAllBytes(), protocol);
+        } catch (IOException ioException) {
+            return new XmlRpcResult<>(null, null, ioException);
+        }
+    }
+
+    XmlRpcResult<List<InwxNameServerRecord>> parse(String domainName, byte[] rawResponse, InwxApiProtocol protocol) {
+        final String key = domainName.toLowerCase(Locale.ROOT);
+        final byte[] fingerprint = fingerprint(rawResponse, protocol);
+
+        final Entry cached = this.entries.get(key);
+        if (cached != null
+                && cached.protocol() == protocol
+                && MessageDigest.isEqual(cached.fingerprint(), fingerprint)) {
+            return new XmlRpcResult<>(cached.response(), cached.records(), null);
+        }
+
+        final List<InwxNameServerRecord> records = new ArrayList<>();
+        final XmlRpcResult<Void> result =
+                protocol.parseNameServerInfoResponse(new ByteArrayInputStream(rawResponse), records::add);
+        if (result.isError()) {
+            this.entries.remove(key);
+            return new XmlRpcResult<>(null, null, result.error());
+        }
+
+        final List<InwxNameServerRecord> parsedRecords = List.copyOf(records);
+        if (isSuccessCode(result.response().code())) {
+            this.entries.put(key, new Entry(protocol, fingerprint, result.response(), parsedRecords));
+        } else {
+            this.entries.remove(key);
+        }
+
+        return new XmlRpcResult<>(result.response(), parsedRecords, null);
+    }
+
+    /**
+     * Digests the response without the value of its {@code runtime}.
+     *
+     * <p>The position of the left out value is digested as well, so two responses only have the same fingerprint if
+     * everything but the runtime value is equal.</p>
+     */
+    static byte[] fingerprint(byte[] rawResponse, InwxApiProtocol protocol) {
+        final int[] runtime = findRuntimeValue(rawResponse, protocol);
+        final MessageDigest digest = sha256();
+
+        if (runtime.length == 0) {
+            digest.update(rawResponse);
+        } else {
+            digest.update(rawResponse, 0, runtime[0]);
+            digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(runtime[0]).array());
+            digest.update(rawResponse, runtime[1], rawResponse.length - runtime[1]);
+        }
+
+        return digest.digest();
+    }
+
+    /**
+     * Finds the runtime value, which INWX puts at the end of the response.
+     *
+     * @return the start (inclusive) and end (exclusive) of the value, or an empty array if there is none.
+     */
+    private static int[] findRuntimeValue(byte[] rawResponse, InwxApiProtocol protocol) {
+        if (protocol == InwxApiProtocol.JSON_RPC) {
+            final int field = lastIndexOf(rawResponse, JSON_RUNTIME_FIELD);
+            if (field < 0) {
+                return new int[0];
+            }
+
+            final int start = field + JSON_RUNTIME_FIELD.length;
+            int end = start;
+            while (end < rawResponse.length && isNumberOrSpace(rawResponse[end])) {
+                end++;
+            }
+
+            return new int[] {start, end};
+        }
+
+        final int member = lastIndexOf(rawResponse, XML_RUNTIME_MEMBER);
+        if (member < 0) {
+            return new int[0];
+        }
+
+        final int start = member + XML_RUNTIME_MEMBER.length;
+        final int end = indexOf(rawResponse, XML_MEMBER_END, start);
+        if (end < 0) {
+            return new int[0];
+        }
+
+        return new int[] {start, end};
+    }
+
+    private static boolean isNumberOrSpace(byte character) {
+        return (character >= '0' && character <= '9')
+                || character == '.'
+                || character == '-'
+                || character == '+'
+                || character == 'e'
+                || character == 'E'
+                || character == ' ';
+    }
+
+    private static int lastIndexOf(byte[] data, byte[] pattern) {
+        for (int start = data.length - pattern.length; start >= 0; start--) {
+            if (matchesAt(data, pattern, start)) {
+                return start;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        for (int start = from; start <= data.length - pattern.length; start++) {
+            if (matchesAt(data, pattern, start)) {
+                return start;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean matchesAt(byte[] data, byte[] pattern, int start) {
+        for (int index = 0; index < pattern.length; index++) {
+            if (data[start + index] != pattern[index]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * INWX uses codes 1000-1999 for successful commands.
+     */
+    private static boolean isSuccessCode(Number code) {
+        return code != null && code.intValue() >= 1_000 && code.intValue() < 2_000;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
+            // every Java platform is required to support SHA-256.
+            throw new IllegalStateException(noSuchAlgorithmException);
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private record Entry(
+            InwxApiProtocol protocol,
+            byte[] fingerprint,
+            XmlRpcResponse response,
+            List<InwxNameServerRecord> records) {}
+}
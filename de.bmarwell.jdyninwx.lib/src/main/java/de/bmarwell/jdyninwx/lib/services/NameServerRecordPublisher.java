@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the records of a zone, which are fetched page by page.
+ *
+ * <p>Every subscriber gets its own sequence of requests. The first page is requested on the first demand. As soon as
+ * a page becomes the one being consumed, the next page is requested, so it is usually available by the time the
+ * current page is exhausted. No further page is requested until then, so at most two pages are held in memory no
+ * matter how much the subscriber requests. A page with fewer entries than the page size is the last one.</p>
+ */
+final class NameServerRecordPublisher implements Flow.Publisher<InwxNameServerRecord> {
+
+    private final PageLoader pageLoader;
+
+    private final int pageSize;
+
+    /**
+     * Creates a publisher.
+     *
+     * @param pageLoader fetches a page, starting at page 1.
+     * @param pageSize the number of records per page, at least 1.
+     */
+    NameServerRecordPublisher(PageLoader pageLoader, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be at least 1, but was: " + pageSize);
+        }
+
+        this.pageLoader = Objects.requireNonNull(pageLoader, "pageLoader");
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super InwxNameServerRecord> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        final PageSubscription subscription = new PageSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * The records of a page.
+     *
+     * @param records the records to publish.
+     * @param entries the number of entries the server returned for the page, including entries which are not
+     *     records and therefore not published. Decides whether more pages follow.
+     */
+    record Page(List<InwxNameServerRecord> records, int entries) {
+
+        Page {
+            records = List.copyOf(records);
+        }
+
+        static Page of(List<InwxNameServerRecord> records) {
+            return new Page(records, records.size());
+        }
+    }
+
+    @FunctionalInterface
+    interface PageLoader {
+
+        /**
+         * Fetches a single page.
+         *
+         * @param page the number of the page, starting at 1.
+         * @param pageSize the maximum number of records of the page.
+         * @return a future which completes with the page; cancelling it aborts the request.
+         */
+        CompletableFuture<Result<Page>> loadPage(int page, int pageSize);
+    }
+
+    /**
+     * All signals to the subscriber are emitted by {@link #drain()}, which is never run by two threads at once.
+     */
+    private final class PageSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super InwxNameServerRecord> subscriber;
+
+        private final Queue<List<InwxNameServerRecord>> pages = new ConcurrentLinkedQueue<>();
+
+        private final AtomicLong demand = new AtomicLong();
+
+        private final AtomicInteger work = new AtomicInteger();
+
+        private Iterator<InwxNameServerRecord> currentPage = null;
+
+        private int nextPage = 1;
+
+        private volatile CompletableFuture<Result<Page>> inFlight = null;
+
+        private volatile boolean lastPageLoaded = false;
+
+        private volatile Throwable error = null;
+
+        private volatile boolean cancelled = false;
+
+        private volatile Throwable invalidRequest = null;
+
+        private boolean done = false;
+
+        private PageSubscription(Flow.Subscriber<? super InwxNameServerRecord> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                this.invalidRequest =
+                        new IllegalArgumentException("Requested " + n + " records, but must be positive.");
+                drain();
+                return;
+            }
+
+            this.demand.getAndUpdate(current -> {
+                final long sum = current + n;
+                if (sum < 0) {
+                    return Long.MAX_VALUE;
+                } else {
+                    return sum;
+                }
+            });
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+            final CompletableFuture<Result<Page>> request = this.inFlight;
+            if (request != null) {
+                request.cancel(true);
+            }
+            drain();
+        }
+
+        private void drain() {
+            if (this.work.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+            do {
+                emit();
+                missed = this.work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            if (this.done) {
+                return;
+            }
+
+            if (this.cancelled) {
+                this.done = true;
+                this.pages.clear();
+                this.currentPage = null;
+                return;
+            }
+
+            if (this.invalidRequest != null) {
+                this.done = true;
+                cancel();
+                this.subscriber.onError(this.invalidRequest);
+                return;
+            }
+
+            while (this.demand.get() > 0 && nextRecordAvailable()) {
+                this.subscriber.onNext(this.currentPage.next());
+                this.demand.decrementAndGet();
+                if (this.cancelled) {
+                    this.done = true;
+                    return;
+                }
+            }
+
+            if (nextRecordAvailable()) {
+                return;
+            }
+
+            if (this.error != null) {
+                this.done = true;
+                this.subscriber.onError(this.error);
+                return;
+            }
+
+            if (this.lastPageLoaded && this.inFlight == null) {
+                this.done = true;
+                this.subscriber.onComplete();
+                return;
+            }
+
+            if (this.demand.get() > 0) {
+                fetchNextPage();
+            }
+        }
+
+        /**
+         * Moves on to the next page if the current one is exhausted, and prefetches the page after it.
+         */
+        private boolean nextRecordAvailable() {
+            while (this.currentPage == null || !this.currentPage.hasNext()) {
+                final List<InwxNameServerRecord> page = this.pages.poll();
+                if (page == null) {
+                    this.currentPage = null;
+                    return false;
+                }
+
+                this.currentPage = page.iterator();
+                fetchNextPage();
+            }
+
+            return true;
+        }
+
+        private void fetchNextPage() {
+            if (this.inFlight != null || this.lastPageLoaded || this.error != null || !this.pages.isEmpty()) {
+                return;
+            }
+
+            final int page = this.nextPage++;
+            final CompletableFuture<Result<Page>> request;
+            try {
+                request = pageLoader.loadPage(page, pageSize);
+            } catch (RuntimeException runtimeException) {
+                this.error = runtimeException;
+                return;
+            }
+
+            this.inFlight = request;
+            request.whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    this.error = throwable;
+                } else if (result.isError()) {
+                    this.error = result.error();
+                } else {
+                    if (result.success().entries() < pageSize) {
+                        this.lastPageLoaded = true;
+                    }
+                    this.pages.add(result.success().records());
+                }
+
+                this.inFlight = null;
+                drain();
+            });
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.io.Serial;
+import java.time.Duration;
+
+/**
+ * Returned as the error of a {@link Result} when a call was not sent, because its {@link RateLimiter} had no token
+ * left and the next one would have arrived too late.
+ */
+public class RateLimitExceededException extends IllegalStateException {
+
+    @Serial
+    private static final long serialVersionUID = -1372407458771325317L;
+
+    private final String key;
+
+    private final Duration retryAfter;
+
+    public RateLimitExceededException(String key, Duration retryAfter) {
+        super("Rate limit for [" + key + "] exceeded, next call possible in [" + retryAfter + "].");
+        this.key = key;
+        this.retryAfter = retryAfter;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
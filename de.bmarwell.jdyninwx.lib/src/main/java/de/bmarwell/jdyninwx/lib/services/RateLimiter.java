@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * A token bucket limiting the rate of calls, see {@link RateLimiterSettings}.
+ *
+ * <p>A waiting call reserves its token before it starts to wait, so waiting calls are sent in the order they arrived,
+ * each one interval after the other, and a burst of calls is spread evenly instead of retrying in a tight loop.</p>
+ */
+public final class RateLimiter {
+
+    private final String key;
+
+    private final RateLimiterSettings settings;
+
+    private final Clock clock;
+
+    private final Sleeper sleeper;
+
+    /**
+     * Tokens currently in the bucket. Negative while calls are waiting for reserved tokens.
+     */
+    private double tokens;
+
+    private Instant lastRefill;
+
+    RateLimiter(String key, RateLimiterSettings settings, Clock clock) {
+        this(key, settings, clock, duration -> TimeUnit.NANOSECONDS.sleep(duration.toNanos()));
+    }
+
+    RateLimiter(String key, RateLimiterSettings settings, Clock clock, Sleeper sleeper) {
+        this.key = Objects.requireNonNull(key, "key");
+        this.settings = Objects.requireNonNull(settings, "settings");
+        this.clock = Objects.requireNonNull(clock, "clock");
+        this.sleeper = Objects.requireNonNull(sleeper, "sleeper");
+        this.tokens = settings.burst();
+        this.lastRefill = clock.instant();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public RateLimiterSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Returns the number of calls which may be sent right now without waiting.
+     *
+     * @return the whole tokens in the bucket.
+     */
+    public synchronized int availablePermits() {
+        refill();
+        return (int) Math.max(0.0d, Math.floor(this.tokens));
+    }
+
+    /**
+     * Sends the call once a token is available.
+     *
+     * @param call the call to send.
+     * @param <T> the result type.
+     * @return the result of the call, or a failed result with a {@link RateLimitExceededException} if no token
+     *     arrives within {@link RateLimiterSettings#maxWait()}.
+     */
+    <T> Result<T> execute(Supplier<Result<T>> call) {
+        final Result<Duration> reservation = reserve();
+        if (reservation.isError()) {
+            return Result.fail(reservation.error());
+        }
+
+        final Duration wait = reservation.success();
+        if (!wait.isZero()) {
+            try {
+                sleeper.sleep(wait);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                release();
+                return Result.fail(interruptedException);
+            }
+        }
+
+        return call.get();
+    }
+
+    /**
+     * Non-blocking variant of {@link #execute(Supplier)}.
+     *
+     * <p>No thread is blocked while waiting for a token; the call is started by the given executor once the token
+     * is available. Cancelling the returned future before then prevents the call from being sent and returns the
+     * token.</p>
+     *
+     * @param call the call to send.
+     * @param executor the executor to start the call on after a wait.
+     * @param <T> the result type.
+     * @return the future of the call, or a completed future with a {@link RateLimitExceededException}.
+     */
+    <T> CompletableFuture<Result<T>> executeAsync(Supplier<CompletableFuture<Result<T>>> call, Executor executor) {
+        final Result<Duration> reservation = reserve();
+        if (reservation.isError()) {
+            return CompletableFuture.completedFuture(Result.fail(reservation.error()));
+        }
+
+        final Duration wait = reservation.success();
+        if (wait.isZero()) {
+            return call.get();
+        }
+
+        final CompletableFuture<Result<T>> future = new CompletableFuture<>();
+        final AtomicBoolean claimed = new AtomicBoolean();
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled() && claimed.compareAndSet(false, true)) {
+                // the call was never sent, so its token is not used up.
+                release();
+            }
+        });
+        final Executor delayed = CompletableFuture.delayedExecutor(wait.toNanos(), TimeUnit.NANOSECONDS, executor);
+        CompletableFuture.runAsync(
+                () -> {
+                    if (!claimed.compareAndSet(false, true)) {
+                        return;
+                    }
+
+                    final CompletableFuture<Result<T>> started;
+                    try {
+                        started = call.get();
+                    } catch (RuntimeException runtimeException) {
+                        // thrown on the delayed executor, it would otherwise leave the future incomplete.
+                        future.completeExceptionally(runtimeException);
+                        return;
+                    }
+
+                    future.whenComplete((result, error) -> {
+                        if (future.isCancelled()) {
+                            started.cancel(true);
+                        }
+                    });
+                    started.whenComplete((result, error) -> {
+                        if (error != null) {
+                            future.completeExceptionally(error);
+                        } else {
+                            future.complete(result);
+                        }
+                    });
+                },
+                delayed);
+
+        return future;
+    }
+
+    /**
+     * Takes a token, possibly one which only arrives in the future.
+     *
+     * @return the time to wait for the token, or a {@link RateLimitExceededException} if that exceeds the maximum
+     *     wait; no token is taken then.
+     */
+    synchronized Result<Duration> reserve() {
+        refill();
+
+        if (this.tokens >= 1.0d) {
+            this.tokens -= 1.0d;
+            return Result.ok(Duration.ZERO);
+        }
+
+        final Duration wait = Duration.ofNanos(
+                (long) Math.ceil((1.0d - this.tokens) * settings.interval().toNanos()));
+        if (wait.compareTo(settings.maxWait()) > 0) {
+            return Result.fail(new RateLimitExceededException(key, wait));
+        }
+
+        this.tokens -= 1.0d;
+        return Result.ok(wait);
+    }
+
+    /**
+     * Returns a reserved token which was not used, e.g. because the waiting call was cancelled.
+     */
+    synchronized void release() {
+        refill();
+        this.tokens = Math.min(settings.burst(), this.tokens + 1.0d);
+    }
+
+    private void refill() {
+        final Instant now = clock.instant();
+        final Duration elapsed = Duration.between(this.lastRefill, now);
+        if (elapsed.isNegative() || elapsed.isZero()) {
+            return;
+        }
+
+        final double refilled = (double) elapsed.toNanos() / settings.interval().toNanos();
+        this.tokens = Math.min(settings.burst(), this.tokens + refilled);
+        this.lastRefill = now;
+    }
+
+    /**
+     * Waits for a reserved token; replaced in tests.
+     */
+    @FunctionalInterface
+    interface Sleeper {
+
+        void sleep(Duration duration) throws InterruptedException;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.net.URI;
+import java.time.Clock;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the {@link RateLimiter}s of the API endpoints, optionally per account.
+ *
+ * <p>Limits are configured using {@link #configure(URI, String, RateLimiterSettings)}, either for all accounts of an
+ * endpoint or for a single account. Each configured limit has its own token bucket: an account-specific limit is
+ * used by that account only, while a limit of the endpoint is shared by all other accounts. Calls to endpoints
+ * without a configured limit are not limited.</p>
+ *
+ * <p>By default, all services use the {@link #shared() shared} registry, so that all service instances of the JVM
+ * take their tokens from the same buckets.</p>
+ */
+public final class RateLimiterRegistry {
+
+    private static final RateLimiterRegistry SHARED = new RateLimiterRegistry();
+
+    private final Clock clock;
+
+    private final Map<String, RateLimiterSettings> settings = new ConcurrentHashMap<>();
+
+    private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+
+    public RateLimiterRegistry() {
+        this(Clock.systemUTC());
+    }
+
+    RateLimiterRegistry(Clock clock) {
+        this.clock = Objects.requireNonNull(clock, "clock");
+    }
+
+    /**
+     * Returns the registry used by all services which were not given another one.
+     *
+     * @return the registry shared by the whole JVM.
+     */
+    public static RateLimiterRegistry shared() {
+        return SHARED;
+    }
+
+    /**
+     * Limits the calls to an endpoint.
+     *
+     * <p>Changing the settings of a limit starts over with a full bucket; configuring the same settings again keeps
+     * the current bucket.</p>
+     *
+     * @param endpoint the API endpoint.
+     * @param account the account to limit, or {@code null} for all accounts without a limit of their own.
+     * @param rateLimiterSettings the limit, or {@code null} to remove it.
+     * @return this registry.
+     */
+    public RateLimiterRegistry configure(URI endpoint, String account, RateLimiterSettings rateLimiterSettings) {
+        final String key = key(endpoint, account);
+        final RateLimiterSettings previous;
+        if (rateLimiterSettings == null) {
+            previous = this.settings.remove(key);
+        } else {
+            previous = this.settings.put(key, rateLimiterSettings);
+        }
+        if (!Objects.equals(previous, rateLimiterSettings)) {
+            this.rateLimiters.remove(key);
+        }
+
+        return this;
+    }
+
+    /**
+     * Returns the rate limiter for calls of the given account.
+     *
+     * @param endpoint the API endpoint.
+     * @param account the account making the call, or {@code null} if unknown.
+     * @return the limiter of the account, or else of the endpoint, or empty if neither is limited.
+     */
+    public Optional<RateLimiter> forAccount(URI endpoint, String account) {
+        if (account != null) {
+            final Optional<RateLimiter> accountLimiter = forKey(key(endpoint, account));
+            if (accountLimiter.isPresent()) {
+                return accountLimiter;
+            }
+        }
+
+        return forKey(key(endpoint, null));
+    }
+
+    private Optional<RateLimiter> forKey(String key) {
+        final RateLimiterSettings limit = this.settings.get(key);
+        if (limit == null) {
+            return Optional.empty();
+        }
+
+        return Optional.of(this.rateLimiters.compute(key, (k, existing) -> {
+            if (existing != null && existing.getSettings().equals(limit)) {
+                return existing;
+            }
+
+            return new RateLimiter(k, limit, this.clock);
+        }));
+    }
+
+    static String key(URI endpoint, String account) {
+        final String endpointKey = CircuitBreakerRegistry.endpointKey(endpoint);
+        if (account == null) {
+            return endpointKey;
+        }
+
+        return account.toLowerCase(Locale.ROOT) + "@" + endpointKey;
+    }
+}
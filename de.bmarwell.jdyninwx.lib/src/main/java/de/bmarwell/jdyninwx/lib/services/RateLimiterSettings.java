@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Defines the token bucket of a {@link RateLimiter}.
+ *
+ * <p>The bucket holds at most {@code burst} tokens and is refilled with {@code permits} tokens per {@code period}.
+ * Every API call takes one token. If none is left, the call waits for the next token if that arrives within
+ * {@code maxWait}, and fails fast with a {@link RateLimitExceededException} otherwise.</p>
+ *
+ * @param permits the number of calls per period.
+ * @param period the period in which {@code permits} calls may be sent.
+ * @param burst the number of calls which may be sent at once after a quiet period.
+ * @param maxWait how long a call may wait for a token; {@link Duration#ZERO} to never wait.
+ */
+public record RateLimiterSettings(int permits, Duration period, int burst, Duration maxWait) implements Serializable {
+
+    public static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(30L);
+
+    public RateLimiterSettings {
+        Objects.requireNonNull(period, "period");
+        Objects.requireNonNull(maxWait, "maxWait");
+
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1, but was: " + permits);
+        }
+        if (period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException("period must be positive, but was: " + period);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1, but was: " + burst);
+        }
+        if (maxWait.isNegative()) {
+            throw new IllegalArgumentException("maxWait must not be negative, but was: " + maxWait);
+        }
+    }
+
+    /**
+     * Calls wait up to {@link #DEFAULT_MAX_WAIT} for a token.
+     *
+     * @param permits the number of calls per period.
+     * @param period the period in which {@code permits} calls may be sent.
+     * @param burst the number of calls which may be sent at once.
+     * @return blocking settings.
+     */
+    public static RateLimiterSettings blocking(int permits, Duration period, int burst) {
+        return new RateLimiterSettings(permits, period, burst, DEFAULT_MAX_WAIT);
+    }
+
+    /**
+     * Calls fail immediately if no token is left.
+     *
+     * @param permits the number of calls per period.
+     * @param period the period in which {@code permits} calls may be sent.
+     * @param burst the number of calls which may be sent at once.
+     * @return fail-fast settings.
+     */
+    public static RateLimiterSettings failFast(int permits, Duration period, int burst) {
+        return new RateLimiterSettings(permits, period, burst, Duration.ZERO);
+    }
+
+    public RateLimiterSettings withMaxWait(Duration maxWait) {
+        return new RateLimiterSettings(this.permits, this.period, this.burst, maxWait);
+    }
+
+    /**
+     * The time it takes to refill a single token.
+     *
+     * @return the period divided by the number of permits.
+     */
+    public Duration interval() {
+        return this.period.dividedBy(this.permits);
+    }
+}
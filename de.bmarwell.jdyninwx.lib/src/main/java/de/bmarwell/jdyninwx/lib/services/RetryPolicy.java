@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResponse;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.apache.hc.client5.http.HttpResponseException;
+import org.apache.hc.core5.http.NoHttpResponseException;
+
+/**
+ * Retries calls which failed for a transient reason, see {@link RetrySettings}.
+ *
+ * <p>Only idempotent calls may be retried, because a call which timed out may still have been executed. Transient
+ * failures are connection failures and timeouts, HTTP status 429 and 5xx, and INWX result codes telling the client
+ * to come back later. Everything else, including an open {@link CircuitBreaker} and an exceeded
+ * {@link RateLimiter}, fails without a retry.</p>
+ */
+public final class RetryPolicy {
+
+    /**
+     * INWX result codes which are returned while the API is overloaded or limits the rate of calls.
+     */
+    static final Set<Integer> TRANSIENT_RESULT_CODES = Set.of(2_500, 2_502);
+
+    private final RetrySettings settings;
+
+    private final Clock clock;
+
+    private final RateLimiter.Sleeper sleeper;
+
+    private final DoubleSupplier random;
+
+    public RetryPolicy(RetrySettings settings) {
+        this(
+                settings,
+                Clock.systemUTC(),
+                duration -> TimeUnit.NANOSECONDS.sleep(duration.toNanos()),
+                () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    RetryPolicy(RetrySettings settings, Clock clock, RateLimiter.Sleeper sleeper, DoubleSupplier random) {
+        this.settings = Objects.requireNonNull(settings, "settings");
+        this.clock = Objects.requireNonNull(clock, "clock");
+        this.sleeper = Objects.requireNonNull(sleeper, "sleeper");
+        this.random = Objects.requireNonNull(random, "random");
+    }
+
+    public RetrySettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Checks whether the given failure may go away when the call is sent again.
+     *
+     * @param error the reason of a failed call.
+     * @return {@code true} for connection failures, timeouts and HTTP status 429 and 5xx.
+     */
+    public static boolean isTransient(Throwable error) {
+        if (error instanceof HttpResponseException responseException) {
+            final int statusCode = responseException.getStatusCode();
+            return statusCode == 429 || statusCode >= 500;
+        }
+
+        return error instanceof ConnectException
+                || error instanceof ConnectTimeoutException
+                || error instanceof SocketTimeoutException
+                || error instanceof NoHttpResponseException;
+    }
+
+    /**
+     * Checks whether INWX asked the client to come back later.
+     *
+     * @param response a parsed API response.
+     * @return {@code true} if the result code is one of the {@link #TRANSIENT_RESULT_CODES}.
+     */
+    static boolean isTransientResultCode(XmlRpcResponse response) {
+        return response.code() != null
+                && TRANSIENT_RESULT_CODES.contains(response.code().intValue());
+    }
+
+    /**
+     * Sends the call, and sends it again while it fails transiently.
+     *
+     * @param call the idempotent call to send.
+     * @param isTransientResponse checks whether a successfully received response asks for a retry.
+     * @param <T> the result type.
+     * @return the result of the last attempt.
+     */
+    <T> Result<T> execute(Supplier<Result<T>> call, Predicate<T> isTransientResponse) {
+        final Instant deadline = clock.instant().plus(settings.deadline());
+        for (int attempt = 1; ; attempt++) {
+            final Result<T> result = call.get();
+            final Optional<Duration> backoff = backoffAfter(attempt, result, isTransientResponse, deadline);
+            if (backoff.isEmpty()) {
+                return result;
+            }
+
+            try {
+                sleeper.sleep(backoff.orElseThrow());
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #execute(Supplier, Predicate)}.
+     *
+     * <p>No thread is blocked during a backoff; the next attempt is started by the given executor. Cancelling the
+     * returned future cancels the current attempt and prevents further ones. If the call throws, the returned future
+     * completes exceptionally.</p>
+     *
+     * @param call the idempotent call to send.
+     * @param isTransientResponse checks whether a successfully received response asks for a retry.
+     * @param executor the executor to start retries on.
+     * @param <T> the result type.
+     * @return the future of the last attempt.
+     */
+    <T> CompletableFuture<Result<T>> executeAsync(
+            Supplier<CompletableFuture<Result<T>>> call, Predicate<T> isTransientResponse, Executor executor) {
+        if (!settings.isEnabled()) {
+            return call.get();
+        }
+
+        final Instant deadline = clock.instant().plus(settings.deadline());
+        final CompletableFuture<Result<T>> future = new CompletableFuture<>();
+        attemptAsync(call, isTransientResponse, executor, deadline, 1, future);
+
+        return future;
+    }
+
+    private <T> void attemptAsync(
+            Supplier<CompletableFuture<Result<T>>> call,
+            Predicate<T> isTransientResponse,
+            Executor executor,
+            Instant deadline,
+            int attempt,
+            CompletableFuture<Result<T>> future) {
+        if (future.isDone()) {
+            return;
+        }
+
+        final CompletableFuture<Result<T>> started;
+        try {
+            started = call.get();
+        } catch (RuntimeException runtimeException) {
+            // retries run on the delayed executor, where a thrown exception would leave the future incomplete.
+            future.completeExceptionally(runtimeException);
+            return;
+        }
+
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                started.cancel(true);
+            }
+        });
+        started.whenComplete((result, error) -> {
+            if (error != null) {
+                future.completeExceptionally(error);
+                return;
+            }
+
+            final Optional<Duration> backoff = backoffAfter(attempt, result, isTransientResponse, deadline);
+            if (backoff.isEmpty()) {
+                future.complete(result);
+                return;
+            }
+
+            final Executor delayed =
+                    CompletableFuture.delayedExecutor(backoff.orElseThrow().toNanos(), TimeUnit.NANOSECONDS, executor);
+            CompletableFuture.runAsync(
+                    () -> attemptAsync(call, isTransientResponse, executor, deadline, attempt + 1, future), delayed);
+        });
+    }
+
+    /**
+     * Decides whether the given attempt is retried, and how long to wait before.
+     *
+     * @return the jittered backoff, or empty if the result is final.
+     */
+    private <T> Optional<Duration> backoffAfter(
+            int attempt, Result<T> result, Predicate<T> isTransientResponse, Instant deadline) {
+        if (attempt >= settings.maxAttempts()) {
+            return Optional.empty();
+        }
+        boolean isTransient;
+
+        if (result.isError()) {
+            isTransient = isTransient(result.error());
+        } else {
+            isTransient = isTransientResponse.test(result.success());
+        }
+        if (!isTransient) {
+            return Optional.empty();
+        }
+
+        final long maxBackoffNanos = settings.maxBackoffBefore(attempt).toNanos();
+        final Duration backoff = Duration.ofNanos((long) (random.getAsDouble() * maxBackoffNanos));
+        if (clock.instant().plus(backoff).isAfter(deadline)) {
+            return Optional.empty();
+        }
+
+        return Optional.of(backoff);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Defines how a {@link RetryPolicy} retries transient failures.
+ *
+ * <p>The n-th retry waits a random time between zero and {@code min(maxBackoff, initialBackoff * 2^(n-1))}
+ * ("full jitter"), so that many hosts failing at the same time do not retry in lockstep. No retry is started if its
+ * backoff would end after the {@code deadline}, counted from the start of the first attempt.</p>
+ *
+ * @param maxAttempts the maximum number of attempts, including the first one; {@code 1} disables retries.
+ * @param initialBackoff the upper bound of the backoff before the first retry.
+ * @param maxBackoff the upper bound of the backoff before any retry.
+ * @param deadline the time after which no retry is started anymore.
+ */
+public record RetrySettings(int maxAttempts, Duration initialBackoff, Duration maxBackoff, Duration deadline)
+        implements Serializable {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofMillis(500L);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(10L);
+    public static final Duration DEFAULT_DEADLINE = Duration.ofSeconds(60L);
+
+    public RetrySettings {
+        Objects.requireNonNull(initialBackoff, "initialBackoff");
+        Objects.requireNonNull(maxBackoff, "maxBackoff");
+        Objects.requireNonNull(deadline, "deadline");
+
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1, but was: " + maxAttempts);
+        }
+        if (initialBackoff.isNegative()) {
+            throw new IllegalArgumentException("initialBackoff must not be negative, but was: " + initialBackoff);
+        }
+        if (maxBackoff.compareTo(initialBackoff) < 0) {
+            throw new IllegalArgumentException(
+                    "maxBackoff must not be less than initialBackoff, but was: " + maxBackoff);
+        }
+        if (deadline.isNegative()) {
+            throw new IllegalArgumentException("deadline must not be negative, but was: " + deadline);
+        }
+    }
+
+    /**
+     * Makes up to 3 attempts, waiting up to 0.5 and 1 seconds before the retries, within one minute.
+     *
+     * @return the default settings.
+     */
+    public static RetrySettings defaults() {
+        return new RetrySettings(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF, DEFAULT_DEADLINE);
+    }
+
+    /**
+     * Every call is attempted exactly once.
+     *
+     * @return settings without retries.
+     */
+    public static RetrySettings disabled() {
+        return new RetrySettings(1, Duration.ZERO, Duration.ZERO, Duration.ZERO);
+    }
+
+    public RetrySettings withMaxAttempts(int maxAttempts) {
+        return new RetrySettings(maxAttempts, this.initialBackoff, this.maxBackoff, this.deadline);
+    }
+
+    public boolean isEnabled() {
+        return this.maxAttempts > 1;
+    }
+
+    /**
+     * The upper bound of the backoff before the given retry.
+     *
+     * @param retry the number of the retry, starting at 1.
+     * @return the exponentially growing, capped backoff.
+     */
+    public Duration maxBackoffBefore(int retry) {
+        // beyond 2^30, any sensible initial backoff exceeds the cap anyway.
+        final int exponent = Math.min(Math.max(retry - 1, 0), 30);
+        final long initialNanos = this.initialBackoff.toNanos();
+        final long maxNanos = this.maxBackoff.toNanos();
+        if (initialNanos > maxNanos >> exponent) {
+            return this.maxBackoff;
+        }
+
+        return Duration.ofNanos(initialNanos << exponent);
+    }
+}
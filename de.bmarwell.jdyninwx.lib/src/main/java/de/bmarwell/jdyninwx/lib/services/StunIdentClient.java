@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A minimal STUN client (RFC 5389) which asks a server for the public address of this host.
+ *
+ * <p>A STUN server answers a Binding Request with the source address it received the request from, which is the
+ * public address of a host behind NAT. This needs a single UDP packet pair and works where outbound HTTPS to ident
+ * services is slow or filtered. The resolver URI follows RFC 7064, e.g. {@code stun:stun.l.google.com:19302}; without
+ * a port, {@value #DEFAULT_PORT} is used. The server is always contacted using the requested address family.</p>
+ *
+ * <p>The request carries a random transaction id, see {@link UdpIdentExchange}. Answers with another transaction id
+ * or without the magic cookie are ignored. The address is decoded from the XOR-MAPPED-ADDRESS attribute, or from
+ * MAPPED-ADDRESS for servers which only implement RFC 3489.</p>
+ */
+final class StunIdentClient {
+
+    static final String SCHEME = "stun";
+
+    static final int DEFAULT_PORT = 3_478;
+
+    private static final int HEADER_SIZE = 20;
+
+    private static final int MAGIC_COOKIE = 0x2112A442;
+
+    private static final int BINDING_REQUEST = 0x0001;
+    private static final int BINDING_SUCCESS_RESPONSE = 0x0101;
+    private static final int BINDING_ERROR_RESPONSE = 0x0111;
+
+    private static final int ATTRIBUTE_MAPPED_ADDRESS = 0x0001;
+    private static final int ATTRIBUTE_ERROR_CODE = 0x0009;
+    private static final int ATTRIBUTE_XOR_MAPPED_ADDRESS = 0x0020;
+
+    private static final int FAMILY_IPV4 = 0x01;
+    private static final int FAMILY_IPV6 = 0x02;
+
+    private final Duration timeout;
+
+    StunIdentClient(Duration timeout) {
+        this.timeout = Objects.requireNonNull(timeout, "timeout");
+    }
+
+    static boolean isStunResolver(URI resolverUri) {
+        return SCHEME.equalsIgnoreCase(resolverUri.getScheme());
+    }
+
+    /**
+     * Prepares a Binding Request, which is only sent by {@link Exchange#execute()}.
+     *
+     * @param resolverUri the STUN server, see above.
+     * @param family the address family to look up.
+     * @param <T> the address type.
+     * @return a new, cancellable exchange.
+     */
+    <T extends InetAddress> Exchange<T> exchange(URI resolverUri, Class<T> family) {
+        return new Exchange<>(resolverUri, family);
+    }
+
+    /**
+     * Parses {@code stun:host[:port]}; the hierarchical form {@code stun://host[:port]} is accepted as well.
+     *
+     * @return the host and port of the server.
+     */
+    static InetSocketAddress parseServer(URI resolverUri) {
+        String authority = resolverUri.getRawSchemeSpecificPart();
+        authority = authority.startsWith("//") ? authority.substring(2) : authority;
+        int end;
+        if (authority.indexOf('/') >= 0) {
+            end = authority.indexOf('/');
+        } else {
+            end = authority.indexOf('?');
+        }
+        authority = end >= 0 ? authority.substring(0, end) : authority;
+
+        final URI server = URI.create(SCHEME + "://" + authority);
+        if (server.getHost() == null || authority.isEmpty()) {
+            throw new IllegalArgumentException("STUN ident resolver without a server: [" + resolverUri + "].");
+        }
+        int port;
+
+        if (server.getPort() == -1) {
+            port = DEFAULT_PORT;
+        } else {
+            port = server.getPort();
+        }
+
+        return InetSocketAddress.createUnresolved(server.getHost(), port);
+    }
+
+    /**
+     * A single Binding Request, which can be cancelled from another thread.
+     *
+     * @param <T> the address type.
+     */
+    final class Exchange<T extends InetAddress> extends UdpIdentExchange<T> {
+
+        private Exchange(URI resolverUri, Class<T> family) {
+            super(resolverUri, family, timeout);
+        }
+
+        @Override
+        InetSocketAddress prepare() throws UnknownHostException {
+            final InetSocketAddress server = parseServer(resolverUri());
+
+            return resolveServer(server.getHostString(), server.getPort());
+        }
+
+        @Override
+        ByteBuffer createRequest() {
+            final ByteBuffer request = ByteBuffer.allocate(HEADER_SIZE);
+            request.putShort((short) BINDING_REQUEST).putShort((short) 0).putInt(MAGIC_COOKIE);
+            final byte[] transactionId = new byte[12];
+            RANDOM.nextBytes(transactionId);
+            request.put(transactionId);
+
+            return request.flip();
+        }
+
+        @Override
+        Optional<Result<T>> decodeResponse(ByteBuffer response, ByteBuffer request) {
+            try {
+                final int type = Short.toUnsignedInt(response.getShort(0));
+                final int length = Short.toUnsignedInt(response.getShort(2));
+                if ((type != BINDING_SUCCESS_RESPONSE && type != BINDING_ERROR_RESPONSE)
+                        || response.getInt(4) != MAGIC_COOKIE
+                        || !sameTransaction(response, request)
+                        || HEADER_SIZE + length > response.limit()) {
+                    return Optional.empty();
+                }
+
+                final int end = HEADER_SIZE + length;
+                if (type == BINDING_ERROR_RESPONSE) {
+                    return Optional.of(Result.fail(new IllegalStateException(
+                            "STUN server [" + resolverUri() + "] returned error " + errorCode(response, end) + ".")));
+                }
+
+                Optional<T> mapped = Optional.empty();
+                int position = HEADER_SIZE;
+                while (position + 4 <= end) {
+                    final int attribute = Short.toUnsignedInt(response.getShort(position));
+                    final int attributeLength = Short.toUnsignedInt(response.getShort(position + 2));
+                    final int value = position + 4;
+                    if (value + attributeLength > end) {
+                        break;
+                    }
+
+                    if (attribute == ATTRIBUTE_XOR_MAPPED_ADDRESS) {
+                        final Optional<T> address = decodeAddress(response, value, attributeLength, true);
+                        if (address.isPresent()) {
+                            return Optional.of(Result.ok(address.orElseThrow()));
+                        }
+                    } else if (attribute == ATTRIBUTE_MAPPED_ADDRESS && mapped.isEmpty()) {
+                        mapped = decodeAddress(response, value, attributeLength, false);
+                    }
+
+                    // attributes are padded to a multiple of four bytes.
+                    position = value + ((attributeLength + 3) & ~3);
+                }
+
+                if (mapped.isPresent()) {
+                    return Optional.of(Result.ok(mapped.orElseThrow()));
+                }
+            } catch (IndexOutOfBoundsException malformed) {
+                return Optional.empty();
+            }
+
+            return Optional.of(Result.fail(new IllegalStateException("STUN server [" + resolverUri()
+                    + "] did not return an address of type " + family().getSimpleName() + ".")));
+        }
+
+        /**
+         * Decodes a (XOR-)MAPPED-ADDRESS value: a reserved byte, the family, the port and the address.
+         *
+         * <p>The XOR variant masks the address with the magic cookie, followed by the transaction id for IPv6.</p>
+         */
+        private Optional<T> decodeAddress(ByteBuffer response, int value, int length, boolean xor) {
+            final int addressFamily = Byte.toUnsignedInt(response.get(value + 1));
+            final int addressLength;
+            if (addressFamily == FAMILY_IPV4) {
+                addressLength = 4;
+            } else if (addressFamily == FAMILY_IPV6) {
+                addressLength = 16;
+            } else {
+                return Optional.empty();
+            }
+            if (length < 4 + addressLength) {
+                return Optional.empty();
+            }
+
+            final byte[] raw = new byte[addressLength];
+            response.get(value + 4, raw);
+            if (xor) {
+                // the magic cookie and the transaction id are bytes 4 to 19 of the header.
+                for (int index = 0; index < addressLength; index++) {
+                    raw[index] ^= response.get(4 + index);
+                }
+            }
+
+            try {
+                return Optional.of(InetAddress.getByAddress(raw))
+                        .filter(family()::isInstance)
+                        .map(family()::cast);
+            } catch (UnknownHostException unknownHostException) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    private static boolean sameTransaction(ByteBuffer response, ByteBuffer request) {
+        for (int index = 8; index < HEADER_SIZE; index++) {
+            if (response.get(index) != request.get(index)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String errorCode(ByteBuffer response, int end) {
+        int position = HEADER_SIZE;
+        while (position + 8 <= end) {
+            final int attribute = Short.toUnsignedInt(response.getShort(position));
+            final int attributeLength = Short.toUnsignedInt(response.getShort(position + 2));
+            if (attribute == ATTRIBUTE_ERROR_CODE) {
+                final int errorClass = response.get(position + 6) & 0x07;
+                final int number = Byte.toUnsignedInt(response.get(position + 7));
+                return String.format(Locale.ROOT, "%d%02d", errorClass, number);
+            }
+
+            position += 4 + ((attributeLength + 3) & ~3);
+        }
+
+        return "without code";
+    }
+}
@@ -15,8 +15,27 @@
  */
 package de.bmarwell.jdyninwx.lib.services;
 
-import java.util.Locale;
+import de.bmarwell.jdyninwx.xmlrpc.XmlRpcEncoder;
+import de.bmarwell.jdyninwx.xmlrpc.XmlRpcValue;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
 
+/**
+ * XML-RPC request templates.
+ *
+ * <p>The templates are compiled once into static byte segments with slots in between. Building a request only
+ * encodes its parameters using the {@link XmlRpcEncoder} and collects references to the segments; the resulting
+ * {@link Request} is written straight into the HTTP entity without creating a {@code String} first.</p>
+ */
 public final class Template {
 
     static final String XML_POST_TEMPALTE = """
@@ -27,24 +46,13 @@ public final class Template {
                 <param>
                    <value>
                       <struct>
-                         <member>
-                            <name>user</name>
-                            <value>
-                               <string>%USER%</string>
-                            </value>
-                         </member>
+                         %AUTH%
                          <member>
                             <name>lang</name>
                             <value>
                                <string>en</string>
                             </value>
                          </member>
-                         <member>
-                            <name>pass</name>
-                            <value>
-                               <string>%PASSWD%</string>
-                            </value>
-                         </member>
                          %PARAMETER%
                       </struct>
                    </value>
@@ -53,63 +61,454 @@ public final class Template {
           </methodCall>
           """.trim();
 
+    static final String XML_MULTICALL_TEMPLATE = """
+          <?xml version="1.0" encoding="UTF-8"?>
+          <methodCall>
+             <methodName>%METHOD%</methodName>
+             <params>
+                <param>
+                   <value>
+                      <array>
+                         <data>
+                            %CALLS%
+                         </data>
+                      </array>
+                   </value>
+                </param>
+             </params>
+          </methodCall>
+          """.trim();
+
+    static final String XML_MULTICALL_ENTRY_TEMPLATE = """
+          <value>
+             <struct>
+                <member>
+                   <name>methodName</name>
+                   <value>
+                      <string>%METHOD%</string>
+                   </value>
+                </member>
+                <member>
+                   <name>params</name>
+                   <value>
+                      <array>
+                         <data>
+                            <value>
+                               <struct>
+                                  %AUTH%
+                                  <member>
+                                     <name>lang</name>
+                                     <value>
+                                        <string>en</string>
+                                     </value>
+                                  </member>
+                                  %PARAMETER%
+                               </struct>
+                            </value>
+                         </data>
+                      </array>
+                   </value>
+                </member>
+             </struct>
+          </value>
+          """;
+
+    /**
+     * The credentials of a call. Omitted when the call is authenticated by a session cookie instead.
+     */
+    static final String XML_CREDENTIALS_TEMPLATE = """
+          <member>
+             <name>user</name>
+             <value>
+                <string>%USER%</string>
+             </value>
+          </member>
+          <member>
+             <name>pass</name>
+             <value>
+                <string>%PASSWD%</string>
+             </value>
+          </member>
+          """;
+
+    private static final byte[][] POST_SEGMENTS = compile(XML_POST_TEMPALTE, "%METHOD%", "%AUTH%\n", "%PARAMETER%\n");
+
+    private static final byte[][] MULTICALL_SEGMENTS = compile(XML_MULTICALL_TEMPLATE, "%METHOD%", "%CALLS%");
+
+    private static final byte[][] MULTICALL_ENTRY_SEGMENTS =
+            compile(XML_MULTICALL_ENTRY_TEMPLATE, "%METHOD%", "%AUTH%\n", "%PARAMETER%\n");
+
+    private static final byte[][] CREDENTIALS_SEGMENTS = compile(XML_CREDENTIALS_TEMPLATE, "%USER%", "%PASSWD%");
+
+    private static final byte[] EMPTY = new byte[0];
+
     private Template() {}
 
     static TemplateBuilder templateBuilder() {
-        return new TemplateBuilder(XML_POST_TEMPALTE);
+        return new TemplateBuilder(POST_SEGMENTS);
+    }
+
+    /**
+     * Creates a builder for a {@code system.multicall} request, which bundles several method calls into one request.
+     *
+     * @return a builder for the multicall envelope.
+     * @see #multicallEntryBuilder()
+     */
+    static MulticallBuilder multicallBuilder() {
+        return new MulticallBuilder();
+    }
+
+    /**
+     * Creates a builder for a single call inside a {@code system.multicall} request.
+     *
+     * @return a builder with the same methods as {@link #templateBuilder()}.
+     */
+    static TemplateBuilder multicallEntryBuilder() {
+        return new TemplateBuilder(MULTICALL_ENTRY_SEGMENTS);
+    }
+
+    /**
+     * Encodes the credentials once, so they can be added to any number of calls.
+     *
+     * @param credentials the credentials to encode.
+     * @return the credential members of a call.
+     */
+    static CompiledCredentials compile(InwxUpdateService.InwxCredentials credentials) {
+        final byte[] user = XmlRpcEncoder.encodeText(credentials.username());
+        final byte[] password = XmlRpcEncoder.encodeText(CharBuffer.wrap(credentials.password()));
+
+        return new CompiledCredentials(
+                credentials,
+                concat(CREDENTIALS_SEGMENTS[0], user, CREDENTIALS_SEGMENTS[1], password, CREDENTIALS_SEGMENTS[2]));
+    }
+
+    /**
+     * Splits a template at the given slots, which must appear in this order.
+     */
+    private static byte[][] compile(String template, String... slots) {
+        final byte[][] segments = new byte[slots.length + 1][];
+        int start = 0;
+        for (int slot = 0; slot < slots.length; slot++) {
+            final int slotStart = template.indexOf(slots[slot], start);
+            if (slotStart < 0) {
+                throw new IllegalArgumentException("Template does not contain slot " + slots[slot] + ".");
+            }
+
+            segments[slot] = template.substring(start, slotStart).getBytes(StandardCharsets.UTF_8);
+            start = slotStart + slots[slot].length();
+        }
+        segments[slots.length] = template.substring(start).getBytes(StandardCharsets.UTF_8);
+
+        return segments;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+
+        final byte[] joined = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, joined, offset, part.length);
+            offset += part.length;
+        }
+
+        return joined;
     }
 
     public enum MethodName {
-        nameserver_updateRecord("nameserver.updateRecord"),
-        nameserver_export_records("nameserver.exportrecords"),
-        nameserver_info("nameserver.info");
+        nameserver_updateRecord("nameserver.updateRecord", true),
+        nameserver_export_records("nameserver.exportrecords", true),
+        nameserver_info("nameserver.info", true),
+        account_login("account.login", false),
+        system_multicall("system.multicall", false);
 
         private final String inwxName;
 
-        MethodName(String inwxName) {
+        private final byte[] encodedName;
+
+        private final boolean idempotent;
+
+        MethodName(String inwxName, boolean idempotent) {
             this.inwxName = inwxName;
+            this.encodedName = inwxName.getBytes(StandardCharsets.US_ASCII);
+            this.idempotent = idempotent;
         }
 
         public CharSequence inwxName() {
             return this.inwxName;
         }
+
+        /**
+         * Whether sending the call twice has the same effect as sending it once, so it may be retried.
+         *
+         * <p>A {@code system.multicall} is idempotent if all bundled calls are.</p>
+         *
+         * @return {@code true} for calls which only read or set records.
+         */
+        public boolean isIdempotent() {
+            return this.idempotent;
+        }
+
+        byte[] encodedName() {
+            return this.encodedName;
+        }
+    }
+
+    /**
+     * The credentials of a call, see {@link Template#compile(InwxUpdateService.InwxCredentials)}. The XML-RPC members
+     * are encoded up front, while JSON-RPC writes the plain credentials when the request is built.
+     */
+    static final class CompiledCredentials {
+
+        private final InwxUpdateService.InwxCredentials credentials;
+
+        private final byte[] members;
+
+        private CompiledCredentials(InwxUpdateService.InwxCredentials credentials, byte[] members) {
+            this.credentials = credentials;
+            this.members = members;
+        }
+
+        InwxUpdateService.InwxCredentials credentials() {
+            return this.credentials;
+        }
+
+        @Override
+        public String toString() {
+            return "CompiledCredentials{***}";
+        }
     }
 
-    static class TemplateBuilder {
+    static class TemplateBuilder implements CallBuilder {
+
+        private final byte[][] segments;
+
+        private final List<byte[]> parameters = new ArrayList<>(3);
+
+        private byte[] method = EMPTY;
 
-        private String currentTemplate;
+        private byte[] credentials = EMPTY;
 
-        public TemplateBuilder(String xmlPostTempalte) {
-            this.currentTemplate = xmlPostTempalte;
+        private MethodName methodName = null;
+
+        private TemplateBuilder(byte[][] segments) {
+            this.segments = segments;
         }
 
+        @Override
         public TemplateBuilder withMethod(MethodName methodName) {
-            this.currentTemplate = currentTemplate.replace("%METHOD%", methodName.inwxName());
+            this.method = methodName.encodedName();
+            this.methodName = methodName;
             return this;
         }
 
+        @Override
         public TemplateBuilder withCredentials(InwxUpdateService.InwxCredentials credentials) {
-            this.currentTemplate = this.currentTemplate
-                    .replace("%USER%", credentials.username())
-                    .replace("%PASSWD%", new String(credentials.password()));
+            return withCredentials(compile(credentials));
+        }
+
+        @Override
+        public TemplateBuilder withCredentials(CompiledCredentials credentials) {
+            this.credentials = credentials.members;
             return this;
         }
 
-        public TemplateBuilder withParameter(String name, String type, Object value) {
-            this.currentTemplate = this.currentTemplate.replace(
-                    "%PARAMETER%\n", String.format(Locale.ROOT, """
-                  <member>
-                     <name>%1$s</name>
-                     <value>
-                        <%2$s>%3$s</%2$s>
-                     </value>
-                  </member>
-                  %%PARAMETER%%\n""", name, type, value.toString()));
+        /**
+         * Adds a parameter to the call, encoded by the {@link XmlRpcEncoder}.
+         *
+         * @param name the name of the parameter.
+         * @param value the typed value, e.g. an array of record ids.
+         * @return this builder.
+         */
+        @Override
+        public TemplateBuilder withParameter(String name, XmlRpcValue value) {
+            this.parameters.add(XmlRpcEncoder.encodeMember(name, value));
+            return this;
+        }
+
+        @Override
+        public Request build() {
+            final List<byte[]> parts = new ArrayList<>(6 + this.parameters.size());
+            addTo(parts);
+
+            return new Request(ContentType.APPLICATION_XML, parts, this.methodName, isIdempotent());
+        }
+
+        private boolean isIdempotent() {
+            return this.methodName != null && this.methodName.isIdempotent();
+        }
+
+        private void addTo(List<byte[]> parts) {
+            parts.add(this.segments[0]);
+            parts.add(this.method);
+            parts.add(this.segments[1]);
+            parts.add(this.credentials);
+            parts.add(this.segments[2]);
+            parts.addAll(this.parameters);
+            parts.add(this.segments[3]);
+        }
+    }
+
+    static class MulticallBuilder {
+
+        private final List<TemplateBuilder> calls = new ArrayList<>();
+
+        public MulticallBuilder withCall(TemplateBuilder call) {
+            this.calls.add(call);
             return this;
         }
 
-        public String build() {
-            return currentTemplate.replace("%PARAMETER%", "");
+        public Request build() {
+            final List<byte[]> parts = new ArrayList<>();
+            parts.add(MULTICALL_SEGMENTS[0]);
+            parts.add(MethodName.system_multicall.encodedName());
+            parts.add(MULTICALL_SEGMENTS[1]);
+            for (TemplateBuilder call : this.calls) {
+                call.addTo(parts);
+            }
+            parts.add(MULTICALL_SEGMENTS[2]);
+            final boolean idempotent = this.calls.stream().allMatch(TemplateBuilder::isIdempotent);
+
+            return new Request(ContentType.APPLICATION_XML, parts, MethodName.system_multicall, idempotent);
+        }
+    }
+
+    /**
+     * A request body, consisting of the static segments of its template and the encoded values of this request.
+     *
+     * <p>Bodies of other protocols, e.g. JSON-RPC, consist of a single part.</p>
+     */
+    static final class Request {
+
+        private final ContentType contentType;
+
+        private final byte[][] parts;
+
+        private final int contentLength;
+
+        private final MethodName method;
+
+        private final boolean idempotent;
+
+        Request(ContentType contentType, List<byte[]> parts, MethodName method, boolean idempotent) {
+            this.contentType = contentType;
+            this.method = method;
+            this.idempotent = idempotent;
+            this.parts = parts.toArray(new byte[0][]);
+            int length = 0;
+            for (byte[] part : this.parts) {
+                length += part.length;
+            }
+            this.contentLength = length;
+        }
+
+        ContentType contentType() {
+            return this.contentType;
+        }
+
+        int contentLength() {
+            return this.contentLength;
+        }
+
+        /**
+         * The method called by this request, used to label its metrics.
+         *
+         * @return the method, or {@code null} if none was set.
+         */
+        MethodName method() {
+            return this.method;
+        }
+
+        /**
+         * Whether the request may be retried, see {@link MethodName#isIdempotent()}.
+         */
+        boolean isIdempotent() {
+            return this.idempotent;
+        }
+
+        void writeTo(OutputStream outputStream) throws IOException {
+            for (byte[] part : this.parts) {
+                outputStream.write(part);
+            }
+        }
+
+        byte[] toByteArray() {
+            final byte[] body = new byte[this.contentLength];
+            int offset = 0;
+            for (byte[] part : this.parts) {
+                System.arraycopy(part, 0, body, offset, part.length);
+                offset += part.length;
+            }
+
+            return body;
+        }
+
+        /**
+         * Creates a repeatable entity which writes the request without copying it.
+         *
+         * @return an entity of the {@link #contentType() content type} of this request.
+         */
+        HttpEntity toEntity() {
+            return new RequestEntity(this);
+        }
+
+        /**
+         * Returns the request body, e.g. for tests. Unless the call is authenticated by a session, the body contains
+         * the credentials, so it must never be logged.
+         *
+         * @return the request body.
+         */
+        String bodyAsString() {
+            return new String(toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String toString() {
+            return "Request{method=" + (this.method == null ? null : this.method.inwxName()) + ", contentLength="
+                    + this.contentLength + "}";
+        }
+    }
+
+    private static final class RequestEntity extends AbstractHttpEntity {
+
+        private final Request request;
+
+        private RequestEntity(Request request) {
+            super(request.contentType(), null);
+            this.request = request;
+        }
+
+        @Override
+        public InputStream getContent() {
+            return new ByteArrayInputStream(this.request.toByteArray());
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            this.request.writeTo(outputStream);
+        }
+
+        @Override
+        public long getContentLength() {
+            return this.request.contentLength();
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // nothing to release, the request is kept in memory.
         }
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single request/response exchange with an ident server over UDP, which can be cancelled from another thread.
+ *
+ * <p>The request is sent from a random port over a non-blocking {@link DatagramChannel}, and is sent again up to
+ * {@link #ATTEMPTS} times within the timeout until an answer arrives. Packets from other sources are dropped, and
+ * packets which the protocol does not recognise as the answer to the request are ignored. The request and response
+ * buffers are allocated once and reused for every attempt.</p>
+ *
+ * @param <T> the address type.
+ */
+abstract class UdpIdentExchange<T extends InetAddress> {
+
+    /**
+     * Number of times a request is sent before giving up; the timeout is split evenly between them.
+     */
+    static final int ATTEMPTS = 3;
+
+    /**
+     * Source of query ids and transaction ids, which must not be guessable by an off-path attacker.
+     */
+    static final SecureRandom RANDOM = new SecureRandom();
+
+    private final URI resolverUri;
+
+    private final Class<T> family;
+
+    private final Duration timeout;
+
+    private volatile boolean cancelled = false;
+
+    private volatile Selector selector = null;
+
+    UdpIdentExchange(URI resolverUri, Class<T> family, Duration timeout) {
+        this.resolverUri = Objects.requireNonNull(resolverUri, "resolverUri");
+        this.family = Objects.requireNonNull(family, "family");
+        this.timeout = Objects.requireNonNull(timeout, "timeout");
+    }
+
+    /**
+     * Parses the resolver URI.
+     *
+     * @return the server to send the request to.
+     * @throws IllegalArgumentException if the URI is not valid for the protocol.
+     * @throws UnknownHostException if the server has no address of the requested family.
+     */
+    abstract InetSocketAddress prepare() throws UnknownHostException;
+
+    /**
+     * Creates the request, which is sent unchanged on every attempt.
+     *
+     * @return a buffer ready to be read.
+     */
+    abstract ByteBuffer createRequest();
+
+    /**
+     * Decodes a packet received from the server.
+     *
+     * @param response the packet, ready to be read.
+     * @param request the request, as returned by {@link #createRequest()}.
+     * @return empty if the packet does not answer the request and should be ignored.
+     */
+    abstract Optional<Result<T>> decodeResponse(ByteBuffer response, ByteBuffer request);
+
+    /**
+     * Sends the request and waits for a valid answer.
+     *
+     * @return the address, or the reason why none was found.
+     */
+    Result<T> execute() {
+        final InetSocketAddress server;
+        final ByteBuffer request;
+        try {
+            server = prepare();
+            request = createRequest();
+        } catch (IllegalArgumentException | UnknownHostException exception) {
+            return Result.fail(exception);
+        }
+
+        final ByteBuffer response = ByteBuffer.allocate(maxResponseSize());
+        StandardProtocolFamily protocolFamily;
+        if (server.getAddress() instanceof Inet6Address) {
+            protocolFamily = StandardProtocolFamily.INET6;
+        } else {
+            protocolFamily = StandardProtocolFamily.INET;
+        }
+
+        try (Selector readSelector = Selector.open();
+                DatagramChannel channel = DatagramChannel.open(protocolFamily)) {
+            this.selector = readSelector;
+            channel.configureBlocking(false);
+            channel.connect(server);
+            channel.register(readSelector, SelectionKey.OP_READ);
+
+            final long intervalNanos = Math.max(1L, timeout.toNanos() / ATTEMPTS);
+            for (int attempt = 0; attempt < ATTEMPTS && !cancelled; attempt++) {
+                channel.write(request.rewind());
+
+                final long deadline = System.nanoTime() + intervalNanos;
+                long remaining;
+                while (!cancelled && (remaining = deadline - System.nanoTime()) > 0L) {
+                    if (readSelector.select(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(remaining))) == 0) {
+                        continue;
+                    }
+                    readSelector.selectedKeys().clear();
+
+                    SocketAddress source;
+                    while ((source = channel.receive(response.clear())) != null) {
+                        if (!server.equals(source)) {
+                            continue;
+                        }
+
+                        final Optional<Result<T>> answer = decodeResponse(response.flip(), request);
+                        if (answer.isPresent()) {
+                            return answer.orElseThrow();
+                        }
+                    }
+                }
+            }
+        } catch (IOException ioException) {
+            return Result.fail(ioException);
+        } finally {
+            this.selector = null;
+        }
+
+        if (cancelled) {
+            return Result.fail(new CancellationException("Request to [" + resolverUri + "] was cancelled."));
+        }
+
+        return Result.fail(new SocketTimeoutException("No answer from [" + resolverUri + "] within " + timeout + "."));
+    }
+
+    /**
+     * Aborts the exchange if it is still waiting for an answer.
+     */
+    void cancel() {
+        this.cancelled = true;
+        final Selector current = this.selector;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    URI resolverUri() {
+        return resolverUri;
+    }
+
+    Class<T> family() {
+        return family;
+    }
+
+    /**
+     * Returns the size of the receive buffer; longer packets are truncated.
+     *
+     * @return the maximum size of a response.
+     */
+    int maxResponseSize() {
+        return 512;
+    }
+
+    /**
+     * Looks up the server using the requested family, as that is the address the server sees.
+     */
+    InetSocketAddress resolveServer(String host, int port) throws UnknownHostException {
+        final InetAddress address = Arrays.stream(InetAddress.getAllByName(host))
+                .filter(family::isInstance)
+                .findFirst()
+                .orElseThrow(() -> new UnknownHostException(
+                        "Ident server [" + host + "] has no address of type " + family.getSimpleName() + "."));
+
+        return new InetSocketAddress(address, port);
+    }
+}
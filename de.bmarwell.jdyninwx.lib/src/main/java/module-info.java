@@ -1,11 +1,17 @@
 module jdyninwx.lib {
     requires org.apache.httpcomponents.client5.httpclient5;
     requires org.apache.httpcomponents.core5.httpcore5;
+    requires com.fasterxml.jackson.core;
     requires jdyninwx.xml;
+    requires jdyninwx.xmlrpc;
     requires de.bmarwell.jdyninwx.common.value;
 
     // for apache
     requires jdk.net;
 
+    // only for the PrometheusHttpServer; applications using it require jdk.httpserver themselves.
+    requires static jdk.httpserver;
+
+    exports de.bmarwell.jdyninwx.lib.metrics;
     exports de.bmarwell.jdyninwx.lib.services;
 }
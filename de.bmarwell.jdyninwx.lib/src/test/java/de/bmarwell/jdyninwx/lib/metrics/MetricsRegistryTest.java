@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MetricsRegistryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writes_counters_and_gauges_in_text_format() {
+        // given
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_updates_total", "Updates.", "outcome")
+                .labels("updated")
+                .add(2L);
+        registry.counter("test_updates_total", "Updates.", "outcome")
+                .labels("failed")
+                .increment();
+        registry.gauge("test_last_success_timestamp_seconds", "Last success.")
+                .labels()
+                .setToCurrentTime(Clock.fixed(Instant.ofEpochSecond(1_700_000_000L), ZoneOffset.UTC));
+
+        // when
+        String text = registry.toPrometheusText();
+
+        // then
+        assertThat(text)
+                .isEqualTo("""
+                        # HELP test_last_success_timestamp_seconds Last success.
+                        # TYPE test_last_success_timestamp_seconds gauge
+                        test_last_success_timestamp_seconds 1.7E9
+                        # HELP test_updates_total Updates.
+                        # TYPE test_updates_total counter
+                        test_updates_total{outcome="failed"} 1
+                        test_updates_total{outcome="updated"} 2
+                        """);
+    }
+
+    @Test
+    void escapes_help_and_label_values() {
+        // given
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_total", "A \\ help\ntext.", "resolver")
+                .labels("say \"hi\"\n")
+                .increment();
+
+        // when
+        String text = registry.toPrometheusText();
+
+        // then
+        assertThat(text)
+                .contains("# HELP test_total A \\\\ help\\ntext.\n")
+                .contains("test_total{resolver=\"say \\\"hi\\\"\\n\"} 1\n");
+    }
+
+    @Test
+    void histogram_buckets_are_cumulative() {
+        // given
+        MetricsRegistry registry = new MetricsRegistry();
+        LatencyHistogram histogram = registry.histogram("test_duration_seconds", "Durations.", "method")
+                .labels("nameserver.info");
+
+        // when
+        histogram.record(Duration.ofMillis(1L));
+        histogram.record(Duration.ofMillis(20L));
+        histogram.record(Duration.ofMinutes(1L));
+
+        // then
+        assertThat(histogram.count()).isEqualTo(3L);
+        assertThat(histogram.sum()).isEqualTo(Duration.ofMillis(60_021L));
+        assertThat(registry.toPrometheusText())
+                .contains("test_duration_seconds_bucket{method=\"nameserver.info\",le=\"0.001\"} 1\n")
+                .contains("test_duration_seconds_bucket{method=\"nameserver.info\",le=\"0.01\"} 1\n")
+                .contains("test_duration_seconds_bucket{method=\"nameserver.info\",le=\"0.025\"} 2\n")
+                .contains("test_duration_seconds_bucket{method=\"nameserver.info\",le=\"30.0\"} 2\n")
+                .contains("test_duration_seconds_bucket{method=\"nameserver.info\",le=\"+Inf\"} 3\n")
+                .contains("test_duration_seconds_sum{method=\"nameserver.info\"} 60.021\n")
+                .contains("test_duration_seconds_count{method=\"nameserver.info\"} 3\n");
+    }
+
+    @Test
+    void registering_a_name_twice_returns_the_same_metrics() {
+        // given
+        MetricsRegistry registry = new MetricsRegistry();
+
+        // when
+        registry.counter("test_total", "Test.", "outcome").labels("updated").increment();
+        Counter counter = registry.counter("test_total", "Test.", "outcome").labels("updated");
+
+        // then
+        assertThat(counter.get()).isEqualTo(1L);
+    }
+
+    @Test
+    void rejects_conflicting_registrations() {
+        // given
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_total", "Test.", "outcome");
+
+        // expect
+        assertThatThrownBy(() -> registry.gauge("test_total", "Test.", "outcome"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> registry.counter("test_total", "Test.", "method"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(
+                        () -> registry.counter("test_total", "Test.", "outcome").labels("a", "b"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> registry.counter("test-total", "Test.")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> registry.histogram("test_seconds", "Test.", "le"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> registry.counter("test_total", "Test.", "outcome")
+                        .labels("updated")
+                        .add(-1L))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void http_server_serves_metrics() throws IOException {
+        // given
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_total", "Test.").labels().increment();
+
+        try (PrometheusHttpServer server =
+                PrometheusHttpServer.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), registry)) {
+            URI endpoint =
+                    URI.create("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                            + server.getAddress().getPort() + PrometheusHttpServer.PATH);
+
+            // when
+            HttpURLConnection get = (HttpURLConnection) endpoint.toURL().openConnection();
+            String body;
+            try (InputStream in = get.getInputStream()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            HttpURLConnection post = (HttpURLConnection) endpoint.toURL().openConnection();
+            post.setRequestMethod("POST");
+
+            // then
+            assertThat(get.getResponseCode()).isEqualTo(200);
+            assertThat(get.getContentType()).startsWith("text/plain; version=0.0.4");
+            assertThat(body).isEqualTo(registry.toPrometheusText());
+            assertThat(post.getResponseCode()).isEqualTo(405);
+        }
+    }
+
+    @Test
+    void text_file_is_replaced() throws IOException {
+        // given
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter counter = registry.counter("test_total", "Test.").labels();
+        Path file = tempDir.resolve("jdyninwx.prom");
+
+        // when
+        counter.increment();
+        PrometheusTextFile.write(file, registry);
+        counter.increment();
+        PrometheusTextFile.write(file, registry);
+
+        // then
+        assertThat(file).content().isEqualTo(registry.toPrometheusText()).contains("test_total 2\n");
+        try (var files = Files.list(tempDir)) {
+            assertThat(files).containsExactly(file);
+        }
+    }
+}
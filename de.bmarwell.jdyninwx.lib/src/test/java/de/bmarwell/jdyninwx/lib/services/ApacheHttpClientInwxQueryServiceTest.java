@@ -16,22 +16,43 @@
 package de.bmarwell.jdyninwx.lib.services;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.ok;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 import com.github.tomakehurst.wiremock.extension.responsetemplating.ResponseTemplateTransformer;
 import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import de.bmarwell.jdyninwx.common.value.DnsRecordType;
+import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
+import de.bmarwell.jdyninwx.lib.services.InwxUpdateService.InwxCredentials;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
@@ -40,6 +61,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.EnabledIf;
 import org.junit.jupiter.api.extension.RegisterExtension;
 
+@WireMockStubbing
 class ApacheHttpClientInwxQueryServiceTest {
 
     @RegisterExtension
@@ -129,6 +151,71 @@ class ApacheHttpClientInwxQueryServiceTest {
         assertThat(inet6Address).isNotNull().extracting(Result::success).isInstanceOf(Inet6Address.class);
     }
 
+    @Test
+    @EnabledIf("supportsIpv4")
+    void resolveInet4AddressAsync() {
+        // when
+        Result<Inet4Address> inet4Address = service.getInet4AddressAsync(URI.create(wiremock.baseUrl()))
+                .orTimeout(5L, TimeUnit.SECONDS)
+                .join();
+
+        // then
+        assertThat(inet4Address).isNotNull().extracting(Result::success).isInstanceOf(Inet4Address.class);
+    }
+
+    @Test
+    void resolveInet4AddressAsync_http_error_is_failed_result() {
+        // given
+        wiremock.stubFor(get("/error").willReturn(aResponse().withStatus(503)));
+
+        // when
+        Result<Inet4Address> inet4Address = service.getInet4AddressAsync(URI.create(wiremock.baseUrl() + "/error"))
+                .orTimeout(5L, TimeUnit.SECONDS)
+                .join();
+
+        // then
+        assertThat(inet4Address).matches(Result::isError);
+    }
+
+    @Test
+    void resolveInet4AddressAsync_can_be_cancelled() throws IOException {
+        // given: a server which receives the request, but never answers.
+        // the request timeout is longer than the socket timeout below, so only the cancellation can close the
+        // connection.
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                InwxQueryService patientService =
+                        new ApacheHttpClientIpAddressService().withRequestTimeout(Duration.ofSeconds(30L))) {
+            server.setSoTimeout(5_000);
+            CompletableFuture<Result<Inet4Address>> future = patientService.getInet4AddressAsync(
+                    URI.create("http://127.0.0.1:" + server.getLocalPort() + "/slow"));
+
+            try (Socket connection = server.accept()) {
+                connection.setSoTimeout(5_000);
+                BufferedReader request =
+                        new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+                String line;
+                do {
+                    line = request.readLine();
+                } while (line != null && !line.isEmpty());
+
+                // when
+                future.cancel(true);
+
+                // then: the client closes the connection instead of waiting for the response.
+                assertThat(future).isCancelled();
+                assertThat(readUntilClosed(request)).isEqualTo(-1);
+            }
+        }
+    }
+
+    private static int readUntilClosed(BufferedReader request) throws IOException {
+        try {
+            return request.read();
+        } catch (SocketException connectionReset) {
+            return -1;
+        }
+    }
+
     @Test
     @EnabledIf("supportsIpv4")
     void resolveFirst() {
@@ -172,6 +259,139 @@ class ApacheHttpClientInwxQueryServiceTest {
         assertThat(address).isEmpty();
     }
 
+    @Test
+    void listAllNameServerRecords_passes_records_to_consumer() {
+        // given
+        wiremock.stubFor(
+                post("/xmlrpc/")
+                        .withRequestBody(containing("nameserver.info"))
+                        .willReturn(
+                                ok("""
+                        <?xml version="1.0" encoding="UTF-8"?>
+                        <methodResponse><params><param><value><struct>
+                          <member><name>code</name><value><int>1000</int></value></member>
+                          <member><name>resData</name><value><struct>
+                            <member><name>record</name><value><array><data>
+                              <value><struct>
+                                <member><name>id</name><value><int>1</int></value></member>
+                                <member><name>name</name><value><string>example.com</string></value></member>
+                                <member><name>type</name><value><string>A</string></value></member>
+                                <member><name>content</name><value><string>192.0.2.1</string></value></member>
+                                <member><name>ttl</name><value><int>300</int></value></member>
+                              </struct></value>
+                            </data></array></value></member>
+                          </struct></value></member>
+                        </struct></value></param></params></methodResponse>
+                        """)));
+        List<InwxNameServerRecord> records = new ArrayList<>();
+
+        // when
+        Result<InwxResponse> response = service.<InwxQueryService>withCredentials(
+                        new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .<InwxQueryService>withApiEndpoint(URI.create(wiremock.baseUrl() + "/xmlrpc/"))
+                .listAllNameServerRecords("example.com", records::add);
+
+        // then
+        assertThat(response).matches(Result::isSuccess);
+        assertThat(records)
+                .singleElement()
+                .extracting(InwxNameServerRecord::recordType, InwxNameServerRecord::content)
+                .containsExactly(DnsRecordType.A, "192.0.2.1");
+    }
+
+    @Test
+    void json_rpc_listAllNameServerRecords_passes_records_to_consumer() {
+        // given
+        wiremock.stubFor(
+                post("/jsonrpc/")
+                        .withHeader("Content-Type", containing("application/json"))
+                        .withRequestBody(containing("\"method\":\"nameserver.info\""))
+                        .willReturn(
+                                ok("""
+                        {"code":1000,"msg":"Command completed successfully","resData":{"domain":"example.com",
+                          "record":[
+                            {"id":1,"name":"example.com","type":"A","content":"192.0.2.1","ttl":300,"prio":0},
+                            {"id":2,"name":"example.com","type":"AAAA","content":"2001:db8::1","ttl":3600}
+                          ]},"runtime":0.0123}
+                        """)));
+        List<InwxNameServerRecord> records = new ArrayList<>();
+
+        // when
+        Result<InwxResponse> response = service.<InwxQueryService>withCredentials(
+                        new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .<InwxQueryService>withApiProtocol(InwxApiProtocol.JSON_RPC)
+                .<InwxQueryService>withApiEndpoint(URI.create(wiremock.baseUrl() + "/jsonrpc/"))
+                .listAllNameServerRecords("example.com", records::add);
+
+        // then
+        assertThat(response).matches(Result::isSuccess);
+        assertThat(response.success().code()).isEqualTo(1_000);
+        assertThat(records)
+                .extracting(InwxNameServerRecord::recordType, InwxNameServerRecord::content, InwxNameServerRecord::ttl)
+                .containsExactly(
+                        tuple(DnsRecordType.A, "192.0.2.1", Duration.ofSeconds(300L)),
+                        tuple(DnsRecordType.AAAA, "2001:db8::1", Duration.ofHours(1L)));
+    }
+
+    @Test
+    void publishNameServerRecords_fetches_pages_until_a_short_page() {
+        // given
+        wiremock.stubFor(
+                post("/jsonrpc/").withRequestBody(containing("\"page\":1,")).willReturn(ok(jsonPage(1, 2))));
+        wiremock.stubFor(
+                post("/jsonrpc/").withRequestBody(containing("\"page\":2,")).willReturn(ok(jsonPage(3))));
+        List<InwxNameServerRecord> records = new ArrayList<>();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+
+        // when
+        service.<InwxQueryService>withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .<InwxQueryService>withApiProtocol(InwxApiProtocol.JSON_RPC)
+                .<InwxQueryService>withApiEndpoint(URI.create(wiremock.baseUrl() + "/jsonrpc/"))
+                .publishNameServerRecords("example.com", 2)
+                .subscribe(new Flow.Subscriber<>() {
+                    private Flow.Subscription subscription;
+
+                    @Override
+                    public void onSubscribe(Flow.Subscription subscription) {
+                        this.subscription = subscription;
+                        subscription.request(1L);
+                    }
+
+                    @Override
+                    public void onNext(InwxNameServerRecord item) {
+                        records.add(item);
+                        subscription.request(1L);
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        done.completeExceptionally(throwable);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        done.complete(null);
+                    }
+                });
+
+        // then
+        assertThat(done).succeedsWithin(Duration.ofSeconds(5L));
+        assertThat(records).extracting(record -> record.recordId().value()).containsExactly(1L, 2L, 3L);
+        wiremock.verify(2, postRequestedFor(urlEqualTo("/jsonrpc/")).withRequestBody(containing("\"pagelimit\":2")));
+    }
+
+    private static String jsonPage(long... recordIds) {
+        String records = Arrays.stream(recordIds)
+                .mapToObj(id ->
+                        """
+                        {"id":%d,"name":"example.com","type":"A","content":"192.0.2.%1$d","ttl":300}""".formatted(id))
+                .collect(Collectors.joining(","));
+
+        return """
+                {"code":1000,"msg":"Command completed successfully","resData":{"record":[%s]},"runtime":0.01}
+                """.formatted(records);
+    }
+
     boolean supportsIpv4() {
         return SUPPORTS_IPV4;
     }
@@ -15,21 +15,31 @@
  */
 package de.bmarwell.jdyninwx.lib.services;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
 import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
 import static com.github.tomakehurst.wiremock.client.WireMock.ok;
 import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
 import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import de.bmarwell.jdyninwx.lib.metrics.MetricsRegistry;
 import de.bmarwell.jdyninwx.lib.services.InwxUpdateService.InwxCredentials;
+import de.bmarwell.jdyninwx.lib.services.InwxUpdateService.RecordUpdate;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 
+@WireMockStubbing
 class ApacheHttpClientStaticInwxUpdateServiceTest {
 
     @RegisterExtension
@@ -44,13 +54,31 @@ class ApacheHttpClientStaticInwxUpdateServiceTest {
                 .withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()));
 
         // when
-        String postRequestEntity =
-                service.createPostRequest(new InwxRecordId(42), InetAddress.getByName("8.8.8.8"), 300);
+        String postRequestEntity = service.createPostRequest(
+                        new InwxRecordId(42), InetAddress.getByName("8.8.8.8"), 300)
+                .bodyAsString();
 
         // then
         assertThat(postRequestEntity).contains(">myUserName</", ">myFancyPassword</");
     }
 
+    @Test
+    void json_rpc_call_contains_credentials_and_numeric_id() throws UnknownHostException {
+        // given
+        final ApacheHttpClientStaticInwxUpdateService service = new ApacheHttpClientStaticInwxUpdateService()
+                .withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .withApiProtocol(InwxApiProtocol.JSON_RPC);
+
+        // when
+        String postRequestEntity = service.createPostRequest(
+                        new InwxRecordId(42), InetAddress.getByName("8.8.8.8"), 300)
+                .bodyAsString();
+
+        // then
+        assertThat(postRequestEntity)
+                .contains("\"user\":\"myUserName\"", "\"pass\":\"myFancyPassword\"", "\"id\":42,", "\"ttl\":300");
+    }
+
     @Test
     void upload_returns_200() throws UnknownHostException {
         // given
@@ -69,4 +97,174 @@ class ApacheHttpClientStaticInwxUpdateServiceTest {
         // then
         assertThat(updateRecordResult).matches(Result::isSuccess);
     }
+
+    @Test
+    void upload_async_returns_200() throws UnknownHostException {
+        // given
+        final ApacheHttpClientStaticInwxUpdateService service = new ApacheHttpClientStaticInwxUpdateService()
+                .withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .withApiEndpoint(URI.create(WIREMOCK.baseUrl() + "/async"))
+                .withExecutor(Runnable::run);
+        WIREMOCK.stubFor(
+                post("/async").withRequestBody(containing("<name>ttl</name>")).willReturn(ok("<methodResponse/>")));
+
+        // when
+        Result<String> updateRecordResult = service.updateRecordAsync(
+                        new InwxRecordId(42), InetAddress.getByName("8.8.8.8"), 300)
+                .orTimeout(5L, TimeUnit.SECONDS)
+                .join();
+
+        // then
+        assertThat(updateRecordResult)
+                .matches(Result::isSuccess)
+                .extracting(Result::success)
+                .isEqualTo("<methodResponse/>");
+    }
+
+    @Test
+    void json_rpc_updates_are_sent_one_call_each() throws UnknownHostException {
+        // given
+        final InwxUpdateService service = new ApacheHttpClientStaticInwxUpdateService()
+                .withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .withApiProtocol(InwxApiProtocol.JSON_RPC)
+                .withApiEndpoint(URI.create(WIREMOCK.baseUrl() + "/jsonrpc/"));
+        WIREMOCK.stubFor(post("/jsonrpc/")
+                .withHeader("Content-Type", containing("application/json"))
+                .withRequestBody(containing("\"id\":42,"))
+                .willReturn(ok("{\"code\":1000,\"msg\":\"Command completed successfully\",\"runtime\":0.01}")));
+        WIREMOCK.stubFor(post("/jsonrpc/")
+                .withRequestBody(containing("\"id\":43,"))
+                .willReturn(ok("{\"code\":2303,\"msg\":\"Object does not exist\"}")));
+        final InetAddress address = InetAddress.getByName("8.8.8.8");
+
+        // when
+        List<Result<InwxResponse>> results = service.updateRecords(List.of(
+                new RecordUpdate(new InwxRecordId(42), address, 300),
+                new RecordUpdate(new InwxRecordId(43), address, 600)));
+
+        // then
+        assertThat(results)
+                .allMatch(Result::isSuccess)
+                .extracting(result -> result.success().code())
+                .containsExactly(1_000, 2_303);
+        WIREMOCK.verify(
+                2,
+                postRequestedFor(urlEqualTo("/jsonrpc/"))
+                        .withRequestBody(containing("\"method\":\"nameserver.updateRecord\""))
+                        .withRequestBody(containing("\"user\":\"myUserName\"")));
+    }
+
+    @Test
+    void multicall_template_contains_all_calls() throws UnknownHostException {
+        // given
+        final ApacheHttpClientStaticInwxUpdateService service = new ApacheHttpClientStaticInwxUpdateService()
+                .withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()));
+        final InetAddress address = InetAddress.getByName("8.8.8.8");
+
+        // when
+        String postRequestEntity = service.createMulticallRequest(List.of(
+                        new RecordUpdate(new InwxRecordId(42), address, 300),
+                        new RecordUpdate(new InwxRecordId(43), address, 600)))
+                .bodyAsString();
+
+        // then
+        assertThat(postRequestEntity)
+                .contains("<methodName>system.multicall</methodName>", "<int>42</int>", "<int>43</int>")
+                .containsOnlyOnce("<int>600</int>")
+                .doesNotContain("%");
+    }
+
+    @Test
+    void record_ids_sharing_an_address_are_sent_as_array() throws UnknownHostException {
+        // given
+        final ApacheHttpClientStaticInwxUpdateService service = new ApacheHttpClientStaticInwxUpdateService()
+                .withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()));
+
+        // when
+        String postRequestEntity = service.createPostRequest(
+                        List.of(new InwxRecordId(42), new InwxRecordId(43)), InetAddress.getByName("8.8.8.8"), 300)
+                .bodyAsString();
+
+        // then
+        assertThat(postRequestEntity)
+                .containsOnlyOnce("<methodName>nameserver.updateRecord</methodName>")
+                .containsOnlyOnce("<name>id</name>")
+                .contains("<array>", "<int>42</int>", "<int>43</int>", "<string>8.8.8.8</string>")
+                .doesNotContain("%");
+    }
+
+    @Test
+    void update_records_sends_batches() throws UnknownHostException {
+        // given
+        final ApacheHttpClientStaticInwxUpdateService service = new ApacheHttpClientStaticInwxUpdateService()
+                .withMulticallBatchSize(2)
+                .withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .withApiEndpoint(URI.create(WIREMOCK.baseUrl() + "/multicall"));
+        WIREMOCK.stubFor(post("/multicall").willReturn(ok(multicallResponse(1_000, 1_000))));
+        WIREMOCK.stubFor(post("/multicall")
+                .withRequestBody(containing("<int>3</int>"))
+                .willReturn(ok(multicallResponse(2_303))));
+        final InetAddress address = InetAddress.getByName("8.8.8.8");
+
+        // when
+        List<Result<InwxResponse>> results = service.updateRecords(List.of(
+                new RecordUpdate(new InwxRecordId(1), address, 300),
+                new RecordUpdate(new InwxRecordId(2), address, 300),
+                new RecordUpdate(new InwxRecordId(3), address, 300)));
+
+        // then
+        assertThat(results)
+                .allMatch(Result::isSuccess)
+                .extracting(result -> result.success().code())
+                .containsExactly(1_000, 1_000, 2_303);
+        WIREMOCK.verify(2, postRequestedFor(urlEqualTo("/multicall")));
+    }
+
+    @Test
+    void records_api_request_and_parse_durations() throws UnknownHostException {
+        // given
+        final MetricsRegistry metricsRegistry = new MetricsRegistry();
+        final ApacheHttpClientStaticInwxUpdateService service = new ApacheHttpClientStaticInwxUpdateService()
+                .withMulticallBatchSize(2)
+                .withMetricsRegistry(metricsRegistry)
+                .withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .withApiEndpoint(URI.create(WIREMOCK.baseUrl() + "/metrics"));
+        WIREMOCK.stubFor(post("/metrics").willReturn(ok(multicallResponse(1_000, 1_000))));
+        final InetAddress address = InetAddress.getByName("8.8.8.8");
+
+        // when
+        service.updateRecords(List.of(
+                new RecordUpdate(new InwxRecordId(1), address, 300),
+                new RecordUpdate(new InwxRecordId(2), address, 300)));
+
+        // then
+        assertThat(metricsRegistry
+                        .apiRequestDuration()
+                        .labels("system.multicall", MetricsRegistry.OUTCOME_SUCCESS)
+                        .count())
+                .isEqualTo(1L);
+        assertThat(metricsRegistry
+                        .parseDuration()
+                        .labels("system.multicall", MetricsRegistry.OUTCOME_SUCCESS)
+                        .count())
+                .isEqualTo(1L);
+    }
+
+    private static String multicallResponse(int... codes) {
+        final String entries = Arrays.stream(codes)
+                .mapToObj(code ->
+                        """
+                        <value><array><data><value><struct>
+                          <member><name>code</name><value><int>%d</int></value></member>
+                        </struct></value></data></array></value>
+                        """.formatted(code))
+                .collect(Collectors.joining());
+
+        return """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <methodResponse><params><param><value><array><data>
+                %s
+                </data></array></value></param></params></methodResponse>
+                """.formatted(entries);
+    }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import de.bmarwell.jdyninwx.lib.services.InwxUpdateService.InwxCredentials;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+@WireMockStubbing
+class CircuitBreakerTest {
+
+    @RegisterExtension
+    public static final WireMockExtension WIREMOCK = WireMockExtension.newInstance()
+            .options(wireMockConfig().dynamicPort())
+            .build();
+
+    private static final CircuitBreakerSettings SETTINGS =
+            new CircuitBreakerSettings(4, 2, 50, Duration.ofSeconds(30L));
+
+    private final MutableClock clock = new MutableClock();
+
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker("https://ident.example/", SETTINGS, clock);
+
+    @Test
+    void opens_at_failure_rate_and_fails_fast() {
+        // given
+        circuitBreaker.execute(() -> Result.ok("1.2.3.4"));
+        circuitBreaker.execute(CircuitBreakerTest::failedCall);
+
+        // when
+        Result<String> result = circuitBreaker.execute(() -> {
+            throw new AssertionError("must not be called while open");
+        });
+
+        // then
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(result.error()).isInstanceOf(CircuitBreakerOpenException.class);
+    }
+
+    @Test
+    void does_not_open_below_minimum_calls() {
+        // when
+        circuitBreaker.execute(CircuitBreakerTest::failedCall);
+
+        // then
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void sends_single_probe_after_cool_down() {
+        // given
+        circuitBreaker.execute(CircuitBreakerTest::failedCall);
+        circuitBreaker.execute(CircuitBreakerTest::failedCall);
+        clock.advance(SETTINGS.coolDown());
+        CompletableFuture<Result<String>> probe = new CompletableFuture<>();
+
+        // when
+        circuitBreaker.executeAsync(() -> probe);
+        Result<String> concurrentCall = circuitBreaker.execute(() -> Result.ok("not sent"));
+        probe.complete(Result.ok("1.2.3.4"));
+
+        // then
+        assertThat(concurrentCall.error()).isInstanceOf(CircuitBreakerOpenException.class);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void only_the_probe_closes_a_half_open_circuit() {
+        // given
+        CompletableFuture<Result<String>> staleCall = new CompletableFuture<>();
+        circuitBreaker.executeAsync(() -> staleCall);
+        circuitBreaker.execute(CircuitBreakerTest::failedCall);
+        circuitBreaker.execute(CircuitBreakerTest::failedCall);
+        clock.advance(SETTINGS.coolDown());
+        CompletableFuture<Result<String>> probe = new CompletableFuture<>();
+        circuitBreaker.executeAsync(() -> probe);
+
+        // when
+        staleCall.complete(Result.ok("1.2.3.4"));
+
+        // then
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        probe.complete(Result.ok("1.2.3.4"));
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void failed_probe_opens_again() {
+        // given
+        circuitBreaker.execute(CircuitBreakerTest::failedCall);
+        circuitBreaker.execute(CircuitBreakerTest::failedCall);
+        clock.advance(SETTINGS.coolDown());
+
+        // when
+        circuitBreaker.execute(CircuitBreakerTest::failedCall);
+
+        // then
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void cancelled_calls_are_not_counted() {
+        // when
+        circuitBreaker.execute(CircuitBreakerTest::failedCall, () -> true);
+        circuitBreaker.execute(CircuitBreakerTest::failedCall, () -> true);
+
+        // then
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void open_api_circuit_does_not_send_requests() throws Exception {
+        // given
+        WIREMOCK.stubFor(post("/").willReturn(aResponse().withStatus(500)));
+        CircuitBreakerRegistry circuitBreakerRegistry = new CircuitBreakerRegistry(SETTINGS);
+
+        try (InwxUpdateService service = new ApacheHttpClientStaticInwxUpdateService()
+                .withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .withApiEndpoint(URI.create(WIREMOCK.baseUrl() + "/"))
+                .withCircuitBreakerRegistry(circuitBreakerRegistry)) {
+            InetAddress address = InetAddress.getByName("192.0.2.1");
+
+            // when
+            service.updateRecord(new InwxRecordId(1), address);
+            service.updateRecord(new InwxRecordId(2), address);
+            Result<String> result = service.updateRecord(new InwxRecordId(3), address);
+
+            // then
+            assertThat(result.error()).isInstanceOf(CircuitBreakerOpenException.class);
+        }
+
+        WIREMOCK.verify(2, postRequestedFor(urlEqualTo("/")));
+        assertThat(circuitBreakerRegistry
+                        .forEndpoint(URI.create(WIREMOCK.baseUrl() + "/"))
+                        .getState())
+                .isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    private static Result<String> failedCall() {
+        return Result.fail(new IOException("connect timed out"));
+    }
+}
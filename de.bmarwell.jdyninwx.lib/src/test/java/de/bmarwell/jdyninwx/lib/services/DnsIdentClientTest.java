@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import org.junit.jupiter.api.Test;
+
+class DnsIdentClientTest {
+
+    private static final int TYPE_A = 1;
+
+    private static final int TYPE_TXT = 16;
+
+    @Test
+    void answers_a_query_with_the_address_record() throws Exception {
+        // given
+        try (StandInResponder responder = new StandInResponder(
+                (query, count) -> List.of(answer(query, 0, TYPE_A, new byte[] {(byte) 198, 51, 100, 7})))) {
+            DnsIdentClient client = new DnsIdentClient(Duration.ofMillis(1500L));
+
+            // when
+            Result<Inet4Address> result = client.exchange(responder.uri("myip.example.com"), Inet4Address.class)
+                    .execute();
+
+            // then
+            assertThat(result)
+                    .matches(Result::isSuccess)
+                    .extracting(Result::success)
+                    .isEqualTo(InetAddress.getByName("198.51.100.7"));
+            assertThat(responder.queries()).hasValue(1);
+        }
+    }
+
+    @Test
+    void reads_the_address_from_a_txt_record() throws Exception {
+        // given
+        try (StandInResponder responder = new StandInResponder((query, count) ->
+                List.of(answer(query, 0, TYPE_TXT, text("edns0-client-subnet 192.0.2.0/24"), text("198.51.100.7"))))) {
+            DnsIdentClient client = new DnsIdentClient(Duration.ofMillis(1500L));
+
+            // when
+            Result<Inet4Address> result = client.exchange(
+                            responder.uri("o-o.myaddr.example.com?type=TXT"), Inet4Address.class)
+                    .execute();
+
+            // then
+            assertThat(result).extracting(Result::success).isEqualTo(InetAddress.getByName("198.51.100.7"));
+        }
+    }
+
+    @Test
+    void sends_the_query_again_if_no_answer_arrived() throws Exception {
+        // given
+        try (StandInResponder responder = new StandInResponder((query, count) ->
+                count == 1 ? List.of() : List.of(answer(query, 0, TYPE_A, new byte[] {(byte) 198, 51, 100, 7})))) {
+            DnsIdentClient client = new DnsIdentClient(Duration.ofMillis(1500L));
+
+            // when
+            Result<Inet4Address> result = client.exchange(responder.uri("myip.example.com"), Inet4Address.class)
+                    .execute();
+
+            // then
+            assertThat(result).matches(Result::isSuccess);
+            assertThat(responder.queries()).hasValue(2);
+        }
+    }
+
+    @Test
+    void ignores_answers_with_another_id() throws Exception {
+        // given
+        try (StandInResponder responder = new StandInResponder((query, count) -> {
+            byte[] spoofed = answer(query, 0, TYPE_A, new byte[] {(byte) 203, 0, 113, 66});
+            spoofed[0] ^= (byte) 0xFF;
+            return List.of(spoofed, answer(query, 0, TYPE_A, new byte[] {(byte) 198, 51, 100, 7}));
+        })) {
+            DnsIdentClient client = new DnsIdentClient(Duration.ofMillis(1500L));
+
+            // when
+            Result<Inet4Address> result = client.exchange(responder.uri("myip.example.com"), Inet4Address.class)
+                    .execute();
+
+            // then
+            assertThat(result).extracting(Result::success).isEqualTo(InetAddress.getByName("198.51.100.7"));
+        }
+    }
+
+    @Test
+    void fails_on_error_response_code() throws Exception {
+        // given
+        try (StandInResponder responder = new StandInResponder((query, count) -> List.of(answer(query, 3, TYPE_A)))) {
+            DnsIdentClient client = new DnsIdentClient(Duration.ofMillis(1500L));
+
+            // when
+            Result<Inet4Address> result = client.exchange(responder.uri("myip.example.com"), Inet4Address.class)
+                    .execute();
+
+            // then
+            assertThat(result).matches(Result::isError);
+            assertThat(result.error()).hasMessageContaining("response code [3]");
+        }
+    }
+
+    @Test
+    void fails_after_all_attempts_timed_out() throws Exception {
+        // given
+        try (StandInResponder responder = new StandInResponder((query, count) -> List.of())) {
+            DnsIdentClient client = new DnsIdentClient(Duration.ofMillis(300L));
+
+            // when
+            Result<Inet4Address> result = client.exchange(responder.uri("myip.example.com"), Inet4Address.class)
+                    .execute();
+
+            // then
+            assertThat(result.error()).isInstanceOf(SocketTimeoutException.class);
+            assertThat(responder.queries()).hasValue(UdpIdentExchange.ATTEMPTS);
+        }
+    }
+
+    @Test
+    void ident_service_queries_dns_resolvers() throws Exception {
+        // given
+        try (StandInResponder responder = new StandInResponder(
+                        (query, count) -> List.of(answer(query, 0, TYPE_A, new byte[] {(byte) 198, 51, 100, 7})));
+                InwxQueryService service = new ApacheHttpClientIpAddressService()) {
+            // when
+            Result<Inet4Address> result = service.getInet4Address(responder.uri("myip.example.com"));
+
+            // then
+            assertThat(result).extracting(Result::success).isEqualTo(InetAddress.getByName("198.51.100.7"));
+        }
+    }
+
+    /**
+     * Answers a query with the given response code and records, using a compression pointer to the question name.
+     */
+    private static byte[] answer(byte[] query, int rcode, int type, byte[]... records) {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        buffer.put(query);
+        buffer.putShort(2, (short) (0x8180 | rcode));
+        buffer.putShort(6, (short) records.length);
+        for (byte[] rdata : records) {
+            buffer.putShort((short) 0xC00C)
+                    .putShort((short) type)
+                    .putShort((short) 1)
+                    .putInt(60)
+                    .putShort((short) rdata.length)
+                    .put(rdata);
+        }
+
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static byte[] text(String value) {
+        byte[] raw = value.getBytes(StandardCharsets.US_ASCII);
+        byte[] rdata = new byte[raw.length + 1];
+        rdata[0] = (byte) raw.length;
+        System.arraycopy(raw, 0, rdata, 1, raw.length);
+        return rdata;
+    }
+
+    /**
+     * A DNS responder on localhost, which answers each query with the packets returned by the handler.
+     */
+    private static final class StandInResponder implements AutoCloseable {
+
+        private final DatagramSocket socket;
+
+        private final AtomicInteger queries = new AtomicInteger();
+
+        private final Thread thread;
+
+        StandInResponder(BiFunction<byte[], Integer, List<byte[]>> handler) throws SocketException {
+            this.socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            this.thread = new Thread(() -> {
+                byte[] buffer = new byte[512];
+                while (!socket.isClosed()) {
+                    try {
+                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        socket.receive(packet);
+                        byte[] query = Arrays.copyOf(packet.getData(), packet.getLength());
+                        for (byte[] response : handler.apply(query, queries.incrementAndGet())) {
+                            socket.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+                        }
+                    } catch (IOException ioException) {
+                        // closed.
+                    }
+                }
+            });
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        URI uri(String nameAndQuery) {
+            return URI.create("dns://127.0.0.1:" + socket.getLocalPort() + "/" + nameAndQuery);
+        }
+
+        AtomicInteger queries() {
+            return queries;
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+            try {
+                thread.join(1_000L);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.bmarwell.jdyninwx.lib.services.ApacheHttpClientIpAddressService.IpFamily;
+import org.junit.jupiter.api.Test;
+
+class HttpClientRegistryTest {
+
+    @Test
+    void reuses_clients_per_family() {
+        try (HttpClientRegistry registry = new HttpClientRegistry()) {
+            // expect
+            assertThat(registry.identClient(IpFamily.IPV4)).isSameAs(registry.identClient(IpFamily.IPV4));
+            assertThat(registry.identClient(IpFamily.IPV6)).isSameAs(registry.identClient(IpFamily.IPV6));
+            assertThat(registry.identClient(IpFamily.IPV4)).isNotSameAs(registry.identClient(IpFamily.IPV6));
+            assertThat(registry.apiClient()).isSameAs(registry.apiClient());
+        }
+    }
+
+    @Test
+    void cannot_be_used_after_close() {
+        // given
+        HttpClientRegistry registry = new HttpClientRegistry();
+        registry.apiClient();
+
+        // when
+        registry.close();
+
+        // then
+        assertThat(registry.isClosed()).isTrue();
+        assertThatThrownBy(registry::apiClient).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void service_does_not_close_shared_registry() {
+        // given
+        HttpClientRegistry registry = new HttpClientRegistry();
+        ApacheHttpClientIpAddressService service =
+                new ApacheHttpClientIpAddressService().withHttpClientRegistry(registry);
+
+        // when
+        service.close();
+
+        // then
+        assertThat(registry.isClosed()).isFalse();
+        registry.close();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class IdentResolverRaceTest {
+
+    private static final URI SLOW = URI.create("http://slow.invalid/");
+    private static final URI FAST = URI.create("http://fast.invalid/");
+    private static final URI DEAD = URI.create("http://dead.invalid/");
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final Set<URI> started = ConcurrentHashMap.newKeySet();
+
+    private final Set<URI> cancelled = ConcurrentHashMap.newKeySet();
+
+    private final Map<URI, String> answers = Map.of(SLOW, "192.0.2.1", FAST, "192.0.2.2");
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void race_returns_fastest_and_cancels_losers() {
+        // given
+        var race = new IdentResolverRace<Inet4Address>(executor, IdentQueryStrategy.race(3));
+
+        // when
+        Optional<Inet4Address> address = race.firstResolved(List.of(SLOW, DEAD, FAST), this::attempt);
+
+        // then
+        assertThat(address).map(InetAddress::getHostAddress).contains("192.0.2.2");
+        assertThat(cancelled).contains(SLOW);
+    }
+
+    @Test
+    void race_falls_back_to_remaining_resolvers() {
+        // given
+        var race = new IdentResolverRace<Inet4Address>(executor, IdentQueryStrategy.race(1));
+
+        // when
+        Optional<Inet4Address> address = race.firstResolved(List.of(DEAD, FAST), this::attempt);
+
+        // then
+        assertThat(address).map(InetAddress::getHostAddress).contains("192.0.2.2");
+    }
+
+    @Test
+    void hedged_does_not_start_second_resolver_for_fast_answer() {
+        // given
+        var race = new IdentResolverRace<Inet4Address>(executor, IdentQueryStrategy.hedged(Duration.ofSeconds(5L), 2));
+
+        // when
+        Optional<Inet4Address> address = race.firstResolved(List.of(FAST, SLOW), this::attempt);
+
+        // then
+        assertThat(address).map(InetAddress::getHostAddress).contains("192.0.2.2");
+        assertThat(started).containsExactly(FAST);
+    }
+
+    @Test
+    void hedged_starts_next_resolver_after_delay() {
+        // given
+        var race = new IdentResolverRace<Inet4Address>(executor, IdentQueryStrategy.hedged(Duration.ofMillis(50L), 2));
+
+        // when
+        Optional<Inet4Address> address = race.firstResolved(List.of(SLOW, FAST), this::attempt);
+
+        // then
+        assertThat(address).map(InetAddress::getHostAddress).contains("192.0.2.2");
+        assertThat(cancelled).contains(SLOW);
+    }
+
+    @Test
+    void all_failing_returns_empty() {
+        // given
+        var race = new IdentResolverRace<Inet4Address>(executor, IdentQueryStrategy.race(2));
+
+        // expect
+        assertThat(race.firstResolved(List.of(DEAD, DEAD, DEAD), this::attempt)).isEmpty();
+        assertThat(race.firstResolved(List.of(), this::attempt)).isEmpty();
+    }
+
+    private IdentResolverRace.Attempt<Inet4Address> attempt(URI uri) {
+        return new IdentResolverRace.Attempt<>() {
+            private final CountDownLatch cancel = new CountDownLatch(1);
+
+            @Override
+            public Result<Inet4Address> execute() {
+                started.add(uri);
+                try {
+                    if (uri == DEAD) {
+                        return Result.fail(new IOException("connection refused"));
+                    }
+                    if (uri == SLOW && cancel.await(10L, TimeUnit.SECONDS)) {
+                        return Result.fail(new IOException("cancelled"));
+                    }
+
+                    return Result.ok((Inet4Address) InetAddress.getByName(answers.get(uri)));
+                } catch (InterruptedException | UnknownHostException e) {
+                    return Result.fail(e);
+                }
+            }
+
+            @Override
+            public void cancel() {
+                cancelled.add(uri);
+                cancel.countDown();
+            }
+        };
+    }
+}
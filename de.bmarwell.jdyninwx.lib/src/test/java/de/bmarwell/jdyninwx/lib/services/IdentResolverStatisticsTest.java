@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.Offset.offset;
+
+import de.bmarwell.jdyninwx.lib.services.IdentResolverStatistics.ResolverStatistic;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IdentResolverStatisticsTest {
+
+    private static final URI SLOW = URI.create("https://slow.example/");
+    private static final URI FAST = URI.create("https://fast.example/");
+    private static final URI FLAKY = URI.create("https://flaky.example/");
+    private static final URI NEW = URI.create("https://new.example/");
+
+    private final MutableClock clock = new MutableClock();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void ranks_fast_healthy_resolvers_first() {
+        // given
+        IdentResolverStatistics statistics =
+                new IdentResolverStatistics(IdentResolverStatistics.UNLIMITED_BUDGET, clock);
+        statistics.recordSuccess(SLOW, Duration.ofMillis(900L));
+        statistics.recordSuccess(FAST, Duration.ofMillis(40L));
+        statistics.recordSuccess(FLAKY, Duration.ofMillis(10L));
+        statistics.recordFailure(FLAKY, new IOException("Read timed out"));
+        statistics.recordFailure(FLAKY, new IOException("Read timed out"));
+
+        // when
+        List<URI> ranked = statistics.rank(List.of(FLAKY, SLOW, NEW, FAST));
+
+        // then
+        assertThat(ranked).containsExactly(NEW, FAST, SLOW, FLAKY);
+        assertThat(statistics.get(FLAKY)).hasValueSatisfying(statistic -> assertThat(statistic.lastError())
+                .contains("Read timed out"));
+    }
+
+    @Test
+    void single_failure_keeps_a_new_resolver_healthy() {
+        // given
+        IdentResolverStatistics statistics =
+                new IdentResolverStatistics(IdentResolverStatistics.UNLIMITED_BUDGET, clock);
+
+        // when
+        statistics.recordFailure(FLAKY, new IOException("Connection reset"));
+
+        // then
+        assertThat(statistics.get(FLAKY)).hasValueSatisfying(statistic -> assertThat(statistic.isHealthy())
+                .isTrue());
+    }
+
+    @Test
+    void failed_resolver_recovers_its_rank_over_time() {
+        // given
+        IdentResolverStatistics statistics =
+                new IdentResolverStatistics(IdentResolverStatistics.UNLIMITED_BUDGET, clock);
+        statistics.recordSuccess(SLOW, Duration.ofMillis(900L));
+        statistics.recordSuccess(FLAKY, Duration.ofMillis(10L));
+        for (int failure = 0; failure < 5; failure++) {
+            statistics.recordFailure(FLAKY, new IOException("Read timed out"));
+        }
+        assertThat(statistics.rank(List.of(FLAKY, SLOW))).containsExactly(SLOW, FLAKY);
+
+        // when
+        clock.advance(IdentResolverStatistics.RECOVERY_HALF_LIFE.multipliedBy(4L));
+
+        // then
+        assertThat(statistics.rank(List.of(FLAKY, SLOW))).containsExactly(FLAKY, SLOW);
+    }
+
+    @Test
+    void latency_is_a_moving_average() {
+        // given
+        IdentResolverStatistics statistics =
+                new IdentResolverStatistics(IdentResolverStatistics.UNLIMITED_BUDGET, clock);
+
+        // when
+        statistics.recordSuccess(FAST, Duration.ofMillis(100L));
+        statistics.recordSuccess(FAST, Duration.ofMillis(200L));
+
+        // then
+        assertThat(statistics.get(FAST))
+                .map(ResolverStatistic::latencyMillis)
+                .hasValueSatisfying(latency -> assertThat(latency).isCloseTo(130.0d, offset(0.001d)));
+    }
+
+    @Test
+    void budget_is_limited_per_host_and_hour() {
+        // given
+        IdentResolverStatistics statistics = new IdentResolverStatistics(2, clock);
+
+        // expect
+        assertThat(statistics.tryAcquireBudget(URI.create("https://fast.example/ip")))
+                .isTrue();
+        assertThat(statistics.tryAcquireBudget(URI.create("https://fast.example/v4")))
+                .isTrue();
+        assertThat(statistics.tryAcquireBudget(FAST)).isFalse();
+        assertThat(statistics.tryAcquireBudget(SLOW)).isTrue();
+
+        clock.advance(Duration.ofHours(1L));
+        assertThat(statistics.tryAcquireBudget(FAST)).isTrue();
+    }
+
+    @Test
+    void statistics_survive_save_and_load() throws IOException {
+        // given
+        Path statisticsFile = tempDir.resolve("statistics");
+        IdentResolverStatistics statistics = new IdentResolverStatistics(1);
+        statistics.recordSuccess(SLOW, Duration.ofMillis(900L));
+        statistics.recordSuccess(FAST, Duration.ofMillis(40L));
+        statistics.tryAcquireBudget(FAST);
+
+        // when
+        statistics.save(statisticsFile);
+        IdentResolverStatistics loaded = IdentResolverStatistics.load(statisticsFile, 1);
+
+        // then
+        assertThat(loaded.rank(List.of(SLOW, FAST))).containsExactly(FAST, SLOW);
+        assertThat(loaded.get(SLOW)).isEqualTo(statistics.get(SLOW));
+        assertThat(loaded.tryAcquireBudget(FAST)).isFalse();
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.notContaining;
+import static com.github.tomakehurst.wiremock.client.WireMock.ok;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
+import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import de.bmarwell.jdyninwx.lib.services.InwxUpdateService.InwxCredentials;
+import java.net.InetAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+@WireMockStubbing
+class InwxSessionTest {
+
+    @RegisterExtension
+    public static final WireMockExtension WIREMOCK = WireMockExtension.newInstance()
+            .options(wireMockConfig().dynamicPort())
+            .build();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void session_login_sends_credentials_only_once() throws Exception {
+        // given
+        stubLogin();
+        WIREMOCK.stubFor(post("/")
+                .withRequestBody(containing("nameserver.updateRecord"))
+                .withCookie("domrobot_sessid", containing("session-1"))
+                .willReturn(ok(response(1_000))));
+
+        try (InwxUpdateService service = newService()) {
+            // when
+            Result<String> first = service.updateRecord(new InwxRecordId(1), InetAddress.getByName("192.0.2.1"));
+            Result<String> second = service.updateRecordAsync(
+                            new InwxRecordId(2), InetAddress.getByName("192.0.2.1"), 300)
+                    .get(5L, TimeUnit.SECONDS);
+
+            // then
+            assertThat(first).matches(Result::isSuccess);
+            assertThat(second).matches(Result::isSuccess);
+        }
+
+        WIREMOCK.verify(1, postRequestedFor(urlEqualTo("/")).withRequestBody(containing("account.login")));
+        WIREMOCK.verify(
+                2,
+                postRequestedFor(urlEqualTo("/"))
+                        .withRequestBody(containing("nameserver.updateRecord"))
+                        .withRequestBody(notContaining("myFancyPassword")));
+    }
+
+    @Test
+    void logs_in_again_after_authentication_error() throws Exception {
+        // given
+        stubLogin();
+        WIREMOCK.stubFor(post("/")
+                .inScenario("expired")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .withRequestBody(containing("nameserver.updateRecord"))
+                .willReturn(ok(response(InwxSession.CODE_AUTHENTICATION_ERROR)))
+                .willSetStateTo("relogin"));
+        WIREMOCK.stubFor(post("/")
+                .inScenario("expired")
+                .whenScenarioStateIs("relogin")
+                .withRequestBody(containing("nameserver.updateRecord"))
+                .willReturn(ok(response(1_000))));
+
+        try (InwxUpdateService service = newService()) {
+            // when
+            Result<String> result = service.updateRecord(new InwxRecordId(1), InetAddress.getByName("192.0.2.1"));
+
+            // then
+            assertThat(result)
+                    .matches(Result::isSuccess)
+                    .extracting(Result::success)
+                    .asString()
+                    .contains("1000");
+        }
+
+        WIREMOCK.verify(2, postRequestedFor(urlEqualTo("/")).withRequestBody(containing("account.login")));
+    }
+
+    @Test
+    void concurrent_authentication_errors_log_in_again_once() throws Exception {
+        // given
+        WIREMOCK.stubFor(post("/")
+                .inScenario("sessions")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .withRequestBody(containing("account.login"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Set-Cookie", "domrobot_sessid=session-1; Path=/")
+                        .withBody(response(1_000)))
+                .willSetStateTo("expired"));
+        WIREMOCK.stubFor(post("/")
+                .inScenario("sessions")
+                .whenScenarioStateIs("expired")
+                .withRequestBody(containing("account.login"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Set-Cookie", "domrobot_sessid=session-2; Path=/")
+                        .withBody(response(1_000))));
+        // both requests are still in flight when the first of them is rejected.
+        WIREMOCK.stubFor(post("/")
+                .withRequestBody(containing("nameserver.updateRecord"))
+                .withCookie("domrobot_sessid", containing("session-1"))
+                .willReturn(ok(response(InwxSession.CODE_AUTHENTICATION_ERROR)).withFixedDelay(300)));
+        WIREMOCK.stubFor(post("/")
+                .withRequestBody(containing("nameserver.updateRecord"))
+                .withCookie("domrobot_sessid", containing("session-2"))
+                .willReturn(ok(response(1_000))));
+
+        try (InwxUpdateService service = newService()) {
+            // when
+            CompletableFuture<Result<String>> first =
+                    service.updateRecordAsync(new InwxRecordId(1), InetAddress.getByName("192.0.2.1"), 300);
+            CompletableFuture<Result<String>> second =
+                    service.updateRecordAsync(new InwxRecordId(2), InetAddress.getByName("192.0.2.1"), 300);
+
+            // then
+            assertThat(first.get(5L, TimeUnit.SECONDS)).matches(Result::isSuccess);
+            assertThat(second.get(5L, TimeUnit.SECONDS)).matches(Result::isSuccess);
+        }
+
+        WIREMOCK.verify(2, postRequestedFor(urlEqualTo("/")).withRequestBody(containing("account.login")));
+        WIREMOCK.verify(
+                2,
+                postRequestedFor(urlEqualTo("/"))
+                        .withRequestBody(containing("nameserver.updateRecord"))
+                        .withCookie("domrobot_sessid", containing("session-2")));
+    }
+
+    @Test
+    void streamed_list_logs_in_again_after_authentication_error() {
+        // given
+        stubLogin();
+        WIREMOCK.stubFor(post("/")
+                .inScenario("expired")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .withRequestBody(containing("nameserver.info"))
+                .willReturn(ok(response(InwxSession.CODE_AUTHENTICATION_ERROR)))
+                .willSetStateTo("relogin"));
+        WIREMOCK.stubFor(post("/")
+                .inScenario("expired")
+                .whenScenarioStateIs("relogin")
+                .withRequestBody(containing("nameserver.info"))
+                .willReturn(ok(response(1_000))));
+
+        try (InwxQueryService service = new ApacheHttpClientIpAddressService()
+                .<InwxQueryService>withSessionLogin(true)
+                .<InwxQueryService>withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .<InwxQueryService>withApiEndpoint(URI.create(WIREMOCK.baseUrl() + "/"))) {
+            // when
+            Result<List<InwxNameServerRecord>> result = service.listAllNameServerRecords("example.com");
+
+            // then
+            assertThat(result).matches(Result::isSuccess);
+        }
+
+        WIREMOCK.verify(2, postRequestedFor(urlEqualTo("/")).withRequestBody(containing("account.login")));
+    }
+
+    @Test
+    void other_cookies_are_not_taken_as_session() throws Exception {
+        // given
+        WIREMOCK.stubFor(post("/")
+                .withRequestBody(containing("nameserver.info"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Set-Cookie", "lb=node-1; Path=/")
+                        .withBody(response(1_000))));
+        stubLogin();
+        WIREMOCK.stubFor(
+                post("/").withRequestBody(containing("nameserver.updateRecord")).willReturn(ok(response(1_000))));
+        Path sessionFile = tempDir.resolve("session");
+
+        try (HttpClientRegistry registry = new HttpClientRegistry();
+                InwxQueryService queryService = new ApacheHttpClientIpAddressService()
+                        .<InwxQueryService>withHttpClientRegistry(registry)
+                        .<InwxQueryService>withCredentials(
+                                new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                        .<InwxQueryService>withApiEndpoint(URI.create(WIREMOCK.baseUrl() + "/"));
+                InwxUpdateService updateService =
+                        newService().withHttpClientRegistry(registry).withSessionFile(sessionFile)) {
+            queryService.listAllNameServerRecords("example.com");
+
+            // when
+            Result<String> result = updateService.updateRecord(new InwxRecordId(1), InetAddress.getByName("192.0.2.1"));
+
+            // then
+            assertThat(result).matches(Result::isSuccess);
+        }
+
+        WIREMOCK.verify(1, postRequestedFor(urlEqualTo("/")).withRequestBody(containing("account.login")));
+        assertThat(sessionFile).content().contains("session-1").doesNotContain("node-1");
+    }
+
+    @Test
+    void services_sharing_a_registry_log_in_once() throws Exception {
+        // given
+        WIREMOCK.stubFor(post("/")
+                .withRequestBody(containing("account.login"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(300)
+                        .withHeader("Set-Cookie", "domrobot_sessid=session-1; Path=/")
+                        .withBody(response(1_000))));
+        WIREMOCK.stubFor(post("/")
+                .withRequestBody(containing("nameserver.info"))
+                .withCookie("domrobot_sessid", containing("session-1"))
+                .willReturn(ok(response(1_000))));
+        WIREMOCK.stubFor(post("/")
+                .withRequestBody(containing("nameserver.updateRecord"))
+                .withCookie("domrobot_sessid", containing("session-1"))
+                .willReturn(ok(response(1_000))));
+
+        try (HttpClientRegistry registry = new HttpClientRegistry();
+                InwxQueryService queryService = new ApacheHttpClientIpAddressService()
+                        .<InwxQueryService>withHttpClientRegistry(registry)
+                        .<InwxQueryService>withSessionLogin(true)
+                        .<InwxQueryService>withCredentials(
+                                new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                        .<InwxQueryService>withApiEndpoint(URI.create(WIREMOCK.baseUrl() + "/"));
+                InwxUpdateService updateService = newService().withHttpClientRegistry(registry)) {
+            // when
+            CompletableFuture<Result<List<InwxNameServerRecord>>> list =
+                    queryService.listAllNameServerRecordsAsync("example.com");
+            CompletableFuture<Result<String>> update =
+                    updateService.updateRecordAsync(new InwxRecordId(1), InetAddress.getByName("192.0.2.1"), 300);
+
+            // then
+            assertThat(list.get(5L, TimeUnit.SECONDS)).matches(Result::isSuccess);
+            assertThat(update.get(5L, TimeUnit.SECONDS)).matches(Result::isSuccess);
+        }
+
+        WIREMOCK.verify(1, postRequestedFor(urlEqualTo("/")).withRequestBody(containing("account.login")));
+    }
+
+    @Test
+    void session_file_is_private_and_reused() throws Exception {
+        // given
+        stubLogin();
+        WIREMOCK.stubFor(post("/")
+                .withRequestBody(containing("nameserver.updateRecord"))
+                .withCookie("domrobot_sessid", containing("session-1"))
+                .willReturn(ok(response(1_000))));
+        Path sessionFile = tempDir.resolve("session");
+
+        // when
+        try (InwxUpdateService service = newService().withSessionFile(sessionFile)) {
+            service.updateRecord(new InwxRecordId(1), InetAddress.getByName("192.0.2.1"));
+        }
+        Result<String> result;
+        try (InwxUpdateService service = newService().withSessionFile(sessionFile)) {
+            result = service.updateRecord(new InwxRecordId(1), InetAddress.getByName("192.0.2.1"));
+        }
+
+        // then
+        assertThat(result).matches(Result::isSuccess);
+        assertThat(sessionFile).exists().content().contains("session-1");
+        if (Files.getFileAttributeView(sessionFile, PosixFileAttributeView.class) != null) {
+            assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(sessionFile)))
+                    .isEqualTo("rw-------");
+        }
+        WIREMOCK.verify(1, postRequestedFor(urlEqualTo("/")).withRequestBody(containing("account.login")));
+    }
+
+    private static InwxUpdateService newService() {
+        return new ApacheHttpClientStaticInwxUpdateService()
+                .withSessionLogin(true)
+                .withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .withApiEndpoint(URI.create(WIREMOCK.baseUrl() + "/"));
+    }
+
+    private static void stubLogin() {
+        WIREMOCK.stubFor(post("/")
+                .withRequestBody(containing("account.login"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Set-Cookie", "domrobot_sessid=session-1; Path=/")
+                        .withBody(response(1_000))));
+    }
+
+    private static String response(int code) {
+        return """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <methodResponse><params><param><value><struct>
+                  <member><name>code</name><value><int>%d</int></value></member>
+                  <member><name>msg</name><value><string>Code %1$d</string></value></member>
+                </struct></value></param></params></methodResponse>
+                """.formatted(code);
+    }
+}
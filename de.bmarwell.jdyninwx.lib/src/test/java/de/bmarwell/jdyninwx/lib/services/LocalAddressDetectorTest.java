@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.bmarwell.jdyninwx.lib.services.LocalAddressDetector.LocalAddress;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class LocalAddressDetectorTest {
+
+    private static final List<LocalAddress> ADDRESSES = List.of(
+            address("eth0", "fe80::1", false),
+            address("eth0", "fd00::1", false),
+            address("eth0", "2001:db8::abcd", true),
+            address("eth0", "2001:db8::1", false),
+            address("eth0", "192.168.1.2", false),
+            address("wlan0", "100.64.0.1", false),
+            address("wlan0", "198.51.100.7", false));
+
+    @Test
+    void finds_first_global_stable_address() {
+        // given
+        LocalAddressDetector detector = new LocalAddressDetector(LocalAddressRules.defaults(), () -> ADDRESSES);
+
+        // expect
+        assertThat(detector.find(Inet6Address.class)).contains((Inet6Address) parse("2001:db8::1"));
+        assertThat(detector.find(Inet4Address.class)).contains((Inet4Address) parse("198.51.100.7"));
+    }
+
+    @Test
+    void private_and_temporary_addresses_can_be_allowed() {
+        // given
+        LocalAddressDetector detector =
+                new LocalAddressDetector(new LocalAddressRules(List.of(), true, true), () -> ADDRESSES);
+
+        // expect
+        assertThat(detector.find(Inet6Address.class)).contains((Inet6Address) parse("fd00::1"));
+        assertThat(detector.find(Inet4Address.class)).contains((Inet4Address) parse("192.168.1.2"));
+    }
+
+    @Test
+    void only_configured_interfaces_are_used() {
+        // given
+        LocalAddressDetector detector =
+                new LocalAddressDetector(new LocalAddressRules(List.of("eth*"), false, false), () -> ADDRESSES);
+
+        // expect
+        assertThat(detector.find(Inet4Address.class)).isEmpty();
+        assertThat(detector.find(Inet6Address.class)).isPresent();
+    }
+
+    @Test
+    void temporary_and_deprecated_addresses_are_read_from_proc() {
+        // given
+        List<String> lines = List.of(
+                "20010db8000000000000000000000001 02 40 00 00     eth0",
+                "20010db800000000000000000000abcd 02 40 00 01     eth0",
+                "20010db800000000000000000000dead 02 40 00 20     eth0",
+                "fe800000000000000000000000000001 02 40 20 80     eth0");
+
+        // when
+        var temporary = LocalAddressDetector.parseTemporaryInet6Addresses(lines);
+
+        // then
+        assertThat(temporary)
+                .containsExactlyInAnyOrder("20010db800000000000000000000abcd", "20010db800000000000000000000dead");
+    }
+
+    private static LocalAddress address(String interfaceName, String address, boolean temporary) {
+        return new LocalAddress(interfaceName, parse(address), temporary);
+    }
+
+    private static InetAddress parse(String address) {
+        try {
+            return InetAddress.getByName(address);
+        } catch (UnknownHostException unknownHostException) {
+            throw new IllegalArgumentException(unknownHostException);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResult;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class NameServerInfoCacheTest {
+
+    private final NameServerInfoCache cache = new NameServerInfoCache();
+
+    @Test
+    void responses_differing_only_in_runtime_are_parsed_once() {
+        // given
+        XmlRpcResult<List<InwxNameServerRecord>> first =
+                cache.parse("example.com", xmlResponse("192.0.2.1", "0.0123"), InwxApiProtocol.XML_RPC);
+
+        // when
+        XmlRpcResult<List<InwxNameServerRecord>> second =
+                cache.parse("Example.com", xmlResponse("192.0.2.1", "0.5"), InwxApiProtocol.XML_RPC);
+
+        // then
+        assertThat(first.data())
+                .singleElement()
+                .extracting(InwxNameServerRecord::content)
+                .isEqualTo("192.0.2.1");
+        assertThat(second.data()).isSameAs(first.data());
+    }
+
+    @Test
+    void changed_records_are_parsed_again() {
+        // given
+        XmlRpcResult<List<InwxNameServerRecord>> first =
+                cache.parse("example.com", jsonResponse("192.0.2.1", "0.0123"), InwxApiProtocol.JSON_RPC);
+
+        // when
+        XmlRpcResult<List<InwxNameServerRecord>> second =
+                cache.parse("example.com", jsonResponse("192.0.2.2", "0.0123"), InwxApiProtocol.JSON_RPC);
+        XmlRpcResult<List<InwxNameServerRecord>> third =
+                cache.parse("example.com", jsonResponse("192.0.2.2", "0.02"), InwxApiProtocol.JSON_RPC);
+
+        // then
+        assertThat(second.data()).isNotSameAs(first.data());
+        assertThat(second.data())
+                .singleElement()
+                .extracting(InwxNameServerRecord::content)
+                .isEqualTo("192.0.2.2");
+        assertThat(third.data()).isSameAs(second.data());
+    }
+
+    private static byte[] xmlResponse(String content, String runtime) {
+        return """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <methodResponse><params><param><value><struct>
+                  <member><name>code</name><value><int>1000</int></value></member>
+                  <member><name>resData</name><value><struct>
+                    <member><name>record</name><value><array><data>
+                      <value><struct>
+                        <member><name>id</name><value><int>1</int></value></member>
+                        <member><name>name</name><value><string>example.com</string></value></member>
+                        <member><name>type</name><value><string>A</string></value></member>
+                        <member><name>content</name><value><string>%s</string></value></member>
+                        <member><name>ttl</name><value><int>300</int></value></member>
+                      </struct></value>
+                    </data></array></value></member>
+                  </struct></value></member>
+                  <member><name>runtime</name><value><double>%s</double></value></member>
+                </struct></value></param></params></methodResponse>
+                """.formatted(content, runtime)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] jsonResponse(String content, String runtime) {
+        return """
+                {"code":1000,"resData":{"record":[
+                  {"id":1,"name":"example.com","type":"A","content":"%s","ttl":300}
+                ]},"runtime":%s}
+                """.formatted(content, runtime)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.bmarwell.jdyninwx.common.value.DnsRecordType;
+import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
+import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.Test;
+
+class NameServerRecordPublisherTest {
+
+    private final List<CompletableFuture<Result<NameServerRecordPublisher.Page>>> pageRequests = new ArrayList<>();
+
+    private final NameServerRecordPublisher publisher = new NameServerRecordPublisher(
+            (page, pageSize) -> {
+                final CompletableFuture<Result<NameServerRecordPublisher.Page>> pageRequest = new CompletableFuture<>();
+                pageRequests.add(pageRequest);
+                return pageRequest;
+            },
+            2);
+
+    private final RecordingSubscriber subscriber = new RecordingSubscriber();
+
+    @Test
+    void prefetches_one_page_while_current_page_is_consumed() {
+        // given
+        publisher.subscribe(subscriber);
+        assertThat(pageRequests).isEmpty();
+
+        // when
+        subscriber.subscription.request(1L);
+        pageRequests.get(0).complete(Result.ok(page(1L, 2L)));
+        pageRequests.get(1).complete(Result.ok(page(3L, 4L)));
+
+        // then
+        assertThat(subscriber.recordIds()).containsExactly(1L);
+        assertThat(pageRequests).hasSize(2);
+
+        // when
+        subscriber.subscription.request(2L);
+
+        // then
+        assertThat(subscriber.recordIds()).containsExactly(1L, 2L, 3L);
+        assertThat(pageRequests).hasSize(3);
+    }
+
+    @Test
+    void completes_after_a_short_page() {
+        // given
+        publisher.subscribe(subscriber);
+
+        // when
+        subscriber.subscription.request(Long.MAX_VALUE);
+        pageRequests.get(0).complete(Result.ok(page(1L, 2L)));
+        pageRequests.get(1).complete(Result.ok(page(3L)));
+
+        // then
+        assertThat(subscriber.recordIds()).containsExactly(1L, 2L, 3L);
+        assertThat(subscriber.completed).isTrue();
+        assertThat(pageRequests).hasSize(2);
+    }
+
+    @Test
+    void full_page_with_a_skipped_entry_is_not_the_last() {
+        // given
+        publisher.subscribe(subscriber);
+
+        // when
+        subscriber.subscription.request(Long.MAX_VALUE);
+        pageRequests.get(0).complete(Result.ok(new NameServerRecordPublisher.Page(records(1L), 2)));
+        pageRequests.get(1).complete(Result.ok(page(3L)));
+
+        // then
+        assertThat(subscriber.recordIds()).containsExactly(1L, 3L);
+        assertThat(subscriber.completed).isTrue();
+        assertThat(pageRequests).hasSize(2);
+    }
+
+    @Test
+    void failed_page_is_signalled_after_previous_records() {
+        // given
+        publisher.subscribe(subscriber);
+
+        // when
+        subscriber.subscription.request(Long.MAX_VALUE);
+        pageRequests.get(0).complete(Result.ok(page(1L, 2L)));
+        pageRequests.get(1).complete(Result.fail(new IOException("connection reset")));
+
+        // then
+        assertThat(subscriber.recordIds()).containsExactly(1L, 2L);
+        assertThat(subscriber.error).isInstanceOf(IOException.class);
+        assertThat(subscriber.completed).isFalse();
+    }
+
+    @Test
+    void cancel_aborts_page_in_flight() {
+        // given
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1L);
+
+        // when
+        subscriber.subscription.cancel();
+
+        // then
+        assertThat(pageRequests).singleElement().matches(CompletableFuture::isCancelled);
+        assertThat(subscriber.recordIds()).isEmpty();
+        assertThat(subscriber.completed).isFalse();
+        assertThat(subscriber.error).isNull();
+    }
+
+    private static NameServerRecordPublisher.Page page(long... recordIds) {
+        return NameServerRecordPublisher.Page.of(records(recordIds));
+    }
+
+    private static List<InwxNameServerRecord> records(long... recordIds) {
+        return LongStream.of(recordIds)
+                .mapToObj(id -> new InwxNameServerRecord(
+                        new InwxRecordId(id),
+                        "example.com",
+                        DnsRecordType.A,
+                        "192.0.2." + id,
+                        Duration.ofMinutes(5L),
+                        0))
+                .toList();
+    }
+
+    private static final class RecordingSubscriber implements Flow.Subscriber<InwxNameServerRecord> {
+
+        private final List<InwxNameServerRecord> records = new ArrayList<>();
+
+        private Flow.Subscription subscription;
+
+        private Throwable error;
+
+        private boolean completed;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(InwxNameServerRecord item) {
+            this.records.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            this.completed = true;
+        }
+
+        List<Long> recordIds() {
+            return this.records.stream()
+                    .map(record -> record.recordId().value())
+                    .toList();
+        }
+    }
+}
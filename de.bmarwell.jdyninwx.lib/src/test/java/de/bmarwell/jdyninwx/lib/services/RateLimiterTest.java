@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.ok;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import de.bmarwell.jdyninwx.lib.services.InwxUpdateService.InwxCredentials;
+import java.net.InetAddress;
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+@WireMockStubbing
+class RateLimiterTest {
+
+    @RegisterExtension
+    public static final WireMockExtension WIREMOCK = WireMockExtension.newInstance()
+            .options(wireMockConfig().dynamicPort())
+            .build();
+
+    private static final URI ENDPOINT = URI.create("https://api.example/xmlrpc/");
+
+    private final MutableClock clock = new MutableClock();
+
+    private final List<Duration> waits = new ArrayList<>();
+
+    @Test
+    void fails_fast_once_the_burst_is_used_up() {
+        // given
+        RateLimiter rateLimiter = newRateLimiter(RateLimiterSettings.failFast(2, Duration.ofSeconds(1L), 2));
+
+        // when
+        Result<String> first = rateLimiter.execute(() -> Result.ok("1"));
+        Result<String> second = rateLimiter.execute(() -> Result.ok("2"));
+        Result<String> third = rateLimiter.execute(() -> {
+            throw new AssertionError("must not be called without a token");
+        });
+
+        // then
+        assertThat(first).matches(Result::isSuccess);
+        assertThat(second).matches(Result::isSuccess);
+        assertThat(third.error())
+                .isInstanceOf(RateLimitExceededException.class)
+                .extracting(error -> ((RateLimitExceededException) error).getRetryAfter())
+                .isEqualTo(Duration.ofMillis(500L));
+        assertThat(waits).isEmpty();
+    }
+
+    @Test
+    void refills_tokens_over_time() {
+        // given
+        RateLimiter rateLimiter = newRateLimiter(RateLimiterSettings.failFast(2, Duration.ofSeconds(1L), 2));
+        rateLimiter.execute(() -> Result.ok("1"));
+        rateLimiter.execute(() -> Result.ok("2"));
+
+        // when
+        clock.advance(Duration.ofMillis(500L));
+
+        // then
+        assertThat(rateLimiter.availablePermits()).isEqualTo(1);
+        assertThat(rateLimiter.execute(() -> Result.ok("3"))).matches(Result::isSuccess);
+        assertThat(rateLimiter.availablePermits()).isZero();
+    }
+
+    @Test
+    void waiting_calls_are_spread_by_the_interval() {
+        // given
+        RateLimiter rateLimiter = newRateLimiter(RateLimiterSettings.blocking(4, Duration.ofSeconds(1L), 1));
+        rateLimiter.execute(() -> Result.ok("1"));
+
+        // when
+        Result<Duration> second = rateLimiter.reserve();
+        Result<Duration> third = rateLimiter.reserve();
+
+        // then
+        assertThat(second.success()).isEqualTo(Duration.ofMillis(250L));
+        assertThat(third.success()).isEqualTo(Duration.ofMillis(500L));
+    }
+
+    @Test
+    void blocking_call_waits_for_its_token() {
+        // given
+        RateLimiter rateLimiter = newRateLimiter(RateLimiterSettings.blocking(4, Duration.ofSeconds(1L), 1));
+        rateLimiter.execute(() -> Result.ok("1"));
+
+        // when
+        Result<String> result = rateLimiter.execute(() -> Result.ok("2"));
+
+        // then
+        assertThat(result).matches(Result::isSuccess);
+        assertThat(waits).containsExactly(Duration.ofMillis(250L));
+    }
+
+    @Test
+    void blocking_call_fails_if_the_wait_exceeds_the_maximum() {
+        // given
+        RateLimiter rateLimiter = newRateLimiter(
+                RateLimiterSettings.blocking(1, Duration.ofMinutes(1L), 1).withMaxWait(Duration.ofSeconds(10L)));
+        rateLimiter.execute(() -> Result.ok("1"));
+
+        // when
+        Result<String> result = rateLimiter.execute(() -> Result.ok("2"));
+
+        // then
+        assertThat(result.error()).isInstanceOf(RateLimitExceededException.class);
+        assertThat(waits).isEmpty();
+    }
+
+    @Test
+    void async_call_is_started_after_the_wait() throws Exception {
+        // given
+        RateLimiter rateLimiter =
+                new RateLimiter("test", RateLimiterSettings.blocking(10, Duration.ofSeconds(1L), 1), Clock.systemUTC());
+        rateLimiter.execute(() -> Result.ok("1"));
+
+        // when
+        long start = System.nanoTime();
+        CompletableFuture<Result<String>> future = rateLimiter.executeAsync(
+                () -> CompletableFuture.completedFuture(Result.ok("2")), ForkJoinPool.commonPool());
+
+        // then
+        assertThat(future).isNotDone();
+        assertThat(future.get(5L, TimeUnit.SECONDS)).matches(Result::isSuccess);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(50L));
+    }
+
+    @Test
+    void async_call_throwing_after_the_wait_completes_the_future() {
+        // given
+        RateLimiter rateLimiter = new RateLimiter(
+                "test", RateLimiterSettings.blocking(100, Duration.ofSeconds(1L), 1), Clock.systemUTC());
+        rateLimiter.execute(() -> Result.ok("1"));
+
+        // when
+        CompletableFuture<Result<String>> future = rateLimiter.executeAsync(
+                () -> {
+                    throw new IllegalStateException("open circuit");
+                },
+                ForkJoinPool.commonPool());
+
+        // then
+        assertThat(future)
+                .failsWithin(Duration.ofSeconds(5L))
+                .withThrowableOfType(ExecutionException.class)
+                .withCauseInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void cancelled_wait_returns_its_token() {
+        // given
+        RateLimiter rateLimiter = newRateLimiter(RateLimiterSettings.blocking(4, Duration.ofSeconds(1L), 1));
+        rateLimiter.execute(() -> Result.ok("1"));
+        CompletableFuture<Result<String>> future = rateLimiter.executeAsync(
+                () -> {
+                    throw new AssertionError("must not be called after cancelling");
+                },
+                ForkJoinPool.commonPool());
+
+        // when
+        future.cancel(true);
+        clock.advance(Duration.ofMillis(250L));
+
+        // then
+        assertThat(rateLimiter.availablePermits()).isEqualTo(1);
+    }
+
+    @Test
+    void interrupted_wait_returns_its_token() {
+        // given
+        RateLimiter rateLimiter =
+                new RateLimiter("test", RateLimiterSettings.blocking(4, Duration.ofSeconds(1L), 1), clock, duration -> {
+                    throw new InterruptedException();
+                });
+        rateLimiter.execute(() -> Result.ok("1"));
+
+        // when
+        Result<String> result = rateLimiter.execute(() -> Result.ok("2"));
+        Thread.interrupted();
+        clock.advance(Duration.ofMillis(250L));
+
+        // then
+        assertThat(result.error()).isInstanceOf(InterruptedException.class);
+        assertThat(rateLimiter.availablePermits()).isEqualTo(1);
+    }
+
+    @Test
+    void account_limit_takes_precedence_over_endpoint_limit() {
+        // given
+        RateLimiterRegistry registry = new RateLimiterRegistry(clock)
+                .configure(ENDPOINT, null, RateLimiterSettings.failFast(10, Duration.ofSeconds(1L), 10))
+                .configure(ENDPOINT, "bulk", RateLimiterSettings.failFast(1, Duration.ofSeconds(1L), 1));
+
+        // when
+        RateLimiter bulk = registry.forAccount(ENDPOINT, "Bulk").orElseThrow();
+        RateLimiter other = registry.forAccount(ENDPOINT, "other").orElseThrow();
+
+        // then
+        assertThat(bulk.getSettings().permits()).isEqualTo(1);
+        assertThat(other.getSettings().permits()).isEqualTo(10);
+        assertThat(registry.forAccount(ENDPOINT, "someone")).containsSame(other);
+        assertThat(registry.forAccount(URI.create("https://other.example/"), "bulk"))
+                .isEmpty();
+    }
+
+    @Test
+    void services_sharing_a_registry_share_the_bucket() throws Exception {
+        // given
+        WIREMOCK.stubFor(
+                post("/")
+                        .willReturn(
+                                ok("""
+                <?xml version="1.0" encoding="UTF-8"?>
+                <methodResponse><params><param><value><struct>
+                  <member><name>code</name><value><int>1000</int></value></member>
+                </struct></value></param></params></methodResponse>
+                """)));
+        URI endpoint = URI.create(WIREMOCK.baseUrl() + "/");
+        RateLimiterRegistry registry = new RateLimiterRegistry()
+                .configure(endpoint, "myUserName", RateLimiterSettings.failFast(1, Duration.ofMinutes(1L), 1));
+
+        try (InwxUpdateService first = newService(endpoint, registry);
+                InwxUpdateService second = newService(endpoint, registry)) {
+            // when
+            Result<String> sent = first.updateRecord(new InwxRecordId(1), InetAddress.getByName("192.0.2.1"));
+            Result<String> limited = second.updateRecordAsync(
+                            new InwxRecordId(2), InetAddress.getByName("192.0.2.1"), 300)
+                    .get(5L, TimeUnit.SECONDS);
+
+            // then
+            assertThat(sent).matches(Result::isSuccess);
+            assertThat(limited.error()).isInstanceOf(RateLimitExceededException.class);
+        }
+
+        WIREMOCK.verify(1, postRequestedFor(urlEqualTo("/")));
+    }
+
+    private RateLimiter newRateLimiter(RateLimiterSettings settings) {
+        return new RateLimiter("test", settings, clock, duration -> {
+            waits.add(duration);
+            clock.advance(duration);
+        });
+    }
+
+    private static InwxUpdateService newService(URI endpoint, RateLimiterRegistry registry) {
+        return new ApacheHttpClientStaticInwxUpdateService()
+                .withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .withApiEndpoint(endpoint)
+                .withRateLimiterRegistry(registry);
+    }
+}
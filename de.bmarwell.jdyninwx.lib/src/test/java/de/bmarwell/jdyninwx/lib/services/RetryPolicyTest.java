@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.ok;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
+import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import de.bmarwell.jdyninwx.lib.services.InwxUpdateService.InwxCredentials;
+import java.net.ConnectException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hc.client5.http.HttpResponseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+@WireMockStubbing
+class RetryPolicyTest {
+
+    @RegisterExtension
+    public static final WireMockExtension WIREMOCK = WireMockExtension.newInstance()
+            .options(wireMockConfig().dynamicPort())
+            .build();
+
+    private static final RetrySettings FAST_RETRIES =
+            new RetrySettings(3, Duration.ofMillis(10L), Duration.ofMillis(50L), Duration.ofSeconds(5L));
+
+    private final MutableClock clock = new MutableClock();
+
+    private final List<Duration> waits = new ArrayList<>();
+
+    @Test
+    void backoff_grows_exponentially_up_to_the_cap() {
+        // given
+        RetrySettings settings =
+                new RetrySettings(5, Duration.ofMillis(100L), Duration.ofMillis(300L), Duration.ofMinutes(1L));
+
+        // expect
+        assertThat(settings.maxBackoffBefore(1)).isEqualTo(Duration.ofMillis(100L));
+        assertThat(settings.maxBackoffBefore(2)).isEqualTo(Duration.ofMillis(200L));
+        assertThat(settings.maxBackoffBefore(3)).isEqualTo(Duration.ofMillis(300L));
+        assertThat(settings.maxBackoffBefore(100)).isEqualTo(Duration.ofMillis(300L));
+    }
+
+    @Test
+    void retries_transient_failures_with_full_jitter() {
+        // given
+        RetryPolicy retryPolicy = newRetryPolicy(
+                new RetrySettings(3, Duration.ofMillis(100L), Duration.ofSeconds(1L), Duration.ofMinutes(1L)), 0.5d);
+        AtomicInteger calls = new AtomicInteger();
+
+        // when
+        Result<String> result = retryPolicy.execute(
+                () -> calls.incrementAndGet() < 3
+                        ? Result.fail(new ConnectException("Connection refused"))
+                        : Result.ok("done"),
+                response -> false);
+
+        // then
+        assertThat(result).matches(Result::isSuccess);
+        assertThat(calls).hasValue(3);
+        assertThat(waits).containsExactly(Duration.ofMillis(50L), Duration.ofMillis(100L));
+    }
+
+    @Test
+    void gives_up_after_max_attempts() {
+        // given
+        RetryPolicy retryPolicy = newRetryPolicy(FAST_RETRIES, 1.0d);
+        AtomicInteger calls = new AtomicInteger();
+
+        // when
+        Result<String> result = retryPolicy.execute(
+                () -> {
+                    calls.incrementAndGet();
+                    return Result.ok("2502");
+                },
+                "2502"::equals);
+
+        // then
+        assertThat(result.success()).isEqualTo("2502");
+        assertThat(calls).hasValue(3);
+    }
+
+    @Test
+    void does_not_retry_permanent_failures() {
+        // given
+        RetryPolicy retryPolicy = newRetryPolicy(FAST_RETRIES, 1.0d);
+        AtomicInteger calls = new AtomicInteger();
+
+        // when
+        Result<String> result = retryPolicy.execute(
+                () -> {
+                    calls.incrementAndGet();
+                    return Result.fail(new CircuitBreakerOpenException("https://api.example", clock.instant()));
+                },
+                response -> false);
+
+        // then
+        assertThat(result.error()).isInstanceOf(CircuitBreakerOpenException.class);
+        assertThat(calls).hasValue(1);
+        assertThat(waits).isEmpty();
+    }
+
+    @Test
+    void does_not_start_a_retry_after_the_deadline() {
+        // given
+        RetryPolicy retryPolicy = newRetryPolicy(
+                new RetrySettings(5, Duration.ofSeconds(1L), Duration.ofSeconds(1L), Duration.ofSeconds(1L)), 0.5d);
+        AtomicInteger calls = new AtomicInteger();
+
+        // when
+        Result<String> result = retryPolicy.execute(
+                () -> {
+                    calls.incrementAndGet();
+                    clock.advance(Duration.ofMillis(600L));
+                    return Result.fail(new SocketTimeoutException("Read timed out"));
+                },
+                response -> false);
+
+        // then
+        assertThat(result.error()).isInstanceOf(SocketTimeoutException.class);
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test
+    void async_retry_completes_when_the_call_throws() {
+        // given
+        RetryPolicy retryPolicy = newRetryPolicy(FAST_RETRIES, 0.0d);
+        AtomicInteger calls = new AtomicInteger();
+
+        // when
+        CompletableFuture<Result<String>> future = retryPolicy.executeAsync(
+                () -> {
+                    if (calls.incrementAndGet() == 1) {
+                        return CompletableFuture.completedFuture(
+                                Result.fail(new SocketTimeoutException("Read timed out")));
+                    }
+                    throw new IllegalStateException("second attempt");
+                },
+                response -> false,
+                Runnable::run);
+
+        // then
+        assertThat(future)
+                .failsWithin(Duration.ofSeconds(5L))
+                .withThrowableOfType(ExecutionException.class)
+                .withCauseInstanceOf(IllegalStateException.class);
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void classifies_transient_errors() {
+        // expect
+        assertThat(RetryPolicy.isTransient(new HttpResponseException(503, "Service Unavailable")))
+                .isTrue();
+        assertThat(RetryPolicy.isTransient(new HttpResponseException(429, "Too Many Requests")))
+                .isTrue();
+        assertThat(RetryPolicy.isTransient(new HttpResponseException(404, "Not Found")))
+                .isFalse();
+        assertThat(RetryPolicy.isTransient(new SocketTimeoutException("connect timed out")))
+                .isTrue();
+        assertThat(RetryPolicy.isTransient(new UnknownHostException("api.example")))
+                .isFalse();
+        assertThat(RetryPolicy.isTransient(new RateLimitExceededException("test", Duration.ofSeconds(1L))))
+                .isFalse();
+    }
+
+    @Test
+    void only_idempotent_requests_are_retried() {
+        // expect
+        assertThat(Template.templateBuilder()
+                        .withMethod(Template.MethodName.nameserver_updateRecord)
+                        .build()
+                        .isIdempotent())
+                .isTrue();
+        assertThat(Template.templateBuilder()
+                        .withMethod(Template.MethodName.account_login)
+                        .build()
+                        .isIdempotent())
+                .isFalse();
+        assertThat(InwxApiProtocol.JSON_RPC
+                        .callBuilder()
+                        .withMethod(Template.MethodName.nameserver_info)
+                        .build()
+                        .isIdempotent())
+                .isTrue();
+        assertThat(Template.multicallBuilder()
+                        .withCall(Template.multicallEntryBuilder()
+                                .withMethod(Template.MethodName.nameserver_updateRecord))
+                        .withCall(Template.multicallEntryBuilder().withMethod(Template.MethodName.account_login))
+                        .build()
+                        .isIdempotent())
+                .isFalse();
+    }
+
+    @Test
+    void update_is_sent_again_after_a_server_error() throws Exception {
+        // given
+        WIREMOCK.stubFor(post("/")
+                .inScenario("blip")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse().withStatus(500))
+                .willSetStateTo("recovered"));
+        WIREMOCK.stubFor(
+                post("/").inScenario("blip").whenScenarioStateIs("recovered").willReturn(ok(response(1_000))));
+
+        try (InwxUpdateService service = new ApacheHttpClientStaticInwxUpdateService()
+                .withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .withApiEndpoint(URI.create(WIREMOCK.baseUrl() + "/"))
+                .withRetrySettings(FAST_RETRIES)) {
+            // when
+            Result<String> result = service.updateRecord(new InwxRecordId(1), InetAddress.getByName("192.0.2.1"));
+
+            // then
+            assertThat(result).matches(Result::isSuccess);
+        }
+
+        WIREMOCK.verify(2, postRequestedFor(urlEqualTo("/")));
+    }
+
+    @Test
+    void async_list_is_sent_again_while_inwx_asks_to_come_back_later() throws Exception {
+        // given
+        WIREMOCK.stubFor(post("/")
+                .inScenario("busy")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(ok(response(2_502)))
+                .willSetStateTo("available"));
+        WIREMOCK.stubFor(
+                post("/").inScenario("busy").whenScenarioStateIs("available").willReturn(ok(response(1_000))));
+
+        try (InwxQueryService service = new ApacheHttpClientIpAddressService()
+                .<InwxQueryService>withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .<InwxQueryService>withApiEndpoint(URI.create(WIREMOCK.baseUrl() + "/"))
+                .<InwxQueryService>withRetrySettings(FAST_RETRIES)) {
+            // when
+            Result<List<InwxNameServerRecord>> result =
+                    service.listAllNameServerRecordsAsync("example.com").get(5L, TimeUnit.SECONDS);
+
+            // then
+            assertThat(result).matches(Result::isSuccess);
+        }
+
+        WIREMOCK.verify(2, postRequestedFor(urlEqualTo("/")));
+    }
+
+    @Test
+    void single_resolver_is_asked_again_after_a_server_error() {
+        // given
+        WIREMOCK.stubFor(get("/dead").willReturn(aResponse().withStatus(500)));
+
+        try (InwxQueryService service = new ApacheHttpClientIpAddressService().withRetrySettings(FAST_RETRIES)) {
+            // when
+            Result<Inet4Address> result = service.getInet4Address(URI.create(WIREMOCK.baseUrl() + "/dead"));
+
+            // then
+            assertThat(result.error()).isInstanceOf(HttpResponseException.class);
+        }
+
+        WIREMOCK.verify(3, getRequestedFor(urlEqualTo("/dead")));
+    }
+
+    @Test
+    void pool_asks_the_next_resolver_instead_of_retrying() {
+        // given
+        WIREMOCK.stubFor(get("/dead").willReturn(aResponse().withStatus(500)));
+        WIREMOCK.stubFor(get("/alive").willReturn(ok("192.0.2.1")));
+
+        try (InwxQueryService service = new ApacheHttpClientIpAddressService()
+                .<InwxQueryService>withIdentQueryStrategy(IdentQueryStrategy.sequential())
+                .withRetrySettings(FAST_RETRIES)) {
+            // when
+            Optional<Inet4Address> address = service.getFirstResolvedInet4Address(
+                    List.of(URI.create(WIREMOCK.baseUrl() + "/dead"), URI.create(WIREMOCK.baseUrl() + "/alive")));
+
+            // then
+            assertThat(address).map(Inet4Address::getHostAddress).contains("192.0.2.1");
+        }
+
+        WIREMOCK.verify(1, getRequestedFor(urlEqualTo("/dead")));
+    }
+
+    @Test
+    void failed_update_is_sent_once_without_retry_settings() throws Exception {
+        // given
+        WIREMOCK.stubFor(post("/").willReturn(aResponse().withStatus(500)));
+
+        try (InwxUpdateService service = new ApacheHttpClientStaticInwxUpdateService()
+                .withCredentials(new InwxCredentials("myUserName", "myFancyPassword".toCharArray()))
+                .withApiEndpoint(URI.create(WIREMOCK.baseUrl() + "/"))) {
+            // when
+            Result<String> result = service.updateRecord(new InwxRecordId(1), InetAddress.getByName("192.0.2.1"));
+
+            // then
+            assertThat(result.error()).isInstanceOf(HttpResponseException.class);
+        }
+
+        WIREMOCK.verify(1, postRequestedFor(urlEqualTo("/")));
+    }
+
+    private RetryPolicy newRetryPolicy(RetrySettings settings, double random) {
+        return new RetryPolicy(
+                settings,
+                clock,
+                duration -> {
+                    waits.add(duration);
+                    clock.advance(duration);
+                },
+                () -> random);
+    }
+
+    private static String response(int code) {
+        return """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <methodResponse><params><param><value><struct>
+                  <member><name>code</name><value><int>%d</int></value></member>
+                  <member><name>msg</name><value><string>Code %1$d</string></value></member>
+                </struct></value></param></params></methodResponse>
+                """.formatted(code);
+    }
+}
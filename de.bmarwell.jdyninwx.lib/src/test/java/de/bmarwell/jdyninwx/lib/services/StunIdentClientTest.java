@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import org.junit.jupiter.api.Test;
+
+class StunIdentClientTest {
+
+    private static final int MAGIC_COOKIE = 0x2112A442;
+
+    private static final byte[] MAPPED = {(byte) 198, 51, 100, 7};
+
+    @Test
+    void decodes_the_xor_mapped_address() throws Exception {
+        // given
+        try (StandInStunServer server =
+                new StandInStunServer((request, count) -> List.of(response(request, 0x0020, true)))) {
+            StunIdentClient client = new StunIdentClient(Duration.ofMillis(1500L));
+
+            // when
+            Result<Inet4Address> result =
+                    client.exchange(server.uri(), Inet4Address.class).execute();
+
+            // then
+            assertThat(result)
+                    .matches(Result::isSuccess)
+                    .extracting(Result::success)
+                    .isEqualTo(InetAddress.getByAddress(MAPPED));
+        }
+    }
+
+    @Test
+    void falls_back_to_the_mapped_address() throws Exception {
+        // given
+        try (StandInStunServer server =
+                new StandInStunServer((request, count) -> List.of(response(request, 0x0001, false)))) {
+            StunIdentClient client = new StunIdentClient(Duration.ofMillis(1500L));
+
+            // when
+            Result<Inet4Address> result =
+                    client.exchange(server.uri(), Inet4Address.class).execute();
+
+            // then
+            assertThat(result).extracting(Result::success).isEqualTo(InetAddress.getByAddress(MAPPED));
+        }
+    }
+
+    @Test
+    void ignores_answers_to_another_transaction() throws Exception {
+        // given
+        try (StandInStunServer server = new StandInStunServer((request, count) -> {
+            byte[] other = Arrays.copyOf(request, request.length);
+            other[19] ^= (byte) 0xFF;
+            return List.of(response(other, 0x0020, true), response(request, 0x0020, true));
+        })) {
+            StunIdentClient client = new StunIdentClient(Duration.ofMillis(1500L));
+
+            // when
+            Result<Inet4Address> result =
+                    client.exchange(server.uri(), Inet4Address.class).execute();
+
+            // then
+            assertThat(result).extracting(Result::success).isEqualTo(InetAddress.getByAddress(MAPPED));
+            assertThat(server.requests()).hasValue(1);
+        }
+    }
+
+    @Test
+    void fails_on_error_response() throws Exception {
+        // given
+        try (StandInStunServer server = new StandInStunServer((request, count) -> {
+            ByteBuffer buffer = ByteBuffer.allocate(28);
+            buffer.put(request).putShort(0, (short) 0x0111).putShort(2, (short) 8);
+            buffer.putShort((short) 0x0009)
+                    .putShort((short) 4)
+                    .putShort((short) 0)
+                    .put((byte) 4)
+                    .put((byte) 20);
+            return List.of(buffer.array());
+        })) {
+            StunIdentClient client = new StunIdentClient(Duration.ofMillis(1500L));
+
+            // when
+            Result<Inet4Address> result =
+                    client.exchange(server.uri(), Inet4Address.class).execute();
+
+            // then
+            assertThat(result).matches(Result::isError);
+            assertThat(result.error()).hasMessageContaining("error 420");
+        }
+    }
+
+    @Test
+    void parses_opaque_and_hierarchical_uris() {
+        // expect
+        assertThat(StunIdentClient.parseServer(URI.create("stun:stun.example.com")))
+                .isEqualTo(InetSocketAddress.createUnresolved("stun.example.com", 3_478));
+        assertThat(StunIdentClient.parseServer(URI.create("stun:stun.example.com:19302")))
+                .isEqualTo(InetSocketAddress.createUnresolved("stun.example.com", 19_302));
+        assertThat(StunIdentClient.parseServer(URI.create("stun://[2001:db8::1]:3479")))
+                .isEqualTo(InetSocketAddress.createUnresolved("[2001:db8::1]", 3_479));
+    }
+
+    @Test
+    void races_several_stun_servers() throws Exception {
+        // given
+        try (StandInStunServer silent = new StandInStunServer((request, count) -> List.of());
+                StandInStunServer answering =
+                        new StandInStunServer((request, count) -> List.of(response(request, 0x0020, true)));
+                InwxQueryService service = new ApacheHttpClientIpAddressService()
+                        .<InwxQueryService>withIdentQueryStrategy(IdentQueryStrategy.race(2))
+                        .withRequestTimeout(Duration.ofSeconds(10L))) {
+            // when
+            long start = System.nanoTime();
+            Optional<Inet4Address> address =
+                    service.getFirstResolvedInet4Address(List.of(silent.uri(), answering.uri()));
+            Duration duration = Duration.ofNanos(System.nanoTime() - start);
+
+            // then
+            assertThat(address).contains((Inet4Address) InetAddress.getByAddress(MAPPED));
+            assertThat(duration).isLessThan(Duration.ofSeconds(3L));
+        }
+    }
+
+    /**
+     * Answers a Binding Request with a single address attribute for {@link #MAPPED}.
+     */
+    private static byte[] response(byte[] request, int attribute, boolean xor) {
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        buffer.put(request).putShort(0, (short) 0x0101).putShort(2, (short) 12);
+        byte[] address = Arrays.copyOf(MAPPED, 4);
+        int port = 40_000;
+        if (xor) {
+            for (int index = 0; index < 4; index++) {
+                address[index] ^= (byte) (MAGIC_COOKIE >>> (24 - 8 * index));
+            }
+            port ^= MAGIC_COOKIE >>> 16;
+        }
+        buffer.putShort((short) attribute)
+                .putShort((short) 8)
+                .put((byte) 0)
+                .put((byte) 0x01)
+                .putShort((short) port)
+                .put(address);
+
+        return buffer.array();
+    }
+
+    /**
+     * A STUN server on localhost, which answers each request with the packets returned by the handler.
+     */
+    private static final class StandInStunServer implements AutoCloseable {
+
+        private final DatagramSocket socket;
+
+        private final AtomicInteger requests = new AtomicInteger();
+
+        private final Thread thread;
+
+        StandInStunServer(BiFunction<byte[], Integer, List<byte[]>> handler) throws SocketException {
+            this.socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            this.thread = new Thread(() -> {
+                byte[] buffer = new byte[512];
+                while (!socket.isClosed()) {
+                    try {
+                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        socket.receive(packet);
+                        byte[] request = Arrays.copyOf(packet.getData(), packet.getLength());
+                        for (byte[] response : handler.apply(request, requests.incrementAndGet())) {
+                            socket.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+                        }
+                    } catch (IOException ioException) {
+                        // closed.
+                    }
+                }
+            });
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        URI uri() {
+            return URI.create("stun:127.0.0.1:" + socket.getLocalPort());
+        }
+
+        AtomicInteger requests() {
+            return requests;
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+            try {
+                thread.join(1_000L);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.lib.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.bmarwell.jdyninwx.lib.services.InwxUpdateService.InwxCredentials;
+import de.bmarwell.jdyninwx.xmlrpc.XmlRpcValue;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.hc.core5.http.HttpEntity;
+import org.junit.jupiter.api.Test;
+
+class TemplateTest {
+
+    @Test
+    void values_are_escaped() {
+        // given
+        final Template.CompiledCredentials credentials =
+                Template.compile(new InwxCredentials("user", "p<a&s>swörd".toCharArray()));
+
+        // when
+        final String request = Template.templateBuilder()
+                .withMethod(Template.MethodName.nameserver_info)
+                .withCredentials(credentials)
+                .withParameter("domain", XmlRpcValue.of("<example>.com"))
+                .build()
+                .bodyAsString();
+
+        // then
+        assertThat(request)
+                .contains("<methodName>nameserver.info</methodName>")
+                .contains("<string>p&lt;a&amp;s&gt;swörd</string>")
+                .contains("<string>&lt;example&gt;.com</string>")
+                .doesNotContain("%");
+    }
+
+    @Test
+    void to_string_does_not_contain_credentials() {
+        // given
+        final Template.Request request = Template.templateBuilder()
+                .withMethod(Template.MethodName.nameserver_info)
+                .withCredentials(Template.compile(new InwxCredentials("user", "secret".toCharArray())))
+                .build();
+
+        // when
+        final String string = request.toString();
+
+        // then
+        assertThat(string)
+                .contains("nameserver.info")
+                .contains("contentLength=" + request.bodyAsString().getBytes(StandardCharsets.UTF_8).length)
+                .doesNotContain("user")
+                .doesNotContain("secret");
+    }
+
+    @Test
+    void entity_writes_the_request_body() throws Exception {
+        // given
+        final Template.Request request = Template.templateBuilder()
+                .withMethod(Template.MethodName.nameserver_updateRecord)
+                .withParameter("id", XmlRpcValue.of("42"))
+                .withParameter("content", XmlRpcValue.of("ä.example"))
+                .build();
+        final HttpEntity entity = request.toEntity();
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        // when
+        entity.writeTo(written);
+
+        // then
+        assertThat(entity.getContentLength())
+                .isEqualTo(written.size())
+                .isEqualTo(request.bodyAsString().getBytes(StandardCharsets.UTF_8).length);
+        assertThat(written.toString(StandardCharsets.UTF_8)).isEqualTo(request.bodyAsString());
+        assertThat(entity.getContentType()).startsWith("application/xml");
+        assertThat(entity.isRepeatable()).isTrue();
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.xml;
+
+import de.bmarwell.jdyninwx.common.value.DnsRecordType;
+import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
+import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResponse;
+import de.bmarwell.jdyninwx.xml.ResultUtility.XmlRpcResult;
+import de.bmarwell.jdyninwx.xmlrpc.XmlRpcDecoder;
+import de.bmarwell.jdyninwx.xmlrpc.XmlRpcValue;
+import java.io.InputStream;
+import java.io.Reader;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming parser for {@code nameserver.info} responses.
+ *
+ * <p>The response is read using StAX, so only the record which is currently read is kept in memory. Each record is
+ * decoded by the {@link XmlRpcDecoder} and passed on as soon as its struct is complete. A {@code <fault>} response is
+ * recognized by its first element and returned without reading any further.</p>
+ */
+final class NameServerInfoReader {
+
+    private NameServerInfoReader() {}
+
+    static XmlRpcResult<Void> read(InputStream xmlResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+        try {
+            return read(XmlRpcDecoder.createStreamReader(xmlResponse), recordConsumer);
+        } catch (XMLStreamException xmlStreamException) {
+            return XmlRpcResult.fail(xmlStreamException);
+        }
+    }
+
+    static XmlRpcResult<Void> read(Reader xmlResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+        try {
+            return read(XmlRpcDecoder.createStreamReader(xmlResponse), recordConsumer);
+        } catch (XMLStreamException xmlStreamException) {
+            return XmlRpcResult.fail(xmlStreamException);
+        }
+    }
+
+    /**
+     * Reads a single page of records.
+     *
+     * @param xmlResponse the raw response.
+     * @param recordConsumer receives the records in the order of the response.
+     * @return the number of entries of the page, including entries which are not passed on as records.
+     */
+    static XmlRpcResult<Integer> readPage(Reader xmlResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+        final AtomicInteger entries = new AtomicInteger();
+        final XmlRpcResult<Void> result;
+        try {
+            result = read(XmlRpcDecoder.createStreamReader(xmlResponse), recordConsumer, entries);
+        } catch (XMLStreamException xmlStreamException) {
+            return XmlRpcResult.fail(xmlStreamException);
+        }
+
+        if (result.isError()) {
+            return XmlRpcResult.fail(result.error());
+        }
+
+        return XmlRpcResult.ok(result.response(), entries.get());
+    }
+
+    private static XmlRpcResult<Void> read(XMLStreamReader reader, Consumer<InwxNameServerRecord> recordConsumer) {
+        return read(reader, recordConsumer, new AtomicInteger());
+    }
+
+    private static XmlRpcResult<Void> read(
+            XMLStreamReader reader, Consumer<InwxNameServerRecord> recordConsumer, AtomicInteger entries) {
+        try {
+            return XmlRpcResult.ok(readMethodResponse(reader, recordConsumer, entries), null);
+        } catch (XMLStreamException | IllegalArgumentException parseException) {
+            return XmlRpcResult.fail(parseException);
+        } finally {
+            try {
+                reader.close();
+            } catch (XMLStreamException ignored) {
+                // the underlying stream is closed by the caller.
+            }
+        }
+    }
+
+    private static XmlRpcResponse readMethodResponse(
+            XMLStreamReader reader, Consumer<InwxNameServerRecord> recordConsumer, AtomicInteger entries)
+            throws XMLStreamException {
+        reader.nextTag();
+        reader.require(XMLStreamConstants.START_ELEMENT, null, "methodResponse");
+        reader.nextTag();
+
+        if ("fault".equals(reader.getLocalName())) {
+            reader.nextTag();
+            return ResultUtility.toResponse(XmlRpcDecoder.readValue(reader));
+        }
+
+        reader.require(XMLStreamConstants.START_ELEMENT, null, "params");
+        reader.nextTag();
+        reader.require(XMLStreamConstants.START_ELEMENT, null, "param");
+        reader.nextTag();
+        reader.require(XMLStreamConstants.START_ELEMENT, null, "value");
+        reader.nextTag();
+
+        final Map<String, XmlRpcValue> status = new LinkedHashMap<>();
+        readStruct(reader, (name, memberReader) -> {
+            if ("resData".equals(name)) {
+                readResData(memberReader, recordConsumer, entries);
+            } else {
+                status.put(name, XmlRpcDecoder.readValue(memberReader));
+            }
+        });
+
+        return ResultUtility.toResponse(new XmlRpcValue.Struct(status));
+    }
+
+    private static void readResData(
+            XMLStreamReader reader, Consumer<InwxNameServerRecord> recordConsumer, AtomicInteger entries)
+            throws XMLStreamException {
+        if (reader.nextTag() == XMLStreamConstants.END_ELEMENT) {
+            return;
+        }
+
+        if (!"struct".equals(reader.getLocalName())) {
+            skipElement(reader);
+            reader.nextTag();
+            return;
+        }
+
+        readStruct(reader, (name, memberReader) -> {
+            if ("record".equals(name)) {
+                readRecords(memberReader, recordConsumer, entries);
+            } else {
+                skipElement(memberReader);
+            }
+        });
+        reader.nextTag();
+    }
+
+    /**
+     * Reads the members of a struct, starting at {@code <struct>} and ending at {@code </struct>}.
+     *
+     * <p>The member reader is called at the {@code <value>} element and must consume it including its end tag.</p>
+     */
+    private static void readStruct(XMLStreamReader reader, MemberReader memberReader) throws XMLStreamException {
+        reader.require(XMLStreamConstants.START_ELEMENT, null, "struct");
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            reader.require(XMLStreamConstants.START_ELEMENT, null, "member");
+            reader.nextTag();
+            reader.require(XMLStreamConstants.START_ELEMENT, null, "name");
+            final String name = reader.getElementText().trim();
+            reader.nextTag();
+            reader.require(XMLStreamConstants.START_ELEMENT, null, "value");
+            memberReader.read(name, reader);
+            reader.nextTag();
+            reader.require(XMLStreamConstants.END_ELEMENT, null, "member");
+        }
+    }
+
+    /**
+     * Reads the record array one record at a time, starting and ending at the enclosing {@code <value>} element.
+     */
+    private static void readRecords(
+            XMLStreamReader reader, Consumer<InwxNameServerRecord> recordConsumer, AtomicInteger entries)
+            throws XMLStreamException {
+        reader.nextTag();
+        reader.require(XMLStreamConstants.START_ELEMENT, null, "array");
+        reader.nextTag();
+        reader.require(XMLStreamConstants.START_ELEMENT, null, "data");
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            final XmlRpcValue value = XmlRpcDecoder.readValue(reader);
+            entries.incrementAndGet();
+            if (value instanceof XmlRpcValue.Struct struct) {
+                toRecord(struct).ifPresent(recordConsumer);
+            }
+        }
+
+        reader.nextTag();
+        reader.require(XMLStreamConstants.END_ELEMENT, null, "array");
+        reader.nextTag();
+        reader.require(XMLStreamConstants.END_ELEMENT, null, "value");
+    }
+
+    /**
+     * Skips the current element including all of its children, ending at its end tag.
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static Optional<InwxNameServerRecord> toRecord(XmlRpcValue.Struct members) {
+        final int recordId = ResultUtility.toNumber(members, "id").intValue();
+        if (recordId == 0) {
+            return Optional.empty();
+        }
+
+        final String typeStr = ResultUtility.toText(members, "type").trim();
+        final DnsRecordType dnsRecordType = DnsRecordType.valueOf(typeStr.toUpperCase(Locale.ROOT));
+
+        return Optional.of(new InwxNameServerRecord(
+                new InwxRecordId(recordId),
+                ResultUtility.toText(members, "name"),
+                dnsRecordType,
+                ResultUtility.toText(members, "content"),
+                Duration.ofSeconds(ResultUtility.toNumber(members, "ttl").intValue()),
+                ResultUtility.toNumber(members, "prio").intValue()));
+    }
+
+    @FunctionalInterface
+    private interface MemberReader {
+        void read(String name, XMLStreamReader reader) throws XMLStreamException;
+    }
+}
@@ -15,121 +15,232 @@
  */
 package de.bmarwell.jdyninwx.xml;
 
-import static de.bmarwell.jdyninwx.xml.NodeUtility.iterable;
-
-import de.bmarwell.jdyninwx.common.value.DnsRecordType;
 import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
-import de.bmarwell.jdyninwx.common.value.InwxRecordId;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.time.Duration;
+import de.bmarwell.jdyninwx.xmlrpc.MethodResponse;
+import de.bmarwell.jdyninwx.xmlrpc.XmlRpcCodecException;
+import de.bmarwell.jdyninwx.xmlrpc.XmlRpcDecoder;
+import de.bmarwell.jdyninwx.xmlrpc.XmlRpcValue;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 public class ResultUtility {
 
-    static final String XP_RETURN_CODE = "/methodResponse/params/param/value/struct/member[name='code']/value/int";
-    static final String XP_MESSAGE = "/methodResponse/params/param/value/struct/member[name='msg']/value/string";
-    static final String XP_RUNTIME = "/methodResponse/params/param/value/struct/member[name='runtime']/value/double";
-    static final String XP_MEMBER_RECORD = "/methodResponse/params/param/value/struct/member[name='resData']/value"
-            + "/struct/member[name='record']/value/array/data/*";
-    static final String XP_RECORD_ID = "struct/member[name='id']/value/int";
-    static final String XP_RECORD_NAME = "struct/member[name='name']/value/string";
-    static final String XP_RECORD_CONTENT = "struct/member[name='content']/value/string";
-    static final String XP_RECORD_TYPE = "struct/member[name='type']/value/string";
-    static final String XP_RECORD_TTL = "struct/member[name='ttl']/value/int";
-    static final String XP_RECORD_PRIO = "struct/member[name='prio']/value/int";
-
     public XmlRpcResult<List<InwxNameServerRecord>> parseNameServerInfoResponse(String xmlResponse) {
-        try (var is = new ByteArrayInputStream(xmlResponse.getBytes(StandardCharsets.UTF_8))) {
-            DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-            builderFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-            DocumentBuilder builder = builderFactory.newDocumentBuilder();
-            Document xmlDocument = builder.parse(is);
-            XPath xPath = XPathFactory.newInstance().newXPath();
-
-            var returnCode = (Number) xPath.compile(XP_RETURN_CODE).evaluate(xmlDocument, XPathConstants.NUMBER);
-            var message = (String) xPath.compile(XP_MESSAGE).evaluate(xmlDocument, XPathConstants.STRING);
-            var runtime = (Number) xPath.compile(XP_RUNTIME).evaluate(xmlDocument, XPathConstants.NUMBER);
-            var records = (NodeList) xPath.compile(XP_MEMBER_RECORD).evaluate(xmlDocument, XPathConstants.NODESET);
-
-            List<InwxNameServerRecord> resultRecords = new ArrayList<>();
-
-            for (Node node : iterable(records)) {
-                var resultRecord = parseNodeToRecord(node);
-                resultRecord.ifPresent(resultRecords::add);
-            }
+        final List<InwxNameServerRecord> records = new ArrayList<>();
+        final XmlRpcResult<Void> result = parseNameServerInfoResponse(xmlResponse, records::add);
+
+        return withRecords(result, records);
+    }
+
+    /**
+     * Parses a buffered {@code nameserver.info} response, passing each record to the consumer.
+     *
+     * @param xmlResponse the raw response.
+     * @param recordConsumer receives the records in the order of the response.
+     * @return the result code of the response, or the reason why the response could not be read.
+     */
+    public XmlRpcResult<Void> parseNameServerInfoResponse(
+            String xmlResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+        return NameServerInfoReader.read(new StringReader(xmlResponse), recordConsumer);
+    }
 
-            return XmlRpcResult.ok(new XmlRpcResponse(returnCode, message, runtime), List.copyOf(resultRecords));
-        } catch (IOException
-                | SAXException
-                | ParserConfigurationException
-                | XPathExpressionException javaIoIOException) {
-            return XmlRpcResult.fail(javaIoIOException);
+    /**
+     * Parses a page of a {@code nameserver.info} response, passing each record to the consumer.
+     *
+     * <p>Entries which are not records, e.g. with the id {@code 0}, are not passed on, but still counted, so the
+     * caller can tell a full page from the last one.</p>
+     *
+     * @param xmlResponse the raw response.
+     * @param recordConsumer receives the records in the order of the response.
+     * @return the result code and the number of entries of the page, or the reason why the page could not be read.
+     */
+    public XmlRpcResult<Integer> parseNameServerInfoPage(
+            String xmlResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+        return NameServerInfoReader.readPage(new StringReader(xmlResponse), recordConsumer);
+    }
+
+    /**
+     * Parses a {@code nameserver.info} response while it is being read.
+     *
+     * @param xmlResponse the raw response, e.g. the content of the HTTP response. It is not closed.
+     * @return the result code of the response and all records.
+     */
+    public XmlRpcResult<List<InwxNameServerRecord>> parseNameServerInfoResponse(InputStream xmlResponse) {
+        final List<InwxNameServerRecord> records = new ArrayList<>();
+        final XmlRpcResult<Void> result = parseNameServerInfoResponse(xmlResponse, records::add);
+
+        return withRecords(result, records);
+    }
+
+    /**
+     * Parses a {@code nameserver.info} response while it is being read, without keeping the records.
+     *
+     * <p>Each record is passed to the consumer as soon as it has been read, so memory usage does not depend on the
+     * size of the zone. If INWX responds with a fault, the fault is returned without reading any further and the
+     * consumer is never called.</p>
+     *
+     * @param xmlResponse the raw response, e.g. the content of the HTTP response. It is not closed.
+     * @param recordConsumer receives the records in the order of the response.
+     * @return the result code of the response, or the reason why the response could not be read. Records read
+     *     before an error was encountered have already been passed to the consumer.
+     */
+    public XmlRpcResult<Void> parseNameServerInfoResponse(
+            InputStream xmlResponse, Consumer<InwxNameServerRecord> recordConsumer) {
+        return NameServerInfoReader.read(xmlResponse, recordConsumer);
+    }
+
+    private static XmlRpcResult<List<InwxNameServerRecord>> withRecords(
+            XmlRpcResult<Void> result, List<InwxNameServerRecord> records) {
+        if (result.isError()) {
+            return XmlRpcResult.fail(result.error());
         }
+
+        return XmlRpcResult.ok(result.response(), List.copyOf(records));
     }
 
-    private Optional<InwxNameServerRecord> parseNodeToRecord(Node node) {
-        XPath xPath = XPathFactory.newInstance().newXPath();
+    /**
+     * Splits the response of a {@code system.multicall} request into the results of the single calls.
+     *
+     * <p>Each entry is either the result of the call wrapped in a one-element array, or a fault struct.
+     * Faults are returned as a response with the fault code and message, just like INWX error codes.
+     * If the whole request failed, each call gets the same result.</p>
+     *
+     * @param xmlResponse the raw multicall response.
+     * @param callCount the number of calls in the request.
+     * @return exactly {@code callCount} results, in the order of the calls.
+     */
+    public List<XmlRpcResult<Void>> parseMulticallResponse(String xmlResponse, int callCount) {
+        final MethodResponse methodResponse;
         try {
-            int recordId = (int) (double) xPath.compile(XP_RECORD_ID).evaluate(node, XPathConstants.NUMBER);
-            if (recordId == 0) {
-                return Optional.empty();
+            methodResponse = XmlRpcDecoder.readMethodResponse(new StringReader(xmlResponse));
+        } catch (XmlRpcCodecException codecException) {
+            return Collections.nCopies(callCount, XmlRpcResult.fail(codecException));
+        }
+
+        if (methodResponse.fault()) {
+            return Collections.nCopies(callCount, XmlRpcResult.ok(toResponse(methodResponse.value()), null));
+        }
+
+        if (!(methodResponse.value() instanceof XmlRpcValue.Array entries)) {
+            return Collections.nCopies(
+                    callCount,
+                    XmlRpcResult.fail(new IllegalArgumentException(
+                            "Multicall response is not an array: " + methodResponse.value())));
+        }
+
+        List<XmlRpcResult<Void>> results = new ArrayList<>(callCount);
+        for (XmlRpcValue entry : entries.values()) {
+            XmlRpcValue result;
+            if (entry instanceof XmlRpcValue.Array wrapped && wrapped.values().size() == 1) {
+                result = wrapped.values().get(0);
+            } else {
+                result = entry;
+            }
+            if (!(result instanceof XmlRpcValue.Struct)) {
+                results.add(
+                        XmlRpcResult.fail(new IllegalArgumentException("Multicall entry without result: " + entry)));
+                continue;
             }
-            String recordName = (String) xPath.compile(XP_RECORD_NAME).evaluate(node, XPathConstants.STRING);
-            String typeStr = (String) xPath.compile(XP_RECORD_TYPE).evaluate(node, XPathConstants.STRING);
-            String recordContents = (String) xPath.compile(XP_RECORD_CONTENT).evaluate(node, XPathConstants.STRING);
-            int recordTtlSeconds = (int) (double) xPath.compile(XP_RECORD_TTL).evaluate(node, XPathConstants.NUMBER);
-            int recordPrio = (int) (double) xPath.compile(XP_RECORD_PRIO).evaluate(node, XPathConstants.NUMBER);
-            DnsRecordType dnsRecordType = DnsRecordType.valueOf(typeStr.toUpperCase(Locale.ROOT));
-
-            return Optional.of(new InwxNameServerRecord(
-                    new InwxRecordId(recordId),
-                    recordName,
-                    dnsRecordType,
-                    recordContents,
-                    Duration.ofSeconds(recordTtlSeconds),
-                    recordPrio));
-        } catch (XPathExpressionException e) {
-            throw new IllegalArgumentException(e);
+
+            results.add(XmlRpcResult.ok(toResponse(result), null));
+        }
+
+        while (results.size() < callCount) {
+            results.add(XmlRpcResult.fail(new IllegalArgumentException(
+                    "Multicall response contains only " + entries.values().size() + " of " + callCount + " results.")));
         }
+
+        return List.copyOf(results.subList(0, callCount));
     }
 
     public XmlRpcResult<Void> parseUpdateResponse(String xmlResponse) {
-        try (var is = new ByteArrayInputStream(xmlResponse.getBytes(StandardCharsets.UTF_8))) {
-            DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-            builderFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-            DocumentBuilder builder = builderFactory.newDocumentBuilder();
-            Document xmlDocument = builder.parse(is);
-            XPath xPath = XPathFactory.newInstance().newXPath();
-
-            var returnCode = (Number) xPath.compile(XP_RETURN_CODE).evaluate(xmlDocument, XPathConstants.NUMBER);
-            var message = (String) xPath.compile(XP_MESSAGE).evaluate(xmlDocument, XPathConstants.STRING);
-            var runtime = (Number) xPath.compile(XP_RUNTIME).evaluate(xmlDocument, XPathConstants.NUMBER);
-
-            return XmlRpcResult.ok(new XmlRpcResponse(returnCode, message, runtime), null);
-        } catch (IOException
-                | SAXException
-                | ParserConfigurationException
-                | XPathExpressionException javaIoIOException) {
-            return XmlRpcResult.fail(javaIoIOException);
+        try {
+            final MethodResponse methodResponse = XmlRpcDecoder.readMethodResponse(new StringReader(xmlResponse));
+
+            return XmlRpcResult.ok(toResponse(methodResponse.value()), null);
+        } catch (XmlRpcCodecException codecException) {
+            return XmlRpcResult.fail(codecException);
+        }
+    }
+
+    /**
+     * Reads the INWX status of a call, or the code and message of a fault.
+     *
+     * @param value the result struct of a call, or a fault struct.
+     * @return the status, with {@code NaN} for missing numbers and an empty message if there is none.
+     */
+    static XmlRpcResponse toResponse(XmlRpcValue value) {
+        if (!(value instanceof XmlRpcValue.Struct struct)) {
+            return new XmlRpcResponse(Double.NaN, "", Double.NaN);
+        }
+        Double code;
+
+        if (struct.members().containsKey("faultCode")) {
+            code = toNumber(struct, "faultCode");
+        } else {
+            code = toNumber(struct, "code");
+        }
+        String message;
+        if (struct.members().containsKey("faultString")) {
+            message = toText(struct, "faultString");
+        } else {
+            message = toText(struct, "msg");
+        }
+
+        return new XmlRpcResponse(code, message, toNumber(struct, "runtime"));
+    }
+
+    /**
+     * Reads a number like XPath's {@code number()}, i.e. missing or malformed numbers are {@code NaN}.
+     */
+    static Double toNumber(XmlRpcValue.Struct struct, String member) {
+        final XmlRpcValue value = struct.members().get(member);
+        if (value instanceof XmlRpcValue.IntValue intValue) {
+            return (double) intValue.value();
         }
+        if (value instanceof XmlRpcValue.DoubleValue doubleValue) {
+            return doubleValue.value();
+        }
+        if (value instanceof XmlRpcValue.StringValue stringValue) {
+            try {
+                return Double.valueOf(stringValue.value().trim());
+            } catch (NumberFormatException nfe) {
+                return Double.NaN;
+            }
+        }
+
+        return Double.NaN;
+    }
+
+    /**
+     * Reads the text of a scalar member, or an empty string if it is missing.
+     */
+    static String toText(XmlRpcValue.Struct struct, String member) {
+        final XmlRpcValue value = struct.members().get(member);
+        if (value instanceof XmlRpcValue.StringValue stringValue) {
+            return stringValue.value();
+        }
+        if (value instanceof XmlRpcValue.IntValue intValue) {
+            return Long.toString(intValue.value(), 10);
+        }
+        if (value instanceof XmlRpcValue.DoubleValue doubleValue) {
+            return Double.toString(doubleValue.value());
+        }
+        if (value instanceof XmlRpcValue.BooleanValue booleanValue) {
+            if (booleanValue.value()) {
+                return "1";
+            } else {
+                return "0";
+            }
+        }
+
+        return "";
     }
 
     public record XmlRpcResponse(Number code, String message, Number runtime) {}
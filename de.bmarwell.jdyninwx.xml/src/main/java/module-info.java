@@ -1,5 +1,6 @@
 module jdyninwx.xml {
     requires java.xml;
+    requires jdyninwx.xmlrpc;
     requires de.bmarwell.jdyninwx.common.value;
 
     exports de.bmarwell.jdyninwx.xml;
@@ -17,10 +17,39 @@ package de.bmarwell.jdyninwx.xml;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import de.bmarwell.jdyninwx.common.value.DnsRecordType;
+import de.bmarwell.jdyninwx.common.value.InwxNameServerRecord;
+import de.bmarwell.jdyninwx.common.value.InwxRecordId;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 
 class ResultUtilityTest {
 
+    private static final String RECORDS = """
+            <value><struct>
+              <member><name>id</name><value><int>1</int></value></member>
+              <member><name>name</name><value><string>example.com</string></value></member>
+              <member><name>type</name><value><string>A</string></value></member>
+              <member><name>content</name><value><string>192.0.2.1</string></value></member>
+              <member><name>ttl</name><value><int>300</int></value></member>
+              <member><name>prio</name><value><int>0</int></value></member>
+              <member><name>urlAppend</name><value><boolean>0</boolean></value></member>
+            </struct></value>
+            <value><struct>
+              <member><name>id</name><value><int>2</int></value></member>
+              <member><name>name</name><value><string>example.com</string></value></member>
+              <member><name>type</name><value><string>MX</string></value></member>
+              <member><name>content</name><value><string>mail.example.com</string></value></member>
+              <member><name>ttl</name><value><int>3600</int></value></member>
+              <member><name>prio</name><value><int>10</int></value></member>
+            </struct></value>
+            """;
+
     @Test
     void canParseSuccessfulResponse() {
         // given
@@ -76,4 +105,233 @@ class ResultUtilityTest {
                         ResultUtility.XmlRpcResponse::runtime)
                 .contains(1_000.0, "Command completed successfully", 1.224_550);
     }
+
+    @Test
+    void canSplitMulticallResponse() {
+        // given
+        final ResultUtility resultUtility = new ResultUtility();
+        var xmlResult = """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <methodResponse>
+                   <params>
+                      <param>
+                         <value>
+                            <array>
+                               <data>
+                                  <value>
+                                     <array>
+                                        <data>
+                                           <value>
+                                              <struct>
+                                                 <member>
+                                                    <name>code</name>
+                                                    <value><int>1000</int></value>
+                                                 </member>
+                                                 <member>
+                                                    <name>msg</name>
+                                                    <value><string>Command completed successfully</string></value>
+                                                 </member>
+                                              </struct>
+                                           </value>
+                                        </data>
+                                     </array>
+                                  </value>
+                                  <value>
+                                     <struct>
+                                        <member>
+                                           <name>faultCode</name>
+                                           <value><int>2303</int></value>
+                                        </member>
+                                        <member>
+                                           <name>faultString</name>
+                                           <value><string>Object does not exist</string></value>
+                                        </member>
+                                     </struct>
+                                  </value>
+                               </data>
+                            </array>
+                         </value>
+                      </param>
+                   </params>
+                </methodResponse>
+                """;
+
+        // when
+        final var results = resultUtility.parseMulticallResponse(xmlResult, 3);
+
+        // then
+        assertThat(results).hasSize(3);
+        assertThat(results.get(0).response())
+                .extracting(ResultUtility.XmlRpcResponse::code, ResultUtility.XmlRpcResponse::message)
+                .containsExactly(1_000.0, "Command completed successfully");
+        assertThat(results.get(1).response())
+                .extracting(ResultUtility.XmlRpcResponse::code, ResultUtility.XmlRpcResponse::message)
+                .containsExactly(2_303.0, "Object does not exist");
+        assertThat(results.get(2)).matches(ResultUtility.XmlRpcResult::isError);
+    }
+
+    @Test
+    void multicallFaultAppliesToAllCalls() {
+        // given
+        final ResultUtility resultUtility = new ResultUtility();
+        var xmlResult = """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <methodResponse>
+                   <fault>
+                      <value>
+                         <struct>
+                            <member>
+                               <name>faultCode</name>
+                               <value><int>2200</int></value>
+                            </member>
+                            <member>
+                               <name>faultString</name>
+                               <value><string>Authentication error</string></value>
+                            </member>
+                         </struct>
+                      </value>
+                   </fault>
+                </methodResponse>
+                """;
+
+        // when
+        final var results = resultUtility.parseMulticallResponse(xmlResult, 2);
+
+        // then
+        assertThat(results)
+                .hasSize(2)
+                .allMatch(ResultUtility.XmlRpcResult::isSuccess)
+                .allMatch(result -> result.response().code().intValue() == 2_200);
+    }
+
+    @Test
+    void canParseNameServerInfoResponse() {
+        // given
+        final ResultUtility resultUtility = new ResultUtility();
+
+        // when
+        final var xmlRpcResult = resultUtility.parseNameServerInfoResponse(nameServerInfoResponse(RECORDS));
+
+        // then
+        assertThat(xmlRpcResult)
+                .matches(ResultUtility.XmlRpcResult::isSuccess)
+                .extracting(ResultUtility.XmlRpcResult::response)
+                .extracting(
+                        ResultUtility.XmlRpcResponse::code,
+                        ResultUtility.XmlRpcResponse::message,
+                        ResultUtility.XmlRpcResponse::runtime)
+                .containsExactly(1_000.0, "Command completed successfully", 0.035_1);
+        assertThat(xmlRpcResult.data())
+                .containsExactly(
+                        new InwxNameServerRecord(
+                                new InwxRecordId(1L),
+                                "example.com",
+                                DnsRecordType.A,
+                                "192.0.2.1",
+                                Duration.ofSeconds(300L),
+                                0),
+                        new InwxNameServerRecord(
+                                new InwxRecordId(2L),
+                                "example.com",
+                                DnsRecordType.MX,
+                                "mail.example.com",
+                                Duration.ofSeconds(3600L),
+                                10));
+    }
+
+    @Test
+    void nameServerInfoFaultIsReturnedWithoutReadingFurther() {
+        // given
+        final ResultUtility resultUtility = new ResultUtility();
+        final List<InwxNameServerRecord> records = new ArrayList<>();
+        var xmlResult = """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <methodResponse>
+                   <fault>
+                      <value>
+                         <struct>
+                            <member>
+                               <name>faultCode</name>
+                               <value><int>2200</int></value>
+                            </member>
+                            <member>
+                               <name>faultString</name>
+                               <value><string>Authentication error</string></value>
+                            </member>
+                         </struct>
+                      </value>
+                   </fault>
+                   <this is not well-formed
+                """;
+
+        // when
+        final var xmlRpcResult = resultUtility.parseNameServerInfoResponse(toStream(xmlResult), records::add);
+
+        // then
+        assertThat(xmlRpcResult)
+                .matches(ResultUtility.XmlRpcResult::isSuccess)
+                .extracting(ResultUtility.XmlRpcResult::response)
+                .extracting(ResultUtility.XmlRpcResponse::code, ResultUtility.XmlRpcResponse::message)
+                .containsExactly(2_200.0, "Authentication error");
+        assertThat(records).isEmpty();
+    }
+
+    @Test
+    void nameServerRecordsAreEmittedWhileReading() {
+        // given
+        final ResultUtility resultUtility = new ResultUtility();
+        final List<InwxNameServerRecord> records = new ArrayList<>();
+        final String completeResponse = nameServerInfoResponse(RECORDS);
+        // cut off the response in the middle of the second record.
+        final String truncatedResponse = completeResponse.substring(0, completeResponse.indexOf("mail.example.com"));
+
+        // when
+        final var xmlRpcResult = resultUtility.parseNameServerInfoResponse(toStream(truncatedResponse), records::add);
+
+        // then
+        assertThat(xmlRpcResult).matches(ResultUtility.XmlRpcResult::isError);
+        assertThat(records).extracting(InwxNameServerRecord::recordId).containsExactly(new InwxRecordId(1L));
+    }
+
+    @Test
+    void nameServerInfoPageCountsSkippedEntries() {
+        // given
+        final ResultUtility resultUtility = new ResultUtility();
+        final List<InwxNameServerRecord> records = new ArrayList<>();
+        final String skippedEntry = RECORDS.substring(
+                        0, RECORDS.indexOf("</struct></value>") + "</struct></value>".length())
+                .replace("<int>1</int>", "<int>0</int>");
+
+        // when
+        final var xmlRpcResult =
+                resultUtility.parseNameServerInfoPage(nameServerInfoResponse(skippedEntry + RECORDS), records::add);
+
+        // then
+        assertThat(xmlRpcResult.data()).isEqualTo(3);
+        assertThat(records)
+                .extracting(InwxNameServerRecord::recordId)
+                .containsExactly(new InwxRecordId(1L), new InwxRecordId(2L));
+    }
+
+    private static String nameServerInfoResponse(String records) {
+        return """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <methodResponse><params><param><value><struct>
+                  <member><name>code</name><value><int>1000</int></value></member>
+                  <member><name>msg</name><value><string>Command completed successfully</string></value></member>
+                  <member><name>resData</name><value><struct>
+                    <member><name>roId</name><value><int>42</int></value></member>
+                    <member><name>domain</name><value><string>example.com</string></value></member>
+                    <member><name>record</name><value><array><data>
+                    %s
+                    </data></array></value></member>
+                  </struct></value></member>
+                  <member><name>runtime</name><value><double>0.0351</double></value></member>
+                </struct></value></param></params></methodResponse>
+                """.formatted(records);
+    }
+
+    private static InputStream toStream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
 }
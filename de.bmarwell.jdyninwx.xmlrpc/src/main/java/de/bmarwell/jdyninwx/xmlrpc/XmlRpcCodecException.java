@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.xmlrpc;
+
+import java.io.IOException;
+import java.io.Serial;
+
+/**
+ * Thrown if a document is not a valid XML-RPC message.
+ */
+public class XmlRpcCodecException extends IOException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public XmlRpcCodecException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.xmlrpc;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads {@link XmlRpcValue}s in a single pass using StAX.
+ *
+ * <p>DTDs and external entities are not supported, so responses cannot reference local files.</p>
+ */
+public final class XmlRpcDecoder {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    private XmlRpcDecoder() {}
+
+    /**
+     * Decodes a complete {@code methodResponse} document.
+     *
+     * @param xmlResponse the response. It is not closed.
+     * @return the single parameter of the response, or the fault.
+     * @throws XmlRpcCodecException if the document is not a valid XML-RPC response.
+     */
+    public static MethodResponse readMethodResponse(InputStream xmlResponse) throws XmlRpcCodecException {
+        try {
+            return readMethodResponse(createStreamReader(xmlResponse));
+        } catch (XMLStreamException xmlStreamException) {
+            throw new XmlRpcCodecException("Unable to read XML-RPC response.", xmlStreamException);
+        }
+    }
+
+    /**
+     * Decodes a complete {@code methodResponse} document.
+     *
+     * @param xmlResponse the response. It is not closed.
+     * @return the single parameter of the response, or the fault.
+     * @throws XmlRpcCodecException if the document is not a valid XML-RPC response.
+     */
+    public static MethodResponse readMethodResponse(Reader xmlResponse) throws XmlRpcCodecException {
+        try {
+            return readMethodResponse(createStreamReader(xmlResponse));
+        } catch (XMLStreamException xmlStreamException) {
+            throw new XmlRpcCodecException("Unable to read XML-RPC response.", xmlStreamException);
+        }
+    }
+
+    /**
+     * Creates a stream reader with the same settings as the decoder, for callers reading parts of a document
+     * themselves.
+     *
+     * @param xmlDocument the document to read. It is not closed.
+     * @return a new stream reader.
+     * @throws XMLStreamException if the document cannot be read.
+     */
+    public static XMLStreamReader createStreamReader(InputStream xmlDocument) throws XMLStreamException {
+        return XML_INPUT_FACTORY.createXMLStreamReader(xmlDocument);
+    }
+
+    /**
+     * Creates a stream reader with the same settings as the decoder, for callers reading parts of a document
+     * themselves.
+     *
+     * @param xmlDocument the document to read. It is not closed.
+     * @return a new stream reader.
+     * @throws XMLStreamException if the document cannot be read.
+     */
+    public static XMLStreamReader createStreamReader(Reader xmlDocument) throws XMLStreamException {
+        return XML_INPUT_FACTORY.createXMLStreamReader(xmlDocument);
+    }
+
+    private static MethodResponse readMethodResponse(XMLStreamReader reader) throws XMLStreamException {
+        try {
+            reader.nextTag();
+            reader.require(XMLStreamConstants.START_ELEMENT, null, "methodResponse");
+            reader.nextTag();
+
+            if ("fault".equals(reader.getLocalName())) {
+                reader.nextTag();
+                return new MethodResponse(readValue(reader), true);
+            }
+
+            reader.require(XMLStreamConstants.START_ELEMENT, null, "params");
+            reader.nextTag();
+            reader.require(XMLStreamConstants.START_ELEMENT, null, "param");
+            reader.nextTag();
+
+            return new MethodResponse(readValue(reader), false);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads a value including all nested values.
+     *
+     * @param reader a reader positioned at a {@code <value>} start tag. It is left at the matching end tag.
+     * @return the decoded value. Values without a type are strings.
+     * @throws XMLStreamException if the value is not valid XML-RPC.
+     */
+    public static XmlRpcValue readValue(XMLStreamReader reader) throws XMLStreamException {
+        reader.require(XMLStreamConstants.START_ELEMENT, null, "value");
+
+        final StringBuilder untyped = new StringBuilder();
+        XmlRpcValue typed = null;
+
+        int event = reader.next();
+        while (event != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                typed = readTypedValue(reader);
+            } else if (event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                untyped.append(reader.getText());
+            }
+
+            event = reader.next();
+        }
+
+        if (typed != null) {
+            return typed;
+        } else {
+            return new XmlRpcValue.StringValue(untyped.toString());
+        }
+    }
+
+    private static XmlRpcValue readTypedValue(XMLStreamReader reader) throws XMLStreamException {
+        final String type = reader.getLocalName();
+
+        return switch (type) {
+            case "struct" -> readStruct(reader);
+            case "array" -> readArray(reader);
+            case "string" -> new XmlRpcValue.StringValue(reader.getElementText());
+            case "int", "i4", "i8" -> new XmlRpcValue.IntValue(parseLong(reader, reader.getElementText()));
+            case "boolean" -> readBoolean(reader, reader.getElementText());
+            case "double" -> new XmlRpcValue.DoubleValue(parseDouble(reader, reader.getElementText()));
+            case "dateTime.iso8601" -> new XmlRpcValue.DateTimeValue(parseDateTime(reader, reader.getElementText()));
+            case "base64" -> new XmlRpcValue.Base64Value(parseBase64(reader, reader.getElementText()));
+            default -> throw new XMLStreamException("Unsupported XML-RPC type <" + type + ">.", reader.getLocation());
+        };
+    }
+
+    private static XmlRpcValue.Struct readStruct(XMLStreamReader reader) throws XMLStreamException {
+        final Map<String, XmlRpcValue> members = new LinkedHashMap<>();
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            reader.require(XMLStreamConstants.START_ELEMENT, null, "member");
+            reader.nextTag();
+            reader.require(XMLStreamConstants.START_ELEMENT, null, "name");
+            final String name = reader.getElementText().trim();
+            reader.nextTag();
+            members.put(name, readValue(reader));
+            reader.nextTag();
+            reader.require(XMLStreamConstants.END_ELEMENT, null, "member");
+        }
+
+        return new XmlRpcValue.Struct(members);
+    }
+
+    private static XmlRpcValue.Array readArray(XMLStreamReader reader) throws XMLStreamException {
+        final List<XmlRpcValue> values = new ArrayList<>();
+        reader.nextTag();
+        reader.require(XMLStreamConstants.START_ELEMENT, null, "data");
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            values.add(readValue(reader));
+        }
+
+        reader.nextTag();
+        reader.require(XMLStreamConstants.END_ELEMENT, null, "array");
+
+        return new XmlRpcValue.Array(values);
+    }
+
+    private static long parseLong(XMLStreamReader reader, String text) throws XMLStreamException {
+        try {
+            return Long.parseLong(text.trim(), 10);
+        } catch (NumberFormatException nfe) {
+            throw new XMLStreamException("Invalid int: [" + text + "].", reader.getLocation(), nfe);
+        }
+    }
+
+    private static XmlRpcValue readBoolean(XMLStreamReader reader, String text) throws XMLStreamException {
+        return switch (text.trim()) {
+            case "1" -> new XmlRpcValue.BooleanValue(true);
+            case "0" -> new XmlRpcValue.BooleanValue(false);
+            default -> throw new XMLStreamException("Invalid boolean: [" + text + "].", reader.getLocation());
+        };
+    }
+
+    private static double parseDouble(XMLStreamReader reader, String text) throws XMLStreamException {
+        try {
+            return Double.parseDouble(text.trim());
+        } catch (NumberFormatException nfe) {
+            throw new XMLStreamException("Invalid double: [" + text + "].", reader.getLocation(), nfe);
+        }
+    }
+
+    /**
+     * Accepts the format of the specification as well as ISO 8601 with dashes, which some servers send.
+     */
+    private static LocalDateTime parseDateTime(XMLStreamReader reader, String text) throws XMLStreamException {
+        final String trimmed = text.trim();
+        try {
+            return LocalDateTime.parse(trimmed, XmlRpcEncoder.DATE_TIME_FORMAT);
+        } catch (DateTimeParseException basicFormatException) {
+            try {
+                return LocalDateTime.parse(trimmed, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+            } catch (DateTimeParseException isoFormatException) {
+                throw new XMLStreamException(
+                        "Invalid dateTime.iso8601: [" + text + "].", reader.getLocation(), isoFormatException);
+            }
+        }
+    }
+
+    private static byte[] parseBase64(XMLStreamReader reader, String text) throws XMLStreamException {
+        try {
+            return Base64.getMimeDecoder().decode(text.trim());
+        } catch (IllegalArgumentException iae) {
+            throw new XMLStreamException("Invalid base64: [" + text + "].", reader.getLocation(), iae);
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+
+        return factory;
+    }
+}
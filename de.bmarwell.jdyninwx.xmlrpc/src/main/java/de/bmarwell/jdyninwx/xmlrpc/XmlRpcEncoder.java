@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.xmlrpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes {@link XmlRpcValue}s as UTF-8 in a single pass.
+ *
+ * <p>Markup is written from constant byte arrays and text is escaped while it is encoded, so no intermediate
+ * {@code String} of the document is created. The output is not indented.</p>
+ */
+public final class XmlRpcEncoder {
+
+    /**
+     * The {@code dateTime.iso8601} format of the XML-RPC specification.
+     */
+    static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HH:mm:ss", Locale.ROOT);
+
+    private static final byte[] XML_DECLARATION = ascii("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    private static final byte[] METHOD_CALL_START = ascii("<methodCall><methodName>");
+    private static final byte[] PARAMS_START = ascii("</methodName><params>");
+    private static final byte[] METHOD_CALL_END = ascii("</params></methodCall>");
+    private static final byte[] PARAM_START = ascii("<param>");
+    private static final byte[] PARAM_END = ascii("</param>");
+    private static final byte[] VALUE_START = ascii("<value>");
+    private static final byte[] VALUE_END = ascii("</value>");
+    private static final byte[] MEMBER_START = ascii("<member><name>");
+    private static final byte[] MEMBER_NAME_END = ascii("</name>");
+    private static final byte[] MEMBER_END = ascii("</member>");
+    private static final byte[] STRING_START = ascii("<string>");
+    private static final byte[] STRING_END = ascii("</string>");
+    private static final byte[] INT_START = ascii("<int>");
+    private static final byte[] INT_END = ascii("</int>");
+    private static final byte[] BOOLEAN_TRUE = ascii("<boolean>1</boolean>");
+    private static final byte[] BOOLEAN_FALSE = ascii("<boolean>0</boolean>");
+    private static final byte[] DOUBLE_START = ascii("<double>");
+    private static final byte[] DOUBLE_END = ascii("</double>");
+    private static final byte[] DATE_TIME_START = ascii("<dateTime.iso8601>");
+    private static final byte[] DATE_TIME_END = ascii("</dateTime.iso8601>");
+    private static final byte[] BASE64_START = ascii("<base64>");
+    private static final byte[] BASE64_END = ascii("</base64>");
+    private static final byte[] STRUCT_START = ascii("<struct>");
+    private static final byte[] STRUCT_END = ascii("</struct>");
+    private static final byte[] ARRAY_START = ascii("<array><data>");
+    private static final byte[] ARRAY_END = ascii("</data></array>");
+
+    private XmlRpcEncoder() {}
+
+    /**
+     * Writes a complete {@code methodCall} document.
+     *
+     * @param methodName the name of the method to call.
+     * @param params the parameters of the call.
+     * @param outputStream the stream to write to. It is neither flushed nor closed.
+     * @throws IOException if writing fails.
+     */
+    public static void writeMethodCall(String methodName, List<XmlRpcValue> params, OutputStream outputStream)
+            throws IOException {
+        outputStream.write(XML_DECLARATION);
+        outputStream.write(METHOD_CALL_START);
+        outputStream.write(encodeText(methodName));
+        outputStream.write(PARAMS_START);
+        for (XmlRpcValue param : params) {
+            outputStream.write(PARAM_START);
+            writeValue(param, outputStream);
+            outputStream.write(PARAM_END);
+        }
+        outputStream.write(METHOD_CALL_END);
+    }
+
+    /**
+     * Writes a single struct member, e.g. to add it to a templated struct.
+     *
+     * @param name the name of the member.
+     * @param value the value of the member.
+     * @param outputStream the stream to write to. It is neither flushed nor closed.
+     * @throws IOException if writing fails.
+     */
+    public static void writeMember(String name, XmlRpcValue value, OutputStream outputStream) throws IOException {
+        outputStream.write(MEMBER_START);
+        outputStream.write(encodeText(name));
+        outputStream.write(MEMBER_NAME_END);
+        writeValue(value, outputStream);
+        outputStream.write(MEMBER_END);
+    }
+
+    /**
+     * Writes a {@code <value>} element including all nested values.
+     *
+     * @param value the value to write.
+     * @param outputStream the stream to write to. It is neither flushed nor closed.
+     * @throws IOException if writing fails.
+     */
+    public static void writeValue(XmlRpcValue value, OutputStream outputStream) throws IOException {
+        outputStream.write(VALUE_START);
+
+        if (value instanceof XmlRpcValue.StringValue stringValue) {
+            outputStream.write(STRING_START);
+            outputStream.write(encodeText(stringValue.value()));
+            outputStream.write(STRING_END);
+        } else if (value instanceof XmlRpcValue.IntValue intValue) {
+            outputStream.write(INT_START);
+            outputStream.write(ascii(toInt(intValue.value())));
+            outputStream.write(INT_END);
+        } else if (value instanceof XmlRpcValue.BooleanValue booleanValue) {
+            outputStream.write(booleanValue.value() ? BOOLEAN_TRUE : BOOLEAN_FALSE);
+        } else if (value instanceof XmlRpcValue.DoubleValue doubleValue) {
+            outputStream.write(DOUBLE_START);
+            outputStream.write(ascii(toPlainString(doubleValue.value())));
+            outputStream.write(DOUBLE_END);
+        } else if (value instanceof XmlRpcValue.DateTimeValue dateTimeValue) {
+            outputStream.write(DATE_TIME_START);
+            outputStream.write(ascii(DATE_TIME_FORMAT.format(dateTimeValue.value())));
+            outputStream.write(DATE_TIME_END);
+        } else if (value instanceof XmlRpcValue.Base64Value base64Value) {
+            outputStream.write(BASE64_START);
+            outputStream.write(Base64.getEncoder().encode(base64Value.value()));
+            outputStream.write(BASE64_END);
+        } else if (value instanceof XmlRpcValue.Struct struct) {
+            outputStream.write(STRUCT_START);
+            for (Map.Entry<String, XmlRpcValue> member : struct.members().entrySet()) {
+                writeMember(member.getKey(), member.getValue(), outputStream);
+            }
+            outputStream.write(STRUCT_END);
+        } else if (value instanceof XmlRpcValue.Array array) {
+            outputStream.write(ARRAY_START);
+            for (XmlRpcValue element : array.values()) {
+                writeValue(element, outputStream);
+            }
+            outputStream.write(ARRAY_END);
+        }
+
+        outputStream.write(VALUE_END);
+    }
+
+    /**
+     * Encodes a single struct member, e.g. to keep it as a segment of a templated struct.
+     *
+     * @param name the name of the member.
+     * @param value the value of the member.
+     * @return the encoded member.
+     */
+    public static byte[] encodeMember(String name, XmlRpcValue value) {
+        final ByteArrayOutputStream member = new ByteArrayOutputStream();
+        try {
+            writeMember(name, value, member);
+        } catch (IOException ioException) {
+            // cannot happen when writing to memory.
+            throw new UncheckedIOException(ioException);
+        }
+
+        return member.toByteArray();
+    }
+
+    /**
+     * Escapes text for use in XML and encodes it as UTF-8.
+     *
+     * @param text the text to encode.
+     * @return the encoded text; plain ASCII is copied without an intermediate buffer.
+     */
+    public static byte[] encodeText(CharSequence text) {
+        final int length = text.length();
+        boolean plainAscii = true;
+        for (int index = 0; index < length && plainAscii; index++) {
+            final char character = text.charAt(index);
+            plainAscii = character < 0x80 && character != '&' && character != '<' && character != '>';
+        }
+
+        if (plainAscii) {
+            final byte[] ascii = new byte[length];
+            for (int index = 0; index < length; index++) {
+                ascii[index] = (byte) text.charAt(index);
+            }
+
+            return ascii;
+        }
+
+        final StringBuilder escaped = new StringBuilder(length + 16);
+        for (int index = 0; index < length; index++) {
+            final char character = text.charAt(index);
+            switch (character) {
+                case '&' -> escaped.append("&amp;");
+                case '<' -> escaped.append("&lt;");
+                case '>' -> escaped.append("&gt;");
+                default -> escaped.append(character);
+            }
+        }
+
+        final ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(escaped));
+        final byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+
+        return bytes;
+    }
+
+    /**
+     * XML-RPC doubles have no exponent and no special values.
+     */
+    private static String toPlainString(double value) {
+        if (!Double.isFinite(value)) {
+            throw new IllegalArgumentException("XML-RPC cannot represent the double " + value + ".");
+        }
+
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * XML-RPC integers have 32 bits, larger values would be rejected or truncated by the server.
+     */
+    private static String toInt(long value) {
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("XML-RPC cannot represent the integer " + value + " as int.");
+        }
+
+        return Long.toString(value, 10);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.xmlrpc;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A typed XML-RPC value.
+ *
+ * <p>Structs keep the order of their members, so encoding a decoded value yields the same document.</p>
+ */
+public sealed interface XmlRpcValue {
+
+    static XmlRpcValue of(String value) {
+        return new StringValue(value);
+    }
+
+    static XmlRpcValue of(long value) {
+        return new IntValue(value);
+    }
+
+    static XmlRpcValue of(boolean value) {
+        return new BooleanValue(value);
+    }
+
+    static XmlRpcValue of(double value) {
+        return new DoubleValue(value);
+    }
+
+    static XmlRpcValue of(LocalDateTime value) {
+        return new DateTimeValue(value);
+    }
+
+    static XmlRpcValue of(byte[] value) {
+        return new Base64Value(value);
+    }
+
+    record StringValue(String value) implements XmlRpcValue {
+        public StringValue {
+            Objects.requireNonNull(value, "value");
+        }
+    }
+
+    /**
+     * An {@code int}, {@code i4} or {@code i8}. Decoded values are not limited to 32 bits, but the
+     * {@link XmlRpcEncoder} only writes values which fit into an {@code int}.
+     */
+    record IntValue(long value) implements XmlRpcValue {}
+
+    record BooleanValue(boolean value) implements XmlRpcValue {}
+
+    record DoubleValue(double value) implements XmlRpcValue {}
+
+    record DateTimeValue(LocalDateTime value) implements XmlRpcValue {
+        public DateTimeValue {
+            Objects.requireNonNull(value, "value");
+        }
+    }
+
+    record Base64Value(byte[] value) implements XmlRpcValue {
+        public Base64Value {
+            value = value.clone();
+        }
+
+        @Override
+        public byte[] value() {
+            return this.value.clone();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Base64Value base64Value && Arrays.equals(this.value, base64Value.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return "Base64Value{" + this.value.length + " bytes}";
+        }
+    }
+
+    record Array(List<XmlRpcValue> values) implements XmlRpcValue {
+        public Array {
+            values = List.copyOf(values);
+        }
+    }
+
+    record Struct(Map<String, XmlRpcValue> members) implements XmlRpcValue {
+        public Struct {
+            members = Collections.unmodifiableMap(new LinkedHashMap<>(members));
+        }
+
+        public Optional<XmlRpcValue> get(String name) {
+            return Optional.ofNullable(this.members.get(name));
+        }
+    }
+}
@@ -0,0 +1,5 @@
+module jdyninwx.xmlrpc {
+    requires transitive java.xml;
+
+    exports de.bmarwell.jdyninwx.xmlrpc;
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2023.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.bmarwell.jdyninwx.xmlrpc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class XmlRpcCodecTest {
+
+    @Test
+    void encodedValuesAreDecodedUnchanged() throws Exception {
+        // given
+        final Map<String, XmlRpcValue> members = new LinkedHashMap<>();
+        members.put("string", XmlRpcValue.of("a <b> & ü"));
+        members.put("int", XmlRpcValue.of(4_711L));
+        members.put("boolean", XmlRpcValue.of(true));
+        members.put("double", XmlRpcValue.of(0.000_1));
+        members.put("dateTime", XmlRpcValue.of(LocalDateTime.of(2_023, 3, 15, 10, 22, 14)));
+        members.put("base64", XmlRpcValue.of(new byte[] {0, 1, 2, (byte) 0xff}));
+        members.put(
+                "array",
+                new XmlRpcValue.Array(
+                        List.of(XmlRpcValue.of(1L), new XmlRpcValue.Struct(Map.of("nested", XmlRpcValue.of(false))))));
+        final XmlRpcValue.Struct struct = new XmlRpcValue.Struct(members);
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+
+        // when
+        XmlRpcEncoder.writeMethodCall("test.echo", List.of(struct), encoded);
+        final String methodCall = encoded.toString(StandardCharsets.UTF_8);
+        final String methodResponse = methodCall
+                .replace("<methodCall><methodName>test.echo</methodName>", "<methodResponse>")
+                .replace("</methodCall>", "</methodResponse>");
+        final MethodResponse decoded = XmlRpcDecoder.readMethodResponse(
+                new ByteArrayInputStream(methodResponse.getBytes(StandardCharsets.UTF_8)));
+
+        // then
+        assertThat(methodCall)
+                .contains("<string>a &lt;b&gt; &amp; ü</string>")
+                .contains("<double>0.0001</double>")
+                .contains("<dateTime.iso8601>20230315T10:22:14</dateTime.iso8601>")
+                .contains("<base64>AAEC/w==</base64>");
+        assertThat(decoded.fault()).isFalse();
+        assertThat(decoded.value()).isEqualTo(struct);
+        assertThat(((XmlRpcValue.Struct) decoded.value()).members().keySet())
+                .containsExactlyElementsOf(members.keySet());
+    }
+
+    @Test
+    void untypedValuesAreStringsAndFaultsAreFlagged() throws Exception {
+        // given
+        var xmlResponse = """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <methodResponse>
+                   <fault>
+                      <value>
+                         <struct>
+                            <member><name>faultCode</name><value><i4>2200</i4></value></member>
+                            <member><name>faultString</name><value>Authentication error</value></member>
+                         </struct>
+                      </value>
+                   </fault>
+                </methodResponse>
+                """;
+
+        // when
+        final MethodResponse decoded = XmlRpcDecoder.readMethodResponse(new StringReader(xmlResponse));
+
+        // then
+        assertThat(decoded.fault()).isTrue();
+        assertThat(decoded.value())
+                .isEqualTo(new XmlRpcValue.Struct(Map.of(
+                        "faultCode", XmlRpcValue.of(2_200L),
+                        "faultString", XmlRpcValue.of("Authentication error"))));
+    }
+
+    @Test
+    void integersBeyondIntAreNotEncoded() {
+        // expect
+        assertThatThrownBy(() -> XmlRpcEncoder.encodeMember("id", XmlRpcValue.of(Integer.MAX_VALUE + 1L)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("2147483648");
+        assertThat(new String(
+                        XmlRpcEncoder.encodeMember("id", XmlRpcValue.of(Integer.MIN_VALUE)), StandardCharsets.UTF_8))
+                .isEqualTo("<member><name>id</name><value><int>-2147483648</int></value></member>");
+    }
+
+    @Test
+    void invalidValuesAreRejected() {
+        // given
+        var xmlResponse = """
+                <methodResponse><params><param>
+                  <value><boolean>yes</boolean></value>
+                </param></params></methodResponse>
+                """;
+
+        // expect
+        assertThatThrownBy(() -> XmlRpcDecoder.readMethodResponse(new StringReader(xmlResponse)))
+                .isInstanceOf(XmlRpcCodecException.class)
+                .rootCause()
+                .hasMessageContaining("Invalid boolean: [yes]");
+    }
+}